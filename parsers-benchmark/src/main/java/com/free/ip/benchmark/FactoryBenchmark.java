@@ -0,0 +1,57 @@
+package com.free.ip.benchmark;
+
+import com.free.ip.parser.IpParser;
+import com.free.ip.parser.ParserFactory;
+import com.free.ip.pojo.IpinfoEnum;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of finding the parsers: the discovery {@link com.free.ip.parser.ParserRegistry} performs
+ * once per JVM, and the factory calls made once it has.
+ *
+ * 解析器发现与工厂方法的开销。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class FactoryBenchmark {
+
+    private final List<IpinfoEnum> fields = Arrays.asList(IpinfoEnum.IP, IpinfoEnum.COUNTRY, IpinfoEnum.CITY, IpinfoEnum.ISP);
+
+    /**
+     * A fresh discovery, instantiating every parser listed on the classpath.
+     */
+    @Benchmark
+    public List<IpParser> discover() {
+        List<IpParser> parsers = new ArrayList<>();
+        for (IpParser parser : ServiceLoader.load(IpParser.class, FactoryBenchmark.class.getClassLoader())) {
+            parsers.add(parser);
+        }
+        return parsers;
+    }
+
+    @Benchmark
+    public List<IpParser> getAllParsers() {
+        return ParserFactory.getAllParsers();
+    }
+
+    @Benchmark
+    public List<IpParser> getConditionalParsers() {
+        return ParserFactory.getConditionalParsers(fields);
+    }
+
+    @Benchmark
+    public List<IpParser> getPlannedParsers() {
+        return ParserFactory.getPlannedParsers(fields);
+    }
+
+}
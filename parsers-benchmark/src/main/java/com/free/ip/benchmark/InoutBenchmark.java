@@ -0,0 +1,118 @@
+package com.free.ip.benchmark;
+
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.InoutUtil;
+import com.free.ip.utils.IpInfoStore;
+import com.free.ip.writer.ResultFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Throughput of reading IP files and writing result files of {@link #size} lines, a third
+ * of which repeat an earlier IP.
+ *
+ * 读取IP文件与写出结果文件的吞吐量。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class InoutBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    private Path dir;
+
+    private Path ipFile;
+
+    private List<IpInfo> results;
+
+    @State(Scope.Benchmark)
+    public static class Output {
+
+        @Param({"JSON", "CSV", "TSV", "BINARY"})
+        public ResultFormat format;
+
+        @Param({"all", "1;2;6"})
+        public String fields;
+
+        List<IpinfoEnum> projection() {
+            if ("all".equals(fields)) {
+                return Collections.emptyList();
+            }
+            IpinfoEnum[] projected = Stream.of(fields.split(";"))
+                    .map(s -> IpinfoEnum.values()[Integer.parseInt(s) - 1])
+                    .toArray(IpinfoEnum[]::new);
+            return Arrays.asList(projected);
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("inout-benchmark");
+        ipFile = dir.resolve("ips.txt");
+        IpInfoStore store = new IpInfoStore();
+        try (BufferedWriter bw = Files.newBufferedWriter(ipFile)) {
+            for (int i = 0; i < size; i++) {
+                // every third line repeats the line before
+                int n = i % 3 == 2 ? i - 1 : i;
+                String ip = (n >> 16 & 0xff) + 1 + "." + (n >> 8 & 0xff) + "." + (n & 0xff) + ".1";
+                bw.write(ip);
+                bw.newLine();
+                if (n == i) {
+                    IpInfo ipInfo = new IpInfo(ip, "China", "CN", "Guangdong", "GD", i % 2 == 0 ? "Shenzhen" : "Guangzhou",
+                            "Chinanet", 22.5431 + i * 1e-6, 114.0579 - i * 1e-6);
+                    ipInfo.setParserName("IpSbParser");
+                    ipInfo.setParseTimeTs(1700000000000L + i);
+                    store.add(ipInfo);
+                }
+            }
+        }
+        results = store;
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Benchmark
+    public List<String> readIpFile() {
+        return InoutUtil.readIpFile(ipFile.toString());
+    }
+
+    @Benchmark
+    public List<String> readUniqueIpFile() {
+        return InoutUtil.readUniqueIpFile(ipFile.toString());
+    }
+
+    @Benchmark
+    public boolean writeResultFile(Output output) {
+        return InoutUtil.writeResultFile(dir.resolve("result").toString(), results, output.format, output.projection());
+    }
+
+    @Benchmark
+    public boolean writeDedupResultFile(Output output) {
+        return InoutUtil.writeResultFile(dir.resolve("result").toString(), ipFile.toString(), results,
+                output.format, output.projection());
+    }
+
+}
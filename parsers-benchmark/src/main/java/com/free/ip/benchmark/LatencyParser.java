@@ -0,0 +1,84 @@
+package com.free.ip.benchmark;
+
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import org.json.JSONObject;
+
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offline parser answering every lookup after a fixed latency: blocking in
+ * {@link #fetchIpData(String)}, on a timer thread in {@link #getIpInfoAsync(String)}.
+ */
+public class LatencyParser implements IpParser {
+
+    private static final ScheduledExecutorService TIMER = Executors.newScheduledThreadPool(2, r -> {
+        Thread thread = new Thread(r, "latency-parser-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String name;
+
+    private final long latencyMicros;
+
+    public LatencyParser(String name, long latencyMicros) {
+        this.name = name;
+        this.latencyMicros = latencyMicros;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Set<IpinfoEnum> getSupportedFields() {
+        return EnumSet.allOf(IpinfoEnum.class);
+    }
+
+    @Override
+    public JSONObject fetchIpData(String ip) {
+        try {
+            TimeUnit.MICROSECONDS.sleep(latencyMicros);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return new JSONObject().put("ip", ip);
+    }
+
+    @Override
+    public IpInfo parseIpData(JSONObject json) {
+        return result(json.getString("ip"));
+    }
+
+    @Override
+    public CompletableFuture<IpInfo> getIpInfoAsync(String ip) {
+        if (latencyMicros == 0) {
+            return CompletableFuture.completedFuture(result(ip));
+        }
+        CompletableFuture<IpInfo> future = new CompletableFuture<>();
+        TIMER.schedule(() -> future.complete(result(ip)), latencyMicros, TimeUnit.MICROSECONDS);
+        return future;
+    }
+
+    private IpInfo result(String ip) {
+        IpInfo ipInfo = new IpInfo(ip, "China", "CN", "Guangdong", "GD", "Shenzhen", "Chinanet", 22.5431, 114.0579);
+        ipInfo.setParserName(name);
+        ipInfo.setParseTimeTs(System.currentTimeMillis());
+        return ipInfo;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
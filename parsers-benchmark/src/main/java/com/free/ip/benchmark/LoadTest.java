@@ -0,0 +1,131 @@
+package com.free.ip.benchmark;
+
+import com.free.ip.metrics.Metrics;
+import com.free.ip.metrics.ParserMetrics;
+import com.free.ip.parser.IpParser;
+import com.free.ip.parser.ParserRegistry;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.pojo.RateLimit;
+import com.free.ip.utils.AsyncExecutor;
+import com.free.ip.utils.Endpoints;
+import com.free.ip.utils.HttpUtil;
+import com.free.ip.utils.RateLimiters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives the async engine against a {@link MockProviderServer} and reports throughput and
+ * lookup latency percentiles, to size in-flight requests and rate limits without spending
+ * any provider's quota. Latencies run from submitting an IP to its result, retries and
+ * waiting for a rate limit included.
+ *
+ * 离线压测：使用模拟服务商运行异步执行器，输出吞吐量和延迟分位数。
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        Properties options = new Properties();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                System.err.println("Usage: LoadTest [--ips=N] [--in-flight=N] [--parsers=IpSbParser,...]");
+                System.err.println("                [--latency=ms] [--jitter=ms] [--error-rate=f] [--throttle-rate=f]");
+                System.err.println("                [--timeout-rate=f] [--read-timeout=ms] [--server-rate=<permits>/<s|m|h>[:burst]]");
+                System.err.println("                [--rate.<ParserName>=<permits>/<s|m|h>[:burst]|unlimited]");
+                System.exit(1);
+            }
+            int eq = arg.indexOf('=');
+            options.setProperty(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "true" : arg.substring(eq + 1));
+        }
+        int ips = Integer.parseInt(options.getProperty("ips", "10000"));
+        int inFlight = Integer.parseInt(options.getProperty("in-flight", "8"));
+        int readTimeout = Integer.parseInt(options.getProperty("read-timeout", "2000"));
+        List<String> providers = Arrays.asList(options.getProperty("parsers", String.join(",", MockProviderServer.PROVIDERS)).split(","));
+
+        HttpUtil.configure(HttpUtil.DEFAULT_CONNECT_TIMEOUT_MILLIS, readTimeout,
+                HttpUtil.DEFAULT_MAX_IDLE_CONNECTIONS, HttpUtil.DEFAULT_KEEP_ALIVE_SECONDS);
+        // every mock provider is the same host to the client
+        int maxRequests = Math.max(HttpUtil.DEFAULT_MAX_REQUESTS, inFlight * providers.size());
+        HttpUtil.configureDispatcher(maxRequests, maxRequests);
+        for (String key : options.stringPropertyNames()) {
+            if (key.startsWith("rate.")) {
+                RateLimiters.override(key.substring("rate.".length()), RateLimit.parse(options.getProperty(key)));
+            }
+        }
+
+        try (MockProviderServer server = new MockProviderServer(0)) {
+            server.setLatency(Long.parseLong(options.getProperty("latency", "50")), Long.parseLong(options.getProperty("jitter", "20")));
+            server.setErrorRate(Double.parseDouble(options.getProperty("error-rate", "0")));
+            server.setThrottleRate(Double.parseDouble(options.getProperty("throttle-rate", "0")));
+            server.setTimeoutRate(Double.parseDouble(options.getProperty("timeout-rate", "0")), readTimeout * 2L);
+            List<IpParser> parsers = new ArrayList<>();
+            for (IpParser parser : ParserRegistry.getParsers()) {
+                String name = parser.getName();
+                if (providers.contains(name)) {
+                    Endpoints.override(name, server.baseUrl(name));
+                    if (options.getProperty("server-rate") != null) {
+                        server.setRateLimit(name, RateLimit.parse(options.getProperty("server-rate")));
+                    }
+                    parser.setRequestedFields(Arrays.asList(IpinfoEnum.values()));
+                    parsers.add(parser);
+                }
+            }
+            run(server, parsers, ips, inFlight);
+        } finally {
+            for (String provider : MockProviderServer.PROVIDERS) {
+                Endpoints.override(provider, null);
+            }
+        }
+    }
+
+    private static void run(MockProviderServer server, List<IpParser> parsers, int ips, int inFlight) {
+        long[] latencies = new long[ips];
+        AtomicInteger succeeded = new AtomicInteger();
+        List<CompletableFuture<IpInfo>> lookups = new ArrayList<>(ips);
+        long start = System.nanoTime();
+        try (AsyncExecutor executor = new AsyncExecutor(parsers, inFlight)) {
+            for (int i = 0; i < ips; i++) {
+                int index = i;
+                long submitted = System.nanoTime();
+                String ip = "10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff);
+                lookups.add(executor.submit(ip).whenComplete((ipInfo, e) -> {
+                    latencies[index] = System.nanoTime() - submitted;
+                    if (ipInfo != null) {
+                        succeeded.incrementAndGet();
+                    }
+                }));
+            }
+            CompletableFuture.allOf(lookups.toArray(new CompletableFuture[0])).exceptionally(e -> null).join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        Arrays.sort(latencies);
+        List<String> names = new ArrayList<>();
+        parsers.forEach(parser -> names.add(parser.getName()));
+        System.out.println(String.format("%d lookups over %s, %d in flight per parser", ips, names, inFlight));
+        System.out.println(String.format("  %.1fs, %.1f lookups/s, %d succeeded", seconds, ips / seconds, succeeded.get()));
+        System.out.println(String.format("  latency ms: p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f",
+                percentile(latencies, 0.5), percentile(latencies, 0.9), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), latencies[latencies.length - 1] / 1e6));
+        System.out.println(String.format("  server: %d requests, %d errors, %d throttled, %d timed out",
+                server.requests.get(), server.errors.get(), server.throttled.get(), server.timeouts.get()));
+        for (ParserMetrics metrics : Metrics.getParsers().values()) {
+            System.out.println("  " + metrics);
+        }
+    }
+
+    /**
+     * @return the percentile of the sorted latencies, in milliseconds
+     */
+    private static double percentile(long[] sorted, double percentile) {
+        int index = Math.min(sorted.length - 1, Math.max(0, (int) Math.ceil(percentile * sorted.length) - 1));
+        return TimeUnit.NANOSECONDS.toMicros(sorted[index]) / 1e3;
+    }
+
+}
@@ -0,0 +1,240 @@
+package com.free.ip.benchmark;
+
+import com.free.ip.pojo.RateLimit;
+import com.free.ip.utils.TokenBucket;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local HTTP server standing in for the providers. Each one is served under its parser's
+ * name, e.g. http://127.0.0.1:port/IpSbParser/geoip/1.1.1.1, and answers its recorded
+ * response with the requested IP filled in; point a parser at it with
+ * {@link com.free.ip.utils.Endpoints#override(String, String)} and {@link #baseUrl(String)}.
+ * Latency, server errors, 429s, timeouts and a rate limit per provider can be tuned while
+ * it runs.
+ *
+ * 模拟服务商的本地HTTP服务：按解析器名称回放录制的响应，可调节延迟、错误率、429、超时和限速。
+ */
+public class MockProviderServer implements Closeable {
+
+    /**
+     * The parsers whose providers are served.
+     */
+    public static final List<String> PROVIDERS = Arrays.asList(
+            "IpSbParser", "Ip_ApiParser", "IpApiParser", "Ip2LocationParser", "RealipParser");
+
+    // the IP the fixtures were recorded for
+    private static final String FIXTURE_IP = "113.88.12.34";
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final Map<String, String> fixtures = new ConcurrentHashMap<>();
+
+    private final Map<String, TokenBucket> rateLimits = new ConcurrentHashMap<>();
+
+    private volatile long latencyMillis;
+
+    private volatile long jitterMillis;
+
+    private volatile double errorRate;
+
+    private volatile double throttleRate;
+
+    private volatile double timeoutRate;
+
+    private volatile long timeoutMillis = 30 * 1000;
+
+    final AtomicLong requests = new AtomicLong();
+
+    final AtomicLong errors = new AtomicLong();
+
+    final AtomicLong throttled = new AtomicLong();
+
+    final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * @param port the port to listen on, 0 for any free one
+     */
+    public MockProviderServer(int port) throws IOException {
+        for (String provider : PROVIDERS) {
+            fixtures.put(provider, new String(ParseBenchmark.fixture(provider), StandardCharsets.UTF_8));
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        // handlers sleep out the simulated latency, so each request in flight holds a thread
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "mock-provider");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        for (String provider : PROVIDERS) {
+            server.createContext("/" + provider + "/", exchange -> handle(provider, exchange));
+        }
+        server.start();
+    }
+
+    /**
+     * @return the URL to override the provider's endpoint with
+     */
+    public String baseUrl(String provider) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/" + provider;
+    }
+
+    /**
+     * @param latencyMillis how long every response takes
+     * @param jitterMillis  up to how much longer, at random
+     */
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    /**
+     * @param errorRate the share of requests answered with a 500
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @param throttleRate the share of requests answered with a 429, on top of the rate limit
+     */
+    public void setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+    }
+
+    /**
+     * @param timeoutRate   the share of requests left unanswered
+     * @param timeoutMillis for how long, before the connection gets a 504
+     */
+    public void setTimeoutRate(double timeoutRate, long timeoutMillis) {
+        this.timeoutRate = timeoutRate;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @param provider  the provider, one of {@link #PROVIDERS}
+     * @param rateLimit the rate above which it answers 429, or null for none
+     */
+    public void setRateLimit(String provider, RateLimit rateLimit) {
+        if (rateLimit == null) {
+            rateLimits.remove(provider);
+        } else {
+            rateLimits.put(provider, new TokenBucket(rateLimit));
+        }
+    }
+
+    private void handle(String provider, HttpExchange exchange) throws IOException {
+        try {
+            requests.incrementAndGet();
+            sleep(latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0));
+            TokenBucket bucket = rateLimits.get(provider);
+            double dice = ThreadLocalRandom.current().nextDouble();
+            if ((bucket != null && bucket.tryAcquire() > 0) || dice < throttleRate) {
+                throttled.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                respond(exchange, 429, "{\"message\":\"Too Many Requests\"}");
+            } else if (dice < throttleRate + errorRate) {
+                errors.incrementAndGet();
+                respond(exchange, 500, "{\"message\":\"Internal Server Error\"}");
+            } else if (dice < throttleRate + errorRate + timeoutRate) {
+                timeouts.incrementAndGet();
+                sleep(timeoutMillis);
+                respond(exchange, 504, "");
+            } else {
+                respond(exchange, 200, body(provider, exchange));
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String body(String provider, HttpExchange exchange) throws IOException {
+        String fixture = fixtures.get(provider);
+        if ("POST".equals(exchange.getRequestMethod())) {
+            // a batch: an array of IPs in, an array of results out
+            JSONArray ips = new JSONArray(new String(readAll(exchange.getRequestBody()), StandardCharsets.UTF_8));
+            StringBuilder body = new StringBuilder("[");
+            for (int i = 0; i < ips.length(); i++) {
+                body.append(i == 0 ? "" : ",").append(fixture.replace(FIXTURE_IP, ips.getString(i)));
+            }
+            return body.append(']').toString();
+        }
+        return fixture.replace(FIXTURE_IP, ip(exchange));
+    }
+
+    /**
+     * @return the IP of a single lookup: the 'ip' query parameter, or else the last path segment
+     */
+    private static String ip(HttpExchange exchange) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("ip=")) {
+                    return parameter.substring(3);
+                }
+            }
+        }
+        String path = exchange.getRequestURI().getPath();
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private static void respond(HttpExchange exchange, int code, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(code, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.free.ip.benchmark;
+
+import com.free.ip.parser.AbstractIpParser;
+import com.free.ip.parser.IpParser;
+import com.free.ip.parser.ParserRegistry;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.JsonProjection;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning one recorded provider response into an IpInfo, per parser: through a JSON tree
+ * and {@link IpParser#parseIpData(JSONObject)}, and through the streaming projection of the
+ * parser's JSON paths that the HTTP parsers use once fields are requested.
+ *
+ * 各解析器解析录制的响应的耗时：JSON树解析与流式字段提取两种方式。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({"IpSbParser", "Ip_ApiParser", "IpApiParser", "Ip2LocationParser", "RealipParser", "LocalDbParser"})
+    public String parserName;
+
+    private IpParser parser;
+
+    private byte[] body;
+
+    private JsonProjection projection;
+
+    @Setup
+    public void setup() throws Exception {
+        for (IpParser candidate : ParserRegistry.getParsers()) {
+            if (candidate.getClass().getSimpleName().equals(parserName)) {
+                parser = candidate;
+            }
+        }
+        if (parser == null) {
+            throw new IllegalStateException("No parser named " + parserName);
+        }
+        body = fixture(parserName);
+        projection = new JsonProjection(jsonPaths(parser));
+    }
+
+    @Benchmark
+    public IpInfo tree() {
+        return parser.parseIpData(new JSONObject(new String(body, StandardCharsets.UTF_8)));
+    }
+
+    @Benchmark
+    public String[] projected() throws IOException {
+        return projection.extract(new ByteArrayInputStream(body));
+    }
+
+    /**
+     * @return the recorded response of the parser's provider
+     */
+    static byte[] fixture(String parserName) throws IOException {
+        try (InputStream in = ParseBenchmark.class.getResourceAsStream("/fixtures/" + parserName + ".json")) {
+            if (in == null) {
+                throw new IOException("No fixture for " + parserName);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * @return the paths the parser declares for every field, or the bean property names for
+     * parsers without any, whose responses are IpInfo beans
+     */
+    @SuppressWarnings("unchecked")
+    private static String[] jsonPaths(IpParser parser) throws Exception {
+        Map<IpinfoEnum, String> paths = null;
+        if (parser instanceof AbstractIpParser) {
+            Method method = AbstractIpParser.class.getDeclaredMethod("getJsonPaths");
+            method.setAccessible(true);
+            paths = (Map<IpinfoEnum, String>) method.invoke(parser);
+        }
+        if (paths != null) {
+            return paths.values().toArray(new String[0]);
+        }
+        String[] names = new String[IpinfoEnum.values().length];
+        for (IpinfoEnum field : IpinfoEnum.values()) {
+            StringBuilder name = new StringBuilder();
+            for (String word : field.name().toLowerCase().split("_")) {
+                name.append(name.length() == 0 ? word : Character.toUpperCase(word.charAt(0)) + word.substring(1));
+            }
+            names[field.ordinal()] = name.toString();
+        }
+        return names;
+    }
+
+}
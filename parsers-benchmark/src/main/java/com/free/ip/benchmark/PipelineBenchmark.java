@@ -0,0 +1,77 @@
+package com.free.ip.benchmark;
+
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.utils.ExecutorUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end runs of {@link #ips} lookups over {@link #parsers} parsers answering after
+ * {@link #latencyMicros}: with no latency the result is the executors' own overhead, with
+ * latency how close they come to the ideal of ips * latency / (parsers * requests in flight).
+ * {@link #runParsersVirtual(Slots)} blocks a thread per lookup: a virtual one on Java 21, a pooled
+ * platform thread per slot before, so running under both compares the two. {@link #runParsers()}
+ * serves one lookup per parser at a time and so is not run for each {@link Slots#inFlight}.
+ *
+ * 使用模拟延迟的解析器，端到端测量执行器的调度开销。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlog4j.configurationFile=log4j2-benchmark.xml")
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+
+    @Param({"1000"})
+    public int ips;
+
+    @Param({"3"})
+    public int parsers;
+
+    @Param({"0", "1000"})
+    public long latencyMicros;
+
+    private List<String> ipList;
+
+    private List<IpParser> parserList;
+
+    @State(Scope.Benchmark)
+    public static class Slots {
+
+        @Param({"8", "64"})
+        public int inFlight;
+    }
+
+    @Setup
+    public void setup() {
+        ipList = new ArrayList<>(ips);
+        for (int i = 0; i < ips; i++) {
+            ipList.add("10." + (i >> 16 & 0xff) + "." + (i >> 8 & 0xff) + "." + (i & 0xff));
+        }
+        parserList = new ArrayList<>();
+        for (int i = 0; i < parsers; i++) {
+            parserList.add(new LatencyParser("latency-" + i, latencyMicros));
+        }
+    }
+
+    @Benchmark
+    public List<IpInfo> runParsers() {
+        return ExecutorUtil.runParsers(ipList, parserList, 0);
+    }
+
+    @Benchmark
+    public List<IpInfo> runParsersVirtual(Slots slots) {
+        return ExecutorUtil.runParsersVirtual(ipList, parserList, slots.inFlight);
+    }
+
+    @Benchmark
+    public List<IpInfo> runParsersAsync(Slots slots) {
+        return ExecutorUtil.runParsersAsync(ipList, parserList, slots.inFlight);
+    }
+
+}
@@ -1,49 +1,448 @@
 package com.free.ip;
 
 
+import com.free.ip.cache.IpInfoCache;
+import com.free.ip.cache.MemoryIpCache;
+import com.free.ip.cache.ParserCache;
+import com.free.ip.cache.PersistentIpCache;
+import com.free.ip.cache.PrefixIpCache;
+import com.free.ip.cache.TieredIpCache;
+import com.free.ip.metrics.Metrics;
 import com.free.ip.parser.IpParser;
 import com.free.ip.parser.ParserFactory;
+import com.free.ip.parser.ParserRegistry;
+import com.free.ip.parser.impl.LocalDbParser;
 import com.free.ip.pojo.IpInfo;
 import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.pojo.RateLimit;
+import com.free.ip.service.LookupServer;
+import com.free.ip.service.LookupService;
+import com.free.ip.utils.AsyncExecutor;
+import com.free.ip.utils.Backoff;
+import com.free.ip.utils.Endpoints;
 import com.free.ip.utils.ExecutorUtil;
 import com.free.ip.utils.InoutUtil;
+import com.free.ip.utils.Journal;
+import com.free.ip.utils.ParserHealth;
+import com.free.ip.utils.QuotaLedger;
+import com.free.ip.utils.RateLimiters;
+import com.free.ip.utils.Shard;
+import com.free.ip.utils.StreamingPipeline;
+import com.free.ip.writer.ResultFormat;
 import lombok.extern.log4j.Log4j2;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 @Log4j2
 public class Runner {
 
+    private static final long METRICS_FILE_SECONDS = 15;
+
     public static void main(String[] args) {
+        if (args.length >= 2 && "serve".equals(args[0])) {
+            serve(args[1], parseOptions(args, 2));
+            return;
+        }
+        if (args.length >= 5 && "merge".equals(args[0])) {
+            merge(args);
+            return;
+        }
         // read & parse input arguments
-        if (args.length < 2) {
+        if (args.length < 3) {
             log.error("Input IPData filePath and output filePath and info fields(ip=1;country=12countryCode=3;region=4;regionCode=5;city=6;isp=7;latitude=8;longitude=9).");
             log.error("Example: '/data/ipdata.txt /data/ipinfo.txt 1;2;3;4;5;6;7;8;9'");
+            log.error("Options: --mode=sync|async|virtual|stream --in-flight=<requests per parser, async and virtual modes> --sleep=<seconds>");
+            log.error("         --rate.<ParserName>=<permits>/<s|m|h>[:burst] --config=<properties file with the same keys>");
+            log.error("         --cache=<cache file> --cache-ttl=<duration, e.g. 7d, 12h, 30m>");
+            log.error("         --prefix-cache --prefix.<FIELD>=<IPv4 prefix length> --prefix6.<FIELD>=<IPv6 prefix length>");
+            log.error("         --dedup (look up each distinct IP once, output one line per input line)");
+            log.error("         --queue=<IPs read ahead of the output, stream mode>");
+            log.error("         --journal=<journal file> --resume (skip IPs the journal completed)");
+            log.error("         --local-db=<range database CSV answered before any remote parser>");
+            log.error("         --breaker-open=<how long a failing parser rests before a probe, e.g. 30s>");
+            log.error("         --breaker-give-up=<how long every parser may stay failed before the run ends, e.g. 10m>");
+            log.error("         --hedge=<latency percentile, e.g. p95> --hedge-budget=<max share of extra requests, e.g. 0.1>");
+            log.error("         --format=json|csv|tsv|binary (output format, only the requested fields are written)");
+            log.error("         --endpoint.<ParserName>=<base URL replacing the provider's, e.g. a local mock server>");
+            log.error("         --parser-jars=<jar>[,<jar>...] (extra parsers, listed in META-INF/services/com.free.ip.parser.IpParser)");
+            log.error("         --metrics-port=<port serving Prometheus metrics at /metrics> --metrics-file=<Prometheus text file>");
+            log.error("         --shard=<index>/<count> (look up only the IPs of one shard, e.g. 0/4, with its own output and journal)");
+            log.error("         --quota-ledger=<file shared by the processes of this machine to split provider rate limits>");
+            log.error("Service: 'serve <fields> --port=<port> [--linger-micros=N] [--memory-cache=<entries>] [options above]'");
+            log.error("Merge:   'merge <input file> <output file> <fields> <shard output>... [--format=<format of the shard outputs>]'");
             System.exit(1);
         }
         String inputPath = args[0];
         String outputPath = args[1];
         String fields = args[2];
+        Properties options = parseOptions(args, 3);
+        String mode = options.getProperty("mode", "sync");
+        int sleepSeconds = Integer.parseInt(options.getProperty("sleep", "0"));
+        boolean dedup = Boolean.parseBoolean(options.getProperty("dedup", "false"));
+        int inFlight = Integer.parseInt(options.getProperty("in-flight", "8"));
+        String journalPath = options.getProperty("journal");
+        boolean resume = Boolean.parseBoolean(options.getProperty("resume", "false"));
+        ResultFormat format = ResultFormat.parse(options.getProperty("format", "json"));
+        Shard shard = options.getProperty("shard") != null ? Shard.parse(options.getProperty("shard")) : null;
+        if (resume && journalPath == null) {
+            log.error("--resume requires --journal=<journal file>");
+            System.exit(1);
+        }
+        configure(options);
 
-        // read input file & choose parsers
-        List<String> ipList = InoutUtil.readIpFile(inputPath);
-        List<IpinfoEnum> conditions = Arrays.asList(fields.split(";"))
-                .stream()
-                .map(s -> IpinfoEnum.values()[Integer.parseInt(s) - 1])
-                .collect(Collectors.toList());
-        List<IpParser> conditionalParsers = ParserFactory.getConditionalParsers(conditions);
+        // choose parsers
+        List<IpinfoEnum> conditions = parseFields(fields);
+        List<IpParser> conditionalParsers = ParserFactory.getPlannedParsers(conditions);
+        IpParser localParser = takeLocalParser(conditionalParsers);
+
+        // stream mode reads, parses and writes incrementally
+        if ("stream".equals(mode)) {
+            int queueCapacity = Integer.parseInt(options.getProperty("queue", String.valueOf(StreamingPipeline.DEFAULT_QUEUE_CAPACITY)));
+            boolean streamed;
+            try (IpInfoCache cache = openCache(options, conditions, localParser);
+                 Journal journal = openJournal(journalPath, resume, false)) {
+                streamed = ExecutorUtil.runParsersStreaming(inputPath, outputPath, conditionalParsers, inFlight, queueCapacity, cache, journal, resume,
+                        format, conditions, shard);
+            }
+            if (streamed) {
+                log.info("SUCCESS");
+            } else {
+                log.error("FAILED");
+            }
+            return;
+        }
+
+        // read input file
+        List<String> ipList = dedup ? InoutUtil.readUniqueIpFile(inputPath) : InoutUtil.readIpFile(inputPath);
+        if (shard != null) {
+            int total = ipList.size();
+            ipList = shard.select(ipList);
+            log.info("Shard " + shard + ": " + ipList.size() + " of " + total + " IPs");
+        }
 
         // using parsers to parse ip data
-        List<IpInfo> ipInfos = ExecutorUtil.runParsers(ipList, conditionalParsers, 1);
+        List<IpInfo> ipInfos;
+        try (IpInfoCache cache = openCache(options, conditions, localParser);
+             Journal journal = openJournal(journalPath, resume, true)) {
+            if ("async".equals(mode)) {
+                ipInfos = ExecutorUtil.runParsersAsync(ipList, conditionalParsers, inFlight, cache, journal);
+            } else if ("virtual".equals(mode)) {
+                ipInfos = ExecutorUtil.runParsersVirtual(ipList, conditionalParsers, inFlight, cache, journal);
+            } else {
+                ipInfos = ExecutorUtil.runParsers(ipList, conditionalParsers, sleepSeconds, cache, journal);
+            }
+        }
 
         // write result to output file
-        if (InoutUtil.writeResultFile(outputPath, ipInfos)) {
+        boolean written = dedup
+                ? InoutUtil.writeResultFile(outputPath, inputPath, ipInfos, format, conditions)
+                : InoutUtil.writeResultFile(outputPath, ipInfos, format, conditions);
+        if (written) {
             log.info("SUCCESS");
         } else {
             log.error("FAILED");
         }
     }
 
+    /**
+     * Run as a resident lookup service until the process is stopped, sharing the parsers'
+     * connections, rate limiters and caches across every request.
+     */
+    static void serve(String fields, Properties options) {
+        configure(options);
+        List<IpinfoEnum> conditions = parseFields(fields);
+        List<IpParser> parsers = ParserFactory.getPlannedParsers(conditions);
+        IpParser localParser = takeLocalParser(parsers);
+        IpInfoCache configured = openCache(options, conditions, localParser);
+        MemoryIpCache memory = new MemoryIpCache(Integer.parseInt(options.getProperty("memory-cache", "100000")),
+                parseDurationMillis(options.getProperty("cache-ttl", "7d")));
+        IpInfoCache cache = configured == null ? memory : new TieredIpCache(memory, configured);
+        LookupService service = new LookupService(parsers, Integer.parseInt(options.getProperty("in-flight", "8")), cache,
+                Long.parseLong(options.getProperty("linger-micros", String.valueOf(LookupService.DEFAULT_LINGER_MICROS))));
+        LookupServer server;
+        try {
+            server = new LookupServer(service, conditions, Integer.parseInt(options.getProperty("port", "8080")),
+                    Integer.parseInt(options.getProperty("handlers", "256")));
+        } catch (IOException e) {
+            log.error("Error starting the lookup server: " + e.getMessage());
+            service.close();
+            cache.close();
+            System.exit(1);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            cache.close();
+        }));
+    }
+
+    /**
+     * Merge the outputs of the shards of a run into one file in the order of the input file.
+     *
+     * @param args 'merge', the input file, the output file, the fields, then the shard outputs and options
+     */
+    static void merge(String[] args) {
+        List<String> shardPaths = new ArrayList<>();
+        List<String> optionArgs = new ArrayList<>();
+        for (int i = 4; i < args.length; i++) {
+            (args[i].startsWith("--") ? optionArgs : shardPaths).add(args[i]);
+        }
+        Properties options = parseOptions(optionArgs.toArray(new String[0]), 0);
+        ResultFormat format = ResultFormat.parse(options.getProperty("format", "json"));
+        if (InoutUtil.mergeResultFiles(args[2], args[1], shardPaths, format, parseFields(args[3]))) {
+            log.info("SUCCESS");
+        } else {
+            log.error("FAILED");
+        }
+    }
+
+    /**
+     * Apply the options shared by every mode: rate limits and the quota ledger sharing them,
+     * endpoints, metrics, circuit breakers, retry backoff, hedging and where parsers come from.
+     */
+    static void configure(Properties options) {
+        applyRateLimits(options);
+        if (options.getProperty("quota-ledger") != null) {
+            try {
+                RateLimiters.useLedger(new QuotaLedger(Paths.get(options.getProperty("quota-ledger"))));
+            } catch (IOException e) {
+                log.error("Error opening quota ledger, rate limits apply to this process only: " + e.getMessage());
+            }
+        }
+        applyEndpoints(options);
+        startMetrics(options);
+        if (options.getProperty("breaker-open") != null) {
+            long openMillis = parseDurationMillis(options.getProperty("breaker-open"));
+            ParserHealth.configure(openMillis, Math.max(openMillis, ParserHealth.DEFAULT_MAX_OPEN_MILLIS));
+        }
+        if (options.getProperty("breaker-give-up") != null) {
+            ParserHealth.configureGiveUp(parseDurationMillis(options.getProperty("breaker-give-up")));
+        }
+        if (options.getProperty("backoff") != null) {
+            long backoffMillis = parseDurationMillis(options.getProperty("backoff"));
+            Backoff.configure(backoffMillis, Math.max(backoffMillis, Backoff.DEFAULT_MAX_MILLIS));
+        }
+        if (options.getProperty("hedge") != null) {
+            AsyncExecutor.configureHedging(parsePercentile(options.getProperty("hedge")),
+                    Double.parseDouble(options.getProperty("hedge-budget", String.valueOf(AsyncExecutor.DEFAULT_HEDGE_BUDGET))));
+        }
+        if (options.getProperty("local-db") != null) {
+            System.setProperty(LocalDbParser.DB_PATH_PROPERTY, options.getProperty("local-db"));
+        }
+        if (options.getProperty("parser-jars") != null) {
+            int added = ParserRegistry.loadJars(Arrays.asList(options.getProperty("parser-jars").split(",")));
+            log.info("Loaded " + added + " parsers from " + options.getProperty("parser-jars"));
+        }
+    }
+
+    /**
+     * @param fields the 1-based field numbers separated by ';', e.g. "1;2;6"
+     */
+    static List<IpinfoEnum> parseFields(String fields) {
+        return Arrays.asList(fields.split(";"))
+                .stream()
+                .map(s -> IpinfoEnum.values()[Integer.parseInt(s) - 1])
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Parse trailing '--key=value' (or bare '--flag') arguments. Options from the file
+     * given by '--config' are loaded first and overridden by the command line.
+     *
+     * @param args  command line arguments
+     * @param start index of the first option
+     * @return the options, a bare flag maps to "true"
+     */
+    static Properties parseOptions(String[] args, int start) {
+        Properties cli = new Properties();
+        for (int i = start; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                log.error("Ignoring unrecognized argument: " + arg);
+                continue;
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                cli.setProperty(arg.substring(2), "true");
+            } else {
+                cli.setProperty(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+
+        Properties options = new Properties();
+        String configPath = cli.getProperty("config");
+        if (configPath != null) {
+            try (Reader reader = Files.newBufferedReader(Paths.get(configPath))) {
+                options.load(reader);
+            } catch (IOException e) {
+                log.error("Error reading config file: " + e.getMessage());
+            }
+        }
+        options.putAll(cli);
+        return options;
+    }
+
+    /**
+     * Take the local database parser out of the rotation so it can answer as the first cache
+     * tier instead; it stays a regular parser when no remote parser is left.
+     *
+     * @return the local parser, or null if it is not used as a tier
+     */
+    static IpParser takeLocalParser(List<IpParser> parsers) {
+        for (IpParser parser : parsers) {
+            if (parser instanceof LocalDbParser && parsers.size() > 1) {
+                parsers.remove(parser);
+                return parser;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the local parser, then the persistent cache configured by '--cache', then the prefix
+     * cache enabled by '--prefix-cache', or null if none is configured
+     */
+    static IpInfoCache openCache(Properties options, List<IpinfoEnum> fields, IpParser localParser) {
+        List<IpInfoCache> tiers = new ArrayList<>();
+        if (localParser != null) {
+            tiers.add(new ParserCache(localParser, fields));
+        }
+        String cachePath = options.getProperty("cache");
+        if (cachePath != null) {
+            try {
+                tiers.add(new PersistentIpCache(Paths.get(cachePath), parseDurationMillis(options.getProperty("cache-ttl", "7d")), fields));
+            } catch (IOException e) {
+                log.error("Error opening cache file, running without cache: " + e.getMessage());
+            }
+        }
+        if (Boolean.parseBoolean(options.getProperty("prefix-cache", "false"))) {
+            Map<IpinfoEnum, Integer> ipv4PrefixLengths = new EnumMap<>(IpinfoEnum.class);
+            Map<IpinfoEnum, Integer> ipv6PrefixLengths = new EnumMap<>(IpinfoEnum.class);
+            for (IpinfoEnum field : IpinfoEnum.values()) {
+                String ipv4 = options.getProperty("prefix." + field.name());
+                String ipv6 = options.getProperty("prefix6." + field.name());
+                if (ipv4 != null) {
+                    ipv4PrefixLengths.put(field, Integer.parseInt(ipv4));
+                }
+                if (ipv6 != null) {
+                    ipv6PrefixLengths.put(field, Integer.parseInt(ipv6));
+                }
+            }
+            tiers.add(new PrefixIpCache(fields, ipv4PrefixLengths, ipv6PrefixLengths));
+        }
+        if (tiers.isEmpty()) {
+            return null;
+        }
+        return tiers.size() == 1 ? tiers.get(0) : new TieredIpCache(tiers.toArray(new IpInfoCache[0]));
+    }
+
+    /**
+     * @return the journal configured by '--journal', or null if none is configured
+     */
+    static Journal openJournal(String journalPath, boolean resume, boolean streaming) {
+        if (journalPath == null) {
+            return null;
+        }
+        try {
+            // batch modes write the output at the end and need the previous results, stream mode appends to it
+            return new Journal(Paths.get(journalPath), resume, !streaming, !streaming);
+        } catch (IOException e) {
+            log.error("Error opening journal, running without journal: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Parse a duration such as "90s", "30m", "12h" or "7d"; a bare number is milliseconds.
+     */
+    static long parseDurationMillis(String duration) {
+        String value = duration.trim();
+        char unit = value.charAt(value.length() - 1);
+        if (Character.isDigit(unit)) {
+            return Long.parseLong(value);
+        }
+        long amount = Long.parseLong(value.substring(0, value.length() - 1));
+        switch (Character.toLowerCase(unit)) {
+            case 's':
+                return TimeUnit.SECONDS.toMillis(amount);
+            case 'm':
+                return TimeUnit.MINUTES.toMillis(amount);
+            case 'h':
+                return TimeUnit.HOURS.toMillis(amount);
+            case 'd':
+                return TimeUnit.DAYS.toMillis(amount);
+            default:
+                throw new IllegalArgumentException("Invalid duration: " + duration);
+        }
+    }
+
+    /**
+     * Parse a percentile such as 'p95', '95' or '0.95' into a fraction.
+     */
+    static double parsePercentile(String percentile) {
+        String value = percentile.trim().toLowerCase();
+        if (value.startsWith("p")) {
+            value = value.substring(1);
+        }
+        double fraction = Double.parseDouble(value);
+        return fraction >= 1 ? fraction / 100 : fraction;
+    }
+
+    /**
+     * Register every 'rate.&lt;ParserName&gt;' option as a rate limit override.
+     */
+    static void applyRateLimits(Properties options) {
+        for (String key : options.stringPropertyNames()) {
+            if (key.startsWith("rate.")) {
+                RateLimiters.override(key.substring("rate.".length()), RateLimit.parse(options.getProperty(key)));
+            }
+        }
+    }
+
+    /**
+     * Register the metrics with JMX, and serve them over HTTP or rewrite them to a file every
+     * few seconds and on exit when '--metrics-port' or '--metrics-file' is given.
+     */
+    static void startMetrics(Properties options) {
+        Metrics.registerJmx();
+        if (options.getProperty("metrics-port") != null) {
+            Metrics.startHttpServer(Integer.parseInt(options.getProperty("metrics-port")));
+        }
+        if (options.getProperty("metrics-file") != null) {
+            Path metricsFile = Paths.get(options.getProperty("metrics-file"));
+            ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "metrics-file");
+                thread.setDaemon(true);
+                return thread;
+            });
+            writer.scheduleWithFixedDelay(() -> Metrics.writeFile(metricsFile), METRICS_FILE_SECONDS, METRICS_FILE_SECONDS, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> Metrics.writeFile(metricsFile)));
+        }
+    }
+
+    /**
+     * Register every 'endpoint.&lt;ParserName&gt;' option as an endpoint override.
+     */
+    static void applyEndpoints(Properties options) {
+        for (String key : options.stringPropertyNames()) {
+            if (key.startsWith("endpoint.")) {
+                Endpoints.override(key.substring("endpoint.".length()), options.getProperty(key));
+            }
+        }
+    }
+
 }
@@ -0,0 +1,29 @@
+package com.free.ip.cache;
+
+import com.free.ip.pojo.IpInfo;
+
+import java.io.Closeable;
+
+/**
+ * A store of previously parsed results consulted before any IpParser is called.
+ * Implementations must be thread-safe.
+ */
+public interface IpInfoCache extends Closeable {
+
+    /**
+     * @param ip the queried IP address
+     * @return the cached IpInfo if present and still fresh, null otherwise
+     */
+    IpInfo get(String ip);
+
+    /**
+     * @param ip     the queried IP address
+     * @param ipInfo the result returned by a parser
+     */
+    void put(String ip, IpInfo ipInfo);
+
+    @Override
+    default void close() {
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.free.ip.cache;
+
+import com.free.ip.pojo.IpInfo;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory cache for a long-running process: the least recently used IPs are
+ * evicted once it holds its capacity, and results older than the TTL are ignored. Results
+ * are copied in and out, so callers may change what they put or get without affecting
+ * the cached entry or each other.
+ *
+ * 常驻进程使用的有界内存缓存，超过容量时淘汰最久未使用的IP。
+ */
+public class MemoryIpCache implements IpInfoCache {
+
+    private final long ttlMillis;
+
+    private final Map<String, IpInfo> entries;
+
+    /**
+     * @param capacity  the number of IPs kept
+     * @param ttlMillis how long a result stays valid, 0 or less to keep results until evicted
+     */
+    public MemoryIpCache(int capacity, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, IpInfo>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, IpInfo> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Override
+    public IpInfo get(String ip) {
+        String key = ip.trim();
+        synchronized (entries) {
+            IpInfo ipInfo = entries.get(key);
+            if (ipInfo != null && ttlMillis > 0 && ipInfo.getParseTimeTs() != null
+                    && System.currentTimeMillis() - ipInfo.getParseTimeTs() > ttlMillis) {
+                entries.remove(key);
+                return null;
+            }
+            return ipInfo == null ? null : ipInfo.copy();
+        }
+    }
+
+    @Override
+    public void put(String ip, IpInfo ipInfo) {
+        synchronized (entries) {
+            entries.put(ip.trim(), ipInfo.copy());
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+}
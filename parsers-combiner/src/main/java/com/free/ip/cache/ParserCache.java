@@ -0,0 +1,78 @@
+package com.free.ip.cache;
+
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-only cache tier answering from a local parser, such as
+ * {@link com.free.ip.parser.impl.LocalDbParser}, so IPs it covers never reach a remote provider.
+ * An answer lacking one of the requested fields, e.g. a range without a city, is a miss and
+ * goes on to the next tier.
+ *
+ * 以本地解析器作为只读缓存层，本地能解析的IP不再请求远程服务商。
+ */
+@Log4j2
+public class ParserCache implements IpInfoCache {
+
+    private final IpParser parser;
+
+    private final IpinfoEnum[] fields;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @param parser the local parser to answer from
+     * @param fields the fields lookups must answer, an answer lacking one of them is a miss
+     */
+    public ParserCache(IpParser parser, Collection<IpinfoEnum> fields) {
+        this.parser = parser;
+        EnumSet<IpinfoEnum> required = fields.isEmpty() ? EnumSet.noneOf(IpinfoEnum.class) : EnumSet.copyOf(fields);
+        // the IP is the key, it is filled in from the query if the parser omitted it
+        required.remove(IpinfoEnum.IP);
+        this.fields = required.toArray(new IpinfoEnum[0]);
+    }
+
+    /**
+     * Cache answering with whatever fields the parser finds.
+     */
+    public ParserCache(IpParser parser) {
+        this(parser, Collections.<IpinfoEnum>emptySet());
+    }
+
+    @Override
+    public IpInfo get(String ip) {
+        IpInfo ipInfo = parser.getIpInfo(ip);
+        if (ipInfo == null || !hasFields(ipInfo)) {
+            return null;
+        }
+        hits.incrementAndGet();
+        return ipInfo;
+    }
+
+    @Override
+    public void put(String ip, IpInfo ipInfo) {
+        // results come from the parser itself
+    }
+
+    private boolean hasFields(IpInfo ipInfo) {
+        for (IpinfoEnum field : fields) {
+            if (ipInfo.get(field) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        log.info(parser.getName() + " answered " + hits.get() + " IPs");
+    }
+
+}
@@ -0,0 +1,366 @@
+package com.free.ip.cache;
+
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.Int128LongHashMap;
+import com.free.ip.utils.IntLongHashMap;
+import com.free.ip.utils.IpInfoCodec;
+import com.free.ip.utils.IpUtil;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * IpInfo cache persisted in an append-only file. Each record holds the IP as a primitive
+ * key (an int for IPv4, two longs for IPv6), the time it was parsed and the encoded IpInfo.
+ * An in-memory index from key to file offset is rebuilt by scanning the file on open;
+ * a later record for the same IP supersedes an earlier one, and records older than the
+ * TTL are ignored. A record torn by a crash at the end of the file is truncated away, and
+ * once at least a quarter of the records are expired or superseded, the live ones are
+ * rewritten to a fresh file that replaces the old one. The file is locked for as long as the
+ * cache is open, so a second process, e.g. another shard, opening it is refused rather than
+ * appending over this one's records.
+ * Parsers asked for a subset of the fields leave the others null, and records keep those
+ * nulls, so a record lacking a field the current run needs is a miss rather than an answer
+ * without it.
+ *
+ * 基于追加写文件的持久化缓存，IPv4以int、IPv6以两个long作为键，启动时扫描文件重建内存索引。
+ */
+@Log4j2
+public class PersistentIpCache implements IpInfoCache {
+
+    private static final byte IPV4 = 4;
+
+    private static final byte IPV6 = 6;
+
+    private FileChannel channel;
+
+    private final long ttlMillis;
+
+    private final IpinfoEnum[] fields;
+
+    private IntLongHashMap ipv4Index = new IntLongHashMap(1 << 16);
+
+    private Int128LongHashMap ipv6Index = new Int128LongHashMap(1 << 10);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private long fileSize;
+
+    // records found on open, live or not
+    private long records;
+
+    /**
+     * @param path      the cache file, created if missing
+     * @param ttlMillis how long a result stays valid, 0 or less to keep results forever
+     * @param fields    the fields lookups must answer, a record lacking one of them is a miss
+     * @throws IOException if the file cannot be opened, or is in use by another cache
+     */
+    public PersistentIpCache(Path path, long ttlMillis, Collection<IpinfoEnum> fields) throws IOException {
+        this.channel = openLocked(path);
+        this.ttlMillis = ttlMillis;
+        EnumSet<IpinfoEnum> required = fields.isEmpty() ? EnumSet.noneOf(IpinfoEnum.class) : EnumSet.copyOf(fields);
+        // the IP is the key, it is filled in from the query if a parser omitted it
+        required.remove(IpinfoEnum.IP);
+        this.fields = required.toArray(new IpinfoEnum[0]);
+        try {
+            load();
+            long live = ipv4Index.size() + ipv6Index.size();
+            if (records > live && (records - live) * 4 >= records) {
+                try {
+                    compact(path);
+                } catch (IOException e) {
+                    log.error("Error compacting cache file, keeping it as it is: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        log.info("Loaded " + (ipv4Index.size() + ipv6Index.size()) + " cached IPs from " + path);
+    }
+
+    /**
+     * Cache answering with whatever fields its records hold.
+     */
+    public PersistentIpCache(Path path, long ttlMillis) throws IOException {
+        this(path, ttlMillis, Collections.<IpinfoEnum>emptySet());
+    }
+
+    @Override
+    public IpInfo get(String ip) {
+        long offset = -1;
+        String key = ip.trim();
+        lock.readLock().lock();
+        try {
+            if (IpUtil.isIpv4(key)) {
+                offset = ipv4Index.get(IpUtil.ipv4ToInt(key), -1);
+            } else {
+                long[] ipv6 = IpUtil.ipv6ToLongs(key);
+                if (ipv6 != null) {
+                    offset = ipv6Index.get(ipv6[0], ipv6[1], -1);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        IpInfo ipInfo = offset < 0 ? null : read(offset);
+        if (ipInfo != null && !hasFields(ipInfo)) {
+            ipInfo = null;
+        }
+        (ipInfo == null ? misses : hits).incrementAndGet();
+        return ipInfo;
+    }
+
+    @Override
+    public void put(String ip, IpInfo ipInfo) {
+        String key = ip.trim();
+        long[] ipv6 = null;
+        boolean ipv4 = IpUtil.isIpv4(key);
+        if (!ipv4 && (ipv6 = IpUtil.ipv6ToLongs(key)) == null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+            IpInfoCodec.write(new DataOutputStream(payload), ipInfo);
+            long parseTimeTs = ipInfo.getParseTimeTs() != null ? ipInfo.getParseTimeTs() : System.currentTimeMillis();
+
+            ByteBuffer record = ByteBuffer.allocate(1 + 16 + 8 + 4 + payload.size());
+            if (ipv4) {
+                record.put(IPV4).putInt(IpUtil.ipv4ToInt(key));
+            } else {
+                record.put(IPV6).putLong(ipv6[0]).putLong(ipv6[1]);
+            }
+            record.putLong(parseTimeTs).putInt(payload.size()).put(payload.toByteArray());
+            record.flip();
+
+            lock.writeLock().lock();
+            try {
+                long offset = fileSize;
+                while (record.hasRemaining()) {
+                    fileSize += channel.write(record, fileSize);
+                }
+                if (ipv4) {
+                    ipv4Index.put(IpUtil.ipv4ToInt(key), offset);
+                } else {
+                    ipv6Index.put(ipv6[0], ipv6[1], offset);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            log.error("Error writing cache entry for " + ip + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void close() {
+        log.info("Cache hits: " + hits.get() + ", misses: " + misses.get());
+        try {
+            channel.force(false);
+            channel.close();
+        } catch (IOException e) {
+            log.error("Error closing cache file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the file opened for reading and writing, locked until the channel is closed
+     * @throws IOException if it cannot be opened or another cache holds its lock
+     */
+    private static FileChannel openLocked(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // held by another cache of this JVM
+            lock = null;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Cache file is in use by another process: " + path);
+        }
+        return channel;
+    }
+
+    private boolean hasFields(IpInfo ipInfo) {
+        for (IpinfoEnum field : fields) {
+            if (ipInfo.get(field) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isFresh(long parseTimeTs) {
+        return ttlMillis <= 0 || parseTimeTs + ttlMillis >= System.currentTimeMillis();
+    }
+
+    private IpInfo read(long offset) {
+        try {
+            ByteBuffer header = ByteBuffer.allocate(1 + 16 + 8 + 4);
+            readFully(header, offset, 1);
+            int keyBytes = header.get(0) == IPV4 ? 4 : 16;
+            header.clear().limit(keyBytes + 8 + 4);
+            readFully(header, offset + 1, keyBytes + 8 + 4);
+            long parseTimeTs = header.getLong(keyBytes);
+            if (!isFresh(parseTimeTs)) {
+                return null;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(header.getInt(keyBytes + 8));
+            readFully(payload, offset + 1 + keyBytes + 8 + 4, payload.capacity());
+            return IpInfoCodec.read(new DataInputStream(new ByteArrayInputStream(payload.array())));
+        } catch (IOException e) {
+            log.error("Error reading cache entry at " + offset + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+    }
+
+    private void load() throws IOException {
+        long size = channel.size();
+        long offset = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0)), 1 << 16));
+        try {
+            while (offset < size) {
+                byte version = in.readByte();
+                records++;
+                int high4 = 0;
+                long high = 0;
+                long low = 0;
+                if (version == IPV4) {
+                    high4 = in.readInt();
+                } else if (version == IPV6) {
+                    high = in.readLong();
+                    low = in.readLong();
+                } else {
+                    throw new EOFException("Corrupted record");
+                }
+                long parseTimeTs = in.readLong();
+                int length = in.readInt();
+                if (in.skipBytes(length) != length) {
+                    throw new EOFException();
+                }
+                if (isFresh(parseTimeTs)) {
+                    if (version == IPV4) {
+                        ipv4Index.put(high4, offset);
+                    } else {
+                        ipv6Index.put(high, low, offset);
+                    }
+                }
+                offset += 1 + (version == IPV4 ? 4 : 16) + 8 + 4 + length;
+            }
+        } catch (EOFException e) {
+            log.error("Truncating torn cache record at offset " + offset);
+            channel.truncate(offset);
+            records--;
+        }
+        fileSize = offset;
+    }
+
+    /**
+     * Copy the indexed records, in file order, to a new file and move it over the cache file.
+     * The new file is locked before it replaces the old one, so no other process can open the
+     * cache in between; a failure or a crash midway leaves the old file and its index in place.
+     */
+    private void compact(Path path) throws IOException {
+        Path compactPath = path.resolveSibling(path.getFileName() + ".compact");
+        FileChannel compacted = openLocked(compactPath);
+        IntLongHashMap compactedIpv4 = new IntLongHashMap(Math.max(1 << 16, ipv4Index.size()));
+        Int128LongHashMap compactedIpv6 = new Int128LongHashMap(Math.max(1 << 10, ipv6Index.size()));
+        long size = fileSize;
+        long compactedSize = 0;
+        try {
+            compacted.truncate(0);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0)), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(compacted), 1 << 16));
+            long offset = 0;
+            while (offset < size) {
+                byte version = in.readByte();
+                int high4 = 0;
+                long high = 0;
+                long low = 0;
+                if (version == IPV4) {
+                    high4 = in.readInt();
+                } else {
+                    high = in.readLong();
+                    low = in.readLong();
+                }
+                long parseTimeTs = in.readLong();
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                int recordBytes = 1 + (version == IPV4 ? 4 : 16) + 8 + 4 + payload.length;
+                boolean live = version == IPV4 ? ipv4Index.get(high4, -1) == offset : ipv6Index.get(high, low, -1) == offset;
+                if (live) {
+                    out.writeByte(version);
+                    if (version == IPV4) {
+                        out.writeInt(high4);
+                        compactedIpv4.put(high4, compactedSize);
+                    } else {
+                        out.writeLong(high);
+                        out.writeLong(low);
+                        compactedIpv6.put(high, low, compactedSize);
+                    }
+                    out.writeLong(parseTimeTs);
+                    out.writeInt(payload.length);
+                    out.write(payload);
+                    compactedSize += recordBytes;
+                }
+                offset += recordBytes;
+            }
+            out.flush();
+            compacted.force(false);
+            Files.move(compactPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            compacted.close();
+            Files.deleteIfExists(compactPath);
+            throw e;
+        }
+        channel.close();
+        channel = compacted;
+        ipv4Index = compactedIpv4;
+        ipv6Index = compactedIpv6;
+        fileSize = compactedSize;
+        log.info("Compacted cache file " + path + " from " + size + " to " + compactedSize + " bytes");
+    }
+
+}
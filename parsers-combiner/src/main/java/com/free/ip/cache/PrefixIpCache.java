@@ -0,0 +1,185 @@
+package com.free.ip.cache;
+
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.IpUtil;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory cache answering an IP from a previously parsed neighbour in the same network.
+ * Each field is trusted across a configurable prefix length (e.g. the country across a /16,
+ * the city across a /24). A lookup finds the longest prefix the IP shares with any cached
+ * result; it is a hit when that prefix is long enough for every requested field, and fields
+ * needing a longer prefix than the one shared are left null in the answer.
+ *
+ * 按网段共享解析结果的内存缓存：每个字段可配置可信的前缀长度，通过最长前缀匹配找到同网段
+ * 已解析的邻居IP，满足所有请求字段的前缀长度即视为命中。
+ */
+@Log4j2
+public class PrefixIpCache implements IpInfoCache {
+
+    public static final Map<IpinfoEnum, Integer> DEFAULT_IPV4_PREFIX_LENGTHS = new EnumMap<>(IpinfoEnum.class);
+
+    public static final Map<IpinfoEnum, Integer> DEFAULT_IPV6_PREFIX_LENGTHS = new EnumMap<>(IpinfoEnum.class);
+
+    static {
+        for (IpinfoEnum field : IpinfoEnum.values()) {
+            DEFAULT_IPV4_PREFIX_LENGTHS.put(field, 24);
+            DEFAULT_IPV6_PREFIX_LENGTHS.put(field, 48);
+        }
+        DEFAULT_IPV4_PREFIX_LENGTHS.put(IpinfoEnum.COUNTRY, 16);
+        DEFAULT_IPV4_PREFIX_LENGTHS.put(IpinfoEnum.COUNTRY_CODE, 16);
+        DEFAULT_IPV6_PREFIX_LENGTHS.put(IpinfoEnum.COUNTRY, 32);
+        DEFAULT_IPV6_PREFIX_LENGTHS.put(IpinfoEnum.COUNTRY_CODE, 32);
+        // the IP itself always comes from the query
+        DEFAULT_IPV4_PREFIX_LENGTHS.put(IpinfoEnum.IP, 0);
+        DEFAULT_IPV6_PREFIX_LENGTHS.put(IpinfoEnum.IP, 0);
+    }
+
+    private final Map<IpinfoEnum, Integer> ipv4PrefixLengths;
+
+    private final Map<IpinfoEnum, Integer> ipv6PrefixLengths;
+
+    private final int ipv4Required;
+
+    private final int ipv6Required;
+
+    private final PrefixTrie ipv4Trie;
+
+    private final PrefixTrie ipv6Trie;
+
+    private final List<IpInfo> values = new ArrayList<>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * @param fields            the fields lookups must answer
+     * @param ipv4PrefixLengths per field, the IPv4 prefix length across which a value is shared
+     * @param ipv6PrefixLengths per field, the IPv6 prefix length across which a value is shared
+     */
+    public PrefixIpCache(Collection<IpinfoEnum> fields, Map<IpinfoEnum, Integer> ipv4PrefixLengths, Map<IpinfoEnum, Integer> ipv6PrefixLengths) {
+        this.ipv4PrefixLengths = withDefaults(ipv4PrefixLengths, DEFAULT_IPV4_PREFIX_LENGTHS, 32);
+        this.ipv6PrefixLengths = withDefaults(ipv6PrefixLengths, DEFAULT_IPV6_PREFIX_LENGTHS, 128);
+        this.ipv4Required = requiredLength(fields, this.ipv4PrefixLengths);
+        this.ipv6Required = requiredLength(fields, this.ipv6PrefixLengths);
+        this.ipv4Trie = new PrefixTrie(this.ipv4PrefixLengths.values().stream().max(Integer::compare).get());
+        this.ipv6Trie = new PrefixTrie(this.ipv6PrefixLengths.values().stream().max(Integer::compare).get());
+    }
+
+    public PrefixIpCache(Collection<IpinfoEnum> fields) {
+        this(fields, DEFAULT_IPV4_PREFIX_LENGTHS, DEFAULT_IPV6_PREFIX_LENGTHS);
+    }
+
+    @Override
+    public IpInfo get(String ip) {
+        String key = ip.trim();
+        long match;
+        IpInfo neighbour;
+        boolean ipv4 = IpUtil.isIpv4(key);
+        lock.readLock().lock();
+        try {
+            if (ipv4) {
+                match = ipv4Trie.longestMatch((long) IpUtil.ipv4ToInt(key) << 32, 0);
+            } else {
+                long[] ipv6 = IpUtil.ipv6ToLongs(key);
+                match = ipv6 == null ? -1 : ipv6Trie.longestMatch(ipv6[0], ipv6[1]);
+            }
+            int depth = (int) (match >> 32);
+            if (match < 0 || depth < (ipv4 ? ipv4Required : ipv6Required)) {
+                return null;
+            }
+            neighbour = values.get((int) match);
+        } finally {
+            lock.readLock().unlock();
+        }
+        hits.incrementAndGet();
+        return answer(key, neighbour, (int) (match >> 32), ipv4 ? ipv4PrefixLengths : ipv6PrefixLengths);
+    }
+
+    @Override
+    public void put(String ip, IpInfo ipInfo) {
+        String key = ip.trim();
+        long high;
+        long low;
+        PrefixTrie trie;
+        if (IpUtil.isIpv4(key)) {
+            high = (long) IpUtil.ipv4ToInt(key) << 32;
+            low = 0;
+            trie = ipv4Trie;
+        } else {
+            long[] ipv6 = IpUtil.ipv6ToLongs(key);
+            if (ipv6 == null) {
+                return;
+            }
+            high = ipv6[0];
+            low = ipv6[1];
+            trie = ipv6Trie;
+        }
+        lock.writeLock().lock();
+        try {
+            // a result already covering the deepest indexed prefix makes this one redundant
+            long match = trie.longestMatch(high, low);
+            if (match >= 0 && (int) (match >> 32) == trie.getMaxDepth()) {
+                return;
+            }
+            values.add(ipInfo);
+            trie.insert(high, low, values.size() - 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        log.info("Prefix cache hits: " + hits.get() + ", networks: " + values.size());
+    }
+
+    /**
+     * Copy the neighbour's result for the queried IP, dropping fields that are not shared
+     * across the matched prefix length.
+     */
+    private static IpInfo answer(String ip, IpInfo neighbour, int depth, Map<IpinfoEnum, Integer> prefixLengths) {
+        IpInfo ipInfo = new IpInfo(
+                ip,
+                depth >= prefixLengths.get(IpinfoEnum.COUNTRY) ? neighbour.getCountry() : null,
+                depth >= prefixLengths.get(IpinfoEnum.COUNTRY_CODE) ? neighbour.getCountryCode() : null,
+                depth >= prefixLengths.get(IpinfoEnum.REGION) ? neighbour.getRegion() : null,
+                depth >= prefixLengths.get(IpinfoEnum.REGION_CODE) ? neighbour.getRegionCode() : null,
+                depth >= prefixLengths.get(IpinfoEnum.CITY) ? neighbour.getCity() : null,
+                depth >= prefixLengths.get(IpinfoEnum.ISP) ? neighbour.getIsp() : null,
+                depth >= prefixLengths.get(IpinfoEnum.LATITUDE) ? neighbour.getLatitude() : null,
+                depth >= prefixLengths.get(IpinfoEnum.LONGITUDE) ? neighbour.getLongitude() : null
+        );
+        ipInfo.setParserName(neighbour.getParserName());
+        ipInfo.setParseTimeTs(neighbour.getParseTimeTs());
+        return ipInfo;
+    }
+
+    private static int requiredLength(Collection<IpinfoEnum> fields, Map<IpinfoEnum, Integer> prefixLengths) {
+        int required = 0;
+        for (IpinfoEnum field : fields) {
+            required = Math.max(required, prefixLengths.get(field));
+        }
+        return required;
+    }
+
+    private static Map<IpinfoEnum, Integer> withDefaults(Map<IpinfoEnum, Integer> prefixLengths, Map<IpinfoEnum, Integer> defaults, int addressBits) {
+        Map<IpinfoEnum, Integer> merged = new EnumMap<>(defaults);
+        for (Map.Entry<IpinfoEnum, Integer> entry : prefixLengths.entrySet()) {
+            merged.put(entry.getKey(), Math.max(0, Math.min(addressBits, entry.getValue())));
+        }
+        return merged;
+    }
+
+}
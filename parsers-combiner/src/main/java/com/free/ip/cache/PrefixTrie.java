@@ -0,0 +1,105 @@
+package com.free.ip.cache;
+
+import java.util.Arrays;
+
+/**
+ * Binary radix trie over 128-bit keys (IPv4 keys occupy the top 32 bits), stored in
+ * parallel int arrays instead of node objects. Every node on an inserted path remembers
+ * the value index of the latest key inserted below it, so a walk down the trie yields
+ * the longest prefix the query shares with any stored key. Not thread-safe.
+ */
+class PrefixTrie {
+
+    private static final int NONE = -1;
+
+    private final int maxDepth;
+
+    private int[] zero;
+
+    private int[] one;
+
+    private int[] value;
+
+    private int nodeCount;
+
+    /**
+     * @param maxDepth the number of leading key bits that are indexed
+     */
+    PrefixTrie(int maxDepth) {
+        this.maxDepth = maxDepth;
+        zero = new int[1024];
+        one = new int[1024];
+        value = new int[1024];
+        Arrays.fill(zero, NONE);
+        Arrays.fill(one, NONE);
+        Arrays.fill(value, NONE);
+        nodeCount = 1;
+    }
+
+    int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Index the first {@code maxDepth} bits of the key, pointing every node on the path at the value.
+     */
+    void insert(long high, long low, int valueIndex) {
+        int node = 0;
+        value[node] = valueIndex;
+        for (int depth = 0; depth < maxDepth; depth++) {
+            int[] children = bit(high, low, depth) == 0 ? zero : one;
+            int child = children[node];
+            if (child == NONE) {
+                child = newNode();
+                // newNode may have grown the arrays
+                children = bit(high, low, depth) == 0 ? zero : one;
+                children[node] = child;
+            }
+            node = child;
+            value[node] = valueIndex;
+        }
+    }
+
+    /**
+     * @return the matched depth in the high 32 bits and the value index in the low 32 bits,
+     * or -1 if the trie is empty
+     */
+    long longestMatch(long high, long low) {
+        int node = 0;
+        if (value[node] == NONE) {
+            return -1;
+        }
+        int depth = 0;
+        while (depth < maxDepth) {
+            int child = (bit(high, low, depth) == 0 ? zero : one)[node];
+            if (child == NONE) {
+                break;
+            }
+            node = child;
+            depth++;
+        }
+        return ((long) depth << 32) | value[node];
+    }
+
+    int size() {
+        return nodeCount;
+    }
+
+    private int newNode() {
+        if (nodeCount == zero.length) {
+            int capacity = zero.length * 2;
+            zero = Arrays.copyOf(zero, capacity);
+            one = Arrays.copyOf(one, capacity);
+            value = Arrays.copyOf(value, capacity);
+            Arrays.fill(zero, nodeCount, capacity, NONE);
+            Arrays.fill(one, nodeCount, capacity, NONE);
+            Arrays.fill(value, nodeCount, capacity, NONE);
+        }
+        return nodeCount++;
+    }
+
+    private static int bit(long high, long low, int index) {
+        return index < 64 ? (int) (high >>> (63 - index)) & 1 : (int) (low >>> (127 - index)) & 1;
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.free.ip.cache;
+
+import com.free.ip.pojo.IpInfo;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Consults several caches in order, e.g. an exact persistent cache before a prefix cache.
+ * Results are written through to every tier, and a hit in one tier is put into the tiers
+ * before it, so the next lookup of the IP stops at the first one.
+ */
+public class TieredIpCache implements IpInfoCache {
+
+    private final List<IpInfoCache> tiers;
+
+    public TieredIpCache(IpInfoCache... tiers) {
+        this.tiers = Arrays.asList(tiers);
+    }
+
+    @Override
+    public IpInfo get(String ip) {
+        for (int i = 0; i < tiers.size(); i++) {
+            IpInfo ipInfo = tiers.get(i).get(ip);
+            if (ipInfo != null) {
+                for (int j = 0; j < i; j++) {
+                    tiers.get(j).put(ip, ipInfo);
+                }
+                return ipInfo;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void put(String ip, IpInfo ipInfo) {
+        for (IpInfoCache tier : tiers) {
+            tier.put(ip, ipInfo);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (IpInfoCache tier : tiers) {
+            tier.close();
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+package com.free.ip.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lookups answered, from a provider or a cache, and given up on, with the throughput since
+ * the first one. Lookups that shared the request of a concurrent one for the same IP are
+ * counted among those too, and on their own as coalesced.
+ *
+ * 查询总数、失败数和自第一次查询以来的吞吐量。
+ */
+public class LookupMetrics implements LookupMetricsMXBean {
+
+    private final LongAdder completed = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    private final AtomicLong firstNanos = new AtomicLong();
+
+    public void lookupCompleted() {
+        start();
+        completed.increment();
+    }
+
+    public void lookupFailed() {
+        start();
+        failed.increment();
+    }
+
+    public void lookupCoalesced() {
+        coalesced.increment();
+    }
+
+    private void start() {
+        if (firstNanos.get() == 0) {
+            firstNanos.compareAndSet(0, System.nanoTime());
+        }
+    }
+
+    @Override
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    @Override
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public double getIpsPerSecond() {
+        long first = firstNanos.get();
+        long elapsedNanos = System.nanoTime() - first;
+        return first == 0 || elapsedNanos <= 0 ? 0 : (getCompleted() + getFailed()) * 1e9 / elapsedNanos;
+    }
+
+    void reset() {
+        completed.reset();
+        failed.reset();
+        coalesced.reset();
+        firstNanos.set(0);
+    }
+
+}
@@ -0,0 +1,16 @@
+package com.free.ip.metrics;
+
+/**
+ * JMX view of {@link LookupMetrics}, registered as com.free.ip:type=Lookups.
+ */
+public interface LookupMetricsMXBean {
+
+    long getCompleted();
+
+    long getFailed();
+
+    long getCoalesced();
+
+    double getIpsPerSecond();
+
+}
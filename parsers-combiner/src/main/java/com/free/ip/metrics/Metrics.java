@@ -0,0 +1,240 @@
+package com.free.ip.metrics;
+
+import com.free.ip.parser.IpParser;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.log4j.Log4j2;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+/**
+ * Process-wide registry of one {@link ParserMetrics} per provider, keyed by parser name like
+ * the rate limiters, plus the {@link LookupMetrics} of every run. The executors record into
+ * it unconditionally, it costs a few uncontended increments per request; it can be exposed
+ * as MXBeans, as the Prometheus text format over HTTP, or written to a file for the node
+ * exporter's textfile collector.
+ *
+ * 全局的解析器指标注册表，可通过JMX、Prometheus HTTP接口或文本文件导出。
+ */
+@Log4j2
+public class Metrics {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final Map<String, ParserMetrics> PARSERS = new ConcurrentHashMap<>();
+
+    private static final LookupMetrics LOOKUPS = new LookupMetrics();
+
+    private static volatile boolean jmxRegistered;
+
+    /**
+     * @param parser
+     * @return the shared metrics of the parser, created on first use
+     */
+    public static ParserMetrics forParser(IpParser parser) {
+        String name = parser.getName();
+        ParserMetrics metrics = PARSERS.get(name);
+        if (metrics != null) {
+            return metrics;
+        }
+        return PARSERS.computeIfAbsent(name, key -> {
+            ParserMetrics created = new ParserMetrics(key);
+            if (jmxRegistered) {
+                register(created, "com.free.ip:type=Parser,name=" + ObjectName.quote(key));
+            }
+            return created;
+        });
+    }
+
+    public static LookupMetrics lookups() {
+        return LOOKUPS;
+    }
+
+    /**
+     * @return the metrics of every parser used so far, by name
+     */
+    public static Map<String, ParserMetrics> getParsers() {
+        return new TreeMap<>(PARSERS);
+    }
+
+    /**
+     * Register the lookup metrics and those of every parser, used so far or later, with the
+     * platform MBean server.
+     */
+    public static synchronized void registerJmx() {
+        if (jmxRegistered) {
+            return;
+        }
+        jmxRegistered = true;
+        register(LOOKUPS, "com.free.ip:type=Lookups");
+        for (ParserMetrics metrics : PARSERS.values()) {
+            register(metrics, "com.free.ip:type=Parser,name=" + ObjectName.quote(metrics.getName()));
+        }
+    }
+
+    private static void register(Object bean, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(bean, objectName);
+            }
+        } catch (Exception e) {
+            log.error("Error registering MBean " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write every metric in the Prometheus text exposition format.
+     */
+    public static void writePrometheus(Appendable out) throws IOException {
+        List<ParserMetrics> parsers = new ArrayList<>(getParsers().values());
+        counter(out, parsers, "freeip_parser_requests_total", "Requests sent to the provider", ParserMetrics::getRequests);
+        counter(out, parsers, "freeip_parser_successes_total", "Requests answering at least one IP", ParserMetrics::getSuccesses);
+        counter(out, parsers, "freeip_parser_failures_total", "Requests failed, timeouts and rate limits included", ParserMetrics::getFailures);
+        counter(out, parsers, "freeip_parser_timeouts_total", "Requests timed out", ParserMetrics::getTimeouts);
+        counter(out, parsers, "freeip_parser_rate_limited_total", "Requests the provider rate limited", ParserMetrics::getRateLimited);
+        counter(out, parsers, "freeip_parser_cancelled_total", "Requests cancelled after a hedge won", ParserMetrics::getCancelled);
+        out.append("# HELP freeip_parser_in_flight Requests awaiting a response\n");
+        out.append("# TYPE freeip_parser_in_flight gauge\n");
+        for (ParserMetrics metrics : parsers) {
+            out.append("freeip_parser_in_flight{parser=\"").append(escape(metrics.getName())).append("\"} ")
+                    .append(String.valueOf(metrics.getInFlight())).append('\n');
+        }
+        summary(out, parsers, "freeip_parser_latency_seconds", "Provider response time", false);
+        summary(out, parsers, "freeip_parser_queue_wait_seconds", "Time waited for a free parser and its rate limiter", true);
+        out.append("# HELP freeip_lookups_total Lookups answered or given up on\n");
+        out.append("# TYPE freeip_lookups_total counter\n");
+        out.append("freeip_lookups_total{result=\"completed\"} ").append(String.valueOf(LOOKUPS.getCompleted())).append('\n');
+        out.append("freeip_lookups_total{result=\"failed\"} ").append(String.valueOf(LOOKUPS.getFailed())).append('\n');
+        out.append("# HELP freeip_lookups_coalesced_total Lookups that shared the request of a concurrent lookup for the same IP\n");
+        out.append("# TYPE freeip_lookups_coalesced_total counter\n");
+        out.append("freeip_lookups_coalesced_total ").append(String.valueOf(LOOKUPS.getCoalesced())).append('\n');
+        out.append("# HELP freeip_lookups_per_second Lookups per second since the first one\n");
+        out.append("# TYPE freeip_lookups_per_second gauge\n");
+        out.append("freeip_lookups_per_second ").append(String.valueOf(LOOKUPS.getIpsPerSecond())).append('\n');
+    }
+
+    private interface Counter {
+        long get(ParserMetrics metrics);
+    }
+
+    private static void counter(Appendable out, List<ParserMetrics> parsers, String name, String help, Counter counter) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        for (ParserMetrics metrics : parsers) {
+            out.append(name).append("{parser=\"").append(escape(metrics.getName())).append("\"} ")
+                    .append(String.valueOf(counter.get(metrics))).append('\n');
+        }
+    }
+
+    private static void summary(Appendable out, List<ParserMetrics> parsers, String name, String help, boolean queueWait) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" summary\n");
+        for (ParserMetrics metrics : parsers) {
+            LatencyHistogram histogram = queueWait ? metrics.getQueueWait() : metrics.getLatency();
+            String label = "parser=\"" + escape(metrics.getName()) + "\"";
+            for (double quantile : QUANTILES) {
+                out.append(name).append('{').append(label).append(",quantile=\"").append(String.valueOf(quantile)).append("\"} ")
+                        .append(String.valueOf(histogram.percentileMicros(quantile) / 1e6)).append('\n');
+            }
+            out.append(name).append("_sum{").append(label).append("} ").append(String.valueOf(histogram.getSumMicros() / 1e6)).append('\n');
+            out.append(name).append("_count{").append(label).append("} ").append(String.valueOf(histogram.getCount())).append('\n');
+        }
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * @return the metrics in the Prometheus text format
+     */
+    public static String toPrometheus() {
+        StringBuilder out = new StringBuilder();
+        try {
+            writePrometheus(out);
+        } catch (IOException e) {
+            // a StringBuilder does not throw
+        }
+        return out.toString();
+    }
+
+    /**
+     * Serve the metrics at http://host:port/metrics on a daemon thread.
+     *
+     * @param port the port to listen on, 0 for any free one
+     * @return the server, to stop it or read its port, or null if it could not be started
+     */
+    public static HttpServer startHttpServer(int port) {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "metrics-http");
+                thread.setDaemon(true);
+                return thread;
+            }));
+            server.createContext("/metrics", exchange -> {
+                try {
+                    byte[] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                } finally {
+                    exchange.close();
+                }
+            });
+            server.start();
+            log.info("Serving metrics at http://localhost:" + server.getAddress().getPort() + "/metrics");
+            return server;
+        } catch (IOException e) {
+            log.error("Error starting the metrics server on port " + port + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Write the metrics to a file, replacing it atomically so a reader never sees half of it.
+     *
+     * @return false if the file could not be written
+     */
+    public static boolean writeFile(Path path) {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writePrometheus(writer);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            log.error("Error writing metrics to " + path + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Forget every metric, for tests.
+     */
+    public static void reset() {
+        PARSERS.clear();
+        LOOKUPS.reset();
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.free.ip.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one parser's requests, shared by every executor in the JVM. A request that
+ * carries a batch counts once. Timeouts and rate limits are failures too, counted again on their own;
+ * a request cancelled because its hedge won is neither a success nor a failure. The queue
+ * wait is how long the oldest lookup of a request waited for a free, healthy parser and
+ * for its rate limiter.
+ *
+ * 单个解析器的请求计数、延迟和排队时间直方图，由同一JVM中的所有执行器共享。
+ */
+public class ParserMetrics implements ParserMetricsMXBean {
+
+    private final String name;
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder successes = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final LongAdder timeouts = new LongAdder();
+
+    private final LongAdder rateLimited = new LongAdder();
+
+    private final LongAdder cancelled = new LongAdder();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+
+    ParserMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param queueWaitNanos how long the request waited before being sent
+     */
+    public void requestStarted(long queueWaitNanos) {
+        requests.increment();
+        inFlight.incrementAndGet();
+        queueWait.recordNanos(queueWaitNanos);
+    }
+
+    /**
+     * @param success      whether the request answered at least one IP
+     * @param latencyNanos from sending the request to its response
+     */
+    public void requestCompleted(boolean success, long latencyNanos) {
+        inFlight.decrementAndGet();
+        latency.recordNanos(latencyNanos);
+        if (success) {
+            successes.increment();
+        } else {
+            failures.increment();
+        }
+    }
+
+    public void requestCancelled() {
+        inFlight.decrementAndGet();
+        cancelled.increment();
+    }
+
+    /**
+     * Mark a failure as a timeout, on top of {@link #requestCompleted(boolean, long)}.
+     */
+    public void requestTimedOut() {
+        timeouts.increment();
+    }
+
+    /**
+     * Mark a failure as a rate limit answered by the provider, on top of {@link #requestCompleted(boolean, long)}.
+     */
+    public void requestRateLimited() {
+        rateLimited.increment();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    @Override
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    @Override
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getTimeouts() {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getRateLimited() {
+        return rateLimited.sum();
+    }
+
+    @Override
+    public long getCancelled() {
+        return cancelled.sum();
+    }
+
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public double getLatencyP50Millis() {
+        return latency.percentileMicros(0.5) / 1e3;
+    }
+
+    @Override
+    public double getLatencyP99Millis() {
+        return latency.percentileMicros(0.99) / 1e3;
+    }
+
+    @Override
+    public double getLatencyMaxMillis() {
+        return latency.getMaxMicros() / 1e3;
+    }
+
+    @Override
+    public double getQueueWaitP50Millis() {
+        return queueWait.percentileMicros(0.5) / 1e3;
+    }
+
+    @Override
+    public double getQueueWaitP99Millis() {
+        return queueWait.percentileMicros(0.99) / 1e3;
+    }
+
+    @Override
+    public String toString() {
+        return name + "{requests=" + getRequests() + ", successes=" + getSuccesses() + ", failures=" + getFailures()
+                + ", timeouts=" + getTimeouts() + ", rateLimited=" + getRateLimited() + ", inFlight=" + getInFlight()
+                + String.format(", p50=%.1fms, p99=%.1fms}", getLatencyP50Millis(), getLatencyP99Millis());
+    }
+
+}
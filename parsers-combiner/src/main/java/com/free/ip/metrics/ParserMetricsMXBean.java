@@ -0,0 +1,32 @@
+package com.free.ip.metrics;
+
+/**
+ * JMX view of {@link ParserMetrics}, registered as com.free.ip:type=Parser,name=&lt;parser name&gt;.
+ */
+public interface ParserMetricsMXBean {
+
+    long getRequests();
+
+    long getSuccesses();
+
+    long getFailures();
+
+    long getTimeouts();
+
+    long getRateLimited();
+
+    long getCancelled();
+
+    int getInFlight();
+
+    double getLatencyP50Millis();
+
+    double getLatencyP99Millis();
+
+    double getLatencyMaxMillis();
+
+    double getQueueWaitP50Millis();
+
+    double getQueueWaitP99Millis();
+
+}
@@ -0,0 +1,332 @@
+package com.free.ip.parser;
+
+import com.free.ip.metrics.Metrics;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.Endpoints;
+import com.free.ip.utils.HttpUtil;
+import com.free.ip.utils.IpUtil;
+import com.free.ip.utils.JsonProjection;
+import lombok.extern.log4j.Log4j2;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Base class for parsers backed by a JSON-over-HTTP provider. All subclasses
+ * share the pooled client in {@link HttpUtil}, so keep-alive connections are
+ * reused across lookups instead of paying a TCP+TLS handshake per IP.
+ * <p>
+ * Subclasses declaring {@link #getJsonPaths()} are read through a {@link JsonProjection}
+ * once {@link #setRequestedFields(Collection)} has been called: only the requested fields
+ * are pulled from the response bytes, with no JSON tree or body String in between.
+ * <p>
+ * Failed lookups throw, or complete their futures with, a {@link LookupException} telling
+ * a rate limit, an invalid IP, a provider error and a transport error apart; IPs that are
+ * not IP addresses fail as invalid input without a request.
+ */
+@Log4j2
+public abstract class AbstractIpParser implements IpParser {
+
+    /**
+     * The compiled projection: the values of the fields first, then the required values, then
+     * the provider's explanation if it gives one.
+     */
+    private static class Projection {
+        final IpinfoEnum[] fields;
+        final String[] requiredPaths;
+        final String[] required;
+        final boolean explained;
+        final JsonProjection json;
+
+        Projection(IpinfoEnum[] fields, String[] paths, String[] requiredPaths, String[] required, boolean explained) {
+            this.fields = fields;
+            this.requiredPaths = requiredPaths;
+            this.required = required;
+            this.explained = explained;
+            this.json = new JsonProjection(paths);
+        }
+
+        /**
+         * @return the IpInfo of the extracted values
+         * @throws LookupException invalid input if a required value does not match
+         */
+        IpInfo toIpInfo(String[] values) {
+            for (int i = 0; i < required.length; i++) {
+                String value = values[fields.length + i];
+                if (!required[i].equals(value)) {
+                    String explanation = explained ? values[fields.length + required.length] : null;
+                    throw LookupException.invalidInput(explanation != null ? explanation : requiredPaths[i] + "=" + value);
+                }
+            }
+            IpInfo ipInfo = new IpInfo(null, null, null, null, null, null, null, null, null);
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] == IpinfoEnum.LATITUDE || fields[i] == IpinfoEnum.LONGITUDE) {
+                    ipInfo.set(fields[i], toDouble(values[i]));
+                } else {
+                    ipInfo.set(fields[i], values[i] != null ? values[i] : "");
+                }
+            }
+            return ipInfo;
+        }
+
+        private static Double toDouble(String value) {
+            try {
+                return value != null ? Double.valueOf(value) : Double.NaN;
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+    }
+
+    private volatile Projection projection;
+
+    /**
+     * Build the provider URL for the given IP
+     *
+     * @param ip
+     * @return the URL to request
+     */
+    protected abstract String buildUrl(String ip);
+
+    /**
+     * Build the URL of the provider's batch endpoint, which takes a JSON array of IPs and
+     * answers a JSON array of results in the same order
+     *
+     * @return the URL to POST batches to, or null if the provider has none
+     */
+    protected String buildBatchUrl() {
+        return null;
+    }
+
+    /**
+     * Where each supported field is found in the provider's response, as a dotted path of
+     * object keys, e.g. "location.city". Values are read like {@link JSONObject#optString}
+     * and {@link JSONObject#optDouble} do: missing strings become "" and missing numbers NaN.
+     *
+     * @return the path of each field, or null to always go through {@link #parseIpData(JSONObject)}
+     */
+    protected Map<IpinfoEnum, String> getJsonPaths() {
+        return null;
+    }
+
+    /**
+     * @return values a response must contain to count as a result, by dotted path; a response
+     * without them is the provider refusing the IP, e.g. a private one, and fails as invalid input
+     */
+    protected Map<String, String> getRequiredJsonValues() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * @return the dotted path of the provider's explanation in a response lacking the
+     * {@link #getRequiredJsonValues()}, or null if it gives none
+     */
+    protected String getErrorMessagePath() {
+        return null;
+    }
+
+    /**
+     * Parser instances are shared, see {@link ParserRegistry}, so the fields requested by
+     * successive callers add up rather than replace each other: no caller loses a field.
+     */
+    @Override
+    public synchronized void setRequestedFields(Collection<IpinfoEnum> fields) {
+        Map<IpinfoEnum, String> jsonPaths = getJsonPaths();
+        if (jsonPaths == null) {
+            return;
+        }
+        Set<IpinfoEnum> wanted = EnumSet.of(IpinfoEnum.IP);
+        if (projection != null) {
+            wanted.addAll(Arrays.asList(projection.fields));
+        }
+        wanted.addAll(fields);
+        wanted.retainAll(jsonPaths.keySet());
+        IpinfoEnum[] projected = wanted.toArray(new IpinfoEnum[0]);
+        Map<String, String> required = getRequiredJsonValues();
+        List<String> paths = new ArrayList<>();
+        for (IpinfoEnum field : projected) {
+            paths.add(jsonPaths.get(field));
+        }
+        paths.addAll(required.keySet());
+        String errorMessagePath = getErrorMessagePath();
+        if (errorMessagePath != null) {
+            paths.add(errorMessagePath);
+        }
+        projection = new Projection(projected, paths.toArray(new String[0]), required.keySet().toArray(new String[0]),
+                required.values().toArray(new String[0]), errorMessagePath != null);
+    }
+
+    @Override
+    public JSONObject fetchIpData(String ip) {
+        checkIp(ip);
+        String ipApiUrl = Endpoints.resolve(this, buildUrl(ip));
+        try {
+            return HttpUtil.getJson(ipApiUrl);
+        } catch (Exception e) {
+            throw failure("Failed to extract JSON object from " + ipApiUrl, e);
+        }
+    }
+
+    @Override
+    public IpInfo getIpInfo(String ip) {
+        Projection projection = this.projection;
+        if (projection == null) {
+            return IpParser.super.getIpInfo(ip);
+        }
+        checkIp(ip);
+        String ipApiUrl = Endpoints.resolve(this, buildUrl(ip));
+        try {
+            String[] values = HttpUtil.getProjected(ipApiUrl, projection.json);
+            return values == null ? null : stamp(projection.toIpInfo(values));
+        } catch (Exception e) {
+            throw failure("Failed to extract JSON values from " + ipApiUrl, e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<IpInfo> getIpInfoAsync(String ip) {
+        if (!IpUtil.isIp(ip)) {
+            CompletableFuture<IpInfo> invalid = new CompletableFuture<>();
+            invalid.completeExceptionally(LookupException.invalidInput("Not an IP address: " + ip));
+            return invalid;
+        }
+        String ipApiUrl = Endpoints.resolve(this, buildUrl(ip));
+        Projection projection = this.projection;
+        if (projection != null) {
+            CompletableFuture<String[]> request = HttpUtil.getProjectedAsync(ipApiUrl, projection.json);
+            return HttpUtil.forwardCancel(request
+                    .handle((values, e) -> {
+                        if (e != null) {
+                            throw failure("Failed to extract JSON values from " + ipApiUrl, e);
+                        }
+                        return values == null ? null : stamp(projection.toIpInfo(values));
+                    }), request);
+        }
+        CompletableFuture<JSONObject> request = HttpUtil.getJsonAsync(ipApiUrl);
+        return HttpUtil.forwardCancel(request
+                .handle((json, e) -> {
+                    if (e != null) {
+                        throw failure("Failed to extract JSON object from " + ipApiUrl, e);
+                    }
+                    return json == null ? null : stamp(parseIpData(json));
+                }), request);
+    }
+
+    @Override
+    public List<IpInfo> getIpInfos(List<String> ips) {
+        String batchUrl = Endpoints.resolve(this, buildBatchUrl());
+        if (batchUrl == null || ips.size() == 1) {
+            return IpParser.super.getIpInfos(ips);
+        }
+        Projection projection = this.projection;
+        try {
+            if (projection != null) {
+                return parseBatch(projection, HttpUtil.postProjected(batchUrl, new JSONArray(ips), projection.json), ips.size());
+            }
+            return parseBatch(HttpUtil.postJson(batchUrl, new JSONArray(ips)), ips.size());
+        } catch (Exception e) {
+            throw failure("Failed to extract JSON array from " + batchUrl, e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<IpInfo>> getIpInfosAsync(List<String> ips) {
+        String batchUrl = Endpoints.resolve(this, buildBatchUrl());
+        if (batchUrl == null || ips.size() == 1) {
+            return IpParser.super.getIpInfosAsync(ips);
+        }
+        Projection projection = this.projection;
+        if (projection != null) {
+            CompletableFuture<List<String[]>> request = HttpUtil.postProjectedAsync(batchUrl, new JSONArray(ips), projection.json);
+            return HttpUtil.forwardCancel(request
+                    .handle((elements, e) -> {
+                        if (e != null) {
+                            throw failure("Failed to extract JSON values from " + batchUrl, e);
+                        }
+                        return parseBatch(projection, elements, ips.size());
+                    }), request);
+        }
+        CompletableFuture<JSONArray> request = HttpUtil.postJsonAsync(batchUrl, new JSONArray(ips));
+        return HttpUtil.forwardCancel(request
+                .handle((array, e) -> {
+                    if (e != null) {
+                        throw failure("Failed to extract JSON array from " + batchUrl, e);
+                    }
+                    return parseBatch(array, ips.size());
+                }), request);
+    }
+
+    /**
+     * An IP the provider refused does not fail the others of the batch, its entry is null.
+     */
+    private List<IpInfo> parseBatch(JSONArray array, int size) {
+        List<IpInfo> ipInfos = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            JSONObject json = array != null ? array.optJSONObject(i) : null;
+            try {
+                ipInfos.add(json != null ? stamp(parseIpData(json)) : null);
+            } catch (LookupException e) {
+                ipInfos.add(null);
+            }
+        }
+        return ipInfos;
+    }
+
+    private List<IpInfo> parseBatch(Projection projection, List<String[]> elements, int size) {
+        List<IpInfo> ipInfos = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            String[] values = elements != null && i < elements.size() ? elements.get(i) : null;
+            try {
+                ipInfos.add(values != null ? stamp(projection.toIpInfo(values)) : null);
+            } catch (LookupException e) {
+                ipInfos.add(null);
+            }
+        }
+        return ipInfos;
+    }
+
+    private static void checkIp(String ip) {
+        if (!IpUtil.isIp(ip)) {
+            throw LookupException.invalidInput("Not an IP address: " + ip);
+        }
+    }
+
+    /**
+     * Log a failed request and classify it, counting it in the parser's metrics if it timed
+     * out or was rate limited.
+     */
+    private LookupException failure(String message, Throwable e) {
+        LookupException failure = LookupException.of(e);
+        if (failure.isTimeout()) {
+            Metrics.forParser(this).requestTimedOut();
+        }
+        if (failure.getReason() == LookupException.Reason.RATE_LIMITED) {
+            Metrics.forParser(this).requestRateLimited();
+        }
+        if (failure.isParserFault()) {
+            log.error(message, e);
+        } else {
+            log.warn(message + ": " + failure.getMessage());
+        }
+        return failure;
+    }
+
+    private IpInfo stamp(IpInfo ipInfo) {
+        if (ipInfo != null) {
+            ipInfo.setParserName(getName());
+            ipInfo.setParseTimeTs(System.currentTimeMillis());
+        }
+        return ipInfo;
+    }
+
+}
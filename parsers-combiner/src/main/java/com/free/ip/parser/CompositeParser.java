@@ -0,0 +1,236 @@
+package com.free.ip.parser;
+
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.pojo.RateLimit;
+import com.free.ip.utils.HttpUtil;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+/**
+ * Parser made of several parsers that each answer only some of the requested fields. Every
+ * lookup queries all parts in parallel and merges their results, each field taken from the
+ * part it is assigned to; if any part fails, the lookup fails. Built by {@link QueryPlanner}.
+ * The parts keep the fields requested from them beforehand: parser instances are shared, so
+ * the fields one part owns here cannot narrow what it extracts for its other callers.
+ *
+ * 组合解析器：由多个只支持部分字段的解析器组成，并行查询各解析器并按字段合并结果。
+ */
+public class CompositeParser implements IpParser {
+
+    private final List<IpParser> parts;
+
+    private final Map<IpinfoEnum, Integer> fieldOwners = new EnumMap<>(IpinfoEnum.class);
+
+    private final String name;
+
+    /**
+     * @param parts  the parsers to combine, earlier ones are preferred for fields several of them support
+     * @param fields the fields to answer, each supported by at least one part
+     */
+    public CompositeParser(List<IpParser> parts, List<IpinfoEnum> fields) {
+        this.parts = new ArrayList<>(parts);
+        for (IpinfoEnum field : fields) {
+            for (int i = 0; i < parts.size(); i++) {
+                if (parts.get(i).getSupportedFields().contains(field)) {
+                    fieldOwners.put(field, i);
+                    break;
+                }
+            }
+            if (!fieldOwners.containsKey(field)) {
+                throw new IllegalArgumentException("No part supports " + field);
+            }
+        }
+        this.name = parts.stream()
+                .map(IpParser::getName)
+                .collect(Collectors.joining("+"));
+    }
+
+    public List<IpParser> getParts() {
+        return parts;
+    }
+
+    /**
+     * @return the names of the parts joined by '+', e.g. "Ip2LocationParser+IpSbParser"
+     */
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public Set<IpinfoEnum> getSupportedFields() {
+        return new HashSet<>(fieldOwners.keySet());
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return parts.stream().allMatch(IpParser::isAvailable);
+    }
+
+    /**
+     * @return the strictest limit among the parts, each lookup costs a request from every part
+     */
+    @Override
+    public RateLimit getRateLimit() {
+        RateLimit strictest = RateLimit.UNLIMITED;
+        for (IpParser part : parts) {
+            RateLimit limit = part.getRateLimit();
+            if (limit.getPermitsPerSecond() < strictest.getPermitsPerSecond()) {
+                strictest = limit;
+            }
+        }
+        return strictest;
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return parts.stream().mapToInt(IpParser::getMaxBatchSize).min().orElse(1);
+    }
+
+    @Override
+    public int getRequestCost(int batchSize) {
+        return parts.stream().mapToInt(p -> p.getRequestCost(batchSize)).max().orElse(1);
+    }
+
+    @Override
+    public JSONObject fetchIpData(String ip) {
+        IpInfo ipInfo = getIpInfo(ip);
+        return ipInfo != null ? new JSONObject(ipInfo) : null;
+    }
+
+    @Override
+    public IpInfo parseIpData(JSONObject json) {
+        return new IpInfo(
+                json.optString("ip", null),
+                json.optString("country", null),
+                json.optString("countryCode", null),
+                json.optString("region", null),
+                json.optString("regionCode", null),
+                json.optString("city", null),
+                json.optString("isp", null),
+                json.has("latitude") ? json.getDouble("latitude") : null,
+                json.has("longitude") ? json.getDouble("longitude") : null
+        );
+    }
+
+    @Override
+    public IpInfo getIpInfo(String ip) {
+        try {
+            return getIpInfoAsync(ip).join();
+        } catch (CompletionException e) {
+            throw LookupException.of(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<IpInfo> getIpInfoAsync(String ip) {
+        List<CompletableFuture<IpInfo>> lookups = new ArrayList<>(parts.size());
+        for (IpParser part : parts) {
+            lookups.add(part.getIpInfoAsync(ip));
+        }
+        CompletableFuture<IpInfo> merged = CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0]))
+                .handle((v, e) -> {
+                    throwFirstFailure(lookups);
+                    List<IpInfo> infos = new ArrayList<>(lookups.size());
+                    for (CompletableFuture<IpInfo> lookup : lookups) {
+                        infos.add(lookup.join());
+                    }
+                    return merge(ip, infos);
+                });
+        cancelWith(merged, lookups);
+        return merged;
+    }
+
+    @Override
+    public List<IpInfo> getIpInfos(List<String> ips) {
+        try {
+            return getIpInfosAsync(ips).join();
+        } catch (CompletionException e) {
+            throw LookupException.of(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<IpInfo>> getIpInfosAsync(List<String> ips) {
+        List<CompletableFuture<List<IpInfo>>> lookups = new ArrayList<>(parts.size());
+        for (IpParser part : parts) {
+            lookups.add(part.getIpInfosAsync(ips));
+        }
+        CompletableFuture<List<IpInfo>> merged = CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0]))
+                .handle((v, e) -> {
+                    throwFirstFailure(lookups);
+                    List<IpInfo> ipInfos = new ArrayList<>(ips.size());
+                    for (int i = 0; i < ips.size(); i++) {
+                        List<IpInfo> infos = new ArrayList<>(lookups.size());
+                        for (CompletableFuture<List<IpInfo>> lookup : lookups) {
+                            List<IpInfo> partInfos = lookup.join();
+                            infos.add(partInfos != null && i < partInfos.size() ? partInfos.get(i) : null);
+                        }
+                        ipInfos.add(merge(ips.get(i), infos));
+                    }
+                    return ipInfos;
+                });
+        cancelWith(merged, lookups);
+        return merged;
+    }
+
+    /**
+     * Fail the merged lookup like the first part that failed, so a rate limit or an invalid
+     * IP reported by any provider is handled as such.
+     */
+    private static void throwFirstFailure(List<? extends CompletableFuture<?>> lookups) {
+        for (CompletableFuture<?> lookup : lookups) {
+            if (lookup.isCompletedExceptionally()) {
+                try {
+                    lookup.join();
+                } catch (CompletionException | CancellationException e) {
+                    throw LookupException.of(e);
+                }
+            }
+        }
+    }
+
+    private static void cancelWith(CompletableFuture<?> merged, List<? extends CompletableFuture<?>> lookups) {
+        for (CompletableFuture<?> lookup : lookups) {
+            HttpUtil.forwardCancel(merged, lookup);
+        }
+    }
+
+    /**
+     * @param infos the result of each part, in the order of the parts
+     * @return the merged result, or null if any part failed
+     */
+    private IpInfo merge(String ip, List<IpInfo> infos) {
+        if (infos.contains(null)) {
+            return null;
+        }
+        IpInfo merged = new IpInfo(ip, null, null, null, null, null, null, null, null);
+        for (Map.Entry<IpinfoEnum, Integer> owner : fieldOwners.entrySet()) {
+            Object value = infos.get(owner.getValue()).get(owner.getKey());
+            // keep the queried IP if the provider omitted it
+            if (owner.getKey() != IpinfoEnum.IP || (value != null && !value.toString().isEmpty())) {
+                merged.set(owner.getKey(), value);
+            }
+        }
+        merged.setParserName(name);
+        merged.setParseTimeTs(System.currentTimeMillis());
+        return merged;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+}
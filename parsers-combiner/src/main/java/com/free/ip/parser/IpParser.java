@@ -2,9 +2,16 @@ package com.free.ip.parser;
 
 import com.free.ip.pojo.IpInfo;
 import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.pojo.RateLimit;
+import com.free.ip.utils.HttpUtil;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public interface IpParser {
 
@@ -13,11 +20,59 @@ public interface IpParser {
      */
     Set<IpinfoEnum> getSupportedFields();
 
+    /**
+     * @return the name per-provider settings, limits and metrics are keyed by, the simple class name by default
+     */
+    default String getName() {
+        String name = getClass().getSimpleName();
+        return name.isEmpty() ? getClass().getName() : name;
+    }
+
+    /**
+     * @return false if the parser cannot answer at all, e.g. a local database that is not configured
+     */
+    default boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * @return the request rate the provider tolerates, unlimited by default
+     */
+    default RateLimit getRateLimit() {
+        return RateLimit.UNLIMITED;
+    }
+
+    /**
+     * @return the most IPs one {@link #getIpInfos(List)} request may carry, 1 if the provider has no batch endpoint
+     */
+    default int getMaxBatchSize() {
+        return 1;
+    }
+
+    /**
+     * @param batchSize the number of IPs in the request
+     * @return the permits of {@link #getRateLimit()} one request for that many IPs consumes
+     */
+    default int getRequestCost(int batchSize) {
+        return 1;
+    }
+
+    /**
+     * Tell the parser which fields the caller needs, so it may extract only those from the
+     * provider's response and leave the others null. The IP is always kept. The default
+     * ignores it and fills every field it supports.
+     *
+     * @param fields the requested fields
+     */
+    default void setRequestedFields(Collection<IpinfoEnum> fields) {
+    }
+
     /**
      * Extract the JSON object
      *
      * @param ip
      * @return a JSON object if successful, null otherwise
+     * @throws LookupException if the provider said why it could not answer
      */
     JSONObject fetchIpData(String ip);
 
@@ -34,6 +89,7 @@ public interface IpParser {
      *
      * @param ip
      * @return an IpInfo object if successful, null otherwise
+     * @throws LookupException if the provider said why it could not answer
      */
     default IpInfo getIpInfo(String ip) {
         JSONObject ipData = fetchIpData(ip);
@@ -41,9 +97,65 @@ public interface IpParser {
             return null;
         }
         IpInfo ipInfo = parseIpData(ipData);
-        ipInfo.setParserName(this.getClass().getSimpleName());
+        if (ipInfo == null) {
+            return null;
+        }
+        ipInfo.setParserName(getName());
         ipInfo.setParseTimeTs(System.currentTimeMillis());
         return ipInfo;
     }
 
+    /**
+     * Get the IpInfo object for the given IP without blocking the caller.
+     * The default runs {@link #getIpInfo(String)} on the common pool; parsers
+     * doing network I/O should override it with a truly non-blocking call.
+     *
+     * @param ip
+     * @return a future completed with an IpInfo object if successful, null otherwise, or
+     * completed exceptionally with a {@link LookupException} if the provider said why it could not answer
+     */
+    default CompletableFuture<IpInfo> getIpInfoAsync(String ip) {
+        return CompletableFuture.supplyAsync(() -> getIpInfo(ip));
+    }
+
+    /**
+     * Get the IpInfo objects for several IPs, in one request where the provider supports it.
+     * The default looks the IPs up one by one; an IP that fails leaves a null, but a rate limit
+     * fails the whole request, as the provider will refuse the IPs after it as well.
+     *
+     * @param ips at most {@link #getMaxBatchSize()} IPs
+     * @return the results in the order of the IPs, null for each IP that failed
+     * @throws LookupException if the whole request failed
+     */
+    default List<IpInfo> getIpInfos(List<String> ips) {
+        List<IpInfo> ipInfos = new ArrayList<>(ips.size());
+        for (String ip : ips) {
+            try {
+                ipInfos.add(getIpInfo(ip));
+            } catch (RuntimeException e) {
+                LookupException failure = LookupException.of(e);
+                if (failure.getReason() == LookupException.Reason.RATE_LIMITED) {
+                    throw failure;
+                }
+                ipInfos.add(null);
+            }
+        }
+        return ipInfos;
+    }
+
+    /**
+     * Get the IpInfo objects for several IPs without blocking the caller.
+     *
+     * @param ips at most {@link #getMaxBatchSize()} IPs
+     * @return a future completed with the results in the order of the IPs, null for each IP that failed,
+     * or completed exceptionally with a {@link LookupException} if the whole request failed
+     */
+    default CompletableFuture<List<IpInfo>> getIpInfosAsync(List<String> ips) {
+        if (ips.size() == 1) {
+            CompletableFuture<IpInfo> lookup = getIpInfoAsync(ips.get(0));
+            return HttpUtil.forwardCancel(lookup.thenApply(Collections::singletonList), lookup);
+        }
+        return CompletableFuture.supplyAsync(() -> getIpInfos(ips));
+    }
+
 }
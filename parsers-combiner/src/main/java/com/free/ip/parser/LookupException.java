@@ -0,0 +1,149 @@
+package com.free.ip.parser;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Why a provider could not answer a lookup, so the executors can react to each cause on
+ * its own terms rather than counting every failure against the parser:
+ * <ul>
+ * <li>{@link Reason#RATE_LIMITED}: the provider asked to slow down, e.g. a 429, possibly
+ * saying when to come back; the provider is paused, the lookup goes elsewhere</li>
+ * <li>{@link Reason#INVALID_INPUT}: the IP is malformed or the provider refuses it, e.g. a
+ * 400 or 404, or a 200 whose body says the IP is private or reserved; no provider will do
+ * better, so the lookup is not retried</li>
+ * <li>{@link Reason#PROVIDER_ERROR}: any other status, or a response that cannot be read</li>
+ * <li>{@link Reason#TRANSPORT_ERROR}: the request could not be sent or timed out</li>
+ * </ul>
+ * The last two count against the parser's circuit and are retried with backoff. Parsers
+ * throw it from the lookup methods, or complete their futures with it, instead of returning
+ * null. A null result still counts as a provider error, so a parser whose provider reports a
+ * refused IP in the body of a successful response must throw invalid input for it.
+ *
+ * 查询失败的原因：限流、无效输入、服务商错误、网络错误，执行器据此分别处理。
+ */
+public class LookupException extends RuntimeException {
+
+    public enum Reason {
+        RATE_LIMITED, INVALID_INPUT, PROVIDER_ERROR, TRANSPORT_ERROR
+    }
+
+    private final Reason reason;
+
+    private final long retryAfterMillis;
+
+    public LookupException(Reason reason, String message, long retryAfterMillis, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @param retryAfterMillis when the provider said to come back, -1 if it did not
+     */
+    public static LookupException rateLimited(String message, long retryAfterMillis) {
+        return new LookupException(Reason.RATE_LIMITED, message, retryAfterMillis, null);
+    }
+
+    public static LookupException invalidInput(String message) {
+        return new LookupException(Reason.INVALID_INPUT, message, -1, null);
+    }
+
+    public static LookupException providerError(String message) {
+        return new LookupException(Reason.PROVIDER_ERROR, message, -1, null);
+    }
+
+    /**
+     * Classify a response other than 200.
+     *
+     * @param code       the status code
+     * @param retryAfter the Retry-After header, or null
+     * @param url        the URL requested, for the message
+     */
+    public static LookupException forStatus(int code, String retryAfter, String url) {
+        String message = "HTTP " + code + " from " + url;
+        long retryAfterMillis = parseRetryAfter(retryAfter);
+        if (code == 429 || (code == 503 && retryAfterMillis >= 0)) {
+            return rateLimited(message, retryAfterMillis);
+        }
+        if (code == 400 || code == 404 || code == 422) {
+            return invalidInput(message);
+        }
+        return providerError(message);
+    }
+
+    /**
+     * @param e whatever a lookup failed with, possibly wrapped by a future
+     * @return the failure itself if it is one, otherwise a transport error for I/O failures
+     * and a provider error for anything else
+     */
+    public static LookupException of(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LookupException) {
+                return (LookupException) cause;
+            }
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return new LookupException(Reason.TRANSPORT_ERROR, String.valueOf(cause.getMessage()), -1, e);
+            }
+        }
+        return new LookupException(Reason.PROVIDER_ERROR, String.valueOf(e.getMessage()), -1, e);
+    }
+
+    /**
+     * @param header the delay in seconds or an HTTP date
+     * @return the delay in milliseconds, -1 if the header is missing or unreadable
+     */
+    static long parseRetryAfter(String header) {
+        if (header == null || header.trim().isEmpty()) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(header.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            // not delta-seconds, try the date form
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    /**
+     * @return when the provider said to come back, in milliseconds, -1 if it did not
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * @return true if the failure says the parser is unhealthy, rather than busy or asked the wrong question
+     */
+    public boolean isParserFault() {
+        return reason == Reason.PROVIDER_ERROR || reason == Reason.TRANSPORT_ERROR;
+    }
+
+    /**
+     * @return true if the request timed out
+     */
+    public boolean isTimeout() {
+        for (Throwable cause = getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedIOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
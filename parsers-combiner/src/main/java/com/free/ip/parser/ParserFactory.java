@@ -1,52 +1,47 @@
 package com.free.ip.parser;
 
 import com.free.ip.pojo.IpinfoEnum;
-import lombok.extern.log4j.Log4j2;
-import org.reflections.Reflections;
-import org.reflections.scanners.Scanners;
-import org.reflections.util.ClasspathHelper;
-import org.reflections.util.ConfigurationBuilder;
-import org.reflections.util.FilterBuilder;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
-@Log4j2
 public class ParserFactory {
 
+    /**
+     * @return the parsers of the {@link ParserRegistry}, shared process-wide
+     */
     public static List<IpParser> getAllParsers() {
-        String packageToScan = "com.free.ip.parser.impl";
-
-        Reflections reflections = new Reflections(
-                new ConfigurationBuilder()
-                        .setUrls(ClasspathHelper.forPackage(packageToScan))
-                        .filterInputsBy(new FilterBuilder().includePackage(packageToScan))
-                        .setScanners(Scanners.SubTypes)
-        );
-        Set<Class<? extends IpParser>> implementations = reflections.getSubTypesOf(IpParser.class);
-
-        List<IpParser> parsers = new ArrayList<>();
-        for (Class<? extends IpParser> implClass : implementations) {
-            try {
-                IpParser parser = implClass.getDeclaredConstructor().newInstance();
-                parsers.add(parser);
-            } catch (Exception e) {
-                log.error(e);
-            }
-        }
-        return parsers;
+        return ParserRegistry.getParsers();
     }
 
     public static List<IpParser> getConditionalParsers(List<IpinfoEnum> fields) {
         List<IpParser> allParsers = getAllParsers();
         List<IpParser> conditionalParsers = new ArrayList<>();
         for (IpParser parser : allParsers) {
-            if (parser.getSupportedFields().containsAll(fields)) {
+            if (parser.isAvailable() && parser.getSupportedFields().containsAll(fields)) {
+                parser.setRequestedFields(fields);
                 conditionalParsers.add(parser);
             }
         }
         return conditionalParsers;
     }
 
+    /**
+     * Like {@link #getConditionalParsers(List)}, plus combinations of parsers that each
+     * support only some of the fields, see {@link QueryPlanner}.
+     *
+     * @param fields the requested fields
+     * @return the parsers able to answer all fields, alone or combined
+     */
+    public static List<IpParser> getPlannedParsers(List<IpinfoEnum> fields) {
+        List<IpParser> availableParsers = new ArrayList<>();
+        for (IpParser parser : getAllParsers()) {
+            if (parser.isAvailable()) {
+                parser.setRequestedFields(fields);
+                availableParsers.add(parser);
+            }
+        }
+        return QueryPlanner.plan(fields, availableParsers);
+    }
+
 }
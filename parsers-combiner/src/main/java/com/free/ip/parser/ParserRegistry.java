@@ -0,0 +1,116 @@
+package com.free.ip.parser;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * Process-wide registry of one instance per parser class. Parsers are discovered once through
+ * {@link ServiceLoader}, i.e. the {@code META-INF/services/com.free.ip.parser.IpParser} files on
+ * the classpath, instead of scanning it. Parsers in external jars are added with
+ * {@link #loadJars(List)}, or registered directly with {@link #register(IpParser)} and removed
+ * with {@link #unregister(IpParser)}.
+ *
+ * 解析器注册表：通过ServiceLoader一次性发现并缓存各解析器的单例，支持加载外部jar中的解析器。
+ */
+@Log4j2
+public class ParserRegistry {
+
+    // by class name, in discovery order
+    private static final Map<String, IpParser> PARSERS = new LinkedHashMap<>();
+
+    private static boolean discovered;
+
+    /**
+     * @return the registered parsers, discovering the ones on the classpath on first use
+     */
+    public static synchronized List<IpParser> getParsers() {
+        if (!discovered) {
+            discovered = true;
+            load(ServiceLoader.load(IpParser.class, ParserRegistry.class.getClassLoader()));
+        }
+        return new ArrayList<>(PARSERS.values());
+    }
+
+    /**
+     * Add a parser, replacing a registered one of the same class.
+     *
+     * @param parser
+     */
+    public static synchronized void register(IpParser parser) {
+        getParsers();
+        PARSERS.put(parser.getClass().getName(), parser);
+    }
+
+    /**
+     * Remove a registered parser, e.g. one registered for a test.
+     *
+     * @param parser
+     * @return true if the parser was registered
+     */
+    public static synchronized boolean unregister(IpParser parser) {
+        getParsers();
+        return PARSERS.remove(parser.getClass().getName(), parser);
+    }
+
+    /**
+     * Discover the parsers declared by external jars, each listing its classes in
+     * {@code META-INF/services/com.free.ip.parser.IpParser}.
+     *
+     * @param jarPaths the jar files
+     * @return the number of parsers added
+     */
+    public static synchronized int loadJars(List<String> jarPaths) {
+        getParsers();
+        List<URL> urls = new ArrayList<>();
+        for (String jarPath : jarPaths) {
+            try {
+                urls.add(new File(jarPath).toURI().toURL());
+            } catch (MalformedURLException e) {
+                log.error("Invalid parser jar " + jarPath + ": " + e.getMessage());
+            }
+        }
+        // the loader stays open for as long as its parsers are registered
+        ClassLoader loader = new URLClassLoader(urls.toArray(new URL[0]), ParserRegistry.class.getClassLoader());
+        return load(ServiceLoader.load(IpParser.class, loader));
+    }
+
+    /**
+     * @return the class names of the registered parsers
+     */
+    public static synchronized List<String> getParserNames() {
+        getParsers();
+        return Collections.unmodifiableList(new ArrayList<>(PARSERS.keySet()));
+    }
+
+    private static int load(ServiceLoader<IpParser> loader) {
+        int added = 0;
+        Iterator<IpParser> iterator = loader.iterator();
+        while (true) {
+            try {
+                if (!iterator.hasNext()) {
+                    return added;
+                }
+                IpParser parser = iterator.next();
+                if (PARSERS.putIfAbsent(parser.getClass().getName(), parser) == null) {
+                    added++;
+                }
+            } catch (ServiceConfigurationError e) {
+                // a broken entry must not hide the other parsers
+                log.error(e);
+            }
+        }
+    }
+
+}
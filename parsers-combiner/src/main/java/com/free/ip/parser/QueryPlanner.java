@@ -0,0 +1,116 @@
+package com.free.ip.parser;
+
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.RateLimiters;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Plans which parsers answer a query for a set of fields. Parsers supporting every field
+ * are used on their own. The others are grouped into {@link CompositeParser}s: the planner
+ * repeatedly takes the cheapest combination of the remaining partial parsers that covers
+ * all fields, i.e. the one with the fewest parts and, among those, the most generous rate
+ * limits, until no combination is left. Each parser ends up in at most one plan entry, so
+ * the executors' per-parser rate limits and health still hold.
+ *
+ * 查询规划：支持全部字段的解析器单独使用；其余解析器按最小代价组合成覆盖全部字段的组合解析器，
+ * 每个解析器最多使用一次，从而扩大可用的解析器池。
+ */
+@Log4j2
+public class QueryPlanner {
+
+    /**
+     * @param fields  the requested fields
+     * @param parsers the available parsers
+     * @return the parsers that answer all fields on their own, followed by combinations of the others
+     */
+    public static List<IpParser> plan(List<IpinfoEnum> fields, List<IpParser> parsers) {
+        Set<IpinfoEnum> wanted = fields.isEmpty() ? EnumSet.noneOf(IpinfoEnum.class) : EnumSet.copyOf(fields);
+        List<IpParser> planned = new ArrayList<>();
+        List<IpParser> partial = new ArrayList<>();
+        for (IpParser parser : parsers) {
+            if (parser.getSupportedFields().containsAll(wanted)) {
+                planned.add(parser);
+            } else if (!intersection(parser, wanted).isEmpty()) {
+                partial.add(parser);
+            }
+        }
+        while (true) {
+            List<IpParser> cover = cheapestCover(partial, wanted);
+            if (cover == null) {
+                break;
+            }
+            partial.removeAll(cover);
+            CompositeParser composite = new CompositeParser(cover, fields);
+            log.info("Planned " + composite.getName() + " for " + wanted);
+            planned.add(composite);
+        }
+        return planned;
+    }
+
+    /**
+     * Search the combinations of increasing size, so the first size with a cover has the fewest parts.
+     *
+     * @return the cheapest combination covering the fields, or null if there is none
+     */
+    static List<IpParser> cheapestCover(List<IpParser> candidates, Set<IpinfoEnum> wanted) {
+        for (int size = 2; size <= candidates.size(); size++) {
+            List<IpParser> best = new ArrayList<>();
+            search(candidates, wanted, size, 0, new ArrayList<>(), best);
+            if (!best.isEmpty()) {
+                return best;
+            }
+        }
+        return null;
+    }
+
+    private static void search(List<IpParser> candidates, Set<IpinfoEnum> wanted, int size, int from,
+                               List<IpParser> chosen, List<IpParser> best) {
+        if (chosen.size() == size) {
+            if (covers(chosen, wanted) && (best.isEmpty() || cost(chosen) < cost(best))) {
+                best.clear();
+                best.addAll(chosen);
+            }
+            return;
+        }
+        for (int i = from; i <= candidates.size() - (size - chosen.size()); i++) {
+            chosen.add(candidates.get(i));
+            search(candidates, wanted, size, i + 1, chosen, best);
+            chosen.remove(chosen.size() - 1);
+        }
+    }
+
+    private static boolean covers(List<IpParser> parsers, Set<IpinfoEnum> wanted) {
+        Set<IpinfoEnum> covered = EnumSet.noneOf(IpinfoEnum.class);
+        for (IpParser parser : parsers) {
+            covered.addAll(intersection(parser, wanted));
+        }
+        return covered.containsAll(wanted);
+    }
+
+    /**
+     * @return the seconds of provider quota one lookup through all the parsers uses up
+     */
+    private static double cost(List<IpParser> parsers) {
+        double cost = 0;
+        for (IpParser parser : parsers) {
+            cost += 1 / RateLimiters.getRateLimit(parser).getPermitsPerSecond();
+        }
+        return cost;
+    }
+
+    private static Set<IpinfoEnum> intersection(IpParser parser, Set<IpinfoEnum> wanted) {
+        Set<IpinfoEnum> common = EnumSet.noneOf(IpinfoEnum.class);
+        for (IpinfoEnum field : parser.getSupportedFields()) {
+            if (wanted.contains(field)) {
+                common.add(field);
+            }
+        }
+        return common;
+    }
+
+}
@@ -1,21 +1,18 @@
 package com.free.ip.parser.impl;
 
-import com.free.ip.parser.IpParser;
+import com.free.ip.parser.AbstractIpParser;
 import com.free.ip.pojo.IpInfo;
 import com.free.ip.pojo.IpinfoEnum;
-import lombok.extern.log4j.Log4j2;
+import com.free.ip.pojo.RateLimit;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
-@Log4j2
-public class IpApiParser implements IpParser {
+public class IpApiParser extends AbstractIpParser {
 
     public static final String API_URL = "https://api.ipapi.is/?ip=";
 
@@ -34,39 +31,28 @@ public class IpApiParser implements IpParser {
     }
 
     @Override
-    public JSONObject fetchIpData(String ip) {
-        String ipApiUrl = API_URL + ip;
-        try {
-            URL url = new URL(ipApiUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setConnectTimeout(5 * 1000);
-            conn.setReadTimeout(5 * 1000);
-            conn.setDoInput(true);
-            conn.setDoOutput(true);
-            conn.setUseCaches(false);
-            conn.setInstanceFollowRedirects(false);
-            conn.setRequestMethod("GET");
+    public RateLimit getRateLimit() {
+        // free tier is metered per day, spread requests evenly
+        return RateLimit.perSecond(2, 5);
+    }
 
-            // add HTTP request header
-            conn.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/92.0.4515.159 Safari/537.36");
-            conn.setRequestProperty("Accept", "application/json");
-            conn.setRequestProperty("Accept-Language", "en-US,en;q=0.9");
-            conn.setRequestProperty("Connection", "keep-alive");
+    @Override
+    protected String buildUrl(String ip) {
+        return API_URL + ip;
+    }
 
-            int responseCode = conn.getResponseCode();
-            if (responseCode == 200) {
-                StringBuilder builder = new StringBuilder();
-                BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), "utf-8"));
-                for (String s = br.readLine(); s != null; s = br.readLine()) {
-                    builder.append(s);
-                }
-                br.close();
-                return new JSONObject(builder.toString());
-            }
-        } catch (Exception e) {
-            log.error("Failed to extract JSON object from " + ipApiUrl, e);
-        }
-        return null;
+    @Override
+    protected Map<IpinfoEnum, String> getJsonPaths() {
+        Map<IpinfoEnum, String> paths = new EnumMap<>(IpinfoEnum.class);
+        paths.put(IpinfoEnum.IP, "ip");
+        paths.put(IpinfoEnum.COUNTRY, "location.country");
+        paths.put(IpinfoEnum.COUNTRY_CODE, "location.country_code");
+        paths.put(IpinfoEnum.REGION, "location.state");
+        paths.put(IpinfoEnum.CITY, "location.city");
+        paths.put(IpinfoEnum.ISP, "asn.org");
+        paths.put(IpinfoEnum.LATITUDE, "location.latitude");
+        paths.put(IpinfoEnum.LONGITUDE, "location.longitude");
+        return paths;
     }
 
     @Override
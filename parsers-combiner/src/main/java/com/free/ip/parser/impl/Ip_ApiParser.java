@@ -1,24 +1,27 @@
 package com.free.ip.parser.impl;
 
-import com.free.ip.parser.IpParser;
+import com.free.ip.parser.AbstractIpParser;
+import com.free.ip.parser.LookupException;
 import com.free.ip.pojo.IpInfo;
 import com.free.ip.pojo.IpinfoEnum;
-import lombok.extern.log4j.Log4j2;
+import com.free.ip.pojo.RateLimit;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
-@Log4j2
-public class Ip_ApiParser implements IpParser {
+public class Ip_ApiParser extends AbstractIpParser {
 
     public static final String API_URL = "http://ip-api.com/json/#?lang=en";
 
+    public static final String BATCH_API_URL = "http://ip-api.com/batch?lang=en";
+
+    public static final int MAX_BATCH_SIZE = 100;
+
     @Override
     public Set<IpinfoEnum> getSupportedFields() {
         return new HashSet<>(Arrays.asList(
@@ -34,45 +37,61 @@ public class Ip_ApiParser implements IpParser {
     }
 
     @Override
-    public JSONObject fetchIpData(String ip) {
-        String ipApiUrl = API_URL.replace("#", ip);
-        try {
-            URL url = new URL(ipApiUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setConnectTimeout(5 * 1000);
-            conn.setReadTimeout(5 * 1000);
-            conn.setDoInput(true);
-            conn.setDoOutput(true);
-            conn.setUseCaches(false);
-            conn.setInstanceFollowRedirects(false);
-            conn.setRequestMethod("GET");
-
-            // add HTTP request header
-            conn.setRequestProperty("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/92.0.4515.159 Safari/537.36");
-            conn.setRequestProperty("Accept", "application/json");
-            conn.setRequestProperty("Accept-Language", "en-US,en;q=0.9");
-            conn.setRequestProperty("Connection", "keep-alive");
-
-            int responseCode = conn.getResponseCode();
-            if (responseCode == 200) {
-                StringBuilder builder = new StringBuilder();
-                BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), "utf-8"));
-                for (String s = br.readLine(); s != null; s = br.readLine()) {
-                    builder.append(s);
-                }
-                br.close();
-                return new JSONObject(builder.toString());
-            }
-        } catch (Exception e) {
-            log.error("Failed to extract JSON object from " + ipApiUrl, e);
-        }
-        return null;
+    public RateLimit getRateLimit() {
+        // documented limit of the free endpoint, exceeding it answers 429 and bans the IP for a while
+        return RateLimit.perMinute(45, 1);
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return MAX_BATCH_SIZE;
+    }
+
+    @Override
+    public int getRequestCost(int batchSize) {
+        // the batch endpoint allows 15 requests per minute, a third of the single lookup quota
+        return batchSize > 1 ? 3 : 1;
+    }
+
+    @Override
+    protected String buildUrl(String ip) {
+        return API_URL.replace("#", ip);
+    }
+
+    @Override
+    protected String buildBatchUrl() {
+        return BATCH_API_URL;
+    }
+
+    @Override
+    protected Map<IpinfoEnum, String> getJsonPaths() {
+        Map<IpinfoEnum, String> paths = new EnumMap<>(IpinfoEnum.class);
+        paths.put(IpinfoEnum.IP, "query");
+        paths.put(IpinfoEnum.COUNTRY, "country");
+        paths.put(IpinfoEnum.COUNTRY_CODE, "countryCode");
+        paths.put(IpinfoEnum.REGION, "regionName");
+        paths.put(IpinfoEnum.CITY, "city");
+        paths.put(IpinfoEnum.ISP, "isp");
+        paths.put(IpinfoEnum.LATITUDE, "lat");
+        paths.put(IpinfoEnum.LONGITUDE, "lon");
+        return paths;
+    }
+
+    @Override
+    protected Map<String, String> getRequiredJsonValues() {
+        return Collections.singletonMap("status", "success");
+    }
+
+    @Override
+    protected String getErrorMessagePath() {
+        // e.g. "private range", "reserved range" or "invalid query", answered with a 200
+        return "message";
     }
 
     @Override
     public IpInfo parseIpData(JSONObject json) {
         if (!json.optString("status").equals("success")) {
-            return null;
+            throw LookupException.invalidInput(json.optString("message", "status=" + json.optString("status")));
         }
         return new IpInfo(
                 json.optString("query"),
@@ -0,0 +1,121 @@
+package com.free.ip.parser.impl;
+
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.RangeDatabase;
+import lombok.extern.log4j.Log4j2;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Offline parser answering from a local range database, see {@link RangeDatabase} for the
+ * file format. The file is taken from the {@value #DB_PATH_PROPERTY} system property or the
+ * {@value #DB_PATH_ENV} environment variable when first needed and loaded once per JVM; without one the parser
+ * is unavailable and {@link com.free.ip.parser.ParserFactory} leaves it out.
+ *
+ * 离线解析器：从本地IP段数据库文件查询，无需网络请求。
+ */
+@Log4j2
+public class LocalDbParser implements IpParser {
+
+    public static final String DB_PATH_PROPERTY = "ip.local.db";
+
+    public static final String DB_PATH_ENV = "IP_LOCAL_DB";
+
+    private static String loadedPath;
+
+    private static RangeDatabase loadedDatabase;
+
+    // null for the database of the configured file, which may change after construction
+    private final RangeDatabase database;
+
+    public LocalDbParser() {
+        this(null);
+    }
+
+    public LocalDbParser(RangeDatabase database) {
+        this.database = database;
+    }
+
+    private RangeDatabase database() {
+        return database != null ? database : sharedDatabase();
+    }
+
+    /**
+     * @return the database of the configured file, loaded on first use, or null if none is configured or it cannot be read
+     */
+    private static synchronized RangeDatabase sharedDatabase() {
+        String path = System.getProperty(DB_PATH_PROPERTY, System.getenv(DB_PATH_ENV));
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        if (!path.equals(loadedPath)) {
+            loadedPath = path;
+            try {
+                loadedDatabase = RangeDatabase.load(Paths.get(path));
+            } catch (IOException e) {
+                log.error("Error loading local IP database " + path + ": " + e.getMessage());
+                loadedDatabase = null;
+            }
+        }
+        return loadedDatabase;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return database() != null;
+    }
+
+    @Override
+    public Set<IpinfoEnum> getSupportedFields() {
+        RangeDatabase database = database();
+        return database != null ? database.getSupportedFields() : Collections.emptySet();
+    }
+
+    @Override
+    public JSONObject fetchIpData(String ip) {
+        RangeDatabase database = database();
+        IpInfo ipInfo = database != null ? database.lookup(ip) : null;
+        return ipInfo != null ? new JSONObject(ipInfo) : null;
+    }
+
+    @Override
+    public IpInfo parseIpData(JSONObject json) {
+        return new IpInfo(
+                json.optString("ip", null),
+                json.optString("country", null),
+                json.optString("countryCode", null),
+                json.optString("region", null),
+                json.optString("regionCode", null),
+                json.optString("city", null),
+                json.optString("isp", null),
+                json.has("latitude") ? json.getDouble("latitude") : null,
+                json.has("longitude") ? json.getDouble("longitude") : null
+        );
+    }
+
+    @Override
+    public IpInfo getIpInfo(String ip) {
+        // skip the JSON round trip of the default implementation
+        RangeDatabase database = database();
+        IpInfo ipInfo = database != null ? database.lookup(ip) : null;
+        if (ipInfo == null) {
+            return null;
+        }
+        ipInfo.setParserName(getName());
+        ipInfo.setParseTimeTs(System.currentTimeMillis());
+        return ipInfo;
+    }
+
+    @Override
+    public CompletableFuture<IpInfo> getIpInfoAsync(String ip) {
+        return CompletableFuture.completedFuture(getIpInfo(ip));
+    }
+
+}
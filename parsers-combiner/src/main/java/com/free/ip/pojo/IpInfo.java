@@ -32,4 +32,73 @@ public class IpInfo {
         this.longitude = longitude;
     }
 
+    /**
+     * @return a copy that can be changed without affecting this one
+     */
+    public IpInfo copy() {
+        return new IpInfo(ip, country, countryCode, region, regionCode, city, isp, latitude, longitude, parserName, parseTimeTs);
+    }
+
+    public Object get(IpinfoEnum field) {
+        switch (field) {
+            case IP:
+                return ip;
+            case COUNTRY:
+                return country;
+            case COUNTRY_CODE:
+                return countryCode;
+            case REGION:
+                return region;
+            case REGION_CODE:
+                return regionCode;
+            case CITY:
+                return city;
+            case ISP:
+                return isp;
+            case LATITUDE:
+                return latitude;
+            case LONGITUDE:
+                return longitude;
+            default:
+                throw new IllegalArgumentException("Unknown field: " + field);
+        }
+    }
+
+    /**
+     * @param value a String, or a Double for LATITUDE and LONGITUDE
+     */
+    public void set(IpinfoEnum field, Object value) {
+        switch (field) {
+            case IP:
+                ip = (String) value;
+                break;
+            case COUNTRY:
+                country = (String) value;
+                break;
+            case COUNTRY_CODE:
+                countryCode = (String) value;
+                break;
+            case REGION:
+                region = (String) value;
+                break;
+            case REGION_CODE:
+                regionCode = (String) value;
+                break;
+            case CITY:
+                city = (String) value;
+                break;
+            case ISP:
+                isp = (String) value;
+                break;
+            case LATITUDE:
+                latitude = (Double) value;
+                break;
+            case LONGITUDE:
+                longitude = (Double) value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown field: " + field);
+        }
+    }
+
 }
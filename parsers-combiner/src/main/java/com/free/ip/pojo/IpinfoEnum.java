@@ -1,13 +1,26 @@
 package com.free.ip.pojo;
 
 public enum IpinfoEnum {
-    IP,
-    COUNTRY,
-    COUNTRY_CODE,
-    REGION,
-    REGION_CODE,
-    CITY,
-    ISP,
-    LATITUDE,
-    LONGITUDE
+    IP("ip"),
+    COUNTRY("country"),
+    COUNTRY_CODE("countryCode"),
+    REGION("region"),
+    REGION_CODE("regionCode"),
+    CITY("city"),
+    ISP("isp"),
+    LATITUDE("latitude"),
+    LONGITUDE("longitude");
+
+    private final String propertyName;
+
+    IpinfoEnum(String propertyName) {
+        this.propertyName = propertyName;
+    }
+
+    /**
+     * @return the IpInfo bean property, also the key in JSON output, e.g. countryCode
+     */
+    public String getPropertyName() {
+        return propertyName;
+    }
 }
@@ -0,0 +1,79 @@
+package com.free.ip.pojo;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request rate a provider tolerates: a sustained rate plus the number of requests
+ * that may be sent back-to-back after an idle period.
+ */
+@Data
+@AllArgsConstructor
+public class RateLimit {
+
+    public static final RateLimit UNLIMITED = new RateLimit(Double.POSITIVE_INFINITY, 1);
+
+    double permitsPerSecond;
+    int burst;
+
+    public static RateLimit perSecond(double permits, int burst) {
+        return new RateLimit(permits, burst);
+    }
+
+    public static RateLimit perMinute(double permits, int burst) {
+        return new RateLimit(permits / 60, burst);
+    }
+
+    public boolean isUnlimited() {
+        return Double.isInfinite(permitsPerSecond);
+    }
+
+    /**
+     * @return nanoseconds between two requests at the sustained rate
+     */
+    public long getIntervalNanos() {
+        return isUnlimited() ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+    }
+
+    /**
+     * Parse a limit such as "45/m", "10/s:20" (burst of 20) or "unlimited".
+     *
+     * @param spec the limit specification, the unit is one of s, m, h
+     * @return the parsed limit
+     * @throws IllegalArgumentException if the specification is malformed or the permits are not a positive number
+     */
+    public static RateLimit parse(String spec) {
+        String value = spec.trim();
+        if ("unlimited".equalsIgnoreCase(value)) {
+            return UNLIMITED;
+        }
+        int burst = 1;
+        int colon = value.indexOf(':');
+        if (colon >= 0) {
+            burst = Integer.parseInt(value.substring(colon + 1).trim());
+            value = value.substring(0, colon).trim();
+        }
+        int slash = value.indexOf('/');
+        if (slash < 0 || burst < 1) {
+            throw new IllegalArgumentException("Invalid rate limit: " + spec);
+        }
+        double permits = Double.parseDouble(value.substring(0, slash).trim());
+        // "0/s" would never grant a request, use "unlimited" to lift a limit
+        if (!(permits > 0) || Double.isInfinite(permits)) {
+            throw new IllegalArgumentException("Invalid rate limit permits: " + spec);
+        }
+        switch (value.substring(slash + 1).trim().toLowerCase()) {
+            case "s":
+                return new RateLimit(permits, burst);
+            case "m":
+                return new RateLimit(permits / 60, burst);
+            case "h":
+                return new RateLimit(permits / 3600, burst);
+            default:
+                throw new IllegalArgumentException("Invalid rate limit unit: " + spec);
+        }
+    }
+
+}
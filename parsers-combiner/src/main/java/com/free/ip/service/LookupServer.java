@@ -0,0 +1,172 @@
+package com.free.ip.service;
+
+import com.free.ip.metrics.Metrics;
+import com.free.ip.parser.LookupException;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.VirtualThreads;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.log4j.Log4j2;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * HTTP front of a {@link LookupService}:
+ * <ul>
+ * <li>GET /lookup?ip=1.2.3.4 answers one JSON object</li>
+ * <li>POST /lookup with one IP per line answers one JSON object per line, in the same order</li>
+ * <li>GET /metrics answers the {@link Metrics} in the Prometheus text format</li>
+ * </ul>
+ * Results carry the requested fields, the parser name and the parse time, under the same keys
+ * as the JSON result files; a lookup that failed is answered as {"ip":...,"error":...}, with
+ * status 400 for a single one if the IP is invalid and 502 otherwise.
+ *
+ * 查询服务的HTTP接口：GET查询单个IP，POST按行批量查询，/metrics导出监控指标。
+ */
+@Log4j2
+public class LookupServer implements AutoCloseable {
+
+    private final LookupService service;
+
+    private final List<IpinfoEnum> fields;
+
+    private final HttpServer server;
+
+    private final ExecutorService handlers;
+
+    /**
+     * @param service  the service answering the lookups
+     * @param fields   the fields written in the answers
+     * @param port     the port to listen on, 0 for any free one
+     * @param handlers the number of requests handled at once when virtual threads are not supported
+     */
+    public LookupServer(LookupService service, List<IpinfoEnum> fields, int port, int handlers) throws IOException {
+        this.service = service;
+        this.fields = fields;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        // handlers block until their lookups complete
+        this.handlers = VirtualThreads.newExecutor("lookup-http", handlers);
+        server.setExecutor(this.handlers);
+        server.createContext("/lookup", this::handleLookup);
+        server.createContext("/metrics", exchange -> respond(exchange, 200, "text/plain; version=0.0.4; charset=utf-8",
+                Metrics.toPrometheus()));
+        server.start();
+        log.info("Serving lookups at http://localhost:" + getPort() + "/lookup");
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleLookup(HttpExchange exchange) throws IOException {
+        if ("POST".equals(exchange.getRequestMethod())) {
+            List<String> ips = new ArrayList<>();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (!line.trim().isEmpty()) {
+                    ips.add(line.trim());
+                }
+            }
+            List<CompletableFuture<IpInfo>> lookups = service.lookupAll(ips);
+            StringBuilder body = new StringBuilder();
+            for (int i = 0; i < ips.size(); i++) {
+                body.append(toJson(ips.get(i), lookups.get(i))).append('\n');
+            }
+            respond(exchange, 200, "application/x-ndjson; charset=utf-8", body.toString());
+            return;
+        }
+        String ip = queryParameter(exchange, "ip");
+        if (ip == null || ip.trim().isEmpty()) {
+            respond(exchange, 400, "application/json; charset=utf-8", new JSONObject().put("error", "missing ip").toString());
+            return;
+        }
+        CompletableFuture<IpInfo> lookup = service.lookup(ip.trim());
+        JSONObject json = toJson(ip.trim(), lookup);
+        respond(exchange, json.has("error") ? statusOf(lookup) : 200, "application/json; charset=utf-8", json.toString());
+    }
+
+    /**
+     * Wait for a lookup and render its result, or its failure.
+     */
+    private JSONObject toJson(String ip, CompletableFuture<IpInfo> lookup) {
+        IpInfo ipInfo;
+        try {
+            ipInfo = lookup.join();
+        } catch (CompletionException | CancellationException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            return new JSONObject().put("ip", ip).put("error", String.valueOf(cause.getMessage()));
+        }
+        JSONObject json = new JSONObject();
+        for (IpinfoEnum field : fields) {
+            Object value = ipInfo.get(field);
+            if (value != null && !(value instanceof Double && !Double.isFinite((Double) value))) {
+                json.put(field.getPropertyName(), value);
+            }
+        }
+        json.putOpt("parserName", ipInfo.getParserName());
+        json.putOpt("parseTimeTs", ipInfo.getParseTimeTs());
+        return json;
+    }
+
+    private static int statusOf(CompletableFuture<IpInfo> failedLookup) {
+        try {
+            failedLookup.join();
+        } catch (CompletionException | CancellationException e) {
+            if (LookupException.of(e).getReason() == LookupException.Reason.INVALID_INPUT) {
+                return 400;
+            }
+        }
+        return 502;
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return URLDecoder.decode(parameter.substring(name.length() + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int code, String contentType, String body) throws IOException {
+        try {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType);
+            exchange.sendResponseHeaders(code, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Stop listening, give the requests being handled a second to finish, then close the service.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        handlers.shutdownNow();
+        service.close();
+    }
+
+}
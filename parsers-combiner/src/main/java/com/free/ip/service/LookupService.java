@@ -0,0 +1,160 @@
+package com.free.ip.service;
+
+import com.free.ip.cache.IpInfoCache;
+import com.free.ip.metrics.Metrics;
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.utils.AsyncExecutor;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resident lookup engine shared by every caller of the process: one {@link AsyncExecutor}
+ * keeps the parsers' connections, rate limiters and circuit breakers warm across requests,
+ * and one cache answers repeated IPs without waiting. Lookups the cache cannot answer are
+ * held for up to the linger time, or until a full batch has gathered, and submitted
+ * together, so concurrent callers share the providers' batch requests.
+ *
+ * 常驻的查询服务：所有调用方共享同一个异步执行器和缓存，缓存命中立即返回；未命中的查询
+ * 会短暂聚合后一起提交，使并发请求合并为服务商的批量请求。
+ */
+@Log4j2
+public class LookupService implements AutoCloseable {
+
+    public static final long DEFAULT_LINGER_MICROS = 2000;
+
+    private final AsyncExecutor executor;
+
+    private final IpInfoCache cache;
+
+    private final long lingerMicros;
+
+    private final int maxBatchSize;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "lookup-service-linger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<String> lingeringIps = new ArrayList<>();
+
+    private final List<CompletableFuture<IpInfo>> lingeringFutures = new ArrayList<>();
+
+    /**
+     * @param parsers              parsers to dispatch lookups to
+     * @param maxInFlightPerParser maximum number of concurrent requests per parser
+     * @param cache                consulted before anything else and written through, or null
+     * @param lingerMicros         how long a lookup may wait for others to share a batch, 0 to submit at once
+     */
+    public LookupService(List<IpParser> parsers, int maxInFlightPerParser, IpInfoCache cache, long lingerMicros) {
+        this.executor = new AsyncExecutor(parsers, maxInFlightPerParser, cache);
+        this.cache = cache;
+        this.lingerMicros = lingerMicros;
+        this.maxBatchSize = parsers.stream().mapToInt(IpParser::getMaxBatchSize).max().orElse(1);
+        log.info("Lookup service over " + parsers.size() + " parsers, gathering batches of up to " + maxBatchSize
+                + " for " + lingerMicros + "us");
+    }
+
+    /**
+     * @param ip the IP address to parse
+     * @return a future completed with the IpInfo, at once on a cache hit, or completed
+     * exceptionally if no parser could answer
+     */
+    public CompletableFuture<IpInfo> lookup(String ip) {
+        IpInfo cached = cache != null ? cache.get(ip) : null;
+        if (cached != null) {
+            Metrics.lookups().lookupCompleted();
+            return CompletableFuture.completedFuture(cached);
+        }
+        if (lingerMicros <= 0 || maxBatchSize <= 1) {
+            return executor.submit(ip);
+        }
+        CompletableFuture<IpInfo> future = new CompletableFuture<>();
+        boolean first;
+        boolean full;
+        synchronized (lingeringIps) {
+            first = lingeringIps.isEmpty();
+            lingeringIps.add(ip);
+            lingeringFutures.add(future);
+            full = lingeringIps.size() >= maxBatchSize;
+        }
+        if (full) {
+            flush();
+        } else if (first) {
+            try {
+                timer.schedule(this::flush, lingerMicros, TimeUnit.MICROSECONDS);
+            } catch (RejectedExecutionException e) {
+                // closed meanwhile
+                flush();
+            }
+        }
+        return future;
+    }
+
+    /**
+     * @param ips the IP addresses to parse
+     * @return the futures of the IPs, in order, as {@link #lookup(String)} returns them
+     */
+    public List<CompletableFuture<IpInfo>> lookupAll(List<String> ips) {
+        List<CompletableFuture<IpInfo>> futures = new ArrayList<>(ips.size());
+        for (String ip : ips) {
+            futures.add(lookup(ip));
+        }
+        return futures;
+    }
+
+    /**
+     * Submit the lingering lookups together.
+     */
+    private void flush() {
+        List<String> ips;
+        List<CompletableFuture<IpInfo>> futures;
+        synchronized (lingeringIps) {
+            if (lingeringIps.isEmpty()) {
+                return;
+            }
+            ips = new ArrayList<>(lingeringIps);
+            futures = new ArrayList<>(lingeringFutures);
+            lingeringIps.clear();
+            lingeringFutures.clear();
+        }
+        List<CompletableFuture<IpInfo>> lookups = executor.submitAll(ips);
+        for (int i = 0; i < lookups.size(); i++) {
+            CompletableFuture<IpInfo> future = futures.get(i);
+            lookups.get(i).whenComplete((ipInfo, e) -> {
+                if (e != null) {
+                    future.completeExceptionally(e);
+                } else {
+                    future.complete(ipInfo);
+                }
+            });
+        }
+    }
+
+    /**
+     * Fail the lingering lookups and those in the executor's queue, and stop accepting new ones.
+     * The cache is left to its owner.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        flush();
+        executor.close();
+    }
+
+    /**
+     * @return the parsers' batch size the lookups are gathered for
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+}
@@ -0,0 +1,737 @@
+package com.free.ip.utils;
+
+import com.free.ip.cache.IpInfoCache;
+import com.free.ip.metrics.Metrics;
+import com.free.ip.metrics.ParserMetrics;
+import com.free.ip.parser.IpParser;
+import com.free.ip.parser.LookupException;
+import com.free.ip.pojo.IpInfo;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking lookup engine. Every parser owns a number of in-flight slots, a rate
+ * limiter and a {@link ParserHealth}; pending lookups are handed to a parser with a free
+ * slot, a closed circuit and a limiter that grants a request, chosen in proportion to its
+ * health weight, and a single timer thread wakes the dispatcher up when the earliest
+ * limiter or circuit opens. No thread ever sleeps or waits on a provider response.
+ * Parsers with a batch endpoint are handed up to {@link IpParser#getMaxBatchSize()} pending
+ * lookups at once, charging their limiter {@link IpParser#getRequestCost(int)} permits.
+ * <p>
+ * With hedging configured, a single-IP lookup still unanswered after the configured
+ * percentile of its parser's recent latencies is sent to a second ready parser as well; the
+ * first answer wins and the other request is cancelled. Hedges are limited to a fraction of
+ * the requests sent, and go through the same rate limiters, so they cannot eat up a quota.
+ * <p>
+ * Failures are told apart by their {@link LookupException}: a rate limit pauses the
+ * parser's limiter for as long as the provider asked and puts the lookup straight back in
+ * the queue for the other parsers, an invalid IP fails at once without penalising the
+ * parser, and other failures count against the parser and are retried after a growing,
+ * jittered {@link Backoff} delay. While every circuit is open, lookups wait for the probes
+ * that may bring a parser back; once none has closed for {@link ParserHealth#getGiveUpNanos()},
+ * the queued lookups fail.
+ *
+ * 非阻塞的解析引擎。每个解析器拥有若干并发槽位和各自的限流器，待解析的IP会被分配给
+ * 有空闲槽位且限流器允许的解析器，由一个定时线程在最早可调度时刻唤醒分发逻辑。
+ */
+@Log4j2
+public class AsyncExecutor implements AutoCloseable {
+
+    private static class ParserSlot {
+        final IpParser parser;
+        final TokenBucket limiter;
+        final ParserHealth health;
+        final ParserMetrics metrics;
+        int inFlight;
+        long nextDispatchNanos;
+
+        ParserSlot(IpParser parser) {
+            this.parser = parser;
+            this.limiter = RateLimiters.forParser(parser);
+            this.health = new ParserHealth(parser);
+            this.metrics = Metrics.forParser(parser);
+        }
+    }
+
+    private static class LookupTask {
+        final String ip;
+        final CompletableFuture<IpInfo> future = new CompletableFuture<>();
+        int attempts;
+        int rateLimits;
+        // requests for this lookup in flight, more than one while hedged
+        int running;
+        boolean hedged;
+        ParserSlot hedgeFrom;
+        boolean done;
+        // the number of cache writes when the cache last missed the lookup
+        long cacheMissedAt = -1;
+        // when the lookup was last queued, for the queue wait of the request sending it
+        long queuedNanos = System.nanoTime();
+        volatile CompletableFuture<?> request;
+        volatile CompletableFuture<?> hedgeRequest;
+
+        LookupTask(String ip) {
+            this.ip = ip;
+        }
+    }
+
+    public static final double DEFAULT_HEDGE_BUDGET = 0.1;
+
+    private static volatile double hedgePercentile;
+
+    private static volatile double hedgeBudget = DEFAULT_HEDGE_BUDGET;
+
+    private final List<ParserSlot> slots = new ArrayList<>();
+
+    private final List<ParserHealth> healths = new ArrayList<>();
+
+    private final Deque<LookupTask> pending = new ArrayDeque<>();
+
+    // the lookup queued or in flight for each IP, shared by later submissions of the IP
+    private final Map<String, LookupTask> inFlightByIp = new HashMap<>();
+
+    // overdue lookups waiting for a second parser to become ready
+    private final Deque<LookupTask> hedgeQueue = new ArrayDeque<>();
+
+    // failed lookups waiting out their backoff before going back to the queue
+    private final Set<LookupTask> backingOff = new HashSet<>();
+
+    private final int maxInFlightPerParser;
+
+    private final IpInfoCache cache;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "async-executor-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long wakeUpAtNanos = Long.MAX_VALUE;
+
+    // when every circuit was found open with none closed since, or 0
+    private long allOpenSinceNanos;
+
+    private boolean closed;
+
+    private long requests;
+
+    private long hedges;
+
+    // results written to the cache, a miss is only trusted until the next one
+    private long cacheWrites;
+
+    /**
+     * @param parserList           parsers to dispatch lookups to
+     * @param maxInFlightPerParser maximum number of concurrent requests per parser
+     */
+    public AsyncExecutor(List<IpParser> parserList, int maxInFlightPerParser) {
+        this(parserList, maxInFlightPerParser, null);
+    }
+
+    /**
+     * @param parserList           parsers to dispatch lookups to
+     * @param maxInFlightPerParser maximum number of concurrent requests per parser
+     * @param cache                consulted right before a lookup is dispatched and written
+     *                             through on success, or null
+     */
+    public AsyncExecutor(List<IpParser> parserList, int maxInFlightPerParser, IpInfoCache cache) {
+        for (IpParser parser : parserList) {
+            ParserSlot slot = new ParserSlot(parser);
+            slots.add(slot);
+            healths.add(slot.health);
+        }
+        this.maxInFlightPerParser = maxInFlightPerParser;
+        this.cache = cache;
+    }
+
+    /**
+     * Enable hedged requests for executors created afterwards.
+     *
+     * @param percentile the share of a parser's recent requests that complete before a lookup
+     *                   is hedged, e.g. 0.95; 0 disables hedging
+     * @param budget     the maximum number of hedges as a fraction of the requests sent, e.g. 0.1
+     */
+    public static void configureHedging(double percentile, double budget) {
+        if (percentile < 0 || percentile >= 1 || budget < 0) {
+            throw new IllegalArgumentException("Invalid hedging: percentile " + percentile + ", budget " + budget);
+        }
+        hedgePercentile = percentile;
+        hedgeBudget = budget;
+    }
+
+    /**
+     * Queue an IP for lookup. While a lookup for the same IP is queued or in flight, no other
+     * is made: the returned future shares its outcome.
+     *
+     * @param ip the IP address to parse
+     * @return a future completed with the IpInfo, or completed exceptionally once the IP
+     * exhausted its attempts or no parser recovered in time from every circuit opening
+     */
+    public CompletableFuture<IpInfo> submit(String ip) {
+        return submitAll(Collections.singletonList(ip)).get(0);
+    }
+
+    /**
+     * Queue several IPs for lookup at once, so a parser with a batch endpoint can be handed
+     * them in a single request.
+     *
+     * @return the futures of the IPs, in order, as {@link #submit(String)} returns them
+     */
+    public List<CompletableFuture<IpInfo>> submitAll(List<String> ips) {
+        List<CompletableFuture<IpInfo>> futures = new ArrayList<>(ips.size());
+        synchronized (this) {
+            for (String ip : ips) {
+                if (closed) {
+                    CompletableFuture<IpInfo> future = new CompletableFuture<>();
+                    future.completeExceptionally(new CancellationException("Executor is closed"));
+                    futures.add(future);
+                    continue;
+                }
+                if (!IpUtil.isIp(ip)) {
+                    // not worth a request, nor a place in a batch
+                    Metrics.lookups().lookupFailed();
+                    CompletableFuture<IpInfo> future = new CompletableFuture<>();
+                    future.completeExceptionally(LookupException.invalidInput("Not an IP address: " + ip));
+                    futures.add(future);
+                    continue;
+                }
+                LookupTask leader = inFlightByIp.get(ip);
+                if (leader != null) {
+                    Metrics.lookups().lookupCoalesced();
+                    futures.add(share(leader.future));
+                    continue;
+                }
+                LookupTask task = new LookupTask(ip);
+                inFlightByIp.put(ip, task);
+                task.future.whenComplete((ipInfo, e) -> {
+                    synchronized (this) {
+                        inFlightByIp.remove(ip, task);
+                    }
+                });
+                pending.addLast(task);
+                futures.add(task.future);
+            }
+        }
+        pump();
+        return futures;
+    }
+
+    /**
+     * @return a future completed like the lookup's, which callers can cancel without affecting it
+     */
+    private static CompletableFuture<IpInfo> share(CompletableFuture<IpInfo> lookup) {
+        CompletableFuture<IpInfo> shared = new CompletableFuture<>();
+        lookup.whenComplete((ipInfo, e) -> {
+            if (e != null) {
+                Metrics.lookups().lookupFailed();
+                shared.completeExceptionally(e);
+            } else {
+                Metrics.lookups().lookupCompleted();
+                shared.complete(ipInfo);
+            }
+        });
+        return shared;
+    }
+
+    /**
+     * Drop every pending lookup and stop the timer. Lookups already in flight are left to
+     * finish but their results are ignored.
+     */
+    @Override
+    public void close() {
+        List<LookupTask> dropped;
+        synchronized (this) {
+            closed = true;
+            dropped = new ArrayList<>(pending);
+            dropped.addAll(backingOff);
+            pending.clear();
+            hedgeQueue.clear();
+            backingOff.clear();
+        }
+        for (LookupTask task : dropped) {
+            task.future.completeExceptionally(new CancellationException("Executor is closed"));
+        }
+        timer.shutdownNow();
+    }
+
+    private void pump() {
+        boolean recheck;
+        do {
+            if (cache != null) {
+                consultCache();
+            }
+            recheck = false;
+            List<ParserSlot> dispatchSlots = new ArrayList<>();
+            List<List<LookupTask>> dispatchTasks = new ArrayList<>();
+            List<ParserSlot> hedgeSlots = new ArrayList<>();
+            List<LookupTask> hedgeTasks = new ArrayList<>();
+            List<LookupTask> abandoned = Collections.emptyList();
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (wakeUpAtNanos <= now) {
+                    wakeUpAtNanos = Long.MAX_VALUE;
+                }
+                if (!closed && givenUp(now)) {
+                    abandoned = abandonQueued();
+                }
+                // overdue lookups go before new ones, they are late already
+                for (Iterator<LookupTask> it = hedgeQueue.iterator(); it.hasNext() && !closed; ) {
+                    LookupTask task = it.next();
+                    if (task.done || hedgeBudgetSpent()) {
+                        it.remove();
+                        continue;
+                    }
+                    ParserSlot slot = nextReadySlot(now, task.hedgeFrom, 1);
+                    if (slot != null) {
+                        it.remove();
+                        slot.inFlight++;
+                        requests++;
+                        hedges++;
+                        task.running++;
+                        hedgeSlots.add(slot);
+                        hedgeTasks.add(task);
+                    }
+                }
+                while (!closed && !pending.isEmpty()) {
+                    if (cache != null && pending.peekFirst().cacheMissedAt != cacheWrites) {
+                        // queued or answered meanwhile, the cache is consulted on the next round
+                        recheck = freeCapacity(now) > 0;
+                        break;
+                    }
+                    ParserSlot slot = nextReadySlot(now, null, pending.size());
+                    if (slot == null) {
+                        break;
+                    }
+                    slot.inFlight++;
+                    requests++;
+                    List<LookupTask> batch = takeBatch(slot);
+                    for (LookupTask task : batch) {
+                        task.running++;
+                    }
+                    dispatchSlots.add(slot);
+                    dispatchTasks.add(batch);
+                }
+                if (!closed && !recheck && (!pending.isEmpty() || !hedgeQueue.isEmpty())) {
+                    scheduleWakeUp(now);
+                }
+            }
+            for (LookupTask task : abandoned) {
+                Metrics.lookups().lookupFailed();
+                task.future.completeExceptionally(new IllegalStateException("no parser recovered for IP: " + task.ip));
+            }
+            for (int i = 0; i < hedgeSlots.size(); i++) {
+                dispatch(hedgeSlots.get(i), Collections.singletonList(hedgeTasks.get(i)), true);
+            }
+            for (int i = 0; i < dispatchSlots.size(); i++) {
+                dispatch(dispatchSlots.get(i), dispatchTasks.get(i), false);
+            }
+        } while (recheck);
+    }
+
+    /**
+     * Track how long every circuit has been open with none closing meanwhile; a failed probe
+     * only reopens its circuit and does not reset the clock. Called with the lock held.
+     *
+     * @return true once that has lasted for {@link ParserHealth#getGiveUpNanos()}
+     */
+    private boolean givenUp(long now) {
+        if (ParserHealth.anyClosed(healths)) {
+            allOpenSinceNanos = 0;
+        } else if (allOpenSinceNanos == 0 && ParserHealth.allOpen(healths)) {
+            allOpenSinceNanos = now;
+        }
+        return allOpenSinceNanos != 0 && now - allOpenSinceNanos >= ParserHealth.getGiveUpNanos();
+    }
+
+    /**
+     * Take every lookup that is queued or backing off, for failing them. Called with the lock held.
+     */
+    private List<LookupTask> abandonQueued() {
+        List<LookupTask> abandoned = new ArrayList<>(pending);
+        abandoned.addAll(backingOff);
+        if (!abandoned.isEmpty()) {
+            log.error("No parser recovered within " + TimeUnit.NANOSECONDS.toMillis(ParserHealth.getGiveUpNanos())
+                    + "ms of all circuits opening. Terminating.");
+        }
+        for (LookupTask task : abandoned) {
+            task.done = true;
+        }
+        pending.clear();
+        hedgeQueue.clear();
+        backingOff.clear();
+        return abandoned;
+    }
+
+    /**
+     * Answer from the cache the lookups at the head of the queue that the free slots could take
+     * now. The cache is consulted as late as possible, so a lookup queued behind a
+     * pending neighbour can still be answered from that neighbour's result, and outside the lock,
+     * so a slow cache tier does not hold up submissions and completions. The lookups stay queued
+     * meanwhile; the ones the cache misses are marked, and only lookups marked since the last
+     * write to the cache are dispatched.
+     */
+    private void consultCache() {
+        List<LookupTask> candidates = new ArrayList<>();
+        long writes;
+        synchronized (this) {
+            writes = cacheWrites;
+            int capacity = freeCapacity(System.nanoTime());
+            for (Iterator<LookupTask> it = pending.iterator(); it.hasNext() && candidates.size() < capacity; ) {
+                LookupTask task = it.next();
+                if (task.cacheMissedAt != writes) {
+                    candidates.add(task);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+        List<IpInfo> answers = new ArrayList<>(candidates.size());
+        for (LookupTask task : candidates) {
+            answers.add(cache.get(task.ip));
+        }
+        List<LookupTask> cachedTasks = new ArrayList<>();
+        List<IpInfo> cachedInfos = new ArrayList<>();
+        synchronized (this) {
+            for (int i = 0; i < candidates.size(); i++) {
+                LookupTask task = candidates.get(i);
+                if (answers.get(i) == null) {
+                    task.cacheMissedAt = writes;
+                } else if (pending.removeFirstOccurrence(task)) {
+                    // still queued, neither dropped by close() nor failed meanwhile
+                    cachedTasks.add(task);
+                    cachedInfos.add(answers.get(i));
+                }
+            }
+        }
+        for (int i = 0; i < cachedTasks.size(); i++) {
+            Metrics.lookups().lookupCompleted();
+            cachedTasks.get(i).future.complete(cachedInfos.get(i));
+        }
+    }
+
+    /**
+     * @return true if one more hedge would exceed the budget, counted against the regular requests
+     */
+    private boolean hedgeBudgetSpent() {
+        return hedges + 1 > hedgeBudget * (requests - hedges);
+    }
+
+    /**
+     * Queue a lookup that is taking unusually long for a second parser, which it is sent to
+     * as soon as one is ready, unless it is answered first or the hedge budget is spent.
+     */
+    private void hedge(LookupTask task, ParserSlot primary) {
+        synchronized (this) {
+            if (closed || task.done || task.hedged || hedgeBudgetSpent()) {
+                return;
+            }
+            task.hedged = true;
+            task.hedgeFrom = primary;
+            task.queuedNanos = System.nanoTime();
+            hedgeQueue.addLast(task);
+        }
+        pump();
+    }
+
+    /**
+     * @return the number of lookups the parsers with a free slot and an available circuit could take now
+     */
+    private int freeCapacity(long now) {
+        int capacity = 0;
+        for (ParserSlot slot : slots) {
+            if (slot.inFlight < maxInFlightPerParser && slot.health.isAvailable(now)) {
+                capacity += (maxInFlightPerParser - slot.inFlight) * batchSize(slot);
+            }
+        }
+        return capacity;
+    }
+
+    /**
+     * Take the head of the queue plus, for a batch-capable parser, the following lookups the
+     * cache missed, up to the parser's batch size. Called with the lock held.
+     */
+    private List<LookupTask> takeBatch(ParserSlot slot) {
+        List<LookupTask> batch = new ArrayList<>(Math.min(batchSize(slot), pending.size()));
+        batch.add(pending.pollFirst());
+        while (batch.size() < batchSize(slot) && !pending.isEmpty() && (cache == null || pending.peekFirst().cacheMissedAt == cacheWrites)) {
+            batch.add(pending.pollFirst());
+        }
+        return batch;
+    }
+
+    private static int batchSize(ParserSlot slot) {
+        return Math.max(1, slot.parser.getMaxBatchSize());
+    }
+
+    /**
+     * Pick among the ready parsers in proportion to their health weight. A parser is ready
+     * when its circuit allows a request, it has a free slot and its rate limiter grants a
+     * request right now; otherwise the time its limiter opens again is remembered for the
+     * wake-up timer.
+     *
+     * @param exclude a parser not to pick, or null
+     * @param ips     the number of IPs waiting, which bounds the batch and so the request cost
+     */
+    private ParserSlot nextReadySlot(long now, ParserSlot exclude, int ips) {
+        List<ParserSlot> candidates = new ArrayList<>(slots.size());
+        for (ParserSlot slot : slots) {
+            if (slot != exclude && slot.inFlight < maxInFlightPerParser && slot.nextDispatchNanos <= now
+                    && slot.health.isAvailable(now)) {
+                candidates.add(slot);
+            }
+        }
+        while (!candidates.isEmpty()) {
+            ParserSlot slot = ParserHealth.pickWeighted(candidates, s -> s.health.weight());
+            int cost = slot.parser.getRequestCost(Math.min(batchSize(slot), ips));
+            long waitNanos = slot.limiter.tryAcquire(now, cost);
+            if (waitNanos > 0) {
+                slot.nextDispatchNanos = now + waitNanos;
+                candidates.remove(slot);
+                continue;
+            }
+            // an open circuit that is due sends this request as its probe
+            slot.health.tryAcquire(now);
+            return slot;
+        }
+        return null;
+    }
+
+    /**
+     * Arm the timer for the earliest moment a parser with a free slot becomes ready. Parsers
+     * whose slots are all busy, or whose probe is in flight, wake the dispatcher themselves
+     * when a request completes.
+     */
+    private void scheduleWakeUp(long now) {
+        long earliest = Long.MAX_VALUE;
+        for (ParserSlot slot : slots) {
+            if (slot.inFlight < maxInFlightPerParser && slot.health.getState() != ParserHealth.State.HALF_OPEN) {
+                earliest = Math.min(earliest, Math.max(slot.nextDispatchNanos, slot.health.getRetryAtNanos()));
+            }
+        }
+        if (allOpenSinceNanos != 0) {
+            // wake up to give up, should no probe succeed first
+            earliest = Math.min(earliest, allOpenSinceNanos + ParserHealth.getGiveUpNanos());
+        }
+        if (earliest == Long.MAX_VALUE || earliest >= wakeUpAtNanos) {
+            return;
+        }
+        wakeUpAtNanos = earliest;
+        timer.schedule(this::pump, Math.max(0, earliest - now), TimeUnit.NANOSECONDS);
+    }
+
+    private void dispatch(ParserSlot slot, List<LookupTask> tasks, boolean isHedge) {
+        List<String> ips = new ArrayList<>(tasks.size());
+        long queuedNanos = Long.MAX_VALUE;
+        for (LookupTask task : tasks) {
+            ips.add(task.ip);
+            queuedNanos = Math.min(queuedNanos, task.queuedNanos);
+        }
+        log.info((ips.size() == 1 ? ips.get(0) : ips.size() + " IPs") + (isHedge ? " hedges with Parser => " : " uses Parser => ")
+                + slot.parser.getClass().getName());
+        long startNanos = System.nanoTime();
+        slot.metrics.requestStarted(startNanos - queuedNanos);
+        CompletableFuture<List<IpInfo>> lookup;
+        try {
+            lookup = slot.parser.getIpInfosAsync(ips);
+        } catch (Exception e) {
+            lookup = new CompletableFuture<>();
+            lookup.completeExceptionally(e);
+        }
+        if (tasks.size() == 1) {
+            LookupTask task = tasks.get(0);
+            if (isHedge) {
+                task.hedgeRequest = lookup;
+            } else {
+                task.request = lookup;
+                long hedgeDelayNanos = hedgePercentile > 0 ? slot.health.latencyPercentileNanos(hedgePercentile) : -1;
+                if (hedgeDelayNanos >= 0 && slots.size() > 1) {
+                    try {
+                        timer.schedule(() -> hedge(task, slot), hedgeDelayNanos, TimeUnit.NANOSECONDS);
+                    } catch (RejectedExecutionException e) {
+                        // closed meanwhile
+                    }
+                }
+            }
+            // the lookup may have been answered before the request was registered
+            if (task.future.isDone()) {
+                lookup.cancel(false);
+            }
+        }
+        lookup.whenComplete((infos, e) -> {
+            boolean cancelled = e instanceof CancellationException;
+            onComplete(slot, tasks, e == null ? infos : null, e == null || cancelled ? null : LookupException.of(e),
+                    cancelled, System.nanoTime() - startNanos);
+        });
+    }
+
+    /**
+     * @param infos     the results in the order of the tasks, null entries for failed lookups,
+     *                  or null if the whole request failed
+     * @param failure   why the whole request failed, or null
+     * @param cancelled the request lost a hedge race and was cancelled
+     */
+    private void onComplete(ParserSlot slot, List<LookupTask> tasks, List<IpInfo> infos, LookupException failure,
+                            boolean cancelled, long latencyNanos) {
+        List<LookupTask> succeeded = new ArrayList<>();
+        List<IpInfo> results = new ArrayList<>();
+        List<LookupTask> failed = new ArrayList<>();
+        List<LookupTask> invalid = new ArrayList<>();
+        boolean anySucceeded = false;
+        if (failure != null && failure.getReason() == LookupException.Reason.INVALID_INPUT && tasks.size() > 1) {
+            // a batch refused as a whole does not tell which IP was at fault
+            failure = LookupException.providerError(failure.getMessage());
+        }
+        LookupException.Reason reason = failure != null ? failure.getReason() : null;
+        synchronized (this) {
+            slot.inFlight--;
+            if (reason == LookupException.Reason.RATE_LIMITED) {
+                slot.limiter.pauseUntil(System.nanoTime() + Backoff.pauseNanos(failure));
+            }
+            List<LookupTask> retries = new ArrayList<>();
+            for (int i = 0; i < tasks.size(); i++) {
+                LookupTask task = tasks.get(i);
+                IpInfo info = infos != null && i < infos.size() ? infos.get(i) : null;
+                anySucceeded |= info != null;
+                task.running--;
+                if (task.done) {
+                    // the other request of a hedged lookup won, or the executor was closed
+                    continue;
+                }
+                if (info != null) {
+                    task.done = true;
+                    succeeded.add(task);
+                    results.add(info);
+                    continue;
+                }
+                if (task.running > 0) {
+                    // the hedge or the request it hedged is still out
+                    continue;
+                }
+                if (reason == LookupException.Reason.INVALID_INPUT) {
+                    task.done = true;
+                    invalid.add(task);
+                    continue;
+                }
+                if (reason == LookupException.Reason.RATE_LIMITED) {
+                    task.rateLimits++;
+                } else {
+                    task.attempts++;
+                }
+                log.info(task.ip + "[" + task.attempts + "] failed with Parser => " + slot.parser.getClass().getName()
+                        + (reason != null ? ": " + reason : ""));
+                if (task.attempts >= ExecutorUtil.EACH_IP_ATTEMPTS || task.rateLimits >= ExecutorUtil.EACH_IP_RATE_LIMITS || closed) {
+                    task.done = true;
+                    failed.add(task);
+                    continue;
+                }
+                // the retry may be hedged again
+                task.hedged = false;
+                task.queuedNanos = System.nanoTime();
+                hedgeQueue.remove(task);
+                if (reason == LookupException.Reason.RATE_LIMITED) {
+                    // the lookup is not to blame, it may go to another parser right away
+                    retries.add(task);
+                } else {
+                    retryLater(task, Backoff.retryDelayNanos(task.attempts));
+                }
+            }
+            // Failed lookups go back to the head of the queue in their original order
+            for (int i = retries.size() - 1; i >= 0; i--) {
+                pending.addFirst(retries.get(i));
+            }
+            // A request counts as one success or failure for the parser, whatever its size;
+            // a cancelled hedge loser, a rate limit or an invalid IP says nothing about the parser's health
+            if (anySucceeded) {
+                slot.health.onSuccess(latencyNanos);
+            } else if (!cancelled && (failure == null || failure.isParserFault())) {
+                slot.health.onFailure(latencyNanos, System.nanoTime());
+            } else {
+                // a probe that tells nothing, or lost its hedge race, leaves the circuit due for another one
+                slot.health.onInconclusive(System.nanoTime());
+            }
+        }
+        if (cancelled) {
+            slot.metrics.requestCancelled();
+        } else {
+            slot.metrics.requestCompleted(anySucceeded, latencyNanos);
+        }
+        for (int i = 0; i < succeeded.size(); i++) {
+            Metrics.lookups().lookupCompleted();
+            LookupTask task = succeeded.get(i);
+            IpInfo info = results.get(i);
+            // Results are matched back to their input by IP, keep the queried one if the provider omitted it
+            if (info.getIp() == null || info.getIp().isEmpty()) {
+                info.setIp(task.ip);
+            }
+            if (cache != null) {
+                cache.put(task.ip, info);
+                synchronized (this) {
+                    cacheWrites++;
+                }
+            }
+            task.future.complete(info);
+            cancelRequests(task);
+        }
+        for (LookupTask failedTask : failed) {
+            Metrics.lookups().lookupFailed();
+            failedTask.future.completeExceptionally(new IllegalStateException(
+                    "parse failed too many times for IP: " + failedTask.ip));
+        }
+        for (LookupTask invalidTask : invalid) {
+            Metrics.lookups().lookupFailed();
+            invalidTask.future.completeExceptionally(failure);
+        }
+        pump();
+    }
+
+    /**
+     * Put a failed lookup back at the head of the queue once its backoff has passed. Called
+     * with the lock held.
+     */
+    private void retryLater(LookupTask task, long delayNanos) {
+        backingOff.add(task);
+        timer.schedule(() -> {
+            synchronized (this) {
+                if (!backingOff.remove(task)) {
+                    // failed by close meanwhile
+                    return;
+                }
+                task.queuedNanos = System.nanoTime();
+                pending.addFirst(task);
+            }
+            pump();
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Cancel whatever is still in flight for an answered lookup, i.e. the loser of a hedge race.
+     */
+    private static void cancelRequests(LookupTask task) {
+        CompletableFuture<?> request = task.request;
+        CompletableFuture<?> hedgeRequest = task.hedgeRequest;
+        if (request != null) {
+            request.cancel(false);
+        }
+        if (hedgeRequest != null) {
+            hedgeRequest.cancel(false);
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.free.ip.utils;
+
+import com.free.ip.parser.LookupException;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delays between the attempts of a lookup and the pauses of rate-limited providers. A
+ * failed lookup waits exponentially longer before each retry, with half of the delay
+ * random, so lookups that failed together do not come back together. A provider that
+ * answered a 429 is paused for as long as its Retry-After says, or a default second,
+ * capped so a misbehaving header cannot stall a run.
+ *
+ * 重试退避：失败的查询按指数退避并加入随机抖动后重试；被限流的服务商按Retry-After暂停。
+ */
+public class Backoff {
+
+    public static final long DEFAULT_BASE_MILLIS = 100;
+
+    public static final long DEFAULT_MAX_MILLIS = 10 * 1000;
+
+    public static final long DEFAULT_RATE_LIMITED_MILLIS = 1000;
+
+    public static final long MAX_RATE_LIMITED_MILLIS = 10 * 60 * 1000;
+
+    private static volatile long baseNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BASE_MILLIS);
+
+    private static volatile long maxNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_MILLIS);
+
+    /**
+     * Set the delay before the first retry of a lookup, doubled for each further one up to the maximum.
+     */
+    public static void configure(long baseMillis, long maxMillis) {
+        baseNanos = TimeUnit.MILLISECONDS.toNanos(baseMillis);
+        maxNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(baseMillis, maxMillis));
+    }
+
+    /**
+     * @param failures the attempts of the lookup that failed so far, at least 1
+     * @return how long to wait before the next attempt, between half and all of base * 2^(failures - 1)
+     */
+    public static long retryDelayNanos(int failures) {
+        long delay = baseNanos;
+        for (int i = 1; i < failures && delay < maxNanos; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxNanos);
+        if (delay <= 1) {
+            return delay;
+        }
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay - delay / 2);
+    }
+
+    /**
+     * @param failure a rate-limited failure
+     * @return how long to pause the provider
+     */
+    public static long pauseNanos(LookupException failure) {
+        long millis = failure.getRetryAfterMillis() >= 0 ? failure.getRetryAfterMillis() : DEFAULT_RATE_LIMITED_MILLIS;
+        return TimeUnit.MILLISECONDS.toNanos(Math.min(millis, MAX_RATE_LIMITED_MILLIS));
+    }
+
+}
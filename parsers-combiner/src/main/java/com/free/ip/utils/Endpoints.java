@@ -0,0 +1,60 @@
+package com.free.ip.utils;
+
+import com.free.ip.parser.IpParser;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide overrides of the provider endpoints, keyed by parser name like
+ * {@link RateLimiters}, e.g. to point a parser at a mirror or a local mock server.
+ * An override replaces the scheme, host and port of the parser's URLs and prefixes
+ * their path: with "http://localhost:8080/sb", "https://api.ip.sb/geoip/1.1.1.1"
+ * is requested as "http://localhost:8080/sb/geoip/1.1.1.1".
+ *
+ * 服务商接口地址的覆盖配置，按解析器名称替换请求URL的协议、主机和端口。
+ */
+@Log4j2
+public class Endpoints {
+
+    private static final Map<String, String> OVERRIDES = new ConcurrentHashMap<>();
+
+    /**
+     * Replace the endpoint of a parser.
+     *
+     * @param parserName the parser's simple class name, e.g. "IpSbParser"
+     * @param baseUrl    the URL to send its requests to instead, or null to restore the provider's
+     */
+    public static void override(String parserName, String baseUrl) {
+        if (baseUrl == null) {
+            OVERRIDES.remove(parserName);
+            return;
+        }
+        log.info("Endpoint of " + parserName + " overridden to " + baseUrl);
+        OVERRIDES.put(parserName, baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl);
+    }
+
+    /**
+     * @param parser
+     * @param url    a URL of the parser's provider
+     * @return the URL, moved to the overridden endpoint of the parser if there is one
+     */
+    public static String resolve(IpParser parser, String url) {
+        if (url == null || OVERRIDES.isEmpty()) {
+            return url;
+        }
+        String baseUrl = OVERRIDES.get(parser.getName());
+        if (baseUrl == null) {
+            return url;
+        }
+        int authority = url.indexOf("://");
+        int path = authority < 0 ? 0 : authority + 3;
+        while (path < url.length() && url.charAt(path) != '/' && url.charAt(path) != '?') {
+            path++;
+        }
+        String rest = url.substring(path);
+        return baseUrl + (rest.startsWith("/") ? rest : "/" + rest);
+    }
+
+}
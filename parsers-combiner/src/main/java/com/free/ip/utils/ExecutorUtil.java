@@ -1,13 +1,20 @@
 package com.free.ip.utils;
 
+import com.free.ip.cache.IpInfoCache;
+import com.free.ip.metrics.Metrics;
+import com.free.ip.metrics.ParserMetrics;
 import com.free.ip.parser.IpParser;
+import com.free.ip.parser.LookupException;
 import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.writer.ResultFormat;
 import lombok.extern.log4j.Log4j2;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
 
 @Log4j2
 public class ExecutorUtil {
@@ -16,126 +23,533 @@ public class ExecutorUtil {
 
     public static final int EACH_PARSER_ATTEMPTS = 3;
 
+    // Rate limits a lookup waits out, on top of its attempts, before giving up
+    public static final int EACH_IP_RATE_LIMITS = 20;
+
     /**
      * Parses a list of IP addresses using a provided list of parsers. Each IP address is attempted
      * to be parsed using the parsers. If parsing fails, it retries until success or the maximum
-     * number of attempts is reached. If a parser fails consecutively more than a certain number of times,
-     * it is discarded. If all parsers become unusable, the task is terminated early.
+     * number of attempts is reached. Work goes preferably to the parsers with the lowest latency and
+     * highest success rate. If a parser fails consecutively more than a certain number of times, its
+     * circuit opens and it gets no work until a probe request succeeds after a cool-down, see
+     * {@link ParserHealth}. If all circuits stay open, with none recovering, for longer than
+     * {@link ParserHealth#configureGiveUp(long)} allows, the task is terminated early. Requests
+     * to each parser are paced by its rate limiter, see {@link RateLimiters}.
      *
      * 解析一组IP地址，使用提供的解析器列表。每个IP地址会尝试使用解析器进行解析，
-     * 如果解析失败，则会重试，直到成功或达到最大尝试次数。如果某个解析器连续失败
-     * 超过一定次数，则不再使用该解析器。如果所有解析器都不可用，则提前终止任务。
+     * 如果解析失败，则会重试，直到成功或达到最大尝试次数。延迟低、成功率高的解析器会分到更多任务。
+     * 如果某个解析器连续失败超过一定次数，则熔断一段时间，探测成功后恢复使用。
+     * 如果所有解析器同时熔断，则提前终止任务。每个解析器的请求速率由其限流器控制。
      *
      * @param ipList       A list of IP addresses to be parsed
      *                     待解析的IP地址列表
      * @param parserList   A list of parsers to be used for parsing the IP addresses
      *                     用于解析IP地址的解析器列表
-     * @param sleepSeconds The number of seconds to sleep between each attempt
-     *                     每次尝试之间的休眠时间（秒）
-     * @return             A list containing the results of the IP parsing
-     *                     包含解析结果的列表
+     * @param sleepSeconds An additional number of seconds to sleep after each attempt
+     *                     每次尝试之后额外的休眠时间（秒）
+     * @return             A list containing the results of the IP parsing, held column by column
+     *                     in an {@link IpInfoStore}
+     *                     包含解析结果的列表，按列存储以节省内存
      */
     public static List<IpInfo> runParsers(List<String> ipList, List<IpParser> parserList, int sleepSeconds) {
-        ConcurrentLinkedQueue<IpInfo> resultList = new ConcurrentLinkedQueue<>();
+        return runParsers(ipList, parserList, sleepSeconds, null);
+    }
 
-        // Create a blocking queue for the parsers
-        BlockingQueue<IpParser> parserQueue = new LinkedBlockingQueue<>(parserList);
+    /**
+     * Same as {@link #runParsers(List, List, int)}, but IPs found in the cache are answered
+     * without calling any parser, and every successful result is written through to it.
+     *
+     * 与 {@link #runParsers(List, List, int)} 相同，但命中缓存的IP不再调用解析器，
+     * 每个成功的解析结果都会写入缓存。
+     *
+     * @param cache        The cache to consult before dispatching, or null
+     *                     分发前查询的缓存，可以为null
+     */
+    public static List<IpInfo> runParsers(List<String> ipList, List<IpParser> parserList, int sleepSeconds, IpInfoCache cache) {
+        return runParsers(ipList, parserList, sleepSeconds, cache, null);
+    }
+
+    /**
+     * Same as {@link #runParsers(List, List, int, IpInfoCache)}, skipping the IPs the journal
+     * completed in a previous run and recording every IP completed or given up on in this one.
+     *
+     * 与 {@link #runParsers(List, List, int, IpInfoCache)} 相同，跳过日志中已完成的IP，
+     * 并记录本次完成和失败的IP。
+     *
+     * @param journal      The journal to resume from and record to, or null
+     *                     用于恢复和记录进度的任务日志，可以为null
+     * @return             The results of the previous run followed by the results of this one
+     *                     上次运行的结果加上本次的解析结果
+     */
+    public static List<IpInfo> runParsers(List<String> ipList, List<IpParser> parserList, int sleepSeconds, IpInfoCache cache, Journal journal) {
+        // Hands out idle parsers weighted by health, with a circuit breaker per parser
+        return runBlocking(ipList, new ParserScheduler(parserList), Executors.newFixedThreadPool(parserList.size()),
+                parserList.size(), sleepSeconds, cache, journal);
+    }
+
+    /**
+     * Blocking counterpart of {@link #runParsersAsync(List, List, int)}: one virtual thread per
+     * lookup calls {@link IpParser#getIpInfo(String)} and blocks on the provider like
+     * {@link #runParsers(List, List, int)} does, while each parser serves up to
+     * maxInFlightPerParser lookups at once. Blocked virtual threads cost no platform thread, so
+     * thousands of lookups can wait on providers and rate limiters at the same time. Virtual
+     * threads need Java 21; on older runtimes a pool of one platform thread per slot is used.
+     *
+     * {@link #runParsersAsync(List, List, int)} 的阻塞版本：每个IP使用一个虚拟线程，像
+     * {@link #runParsers(List, List, int)} 一样阻塞调用解析器，每个解析器最多同时处理
+     * maxInFlightPerParser 个请求。虚拟线程需要Java 21，更低版本使用每个槽位一个平台线程的线程池。
+     *
+     * @param ipList               A list of IP addresses to be parsed
+     *                             待解析的IP地址列表
+     * @param parserList           A list of parsers to be used for parsing the IP addresses
+     *                             用于解析IP地址的解析器列表
+     * @param maxInFlightPerParser The maximum number of concurrent requests per parser
+     *                             每个解析器的最大并发请求数
+     * @return                     A list containing the results of the IP parsing
+     *                             包含解析结果的列表
+     */
+    public static List<IpInfo> runParsersVirtual(List<String> ipList, List<IpParser> parserList, int maxInFlightPerParser) {
+        return runParsersVirtual(ipList, parserList, maxInFlightPerParser, null, null);
+    }
 
-        // Map to track the consecutive failure count for each parser
-        ConcurrentHashMap<IpParser, Integer> parserFailureCntMap = new ConcurrentHashMap<>();
+    /**
+     * Same as {@link #runParsersVirtual(List, List, int)}, consulting and writing through the cache,
+     * and resuming from and recording to the journal.
+     *
+     * 与 {@link #runParsersVirtual(List, List, int)} 相同，并查询和写入缓存、使用任务日志恢复和记录进度。
+     *
+     * @param cache                The cache to consult before calling a parser, or null
+     *                             调用解析器前查询的缓存，可以为null
+     * @param journal              The journal to resume from and record to, or null
+     *                             用于恢复和记录进度的任务日志，可以为null
+     */
+    public static List<IpInfo> runParsersVirtual(List<String> ipList, List<IpParser> parserList, int maxInFlightPerParser,
+                                                 IpInfoCache cache, Journal journal) {
+        return runBlocking(ipList, new ParserScheduler(parserList, maxInFlightPerParser),
+                VirtualThreads.newExecutor("virtual-parser", parserList.size() * maxInFlightPerParser),
+                parserList.size() * maxInFlightPerParser, 0, cache, journal);
+    }
 
-        // Counter to track the number of failed parsers
-        AtomicInteger failedParsersCount = new AtomicInteger(0);
+    /**
+     * Look up every IP in a task of its own on the executor, which is shut down once they are all done.
+     * At most as many tasks as the scheduler has slots are submitted at a time, so a long input neither
+     * starts a virtual thread per line nor queues a task per line.
+     */
+    private static List<IpInfo> runBlocking(List<String> ipList, ParserScheduler scheduler, ExecutorService executorService,
+                                            int concurrency, int sleepSeconds, IpInfoCache cache, Journal journal) {
+        IpInfoStore resultList = new IpInfoStore();
+        if (journal != null) {
+            resultList.addAll(journal.getPreviousResults());
+            ipList = pending(ipList, journal);
+        }
 
-        ExecutorService executorService = Executors.newFixedThreadPool(parserList.size());
+        // The lookup in flight for each IP, which later tasks for the same IP wait for
+        Map<String, CompletableFuture<IpInfo>> inFlight = new ConcurrentHashMap<>();
+        Semaphore submitted = new Semaphore(concurrency);
         for (String ip : ipList) {
-            executorService.submit(() -> {
-                boolean success = false;
-                int attempts = 0;
-
-                while (!success && attempts < EACH_IP_ATTEMPTS) {
-                    IpParser parser = null;
-                    IpParser lastParser;
-                    int parserFailures = 0;
+            if (!acquire(submitted, executorService)) {
+                break;
+            }
+            try {
+                executorService.submit(() -> {
                     try {
-                        // Fetch a parser from safe queue and wait until successful
-                        parser = parserQueue.take();
-                        // Use the parser to get the IP info
-                        log.info(ip + " uses Parser => " + parser.getClass().getName());
-                        IpInfo info = parser.getIpInfo(ip);
-                        if (info != null) {
-                            success = true;
-                            resultList.add(info);
-                            parserFailureCntMap.put(parser, 0);
-                        } else {
-                            throw new RuntimeException("Parser returned null");
-                        }
-                    } catch (Exception e) {
-                        log.info(ip + "[" + attempts + "] failed with Parser => " + parser.getClass().getName());
-                        attempts++;
-                        success = false;
-                        // Increment failure count
-                        parserFailures = parserFailureCntMap.getOrDefault(parser, 0) + 1;
-                        parserFailureCntMap.put(parser, parserFailures);
-                        // print the failed parser map
-                        log.error("current parserFailureCntMap ----> " + parserFailureCntMap);
+                        lookUpOnce(ip, inFlight, scheduler, executorService, sleepSeconds, resultList, cache, journal);
                     } finally {
-                        lastParser = parser;
-
-                        // Exceeding threshold, discard parser
-                        if (parserFailures >= EACH_PARSER_ATTEMPTS) {
-                            log.error("Parser " + parser.getClass().getName() + " exceeded failure threshold and will be removed.");
-                            // Increase the failed parsers count
-                            failedParsersCount.incrementAndGet();
-                            // discard the parser
-                            parser = null;
-                        }
-                        // Return the parser back to the queue if not null
-                        if (parser != null) {
-                            try {
-                                parserQueue.put(parser);
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
-                            }
-                        }
-                        // Check if all parsers are now unusable based on the failure count
-                        if (failedParsersCount.get() == parserList.size()) {
-                            log.error("All parsers have failed. Terminating.");
-                            executorService.shutdownNow();
-                        }
+                        submitted.release();
                     }
+                });
+            } catch (RejectedExecutionException e) {
+                // shut down by a lookup that gave up, the remaining IPs are not attempted
+                break;
+            }
+        }
 
-                    // Sleep after each attempt no matter success or failure
-                    log.info(String.format(
-                            "IP Parse Summary => IP: %s | Attempt: %d | Result: %s | last Parser: %s | Sleeping for: %d seconds",
-                            ip,
-                            attempts,
-                            (success ? "SUCCESS" : "FAILURE"),
-                            lastParser.getClass().getSimpleName(),
-                            sleepSeconds
-                    ));
-                    try {
-                        TimeUnit.SECONDS.sleep(sleepSeconds);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        break;
+        executorService.shutdown();
+        try {
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return resultList;
+    }
+
+    /**
+     * Wait for a permit to submit another task, giving up once the executor is shut down, as
+     * tasks it drops from its queue never return theirs.
+     *
+     * @return true if a permit was acquired
+     */
+    private static boolean acquire(Semaphore submitted, ExecutorService executorService) {
+        try {
+            while (!submitted.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                if (executorService.isShutdown()) {
+                    return false;
+                }
+            }
+            return !executorService.isShutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Answer one IP from the cache, from the lookup in flight for the same IP, or by looking it up.
+     */
+    private static void lookUpOnce(String ip, Map<String, CompletableFuture<IpInfo>> inFlight, ParserScheduler scheduler,
+                                   ExecutorService executorService, int sleepSeconds, IpInfoStore resultList,
+                                   IpInfoCache cache, Journal journal) {
+        // Consult the cache when the task runs, so results of earlier tasks are visible
+        IpInfo cached = cache != null ? cache.get(ip) : null;
+        if (cached != null) {
+            resultList.add(cached);
+            Metrics.lookups().lookupCompleted();
+            if (journal != null) {
+                journal.recordSuccess(ip, cached);
+            }
+            return;
+        }
+        CompletableFuture<IpInfo> flight = new CompletableFuture<>();
+        CompletableFuture<IpInfo> leader = inFlight.putIfAbsent(ip, flight);
+        if (leader != null) {
+            // Share the answer of the lookup in flight rather than hold a thread for it
+            Metrics.lookups().lookupCoalesced();
+            leader.whenComplete((info, e) -> {
+                if (info == null) {
+                    Metrics.lookups().lookupFailed();
+                    // each line of the input gets its record, as if it had been looked up itself
+                    if (journal != null && e != null) {
+                        journal.recordFailure(ip, e.getMessage());
                     }
+                    return;
                 }
+                resultList.add(info);
+                Metrics.lookups().lookupCompleted();
+                if (journal != null) {
+                    journal.recordSuccess(ip, info);
+                }
+            });
+            return;
+        }
+        try {
+            lookUp(ip, flight, scheduler, executorService, sleepSeconds, resultList, cache, journal);
+        } finally {
+            inFlight.remove(ip, flight);
+            flight.complete(null);
+        }
+    }
+
+    /**
+     * Look up one IP, retrying on the parsers the scheduler hands out, and complete the flight
+     * with its result as soon as there is one, or with the reason the IP was given up on. A
+     * rate limit pauses the provider and does not count as an attempt, an invalid input is not
+     * retried, any other failure is retried after a growing, jittered delay.
+     */
+    private static void lookUp(String ip, CompletableFuture<IpInfo> flight, ParserScheduler scheduler, ExecutorService executorService,
+                               int sleepSeconds, List<IpInfo> resultList, IpInfoCache cache, Journal journal) {
+        boolean success = false;
+        // not worth asking any parser
+        boolean invalid = !IpUtil.isIp(ip);
+        int attempts = 0;
+        int rateLimits = 0;
 
+        while (!success && !invalid && attempts < EACH_IP_ATTEMPTS && rateLimits < EACH_IP_RATE_LIMITS) {
+            IpParser parser;
+            long queuedNanos = System.nanoTime();
+            try {
+                // Wait for an idle parser whose circuit allows a request
+                parser = scheduler.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (parser == null) {
+                log.error("No parser recovered within " + TimeUnit.NANOSECONDS.toMillis(ParserHealth.getGiveUpNanos())
+                        + "ms of all circuits opening. Terminating.");
+                executorService.shutdownNow();
+                break;
+            }
+            ParserMetrics metrics = Metrics.forParser(parser);
+            boolean sent = false;
+            LookupException failure = null;
+            long startNanos = System.nanoTime();
+            try {
+                // Wait for the parser's rate limiter to grant this request
+                long waitNanos = RateLimiters.forParser(parser).reserve();
+                if (waitNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    startNanos = System.nanoTime();
+                }
+                metrics.requestStarted(startNanos - queuedNanos);
+                sent = true;
+                // Use the parser to get the IP info
+                log.info(ip + " uses Parser => " + parser.getClass().getName());
+                IpInfo info = parser.getIpInfo(ip);
+                if (info != null) {
+                    // Results are matched back to their input by IP, keep the queried one if the provider omitted it
+                    if (info.getIp() == null || info.getIp().isEmpty()) {
+                        info.setIp(ip);
+                    }
+                    success = true;
+                    resultList.add(info);
+                    Metrics.lookups().lookupCompleted();
+                    if (cache != null) {
+                        cache.put(ip, info);
+                    }
+                    if (journal != null) {
+                        journal.recordSuccess(ip, info);
+                    }
+                    flight.complete(info);
+                } else {
+                    throw LookupException.providerError("Parser returned null");
+                }
+            } catch (Exception e) {
+                failure = LookupException.of(e);
+                log.info(ip + "[" + attempts + "] failed with Parser => " + parser.getClass().getName() + ": " + failure.getReason());
+                if (failure.getReason() == LookupException.Reason.RATE_LIMITED) {
+                    // Pause the provider for every lookup, this one goes to whichever parser is ready next
+                    RateLimiters.forParser(parser).pauseUntil(System.nanoTime() + Backoff.pauseNanos(failure));
+                    rateLimits++;
+                } else if (failure.getReason() == LookupException.Reason.INVALID_INPUT) {
+                    invalid = true;
+                } else {
+                    attempts++;
+                }
+                success = false;
+            } finally {
+                long latencyNanos = System.nanoTime() - startNanos;
+                if (failure != null && !failure.isParserFault()) {
+                    scheduler.release(parser);
+                } else {
+                    scheduler.release(parser, success, latencyNanos);
+                }
+                if (sent) {
+                    metrics.requestCompleted(success, latencyNanos);
+                }
                 if (!success) {
-                    log.error("parse failed too many times for IP: " + ip + ", terminating...");
-                    executorService.shutdownNow();
+                    log.debug("current parser health ----> " + scheduler);
                 }
-            });
+            }
+
+            // Sleep after each attempt no matter success or failure, and back off before retrying a failure of the parser
+            long backoffNanos = failure != null && failure.isParserFault() && attempts < EACH_IP_ATTEMPTS
+                    ? Backoff.retryDelayNanos(attempts) : 0;
+            log.info(String.format(
+                    "IP Parse Summary => IP: %s | Attempt: %d | Result: %s | last Parser: %s | Sleeping for: %d seconds | Backing off for: %d ms",
+                    ip,
+                    attempts,
+                    (success ? "SUCCESS" : failure != null ? failure.getReason().toString() : "FAILURE"),
+                    parser.getName(),
+                    sleepSeconds,
+                    TimeUnit.NANOSECONDS.toMillis(backoffNanos)
+            ));
+            try {
+                TimeUnit.SECONDS.sleep(sleepSeconds);
+                TimeUnit.NANOSECONDS.sleep(backoffNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
         }
 
-        executorService.shutdown();
-        try {
-            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        if (!success) {
+            Metrics.lookups().lookupFailed();
+            String reason = invalid ? "invalid input"
+                    : attempts >= EACH_IP_ATTEMPTS || rateLimits >= EACH_IP_RATE_LIMITS ? "parse failed too many times"
+                    : "no parser available";
+            // Skip the IP and carry on with the others, only a run whose parsers stopped recovering is terminated
+            if (journal != null) {
+                journal.recordFailure(ip, reason);
+            }
+            flight.completeExceptionally(new IllegalStateException(reason));
+            log.warn(reason + ", skipping IP: " + ip);
         }
+    }
+
+    /**
+     * Asynchronous counterpart of {@link #runParsers(List, List, int)} with the same retry and
+     * circuit breaker rules. Instead of one blocked thread per parser, each parser may have several
+     * requests in flight, and its rate limiter is enforced with timers rather than sleeping
+     * threads, so throughput is bounded by the providers and not by the thread count.
+     * Slow lookups are hedged on a second parser when {@link AsyncExecutor#configureHedging(double, double)} is set.
+     *
+     * {@link #runParsers(List, List, int)} 的异步版本，重试与淘汰规则相同。每个解析器可以同时
+     * 发出多个请求，限流由定时器控制而不是让线程休眠，吞吐量只受服务商限制而不受线程数限制。
+     * 配置对冲请求后，响应过慢的查询会同时发给另一个解析器，取先返回的结果。
+     *
+     * @param ipList               A list of IP addresses to be parsed
+     *                             待解析的IP地址列表
+     * @param parserList           A list of parsers to be used for parsing the IP addresses
+     *                             用于解析IP地址的解析器列表
+     * @param maxInFlightPerParser The maximum number of concurrent requests per parser
+     *                             每个解析器的最大并发请求数
+     * @return                     A list containing the results of the IP parsing
+     *                             包含解析结果的列表
+     */
+    public static List<IpInfo> runParsersAsync(List<String> ipList, List<IpParser> parserList, int maxInFlightPerParser) {
+        return runParsersAsync(ipList, parserList, maxInFlightPerParser, null);
+    }
 
-        return new ArrayList<>(resultList);
+    /**
+     * Same as {@link #runParsersAsync(List, List, int)}, consulting and writing through the cache.
+     *
+     * 与 {@link #runParsersAsync(List, List, int)} 相同，并查询和写入缓存。
+     *
+     * @param cache                The cache to consult before dispatching, or null
+     *                             分发前查询的缓存，可以为null
+     */
+    public static List<IpInfo> runParsersAsync(List<String> ipList, List<IpParser> parserList, int maxInFlightPerParser, IpInfoCache cache) {
+        return runParsersAsync(ipList, parserList, maxInFlightPerParser, cache, null);
     }
-}
\ No newline at end of file
+
+    /**
+     * Same as {@link #runParsersAsync(List, List, int, IpInfoCache)}, skipping the IPs the journal
+     * completed in a previous run and recording every IP completed or given up on in this one.
+     *
+     * 与 {@link #runParsersAsync(List, List, int, IpInfoCache)} 相同，跳过日志中已完成的IP，
+     * 并记录本次完成和失败的IP。
+     *
+     * @param journal              The journal to resume from and record to, or null
+     *                             用于恢复和记录进度的任务日志，可以为null
+     * @return                     The results of the previous run followed by the results of this one
+     *                             上次运行的结果加上本次的解析结果
+     */
+    public static List<IpInfo> runParsersAsync(List<String> ipList, List<IpParser> parserList, int maxInFlightPerParser, IpInfoCache cache, Journal journal) {
+        IpInfoStore resultList = new IpInfoStore();
+        if (journal != null) {
+            resultList.addAll(journal.getPreviousResults());
+            ipList = pending(ipList, journal);
+        }
+
+        try (AsyncExecutor executor = new AsyncExecutor(parserList, maxInFlightPerParser, cache)) {
+            // Completed exceptionally by the first IP that cannot be parsed
+            CompletableFuture<Void> failure = new CompletableFuture<>();
+            List<CompletableFuture<Void>> futures = new ArrayList<>(ipList.size());
+            // Queued at once, so every repeated IP shares the lookup of its first occurrence
+            List<CompletableFuture<IpInfo>> lookups = executor.submitAll(ipList);
+            for (int i = 0; i < ipList.size(); i++) {
+                String ip = ipList.get(i);
+                futures.add(lookups.get(i).handle((info, e) -> {
+                    if (e != null) {
+                        if (journal != null && !(e instanceof CancellationException)) {
+                            journal.recordFailure(ip, e.getMessage());
+                        }
+                        // An invalid input is skipped, any other failure ends the run like runParsers does
+                        if (LookupException.of(e).getReason() != LookupException.Reason.INVALID_INPUT) {
+                            failure.completeExceptionally(e);
+                        }
+                    } else {
+                        resultList.add(info);
+                        if (journal != null) {
+                            journal.recordSuccess(ip, info);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+            CompletableFuture.anyOf(all, failure).join();
+        } catch (CompletionException e) {
+            log.error(e.getCause().getMessage() + ", terminating...");
+        }
+
+        return resultList;
+    }
+
+    /**
+     * Streaming counterpart of {@link #runParsersAsync(List, List, int, IpInfoCache)}: IPs are read
+     * from the input file lazily and results are appended to the output file in input order as they
+     * complete, so memory stays bounded by the queue capacity however large the input is.
+     *
+     * {@link #runParsersAsync(List, List, int, IpInfoCache)} 的流式版本：按需读取输入文件，解析结果按
+     * 输入顺序增量写入输出文件，内存占用只取决于队列容量而与输入大小无关。
+     *
+     * @param ipFilePath           The path to the file containing the IP addresses
+     *                             IP地址文件路径
+     * @param resultFilePath       The path to the output file
+     *                             输出文件路径
+     * @param parserList           A list of parsers to be used for parsing the IP addresses
+     *                             用于解析IP地址的解析器列表
+     * @param maxInFlightPerParser The maximum number of concurrent requests per parser
+     *                             每个解析器的最大并发请求数
+     * @param queueCapacity        The maximum number of IPs read but not yet written
+     *                             已读取但尚未写出的IP数量上限
+     * @param cache                The cache to consult before dispatching, or null
+     *                             分发前查询的缓存，可以为null
+     * @return                     true if every IP was parsed and written
+     *                             所有IP都解析并写出时返回true
+     */
+    public static boolean runParsersStreaming(String ipFilePath, String resultFilePath, List<IpParser> parserList,
+                                              int maxInFlightPerParser, int queueCapacity, IpInfoCache cache) {
+        return runParsersStreaming(ipFilePath, resultFilePath, parserList, maxInFlightPerParser, queueCapacity, cache, null, false);
+    }
+
+    /**
+     * Same as {@link #runParsersStreaming(String, String, List, int, int, IpInfoCache)}, recording
+     * progress in the journal. When resuming, IPs the journal completed are skipped and the results
+     * are appended to the existing output file.
+     *
+     * 与 {@link #runParsersStreaming(String, String, List, int, int, IpInfoCache)} 相同，并在任务日志中
+     * 记录进度；恢复时跳过已完成的IP，并将结果追加到已有的输出文件。
+     *
+     * @param journal              The journal to resume from and record to, or null
+     *                             用于恢复和记录进度的任务日志，可以为null
+     * @param resume               Append to the output file instead of overwriting it
+     *                             追加写入输出文件而不是覆盖
+     */
+    public static boolean runParsersStreaming(String ipFilePath, String resultFilePath, List<IpParser> parserList,
+                                              int maxInFlightPerParser, int queueCapacity, IpInfoCache cache,
+                                              Journal journal, boolean resume) {
+        return runParsersStreaming(ipFilePath, resultFilePath, parserList, maxInFlightPerParser, queueCapacity, cache,
+                journal, resume, ResultFormat.JSON, Collections.emptyList());
+    }
+
+    /**
+     * Same as {@link #runParsersStreaming(String, String, List, int, int, IpInfoCache, Journal, boolean)},
+     * writing the results in the given format and keeping only the given fields.
+     *
+     * 与上面的方法相同，按指定格式输出，并且只输出指定的字段。
+     *
+     * @param format               The output format
+     *                             输出格式
+     * @param fields               The fields to write, the IP is always written; every field if empty
+     *                             输出的字段，IP总会输出；为空时输出全部字段
+     */
+    public static boolean runParsersStreaming(String ipFilePath, String resultFilePath, List<IpParser> parserList,
+                                              int maxInFlightPerParser, int queueCapacity, IpInfoCache cache,
+                                              Journal journal, boolean resume, ResultFormat format, List<IpinfoEnum> fields) {
+        return runParsersStreaming(ipFilePath, resultFilePath, parserList, maxInFlightPerParser, queueCapacity, cache,
+                journal, resume, format, fields, null);
+    }
+
+    /**
+     * Same as {@link #runParsersStreaming(String, String, List, int, int, IpInfoCache, Journal, boolean, ResultFormat, List)},
+     * looking up only the IPs of one shard of the input.
+     *
+     * 与上面的方法相同，只解析输入中属于指定分片的IP。
+     *
+     * @param shard                The shard whose IPs to look up; every IP if null
+     *                             要解析的分片，为null时解析全部IP
+     */
+    public static boolean runParsersStreaming(String ipFilePath, String resultFilePath, List<IpParser> parserList,
+                                              int maxInFlightPerParser, int queueCapacity, IpInfoCache cache,
+                                              Journal journal, boolean resume, ResultFormat format, List<IpinfoEnum> fields,
+                                              Shard shard) {
+        try (AsyncExecutor executor = new AsyncExecutor(parserList, maxInFlightPerParser, cache)) {
+            return StreamingPipeline.run(ipFilePath, resultFilePath, executor, queueCapacity, journal, resume, format, fields, shard);
+        }
+    }
+
+    private static List<String> pending(List<String> ipList, Journal journal) {
+        List<String> pending = new ArrayList<>(ipList.size());
+        for (String ip : ipList) {
+            if (!journal.isCompleted(ip)) {
+                pending.add(ip);
+            }
+        }
+        log.info("Skipping " + (ipList.size() - pending.size()) + " IPs completed by the previous run");
+        return pending;
+    }
+
+}
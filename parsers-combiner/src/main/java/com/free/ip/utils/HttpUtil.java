@@ -0,0 +1,291 @@
+package com.free.ip.utils;
+
+import com.free.ip.parser.LookupException;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class HttpUtil {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5 * 1000;
+
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 5 * 1000;
+
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS = 64;
+
+    public static final long DEFAULT_KEEP_ALIVE_SECONDS = 5 * 60;
+
+    public static final int DEFAULT_MAX_REQUESTS = 256;
+
+    public static final int DEFAULT_MAX_REQUESTS_PER_HOST = 64;
+
+    public static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/92.0.4515.159 Safari/537.36";
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private static volatile OkHttpClient client = newClient(
+            DEFAULT_CONNECT_TIMEOUT_MILLIS,
+            DEFAULT_READ_TIMEOUT_MILLIS,
+            DEFAULT_MAX_IDLE_CONNECTIONS,
+            DEFAULT_KEEP_ALIVE_SECONDS
+    );
+
+    /**
+     * Replaces the shared client. Connections held by the previous client are evicted.
+     *
+     * @param connectTimeoutMillis TCP/TLS connect timeout
+     * @param readTimeoutMillis    socket read timeout
+     * @param maxIdleConnections   idle keep-alive connections kept in the pool
+     * @param keepAliveSeconds     how long an idle connection stays in the pool
+     */
+    public static synchronized void configure(int connectTimeoutMillis, int readTimeoutMillis,
+                                              int maxIdleConnections, long keepAliveSeconds) {
+        OkHttpClient previous = client;
+        client = newClient(connectTimeoutMillis, readTimeoutMillis, maxIdleConnections, keepAliveSeconds);
+        configureDispatcher(previous.dispatcher().getMaxRequests(), previous.dispatcher().getMaxRequestsPerHost());
+        previous.connectionPool().evictAll();
+    }
+
+    /**
+     * Limits how many asynchronous calls may be in flight at once.
+     *
+     * @param maxRequests        in-flight calls across all hosts
+     * @param maxRequestsPerHost in-flight calls to a single provider host
+     */
+    public static void configureDispatcher(int maxRequests, int maxRequestsPerHost) {
+        client.dispatcher().setMaxRequests(maxRequests);
+        client.dispatcher().setMaxRequestsPerHost(maxRequestsPerHost);
+    }
+
+    /**
+     * @return the shared client, so every parser reuses the same connection pool
+     */
+    public static OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Issues a GET request and parses the response body as a JSON object.
+     * Gzip is negotiated and decoded transparently, and the connection is
+     * returned to the pool once the body has been consumed.
+     *
+     * @param url the URL to request
+     * @return the JSON object
+     * @throws IOException     if the request could not be executed
+     * @throws LookupException if the response code is not 200, see {@link LookupException#forStatus}
+     */
+    public static JSONObject getJson(String url) throws IOException {
+        try (Response response = client.newCall(newRequest(url)).execute()) {
+            ResponseBody body = bodyOf(response);
+            return new JSONObject(body.string());
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #getJson(String)}. The request is queued on the
+     * shared dispatcher and no caller thread is blocked while it is in flight.
+     * Cancelling the returned future cancels the underlying call.
+     *
+     * @param url the URL to request
+     * @return a future completed with the JSON object, or exceptionally with a {@link LookupException}
+     * if the response code is not 200
+     */
+    public static CompletableFuture<JSONObject> getJsonAsync(String url) {
+        return enqueue(newRequest(url), body -> new JSONObject(body.string()));
+    }
+
+    /**
+     * Issues a GET request and extracts the projection's values from the response body
+     * as it is read, see {@link JsonProjection}.
+     *
+     * @param url        the URL to request
+     * @param projection the values to extract
+     * @return the values
+     * @throws IOException     if the request could not be executed or the body is not a JSON object
+     * @throws LookupException if the response code is not 200
+     */
+    public static String[] getProjected(String url, JsonProjection projection) throws IOException {
+        try (Response response = client.newCall(newRequest(url)).execute()) {
+            ResponseBody body = bodyOf(response);
+            return projection.extract(body.byteStream());
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #getProjected(String, JsonProjection)}.
+     *
+     * @param url        the URL to request
+     * @param projection the values to extract
+     * @return a future completed with the values, or exceptionally with a {@link LookupException}
+     * if the response code is not 200
+     */
+    public static CompletableFuture<String[]> getProjectedAsync(String url, JsonProjection projection) {
+        return enqueue(newRequest(url), body -> projection.extract(body.byteStream()));
+    }
+
+    /**
+     * Issues a POST request with a JSON array body, as batch endpoints expect, and parses
+     * the response body as a JSON array.
+     *
+     * @param url     the URL to request
+     * @param payload the request body
+     * @return the JSON array
+     * @throws IOException     if the request could not be executed
+     * @throws LookupException if the response code is not 200
+     */
+    public static JSONArray postJson(String url, JSONArray payload) throws IOException {
+        try (Response response = client.newCall(newPostRequest(url, payload)).execute()) {
+            ResponseBody body = bodyOf(response);
+            return new JSONArray(body.string());
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #postJson(String, JSONArray)}.
+     *
+     * @param url     the URL to request
+     * @param payload the request body
+     * @return a future completed with the JSON array, or exceptionally with a {@link LookupException}
+     * if the response code is not 200
+     */
+    public static CompletableFuture<JSONArray> postJsonAsync(String url, JSONArray payload) {
+        return enqueue(newPostRequest(url, payload), body -> new JSONArray(body.string()));
+    }
+
+    /**
+     * Issues a POST request with a JSON array body and extracts the projection's values
+     * from each object of the JSON array answered, see {@link JsonProjection#extractEach}.
+     *
+     * @param url        the URL to request
+     * @param payload    the request body
+     * @param projection the values to extract
+     * @return the values per element
+     * @throws IOException     if the request could not be executed or the body is not a JSON array
+     * @throws LookupException if the response code is not 200
+     */
+    public static List<String[]> postProjected(String url, JSONArray payload, JsonProjection projection) throws IOException {
+        try (Response response = client.newCall(newPostRequest(url, payload)).execute()) {
+            ResponseBody body = bodyOf(response);
+            return projection.extractEach(body.byteStream());
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #postProjected(String, JSONArray, JsonProjection)}.
+     */
+    public static CompletableFuture<List<String[]>> postProjectedAsync(String url, JSONArray payload, JsonProjection projection) {
+        return enqueue(newPostRequest(url, payload), body -> projection.extractEach(body.byteStream()));
+    }
+
+    /**
+     * Make cancelling a future derived from a request, e.g. through {@code thenApply}, cancel
+     * the request too; {@link CompletableFuture} does not propagate cancellation upstream.
+     *
+     * @param derived the future handed out to callers
+     * @param source  the future it was derived from
+     * @return the derived future
+     */
+    public static <T> CompletableFuture<T> forwardCancel(CompletableFuture<T> derived, CompletableFuture<?> source) {
+        derived.whenComplete((result, e) -> {
+            if (derived.isCancelled()) {
+                source.cancel(false);
+            }
+        });
+        return derived;
+    }
+
+    private interface BodyReader<T> {
+        T read(ResponseBody body) throws IOException;
+    }
+
+    private static <T> CompletableFuture<T> enqueue(Request request, BodyReader<T> reader) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Call call = client.newCall(request);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    future.complete(reader.read(bodyOf(r)));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        future.whenComplete((json, e) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return the body of a 200 response
+     * @throws LookupException classifying any other response
+     */
+    private static ResponseBody bodyOf(Response response) {
+        ResponseBody body = response.body();
+        if (response.code() != 200) {
+            throw LookupException.forStatus(response.code(), response.header("Retry-After"), response.request().url().toString());
+        }
+        if (body == null) {
+            throw LookupException.providerError("Empty response from " + response.request().url());
+        }
+        return body;
+    }
+
+    static Request newRequest(String url) {
+        return new Request.Builder()
+                .url(url)
+                .get()
+                .header("User-Agent", USER_AGENT)
+                .header("Accept", "application/json")
+                .header("Accept-Language", "en-US,en;q=0.9")
+                .build();
+    }
+
+    static Request newPostRequest(String url, JSONArray payload) {
+        return newRequest(url).newBuilder()
+                .post(RequestBody.create(JSON, payload.toString()))
+                .build();
+    }
+
+    private static OkHttpClient newClient(int connectTimeoutMillis, int readTimeoutMillis,
+                                          int maxIdleConnections, long keepAliveSeconds) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(DEFAULT_MAX_REQUESTS);
+        dispatcher.setMaxRequestsPerHost(DEFAULT_MAX_REQUESTS_PER_HOST);
+        return new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+                // HTTP/2 is negotiated through ALPN on TLS endpoints, plain HTTP falls back to 1.1
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .followRedirects(false)
+                .followSslRedirects(false)
+                .build();
+    }
+
+}
@@ -1,15 +1,21 @@
 package com.free.ip.utils;
 
 import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.writer.ResultFormat;
+import com.free.ip.writer.ResultWriter;
 import lombok.extern.log4j.Log4j2;
-import org.json.JSONObject;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @Log4j2
@@ -42,10 +48,154 @@ public class InoutUtil {
      * @return true if the file was written successfully, false otherwise
      */
     public static boolean writeResultFile(String resultFilePath, List<IpInfo> ipInfoList) {
-        try (BufferedWriter bw = Files.newBufferedWriter(Paths.get(resultFilePath))) {
+        return writeResultFile(resultFilePath, ipInfoList, ResultFormat.JSON, Collections.emptyList());
+    }
+
+    /**
+     * Writes parsed IP data in the given format, keeping only the given fields.
+     *
+     * @param resultFilePath the path to the output file
+     * @param ipInfoList a list of parsed IP data
+     * @param format the output format
+     * @param fields the fields to write, the IP is always written; every field if empty
+     * @return true if the file was written successfully, false otherwise
+     */
+    public static boolean writeResultFile(String resultFilePath, List<IpInfo> ipInfoList, ResultFormat format, List<IpinfoEnum> fields) {
+        try (ResultWriter writer = format.open(Paths.get(resultFilePath), fields, false)) {
             for (IpInfo ipInfo : ipInfoList) {
-                bw.write(new JSONObject(ipInfo).toString());
-                bw.newLine();
+                writer.write(ipInfo);
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("Error writing result file: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Merges the outputs of the shards of a run into one result file in the order of the input
+     * file, one result per line of it like {@link #writeResultFile(String, String, List, ResultFormat, List)},
+     * so the merged file is the same as the output of an unsharded run with --dedup.
+     *
+     * @param resultFilePath the path to the merged output file
+     * @param ipFilePath the path to the input file the shards were cut from
+     * @param shardFilePaths the paths to the outputs of the shards, all written in the given format
+     * @param format the format of the shard outputs and of the merged file
+     * @param fields the fields to write, the IP is always written; every field if empty
+     * @return true if every shard output was read and the file was written successfully, false otherwise
+     */
+    public static boolean mergeResultFiles(String resultFilePath, String ipFilePath, List<String> shardFilePaths,
+                                           ResultFormat format, List<IpinfoEnum> fields) {
+        List<IpInfo> ipInfoList = new ArrayList<>();
+        for (String shardFilePath : shardFilePaths) {
+            try {
+                List<IpInfo> shardInfos = format.read(Paths.get(shardFilePath));
+                log.info("Read " + shardInfos.size() + " results from " + shardFilePath);
+                ipInfoList.addAll(shardInfos);
+            } catch (IOException e) {
+                log.error("Error reading shard output " + shardFilePath + ": " + e.getMessage());
+                return false;
+            }
+        }
+        return writeResultFile(resultFilePath, ipFilePath, ipInfoList, format, fields);
+    }
+
+    /**
+     * Cuts off a last line left incomplete by a crash, so the file can be appended to.
+     *
+     * @param path the file to repair
+     * @throws IOException if the file cannot be read or truncated
+     */
+    public static void truncateTornLine(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer chunk = ByteBuffer.allocate(4096);
+            long end = channel.size();
+            while (end > 0) {
+                long start = Math.max(0, end - chunk.capacity());
+                chunk.clear().limit((int) (end - start));
+                while (chunk.hasRemaining() && channel.read(chunk, start + chunk.position()) >= 0) {
+                    // read the whole chunk
+                }
+                for (int i = chunk.position() - 1; i >= 0; i--) {
+                    if (chunk.get(i) == '\n') {
+                        long length = start + i + 1;
+                        if (length < channel.size()) {
+                            log.error("Truncating torn last line of " + path);
+                            channel.truncate(length);
+                        }
+                        return;
+                    }
+                }
+                end = start;
+            }
+            channel.truncate(0);
+        }
+    }
+
+    /**
+     * Reads a file containing IP addresses, one per line, keeping only the first occurrence
+     * of each address and skipping blank lines. Addresses are tracked in an {@link IpSet},
+     * so duplicates cost a few bits rather than a String each.
+     *
+     * @param ipFilePath the path to the file containing the IP addresses
+     * @return a list of distinct IP addresses, in order of first occurrence
+     */
+    public static List<String> readUniqueIpFile(String ipFilePath) {
+        List<String> ipList = new ArrayList<>();
+        IpSet seen = new IpSet();
+        long lines = 0;
+        try (BufferedReader br = Files.newBufferedReader(Paths.get(ipFilePath))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines++;
+                String ip = line.trim();
+                if (!ip.isEmpty() && seen.add(ip)) {
+                    ipList.add(ip);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error reading IP file: " + e.getMessage());
+        }
+        log.info("Read " + lines + " lines, " + ipList.size() + " distinct IPs");
+        return ipList;
+    }
+
+    /**
+     * Writes parsed IP data to a JSON file, one JSON object per line of the input file, so
+     * results looked up once for de-duplicated input are fanned back out to every occurrence.
+     * Lines without a result are skipped.
+     *
+     * @param resultFilePath the path to the output file
+     * @param ipFilePath the path to the input file the IPs were read from
+     * @param ipInfoList a list of parsed IP data, at most one per distinct IP
+     * @return true if the file was written successfully, false otherwise
+     */
+    public static boolean writeResultFile(String resultFilePath, String ipFilePath, List<IpInfo> ipInfoList) {
+        return writeResultFile(resultFilePath, ipFilePath, ipInfoList, ResultFormat.JSON, Collections.emptyList());
+    }
+
+    /**
+     * Same as {@link #writeResultFile(String, String, List)}, in the given format and keeping only the given fields.
+     *
+     * @param format the output format
+     * @param fields the fields to write, the IP is always written; every field if empty
+     */
+    public static boolean writeResultFile(String resultFilePath, String ipFilePath, List<IpInfo> ipInfoList,
+                                          ResultFormat format, List<IpinfoEnum> fields) {
+        IpIndex index = new IpIndex(ipInfoList.size());
+        for (int i = 0; i < ipInfoList.size(); i++) {
+            index.put(ipInfoList.get(i).getIp(), i);
+        }
+        try (BufferedReader br = Files.newBufferedReader(Paths.get(ipFilePath));
+             ResultWriter writer = format.open(Paths.get(resultFilePath), fields, false)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String ip = line.trim();
+                int position = ip.isEmpty() ? -1 : (int) index.get(ip);
+                if (position < 0) {
+                    continue;
+                }
+                writer.write(ipInfoList.get(position));
             }
             return true;
         } catch (IOException e) {
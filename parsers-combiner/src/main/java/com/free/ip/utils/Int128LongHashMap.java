@@ -0,0 +1,116 @@
+package com.free.ip.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from 128-bit keys (given as high and low longs) to
+ * non-negative long values, backed by primitive arrays with linear probing.
+ * Not thread-safe.
+ */
+public class Int128LongHashMap {
+
+    private static final long EMPTY = -1;
+
+    private long[] highs;
+
+    private long[] lows;
+
+    private long[] values;
+
+    private int size;
+
+    public Int128LongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        highs = new long[capacity];
+        lows = new long[capacity];
+        values = new long[capacity];
+        Arrays.fill(values, EMPTY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param high
+     * @param low
+     * @param defaultValue
+     * @return the value mapped to the key, or defaultValue if absent
+     */
+    public long get(long high, long low, long defaultValue) {
+        int mask = values.length - 1;
+        for (int i = hash(high, low) & mask; values[i] != EMPTY; i = (i + 1) & mask) {
+            if (highs[i] == high && lows[i] == low) {
+                return values[i];
+            }
+        }
+        return defaultValue;
+    }
+
+    public boolean containsKey(long high, long low) {
+        return get(high, low, EMPTY) != EMPTY;
+    }
+
+    /**
+     * @param high
+     * @param low
+     * @param value a non-negative value
+     * @return the previous value, or -1 if the key was absent
+     */
+    public long put(long high, long low, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        int mask = values.length - 1;
+        int i = hash(high, low) & mask;
+        for (; values[i] != EMPTY; i = (i + 1) & mask) {
+            if (highs[i] == high && lows[i] == low) {
+                long previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        highs[i] = high;
+        lows[i] = low;
+        values[i] = value;
+        if (++size * 4 > values.length * 3) {
+            resize();
+        }
+        return EMPTY;
+    }
+
+    private void resize() {
+        long[] oldHighs = highs;
+        long[] oldLows = lows;
+        long[] oldValues = values;
+        highs = new long[oldHighs.length * 2];
+        lows = new long[oldLows.length * 2];
+        values = new long[oldValues.length * 2];
+        Arrays.fill(values, EMPTY);
+        int mask = values.length - 1;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] == EMPTY) {
+                continue;
+            }
+            int i = hash(oldHighs[j], oldLows[j]) & mask;
+            while (values[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            highs[i] = oldHighs[j];
+            lows[i] = oldLows[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    static int hash(long high, long low) {
+        // murmur3 64-bit finalizer over both halves
+        long h = high * 0x9E3779B97F4A7C15L ^ low;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+}
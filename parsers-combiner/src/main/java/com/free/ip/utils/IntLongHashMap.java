@@ -0,0 +1,106 @@
+package com.free.ip.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from int keys to non-negative long values, backed by two
+ * primitive arrays with linear probing. Not thread-safe.
+ */
+public class IntLongHashMap {
+
+    private static final long EMPTY = -1;
+
+    private int[] keys;
+
+    private long[] values;
+
+    private int size;
+
+    public IntLongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new long[capacity];
+        Arrays.fill(values, EMPTY);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param key
+     * @param defaultValue
+     * @return the value mapped to the key, or defaultValue if absent
+     */
+    public long get(int key, long defaultValue) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; values[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+        return defaultValue;
+    }
+
+    public boolean containsKey(int key) {
+        return get(key, EMPTY) != EMPTY;
+    }
+
+    /**
+     * @param key
+     * @param value a non-negative value
+     * @return the previous value, or -1 if the key was absent
+     */
+    public long put(int key, long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        for (; values[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                long previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 4 > keys.length * 3) {
+            resize();
+        }
+        return EMPTY;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new long[oldValues.length * 2];
+        Arrays.fill(values, EMPTY);
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] == EMPTY) {
+                continue;
+            }
+            int i = hash(oldKeys[j]) & mask;
+            while (values[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+
+    static int hash(int key) {
+        // murmur3 finalizer, spreads sequential addresses across the table
+        int h = key;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+}
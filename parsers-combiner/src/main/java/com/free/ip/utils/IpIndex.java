@@ -0,0 +1,58 @@
+package com.free.ip.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Map from IP addresses to non-negative positions, keyed by the parsed address so that
+ * different textual forms of the same address resolve to the same entry. Strings that
+ * are not IP addresses fall back to a plain HashMap. Not thread-safe.
+ */
+public class IpIndex {
+
+    private final IntLongHashMap ipv4Index;
+
+    private final Int128LongHashMap ipv6Index = new Int128LongHashMap(1 << 10);
+
+    private final Map<String, Long> others = new HashMap<>();
+
+    public IpIndex(int expectedSize) {
+        ipv4Index = new IntLongHashMap(expectedSize);
+    }
+
+    /**
+     * @param ip
+     * @param position a non-negative position
+     */
+    public void put(String ip, long position) {
+        String key = ip.trim();
+        if (IpUtil.isIpv4(key)) {
+            ipv4Index.put(IpUtil.ipv4ToInt(key), position);
+            return;
+        }
+        long[] ipv6 = IpUtil.ipv6ToLongs(key);
+        if (ipv6 != null) {
+            ipv6Index.put(ipv6[0], ipv6[1], position);
+        } else {
+            others.put(key, position);
+        }
+    }
+
+    /**
+     * @param ip
+     * @return the position of the address, or -1 if absent
+     */
+    public long get(String ip) {
+        String key = ip.trim();
+        if (IpUtil.isIpv4(key)) {
+            return ipv4Index.get(IpUtil.ipv4ToInt(key), -1);
+        }
+        long[] ipv6 = IpUtil.ipv6ToLongs(key);
+        if (ipv6 != null) {
+            return ipv6Index.get(ipv6[0], ipv6[1], -1);
+        }
+        Long position = others.get(key);
+        return position != null ? position : -1;
+    }
+
+}
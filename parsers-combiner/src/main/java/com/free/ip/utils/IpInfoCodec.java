@@ -0,0 +1,71 @@
+package com.free.ip.utils;
+
+import com.free.ip.pojo.IpInfo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact binary encoding of an IpInfo: each field is preceded by a presence byte
+ * so nulls survive a round trip, strings are written as modified UTF-8.
+ */
+public class IpInfoCodec {
+
+    public static void write(DataOutput out, IpInfo ipInfo) throws IOException {
+        writeString(out, ipInfo.getIp());
+        writeString(out, ipInfo.getCountry());
+        writeString(out, ipInfo.getCountryCode());
+        writeString(out, ipInfo.getRegion());
+        writeString(out, ipInfo.getRegionCode());
+        writeString(out, ipInfo.getCity());
+        writeString(out, ipInfo.getIsp());
+        writeDouble(out, ipInfo.getLatitude());
+        writeDouble(out, ipInfo.getLongitude());
+        writeString(out, ipInfo.getParserName());
+        out.writeBoolean(ipInfo.getParseTimeTs() != null);
+        if (ipInfo.getParseTimeTs() != null) {
+            out.writeLong(ipInfo.getParseTimeTs());
+        }
+    }
+
+    public static IpInfo read(DataInput in) throws IOException {
+        IpInfo ipInfo = new IpInfo(
+                readString(in),
+                readString(in),
+                readString(in),
+                readString(in),
+                readString(in),
+                readString(in),
+                readString(in),
+                readDouble(in),
+                readDouble(in)
+        );
+        ipInfo.setParserName(readString(in));
+        ipInfo.setParseTimeTs(in.readBoolean() ? in.readLong() : null);
+        return ipInfo;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeDouble(DataOutput out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static Double readDouble(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.free.ip.utils;
+
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar store of lookup results. Each field is a column of primitives: IPv4 addresses
+ * as ints, coordinates and timestamps as longs, and the heavily repeated strings (country,
+ * region, city, ISP, parser name...) as ints into a dictionary per column, so a result
+ * takes about 60 bytes instead of an IpInfo object graph several times that size.
+ * <p>
+ * It is a {@link List} of IpInfo for compatibility: {@link #get(int)} builds a fresh IpInfo
+ * of the stored values, changes to which are not written back. Appending is thread-safe.
+ *
+ * 列式结果存储：各字段按列保存为基本类型数组，重复的字符串按列字典编码，显著降低大量结果的内存占用；
+ * 同时实现List接口，get时生成IpInfo对象以保持兼容。
+ */
+public class IpInfoStore extends AbstractList<IpInfo> {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // a NaN no arithmetic produces, standing for a missing coordinate
+    private static final long NULL_DOUBLE = 0xfff4000000000001L;
+
+    private static final long NULL_LONG = Long.MIN_VALUE;
+
+    // columns of dictionary codes, in this order
+    private static final IpinfoEnum[] STRING_FIELDS = {
+            IpinfoEnum.COUNTRY, IpinfoEnum.COUNTRY_CODE, IpinfoEnum.REGION, IpinfoEnum.REGION_CODE, IpinfoEnum.CITY, IpinfoEnum.ISP
+    };
+
+    private static final int PARSER_NAME = STRING_FIELDS.length;
+
+    /**
+     * Interned values of one column, code -1 stands for null.
+     */
+    private static class Dictionary {
+        final Map<String, Integer> codes = new HashMap<>();
+        final List<String> values = new ArrayList<>();
+
+        int encode(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value);
+            }
+            return code;
+        }
+
+        String decode(int code) {
+            return code < 0 ? null : values.get(code);
+        }
+    }
+
+    private int size;
+
+    private int[] ipv4 = new int[INITIAL_CAPACITY];
+
+    // IPs that are not canonical IPv4 text, e.g. IPv6, by row
+    private final Map<Integer, String> otherIps = new HashMap<>();
+
+    private final int[][] codes = new int[STRING_FIELDS.length + 1][INITIAL_CAPACITY];
+
+    private final Dictionary[] dictionaries = new Dictionary[STRING_FIELDS.length + 1];
+
+    private long[] latitudes = new long[INITIAL_CAPACITY];
+
+    private long[] longitudes = new long[INITIAL_CAPACITY];
+
+    private long[] parseTimes = new long[INITIAL_CAPACITY];
+
+    public IpInfoStore() {
+        for (int i = 0; i < dictionaries.length; i++) {
+            dictionaries[i] = new Dictionary();
+        }
+    }
+
+    @Override
+    public synchronized boolean add(IpInfo ipInfo) {
+        if (size == ipv4.length) {
+            grow();
+        }
+        String ip = ipInfo.getIp();
+        if (ip != null && IpUtil.isIpv4(ip) && ip.equals(IpUtil.intToIpv4(IpUtil.ipv4ToInt(ip)))) {
+            ipv4[size] = IpUtil.ipv4ToInt(ip);
+        } else {
+            otherIps.put(size, ip);
+        }
+        for (int i = 0; i < STRING_FIELDS.length; i++) {
+            codes[i][size] = dictionaries[i].encode((String) ipInfo.get(STRING_FIELDS[i]));
+        }
+        codes[PARSER_NAME][size] = dictionaries[PARSER_NAME].encode(ipInfo.getParserName());
+        latitudes[size] = toBits(ipInfo.getLatitude());
+        longitudes[size] = toBits(ipInfo.getLongitude());
+        parseTimes[size] = ipInfo.getParseTimeTs() != null ? ipInfo.getParseTimeTs() : NULL_LONG;
+        size++;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public synchronized IpInfo get(int row) {
+        checkRow(row);
+        IpInfo ipInfo = new IpInfo(getIp(row), null, null, null, null, null, null,
+                fromBits(latitudes[row]), fromBits(longitudes[row]));
+        for (int i = 0; i < STRING_FIELDS.length; i++) {
+            ipInfo.set(STRING_FIELDS[i], dictionaries[i].decode(codes[i][row]));
+        }
+        ipInfo.setParserName(dictionaries[PARSER_NAME].decode(codes[PARSER_NAME][row]));
+        ipInfo.setParseTimeTs(parseTimes[row] != NULL_LONG ? parseTimes[row] : null);
+        return ipInfo;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the IP of the row, without materializing the rest of the result
+     */
+    public synchronized String getIp(int row) {
+        checkRow(row);
+        return otherIps.containsKey(row) ? otherIps.get(row) : IpUtil.intToIpv4(ipv4[row]);
+    }
+
+    /**
+     * @return the latitude of the row, NaN if missing
+     */
+    public synchronized double getLatitude(int row) {
+        checkRow(row);
+        return Double.longBitsToDouble(latitudes[row]);
+    }
+
+    /**
+     * @return the longitude of the row, NaN if missing
+     */
+    public synchronized double getLongitude(int row) {
+        checkRow(row);
+        return Double.longBitsToDouble(longitudes[row]);
+    }
+
+    /**
+     * @return the number of distinct values of a string field, e.g. the countries seen
+     */
+    public synchronized int distinctValues(IpinfoEnum field) {
+        for (int i = 0; i < STRING_FIELDS.length; i++) {
+            if (STRING_FIELDS[i] == field) {
+                return dictionaries[i].values.size();
+            }
+        }
+        throw new IllegalArgumentException("Not a dictionary-encoded field: " + field);
+    }
+
+    private void grow() {
+        int capacity = ipv4.length + (ipv4.length >> 1);
+        ipv4 = Arrays.copyOf(ipv4, capacity);
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = Arrays.copyOf(codes[i], capacity);
+        }
+        latitudes = Arrays.copyOf(latitudes, capacity);
+        longitudes = Arrays.copyOf(longitudes, capacity);
+        parseTimes = Arrays.copyOf(parseTimes, capacity);
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size);
+        }
+    }
+
+    private static long toBits(Double value) {
+        return value != null ? Double.doubleToRawLongBits(value) : NULL_DOUBLE;
+    }
+
+    private static Double fromBits(long bits) {
+        return bits != NULL_DOUBLE ? Double.longBitsToDouble(bits) : null;
+    }
+
+}
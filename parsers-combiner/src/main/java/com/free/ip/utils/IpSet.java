@@ -0,0 +1,71 @@
+package com.free.ip.utils;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Set of IP addresses held in primitive structures: IPv4 addresses in a bitmap split into
+ * one 8 KiB page per /16, allocated on first use, and IPv6 addresses in an open-addressing
+ * 128-bit hash set. Strings that are not IP addresses fall back to a plain HashSet.
+ * Different textual forms of the same address are treated as equal. Not thread-safe.
+ */
+public class IpSet {
+
+    private static final int PAGE_BITS = 16;
+
+    private final long[][] ipv4Pages = new long[1 << (32 - PAGE_BITS)][];
+
+    private final Int128LongHashMap ipv6Set = new Int128LongHashMap(1 << 10);
+
+    private final Set<String> others = new HashSet<>();
+
+    private int size;
+
+    /**
+     * @param ip
+     * @return true if the address was not already in the set
+     */
+    public boolean add(String ip) {
+        String key = ip.trim();
+        boolean added;
+        if (IpUtil.isIpv4(key)) {
+            int address = IpUtil.ipv4ToInt(key);
+            long[] page = ipv4Pages[address >>> PAGE_BITS];
+            if (page == null) {
+                page = ipv4Pages[address >>> PAGE_BITS] = new long[(1 << PAGE_BITS) / 64];
+            }
+            int bit = address & ((1 << PAGE_BITS) - 1);
+            long mask = 1L << (bit & 63);
+            added = (page[bit >>> 6] & mask) == 0;
+            page[bit >>> 6] |= mask;
+        } else {
+            long[] ipv6 = IpUtil.ipv6ToLongs(key);
+            added = ipv6 != null ? ipv6Set.put(ipv6[0], ipv6[1], 0) < 0 : others.add(key);
+        }
+        if (added) {
+            size++;
+        }
+        return added;
+    }
+
+    /**
+     * @param ip
+     * @return true if the address is in the set
+     */
+    public boolean contains(String ip) {
+        String key = ip.trim();
+        if (IpUtil.isIpv4(key)) {
+            int address = IpUtil.ipv4ToInt(key);
+            long[] page = ipv4Pages[address >>> PAGE_BITS];
+            int bit = address & ((1 << PAGE_BITS) - 1);
+            return page != null && (page[bit >>> 6] & (1L << (bit & 63))) != 0;
+        }
+        long[] ipv6 = IpUtil.ipv6ToLongs(key);
+        return ipv6 != null ? ipv6Set.containsKey(ipv6[0], ipv6[1]) : others.contains(key);
+    }
+
+    public int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,194 @@
+package com.free.ip.utils;
+
+/**
+ * Allocation-light conversions between textual IP addresses and primitive keys:
+ * IPv4 as an int, IPv6 as two longs (high and low 64 bits).
+ */
+public class IpUtil {
+
+    /**
+     * @param ip
+     * @return true if the string is a dotted-quad IPv4 address
+     */
+    public static boolean isIpv4(String ip) {
+        return ip != null && parseIpv4(ip, 0, ip.length()) >= 0;
+    }
+
+    /**
+     * @param ip
+     * @return true if the string is an IPv4 or IPv6 address
+     */
+    public static boolean isIp(String ip) {
+        return isIpv4(ip) || ipv6ToLongs(ip) != null;
+    }
+
+    /**
+     * @param ip a dotted-quad IPv4 address
+     * @return the address as an int, most significant octet first
+     * @throws IllegalArgumentException if the string is not an IPv4 address
+     */
+    public static int ipv4ToInt(String ip) {
+        long value = ip == null ? -1 : parseIpv4(ip, 0, ip.length());
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid IPv4 address: " + ip);
+        }
+        return (int) value;
+    }
+
+    /**
+     * @param ip an IPv6 address, optionally compressed with '::' or ending with an embedded IPv4 address
+     * @return the high and low 64 bits of the address, or null if the string is not an IPv6 address
+     */
+    public static long[] ipv6ToLongs(String ip) {
+        if (ip == null || ip.indexOf(':') < 0) {
+            return null;
+        }
+        int zone = ip.indexOf('%');
+        String address = zone >= 0 ? ip.substring(0, zone) : ip;
+        int doubleColon = address.indexOf("::");
+        if (doubleColon >= 0 && address.indexOf("::", doubleColon + 1) >= 0) {
+            return null;
+        }
+        int[] groups = new int[8];
+        int[] tailGroups = new int[8];
+        int head = parseGroups(doubleColon >= 0 ? address.substring(0, doubleColon) : address, groups);
+        if (head < 0) {
+            return null;
+        }
+        if (doubleColon < 0) {
+            if (head != 8) {
+                return null;
+            }
+        } else {
+            int tail = parseGroups(address.substring(doubleColon + 2), tailGroups);
+            if (tail < 0 || head + tail > 7) {
+                return null;
+            }
+            System.arraycopy(tailGroups, 0, groups, 8 - tail, tail);
+        }
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 4; i++) {
+            high = (high << 16) | groups[i];
+            low = (low << 16) | groups[i + 4];
+        }
+        return new long[]{high, low};
+    }
+
+    public static String intToIpv4(int ip) {
+        return ((ip >>> 24) & 0xFF) + "." + ((ip >>> 16) & 0xFF) + "." + ((ip >>> 8) & 0xFF) + "." + (ip & 0xFF);
+    }
+
+    /**
+     * Format an IPv6 address in its canonical compressed form (RFC 5952).
+     */
+    public static String longsToIpv6(long high, long low) {
+        int[] groups = new int[8];
+        for (int i = 0; i < 4; i++) {
+            groups[i] = (int) (high >>> (48 - 16 * i)) & 0xFFFF;
+            groups[i + 4] = (int) (low >>> (48 - 16 * i)) & 0xFFFF;
+        }
+        // find the longest run of zero groups, at least two long
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int i = 0; i < 8; ) {
+            if (groups[i] != 0) {
+                i++;
+                continue;
+            }
+            int j = i;
+            while (j < 8 && groups[j] == 0) {
+                j++;
+            }
+            if (j - i > bestLength) {
+                bestStart = i;
+                bestLength = j - i;
+            }
+            i = j;
+        }
+        StringBuilder builder = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                builder.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (builder.length() > 0 && builder.charAt(builder.length() - 1) != ':') {
+                builder.append(':');
+            }
+            builder.append(Integer.toHexString(groups[i]));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the address as a non-negative long, or -1 if the range is not an IPv4 address
+     */
+    private static long parseIpv4(String ip, int from, int to) {
+        long value = 0;
+        int octets = 0;
+        int octet = -1;
+        int digits = 0;
+        for (int i = from; i < to; i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 3) {
+                    return -1;
+                }
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+            } else if (c == '.') {
+                if (octet < 0 || octet > 255 || ++octets > 3) {
+                    return -1;
+                }
+                value = (value << 8) | octet;
+                octet = -1;
+                digits = 0;
+            } else {
+                return -1;
+            }
+        }
+        if (octet < 0 || octet > 255 || octets != 3) {
+            return -1;
+        }
+        return (value << 8) | octet;
+    }
+
+    /**
+     * Parse colon separated hex groups, the last one may be an embedded IPv4 address.
+     *
+     * @return the number of 16-bit groups written, or -1 if malformed
+     */
+    private static int parseGroups(String part, int[] out) {
+        if (part.isEmpty()) {
+            return 0;
+        }
+        String[] tokens = part.split(":", -1);
+        int count = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i];
+            if (i == tokens.length - 1 && token.indexOf('.') >= 0) {
+                long ipv4 = parseIpv4(token, 0, token.length());
+                if (ipv4 < 0 || count + 2 > 8) {
+                    return -1;
+                }
+                out[count++] = (int) (ipv4 >>> 16);
+                out[count++] = (int) (ipv4 & 0xFFFF);
+                continue;
+            }
+            if (token.isEmpty() || token.length() > 4 || count >= 8) {
+                return -1;
+            }
+            int group = 0;
+            for (int j = 0; j < token.length(); j++) {
+                int digit = Character.digit(token.charAt(j), 16);
+                if (digit < 0) {
+                    return -1;
+                }
+                group = (group << 4) | digit;
+            }
+            out[count++] = group;
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.free.ip.utils;
+
+import com.free.ip.pojo.IpInfo;
+import lombok.extern.log4j.Log4j2;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Append-only record of the IPs a job has completed or given up on, so an interrupted job
+ * can be resumed without repeating finished lookups. Each line is either
+ * {@code S<TAB>ip<TAB>result json} or {@code F<TAB>ip<TAB>reason}. On resume, IPs with a
+ * success record are skipped and IPs that failed are tried again, since the failure that
+ * stopped the previous run is usually the transient outage being recovered from.
+ *
+ * 任务日志：记录已完成和失败的IP，任务中断后可以通过 --resume 跳过已完成的IP继续执行，
+ * 失败的IP会在恢复时重新解析。
+ */
+@Log4j2
+public class Journal implements Closeable {
+
+    private static final char SUCCESS = 'S';
+
+    private static final char FAILURE = 'F';
+
+    private final Writer writer;
+
+    private final boolean autoFlush;
+
+    private final IpSet completed = new IpSet();
+
+    private final List<IpInfo> previousResults = new ArrayList<>();
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    /**
+     * @param path          the journal file, created if missing
+     * @param resume        load the existing journal and append to it, otherwise start a new one
+     * @param keepResults   keep the results of the previous run in memory for {@link #getPreviousResults()}
+     * @param autoFlush     write every record to the file immediately; when false the caller decides
+     *                      with {@link #flush()}, e.g. right after flushing the output the records describe
+     * @throws IOException if the file cannot be read or opened
+     */
+    public Journal(Path path, boolean resume, boolean keepResults, boolean autoFlush) throws IOException {
+        if (resume && Files.exists(path)) {
+            load(path, keepResults);
+            InoutUtil.truncateTornLine(path);
+        }
+        this.writer = Files.newBufferedWriter(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                resume ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        this.autoFlush = autoFlush;
+    }
+
+    /**
+     * @return true if the IP was completed by a previous run. Safe to call from any thread.
+     */
+    public boolean isCompleted(String ip) {
+        return completed.contains(ip);
+    }
+
+    /**
+     * @return the results of the previous run, empty unless resumed with keepResults
+     */
+    public List<IpInfo> getPreviousResults() {
+        return Collections.unmodifiableList(previousResults);
+    }
+
+    public synchronized void recordSuccess(String ip, IpInfo ipInfo) {
+        buffer.append(SUCCESS).append('\t').append(ip.trim()).append('\t').append(new JSONObject(ipInfo)).append('\n');
+        if (autoFlush) {
+            flush();
+        }
+    }
+
+    public synchronized void recordFailure(String ip, String reason) {
+        String cleanReason = String.valueOf(reason).replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+        buffer.append(FAILURE).append('\t').append(ip.trim()).append('\t').append(cleanReason).append('\n');
+        if (autoFlush) {
+            flush();
+        }
+    }
+
+    /**
+     * Write buffered records to the file.
+     */
+    public synchronized void flush() {
+        if (buffer.length() == 0) {
+            return;
+        }
+        try {
+            writer.append(buffer);
+            writer.flush();
+        } catch (IOException e) {
+            log.error("Error writing journal: " + e.getMessage());
+        }
+        buffer.setLength(0);
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.error("Error closing journal: " + e.getMessage());
+        }
+    }
+
+    private void load(Path path, boolean keepResults) throws IOException {
+        IpSet failed = new IpSet();
+        try (BufferedReader br = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] record = line.split("\t", 3);
+                if (record.length < 2 || record[0].length() != 1) {
+                    log.error("Skipping malformed journal line: " + line);
+                    continue;
+                }
+                if (record[0].charAt(0) == FAILURE) {
+                    failed.add(record[1]);
+                    continue;
+                }
+                try {
+                    IpInfo ipInfo = fromJson(new JSONObject(record.length > 2 ? record[2] : ""));
+                    if (completed.add(record[1]) && keepResults) {
+                        previousResults.add(ipInfo);
+                    }
+                } catch (JSONException e) {
+                    // the last record of a crashed run may be torn
+                    log.error("Skipping malformed journal line: " + line);
+                }
+            }
+        }
+        log.info("Resuming from journal " + path + ": " + completed.size() + " IPs completed, "
+                + failed.size() + " failed IPs will be retried");
+    }
+
+    private static IpInfo fromJson(JSONObject json) {
+        IpInfo ipInfo = new IpInfo(
+                json.optString("ip", null),
+                json.optString("country", null),
+                json.optString("countryCode", null),
+                json.optString("region", null),
+                json.optString("regionCode", null),
+                json.optString("city", null),
+                json.optString("isp", null),
+                json.has("latitude") ? json.getDouble("latitude") : null,
+                json.has("longitude") ? json.getDouble("longitude") : null
+        );
+        ipInfo.setParserName(json.optString("parserName", null));
+        ipInfo.setParseTimeTs(json.has("parseTimeTs") ? json.getLong("parseTimeTs") : null);
+        return ipInfo;
+    }
+
+}
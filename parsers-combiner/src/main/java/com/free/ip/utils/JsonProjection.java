@@ -0,0 +1,418 @@
+package com.free.ip.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pulls a fixed set of scalar values out of a JSON document while it is read, without
+ * building a tree or a String of the whole body. Paths are dotted object keys, e.g.
+ * "location.city"; everything not on a path is skipped byte by byte, and only the values
+ * that are extracted become Strings. Reusable and thread-safe once constructed.
+ *
+ * 流式JSON字段提取：按路径直接从响应字节中读取所需字段，跳过其余内容，不构建JSON树也不复制整个响应。
+ */
+public class JsonProjection {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private static final ThreadLocal<Reader> READERS = ThreadLocal.withInitial(Reader::new);
+
+    private static class Node {
+        final List<byte[]> keys = new ArrayList<>();
+        final List<Node> children = new ArrayList<>();
+        int slot = -1;
+
+        Node child(byte[] key, int length) {
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] candidate = keys.get(i);
+                if (candidate.length == length && equals(candidate, key, length)) {
+                    return children.get(i);
+                }
+            }
+            return null;
+        }
+
+        private static boolean equals(byte[] a, byte[] b, int length) {
+            for (int i = 0; i < length; i++) {
+                if (a[i] != b[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final Node root = new Node();
+
+    private final String[] paths;
+
+    /**
+     * @param paths the dotted paths to extract, their index is the index of the value in the results
+     */
+    public JsonProjection(String... paths) {
+        this.paths = paths.clone();
+        for (int slot = 0; slot < paths.length; slot++) {
+            Node node = root;
+            for (String key : paths[slot].split("\\.")) {
+                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                Node child = node.child(bytes, bytes.length);
+                if (child == null) {
+                    child = new Node();
+                    node.keys.add(bytes);
+                    node.children.add(child);
+                }
+                node = child;
+            }
+            if (node.slot >= 0 || !node.keys.isEmpty()) {
+                throw new IllegalArgumentException("Conflicting path: " + paths[slot]);
+            }
+            node.slot = slot;
+        }
+    }
+
+    /**
+     * @return the number of values extracted per object
+     */
+    public int size() {
+        return paths.length;
+    }
+
+    /**
+     * Read a JSON object to its end.
+     *
+     * @param in the document, UTF-8 encoded
+     * @return the value of each path as text, null where the path is missing, null or not a scalar
+     * @throws IOException if reading fails or the document is not a JSON object
+     */
+    public String[] extract(InputStream in) throws IOException {
+        Reader reader = READERS.get().reset(in);
+        try {
+            String[] values = new String[paths.length];
+            if (reader.skipWhitespace() != '{') {
+                throw reader.malformed();
+            }
+            reader.readObject(root, values);
+            return values;
+        } finally {
+            reader.reset(null);
+        }
+    }
+
+    /**
+     * Read a JSON array of objects to its end, as batch endpoints answer.
+     *
+     * @param in the document, UTF-8 encoded
+     * @return the values of each element, see {@link #extract(InputStream)}, null for elements that are not objects
+     * @throws IOException if reading fails or the document is not a JSON array
+     */
+    public List<String[]> extractEach(InputStream in) throws IOException {
+        Reader reader = READERS.get().reset(in);
+        try {
+            List<String[]> results = new ArrayList<>();
+            if (reader.skipWhitespace() != '[') {
+                throw reader.malformed();
+            }
+            reader.next();
+            if (reader.skipWhitespace() == ']') {
+                return results;
+            }
+            while (true) {
+                if (reader.skipWhitespace() == '{') {
+                    String[] values = new String[paths.length];
+                    reader.readObject(root, values);
+                    results.add(values);
+                } else {
+                    reader.skipValue();
+                    results.add(null);
+                }
+                int c = reader.skipWhitespace();
+                reader.next();
+                if (c == ']') {
+                    return results;
+                }
+                if (c != ',') {
+                    throw reader.malformed();
+                }
+            }
+        } finally {
+            reader.reset(null);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "JsonProjection" + Arrays.toString(paths);
+    }
+
+    /**
+     * Buffered byte reader with a scratch buffer for keys and extracted values, one per thread.
+     */
+    private static class Reader {
+
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        private byte[] scratch = new byte[256];
+
+        private int length;
+
+        private InputStream in;
+
+        private int pos;
+
+        private int limit;
+
+        private long offset;
+
+        Reader reset(InputStream in) {
+            this.in = in;
+            if (in == null && scratch.length > BUFFER_SIZE) {
+                // do not pin a buffer grown by one huge value to the thread
+                scratch = new byte[256];
+            }
+            pos = 0;
+            limit = 0;
+            offset = 0;
+            return this;
+        }
+
+        int peek() throws IOException {
+            if (pos == limit) {
+                offset += limit;
+                pos = 0;
+                limit = Math.max(0, in.read(buffer, 0, buffer.length));
+                if (limit == 0) {
+                    return -1;
+                }
+            }
+            return buffer[pos] & 0xff;
+        }
+
+        int next() throws IOException {
+            int c = peek();
+            if (c < 0) {
+                throw new IOException("Unexpected end of JSON at offset " + offset);
+            }
+            pos++;
+            return c;
+        }
+
+        int skipWhitespace() throws IOException {
+            int c = peek();
+            while (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                pos++;
+                c = peek();
+            }
+            return c;
+        }
+
+        IOException malformed() {
+            return new IOException("Malformed JSON at offset " + (offset + pos));
+        }
+
+        /**
+         * Read an object whose '{' is next, storing the values on the node's paths.
+         */
+        void readObject(Node node, String[] values) throws IOException {
+            next();
+            if (skipWhitespace() == '}') {
+                next();
+                return;
+            }
+            while (true) {
+                if (skipWhitespace() != '"') {
+                    throw malformed();
+                }
+                next();
+                readString();
+                Node child = node.child(scratch, length);
+                if (skipWhitespace() != ':') {
+                    throw malformed();
+                }
+                next();
+                int c = skipWhitespace();
+                if (child == null) {
+                    skipValue();
+                } else if (child.slot >= 0) {
+                    values[child.slot] = readScalar();
+                } else if (c == '{') {
+                    readObject(child, values);
+                } else {
+                    skipValue();
+                }
+                c = skipWhitespace();
+                next();
+                if (c == '}') {
+                    return;
+                }
+                if (c != ',') {
+                    throw malformed();
+                }
+            }
+        }
+
+        /**
+         * @return the scalar that is next as text, or null for JSON null and for objects and arrays, which are skipped
+         */
+        String readScalar() throws IOException {
+            int c = peek();
+            if (c == '"') {
+                next();
+                readString();
+                return new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+            if (c == '{' || c == '[') {
+                skipValue();
+                return null;
+            }
+            length = 0;
+            while ((c = peek()) >= 0 && !isDelimiter(c)) {
+                append(next());
+            }
+            if (length == 0) {
+                throw malformed();
+            }
+            String literal = new String(scratch, 0, length, StandardCharsets.US_ASCII);
+            return "null".equals(literal) ? null : literal;
+        }
+
+        /**
+         * Skip the value that is next, whatever its type.
+         */
+        void skipValue() throws IOException {
+            int c = peek();
+            if (c != '{' && c != '[') {
+                if (c == '"') {
+                    next();
+                    skipString();
+                    return;
+                }
+                while ((c = peek()) >= 0 && !isDelimiter(c)) {
+                    pos++;
+                }
+                return;
+            }
+            int depth = 0;
+            do {
+                c = next();
+                if (c == '"') {
+                    skipString();
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        }
+
+        private void skipString() throws IOException {
+            int c;
+            while ((c = next()) != '"') {
+                if (c == '\\') {
+                    next();
+                }
+            }
+        }
+
+        /**
+         * Read a string whose opening quote has been consumed into the scratch buffer as UTF-8.
+         */
+        private void readString() throws IOException {
+            length = 0;
+            int c;
+            while ((c = next()) != '"') {
+                if (c != '\\') {
+                    append(c);
+                    continue;
+                }
+                c = next();
+                switch (c) {
+                    case 'b':
+                        append('\b');
+                        break;
+                    case 'f':
+                        append('\f');
+                        break;
+                    case 'n':
+                        append('\n');
+                        break;
+                    case 'r':
+                        append('\r');
+                        break;
+                    case 't':
+                        append('\t');
+                        break;
+                    case 'u':
+                        appendCodePoint(readUnicodeEscape());
+                        break;
+                    default:
+                        // '"', '\\' and '/' stand for themselves
+                        append(c);
+                        break;
+                }
+            }
+        }
+
+        private int readUnicodeEscape() throws IOException {
+            int unit = readHex4();
+            if (!Character.isHighSurrogate((char) unit)) {
+                return Character.isLowSurrogate((char) unit) ? 0xfffd : unit;
+            }
+            // a supplementary character is written as a surrogate pair of escapes
+            if (peek() != '\\') {
+                return 0xfffd;
+            }
+            next();
+            if (next() != 'u') {
+                throw malformed();
+            }
+            int low = readHex4();
+            return Character.isLowSurrogate((char) low) ? Character.toCodePoint((char) unit, (char) low) : 0xfffd;
+        }
+
+        private int readHex4() throws IOException {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                int digit = Character.digit(next(), 16);
+                if (digit < 0) {
+                    throw malformed();
+                }
+                value = value << 4 | digit;
+            }
+            return value;
+        }
+
+        private void appendCodePoint(int codePoint) {
+            if (codePoint < 0x80) {
+                append(codePoint);
+            } else if (codePoint < 0x800) {
+                append(0xc0 | codePoint >> 6);
+                append(0x80 | codePoint & 0x3f);
+            } else if (codePoint < 0x10000) {
+                append(0xe0 | codePoint >> 12);
+                append(0x80 | codePoint >> 6 & 0x3f);
+                append(0x80 | codePoint & 0x3f);
+            } else {
+                append(0xf0 | codePoint >> 18);
+                append(0x80 | codePoint >> 12 & 0x3f);
+                append(0x80 | codePoint >> 6 & 0x3f);
+                append(0x80 | codePoint & 0x3f);
+            }
+        }
+
+        private void append(int b) {
+            if (length == scratch.length) {
+                scratch = Arrays.copyOf(scratch, length * 2);
+            }
+            scratch[length++] = (byte) b;
+        }
+
+        private static boolean isDelimiter(int c) {
+            return c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\n' || c == '\r';
+        }
+    }
+
+}
@@ -0,0 +1,272 @@
+package com.free.ip.utils;
+
+import com.free.ip.parser.IpParser;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Health of one parser: exponentially weighted moving averages of its latency and success
+ * rate, and a circuit breaker. After {@link ExecutorUtil#EACH_PARSER_ATTEMPTS} consecutive
+ * failures the circuit opens and the parser gets no work for a cool-down period; then a
+ * single probe request is let through (half-open). A successful probe closes the circuit,
+ * a failed one opens it again for twice as long, up to a maximum, and one that tells nothing,
+ * such as a rate limit, leaves it due for another probe. Thread-safe.
+ *
+ * 解析器健康度：记录延迟和成功率的指数加权移动平均，并带有熔断器。连续失败后熔断一段时间，
+ * 之后放行一个探测请求，探测成功则恢复，失败则加倍熔断时间。
+ */
+@Log4j2
+public class ParserHealth {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public static final long DEFAULT_OPEN_MILLIS = 30 * 1000;
+
+    public static final long DEFAULT_MAX_OPEN_MILLIS = 10 * 60 * 1000;
+
+    public static final long DEFAULT_GIVE_UP_MILLIS = 2 * 60 * 1000;
+
+    private static final double ALPHA = 0.2;
+
+    private static final int LATENCY_SAMPLES = 256;
+
+    private static final int MIN_PERCENTILE_SAMPLES = 20;
+
+    private static final int PERCENTILE_REFRESH = 16;
+
+    private static volatile long baseOpenNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_OPEN_MILLIS);
+
+    private static volatile long maxOpenNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_OPEN_MILLIS);
+
+    private static volatile long giveUpNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_GIVE_UP_MILLIS);
+
+    private final IpParser parser;
+
+    private double latencyNanos = -1;
+
+    private double successRate = 1.0;
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    private long openNanos = baseOpenNanos;
+
+    private long openUntilNanos;
+
+    // latencies of the last successful requests, oldest overwritten first
+    private final long[] samples = new long[LATENCY_SAMPLES];
+
+    private int sampleCount;
+
+    private int samplesSinceRefresh;
+
+    private double cachedPercentile = -1;
+
+    private long cachedPercentileNanos = -1;
+
+    public ParserHealth(IpParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Set how long a circuit stays open after tripping, and the cap for the doubling on failed probes.
+     * Applies to circuits created afterwards.
+     */
+    public static void configure(long openMillis, long maxOpenMillis) {
+        baseOpenNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        maxOpenNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(openMillis, maxOpenMillis));
+    }
+
+    /**
+     * Set how long every circuit may stay open, with none closing meanwhile, before the
+     * executors stop waiting for a probe to bring a parser back and give up on the run.
+     */
+    public static void configureGiveUp(long giveUpMillis) {
+        giveUpNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, giveUpMillis));
+    }
+
+    public static long getGiveUpNanos() {
+        return giveUpNanos;
+    }
+
+    public IpParser getParser() {
+        return parser;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return true if a request could be sent now: the circuit is closed, or open but due for a probe
+     */
+    public synchronized boolean isAvailable(long nowNanos) {
+        return state == State.CLOSED || (state == State.OPEN && nowNanos >= openUntilNanos);
+    }
+
+    /**
+     * Claim the right to send a request; an open circuit that is due lets this one through as its probe.
+     *
+     * @return false if the circuit does not allow a request now
+     */
+    public synchronized boolean tryAcquire(long nowNanos) {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN && nowNanos >= openUntilNanos) {
+            state = State.HALF_OPEN;
+            log.info("Parser " + parser.getClass().getName() + " circuit half-open, probing");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return when an open circuit lets the next probe through, or 0 if it is not open
+     */
+    public synchronized long getRetryAtNanos() {
+        return state == State.OPEN ? openUntilNanos : 0;
+    }
+
+    public synchronized void onSuccess(long latency) {
+        latencyNanos = latencyNanos < 0 ? latency : latencyNanos + ALPHA * (latency - latencyNanos);
+        successRate += ALPHA * (1 - successRate);
+        consecutiveFailures = 0;
+        samples[sampleCount++ % LATENCY_SAMPLES] = latency;
+        if (sampleCount == 2 * LATENCY_SAMPLES) {
+            sampleCount = LATENCY_SAMPLES;
+        }
+        samplesSinceRefresh++;
+        if (state != State.CLOSED) {
+            log.info("Parser " + parser.getClass().getName() + " recovered, circuit closed");
+            state = State.CLOSED;
+            openNanos = baseOpenNanos;
+        }
+    }
+
+    /**
+     * @return true if this failure opened the circuit
+     */
+    public synchronized boolean onFailure(long latency, long nowNanos) {
+        latencyNanos = latencyNanos < 0 ? latency : latencyNanos + ALPHA * (latency - latencyNanos);
+        successRate -= ALPHA * successRate;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            openNanos = Math.min(maxOpenNanos, openNanos * 2);
+        } else if (state != State.CLOSED || consecutiveFailures < ExecutorUtil.EACH_PARSER_ATTEMPTS) {
+            return false;
+        }
+        state = State.OPEN;
+        openUntilNanos = nowNanos + openNanos;
+        log.error("Parser " + parser.getClass().getName() + " exceeded failure threshold, circuit open for "
+                + TimeUnit.NANOSECONDS.toMillis(openNanos) + "ms");
+        return true;
+    }
+
+    /**
+     * Note a request whose outcome says nothing about the parser, e.g. it was rate limited or
+     * asked about an invalid IP. If it was the probe of a half-open circuit, the circuit goes
+     * back to open and is due for another probe right away, rather than waiting for an outcome
+     * that will never come.
+     */
+    public synchronized void onInconclusive(long nowNanos) {
+        if (state == State.HALF_OPEN) {
+            state = State.OPEN;
+            openUntilNanos = nowNanos;
+        }
+    }
+
+    /**
+     * @return the share of work this parser deserves: its success rate per millisecond of latency.
+     * A parser without samples yet counts as fast, so every parser gets tried early on.
+     */
+    public synchronized double weight() {
+        double latencyMillis = latencyNanos < 0 ? 1 : Math.max(1, latencyNanos / 1e6);
+        // a small floor keeps a closed but struggling parser from starving completely
+        return (0.01 + successRate) / latencyMillis;
+    }
+
+    /**
+     * @param percentile between 0 and 1, e.g. 0.95
+     * @return the latency below which that share of the recent successful requests completed,
+     * or -1 while there are too few samples to tell
+     */
+    public synchronized long latencyPercentileNanos(double percentile) {
+        int count = Math.min(sampleCount, LATENCY_SAMPLES);
+        if (count < MIN_PERCENTILE_SAMPLES) {
+            return -1;
+        }
+        // sorting a few hundred samples is cheap, but not on every request
+        if (percentile != cachedPercentile || samplesSinceRefresh >= PERCENTILE_REFRESH) {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            cachedPercentileNanos = sorted[Math.min(count - 1, Math.max(0, (int) Math.ceil(percentile * count) - 1))];
+            cachedPercentile = percentile;
+            samplesSinceRefresh = 0;
+        }
+        return cachedPercentileNanos;
+    }
+
+    /**
+     * @return true if every circuit is open, i.e. no parser can take work until a cool-down ends
+     */
+    public static boolean allOpen(List<ParserHealth> healths) {
+        for (ParserHealth health : healths) {
+            if (health.getState() != State.OPEN) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if some circuit is closed, i.e. a parser has recovered or never failed
+     */
+    public static boolean anyClosed(List<ParserHealth> healths) {
+        for (ParserHealth health : healths) {
+            if (health.getState() == State.CLOSED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pick one candidate at random, in proportion to its weight.
+     */
+    public static <T> T pickWeighted(List<T> candidates, ToDoubleFunction<T> weight) {
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        double[] weights = new double[candidates.size()];
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = weight.applyAsDouble(candidates.get(i));
+            total += weights[i];
+        }
+        double target = ThreadLocalRandom.current().nextDouble() * total;
+        for (int i = 0; i < weights.length; i++) {
+            target -= weights[i];
+            if (target < 0) {
+                return candidates.get(i);
+            }
+        }
+        return candidates.get(candidates.size() - 1);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return parser.getName() + "{" + state
+                + ", latency=" + (latencyNanos < 0 ? "-" : String.format("%.1fms", latencyNanos / 1e6))
+                + ", success=" + String.format("%.2f", successRate) + "}";
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.free.ip.utils;
+
+import com.free.ip.parser.IpParser;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking pool of parsers for the blocking executors. Each parser serves up to a fixed
+ * number of lookups at a time, one for the thread-per-parser executor; among the parsers
+ * with a free slot whose circuit allows a request, one is picked in proportion to its
+ * {@link ParserHealth#weight()}, so fast and reliable providers get more of the work while
+ * recovered ones are eased back in through half-open probes. A parser whose rate limiter
+ * is paused, because its provider answered a rate limit, is not handed out until the
+ * pause ends. When every circuit is open, callers wait for the earliest one to be due for
+ * its probe; only once none has closed for {@link ParserHealth#getGiveUpNanos()} does
+ * {@link #acquire()} give up.
+ *
+ * 阻塞模式的解析器调度池：每个解析器同时最多处理固定数量的请求，按健康度权重在有空闲槽位且未熔断的解析器中选择。
+ */
+public class ParserScheduler {
+
+    private final List<ParserHealth> healths = new ArrayList<>();
+
+    private final Map<IpParser, ParserHealth> healthByParser = new IdentityHashMap<>();
+
+    private final Map<IpParser, Integer> inFlight = new IdentityHashMap<>();
+
+    private final int maxInFlightPerParser;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    // when every circuit was found open with none closed since, or 0
+    private long allOpenSinceNanos;
+
+    public ParserScheduler(List<IpParser> parserList) {
+        this(parserList, 1);
+    }
+
+    /**
+     * @param parserList           parsers to hand out
+     * @param maxInFlightPerParser the number of lookups each parser may serve at once
+     */
+    public ParserScheduler(List<IpParser> parserList, int maxInFlightPerParser) {
+        for (IpParser parser : parserList) {
+            ParserHealth health = new ParserHealth(parser);
+            healths.add(health);
+            healthByParser.put(parser, health);
+            inFlight.put(parser, 0);
+        }
+        this.maxInFlightPerParser = maxInFlightPerParser;
+    }
+
+    /**
+     * Wait for a parser to have a free slot and be available.
+     *
+     * @return the parser, or null once every circuit has been open, with none closing, for
+     * longer than {@link ParserHealth#getGiveUpNanos()}
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public IpParser acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                long retryAt = Long.MAX_VALUE;
+                if (ParserHealth.anyClosed(healths)) {
+                    allOpenSinceNanos = 0;
+                } else if (allOpenSinceNanos == 0 && ParserHealth.allOpen(healths)) {
+                    allOpenSinceNanos = now;
+                }
+                if (allOpenSinceNanos != 0) {
+                    // failed probes only reopen their circuits, a closing one resets the clock
+                    long openNanos = now - allOpenSinceNanos;
+                    if (openNanos >= ParserHealth.getGiveUpNanos()) {
+                        return null;
+                    }
+                    retryAt = now + ParserHealth.getGiveUpNanos() - openNanos;
+                }
+                List<ParserHealth> candidates = new ArrayList<>();
+                for (ParserHealth health : healths) {
+                    if (inFlight.get(health.getParser()) >= maxInFlightPerParser) {
+                        continue;
+                    }
+                    long resumeAt = RateLimiters.forParser(health.getParser()).getPausedUntilNanos();
+                    if (resumeAt > now) {
+                        retryAt = Math.min(retryAt, resumeAt);
+                    } else if (health.isAvailable(now)) {
+                        candidates.add(health);
+                    } else if (health.getRetryAtNanos() > 0) {
+                        retryAt = Math.min(retryAt, health.getRetryAtNanos());
+                    }
+                }
+                if (!candidates.isEmpty()) {
+                    ParserHealth chosen = ParserHealth.pickWeighted(candidates, ParserHealth::weight);
+                    if (chosen.tryAcquire(now)) {
+                        inFlight.put(chosen.getParser(), inFlight.get(chosen.getParser()) + 1);
+                        return chosen.getParser();
+                    }
+                    continue;
+                }
+                // wait for a slot to be released, an open circuit to become due or the run to be given up
+                if (retryAt == Long.MAX_VALUE) {
+                    changed.await();
+                } else {
+                    changed.awaitNanos(Math.max(1, retryAt - now));
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return a parser acquired with {@link #acquire()} together with the outcome of its request.
+     *
+     * @param latencyNanos how long the request took
+     */
+    public void release(IpParser parser, boolean success, long latencyNanos) {
+        ParserHealth health = healthByParser.get(parser);
+        if (success) {
+            health.onSuccess(latencyNanos);
+        } else {
+            health.onFailure(latencyNanos, System.nanoTime());
+        }
+        free(parser, !success);
+    }
+
+    /**
+     * Return a parser acquired with {@link #acquire()} whose request says nothing about its
+     * health, e.g. it was rate limited or asked about an invalid IP.
+     */
+    public void release(IpParser parser) {
+        healthByParser.get(parser).onInconclusive(System.nanoTime());
+        free(parser, true);
+    }
+
+    /**
+     * @param wakeAll whether every waiter has to recompute when to retry
+     */
+    private void free(IpParser parser, boolean wakeAll) {
+        lock.lock();
+        try {
+            inFlight.put(parser, inFlight.get(parser) - 1);
+            // A success frees a slot any one waiter can take; a failure may have opened a
+            // circuit or paused a rate limiter, and every waiter has to recompute when to retry
+            if (wakeAll) {
+                changed.signalAll();
+            } else {
+                changed.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return healths.toString();
+    }
+
+}
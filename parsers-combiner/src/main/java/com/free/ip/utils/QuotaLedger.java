@@ -0,0 +1,241 @@
+package com.free.ip.utils;
+
+import com.free.ip.pojo.RateLimit;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File shared by the processes of one machine, e.g. the workers of a sharded run, so they
+ * draw from one budget per provider instead of each spending the whole quota of the IP they
+ * all send from. Each line holds a provider's name, the theoretical arrival time of its next
+ * request and the end of its pause, in wall-clock nanoseconds; the buckets it hands out run
+ * the same algorithm as {@link TokenBucket} on those records, under an exclusive lock of the
+ * file, so a request granted to one worker pushes back the next one of every other worker,
+ * and a provider that answered one of them with a 429 is paused for all. Each update costs
+ * a lock and a rewrite of a few lines, small next to the request it grants. Unlimited
+ * providers are not recorded. Open one ledger per file in a process, the locks are held on
+ * behalf of the whole JVM.
+ *
+ * 限流账本：同一台机器上的多个进程通过加锁的共享文件协调每个服务商的请求配额。
+ */
+@Log4j2
+public class QuotaLedger implements Closeable {
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    /**
+     * Added to System.nanoTime() to get wall-clock nanoseconds, which every process agrees on
+     */
+    private final long wallOffsetNanos;
+
+    /**
+     * @param path the ledger file, created if missing and kept if it exists
+     * @throws IOException if the file cannot be opened
+     */
+    public QuotaLedger(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.wallOffsetNanos = wallClockOffsetNanos();
+    }
+
+    /**
+     * Measured as the millisecond clock ticks, so processes agree to within microseconds rather
+     * than the millisecond the clock is read with. Each tick is known to fall between the two
+     * reads of the clock around it; the tick with the narrowest window is kept, so a measurement
+     * stretched by a cold JVM or preemption is not used.
+     *
+     * @return what to add to System.nanoTime() to get wall-clock nanoseconds
+     */
+    public static long wallClockOffsetNanos() {
+        long offset = 0;
+        long narrowest = Long.MAX_VALUE;
+        long previousNanos = System.nanoTime();
+        long millis = System.currentTimeMillis();
+        for (int ticks = 0; ticks < 10; ) {
+            long nanos = System.nanoTime();
+            long current = System.currentTimeMillis();
+            long afterNanos = System.nanoTime();
+            if (current != millis) {
+                ticks++;
+                if (afterNanos - previousNanos < narrowest) {
+                    narrowest = afterNanos - previousNanos;
+                    offset = TimeUnit.MILLISECONDS.toNanos(current) - (previousNanos + afterNanos) / 2;
+                }
+                millis = current;
+            }
+            previousNanos = nanos;
+        }
+        return offset;
+    }
+
+    /**
+     * @param name      the provider, e.g. the parser name
+     * @param rateLimit the limit every process applies to the provider
+     * @return a bucket drawing from the provider's record in the ledger, or a local one if the provider is unlimited
+     */
+    public TokenBucket bucket(String name, RateLimit rateLimit) {
+        return rateLimit.isUnlimited() ? new TokenBucket(rateLimit) : new SharedBucket(name, rateLimit);
+    }
+
+    private interface Update {
+        /**
+         * @param record the theoretical arrival time and the end of the pause, updated in place
+         * @return what the caller of {@link #update(String, Update)} gets
+         */
+        long apply(long[] record);
+    }
+
+    /**
+     * Apply an update to the record of a provider under the lock of the file.
+     */
+    private synchronized long update(String name, Update update) throws IOException {
+        FileLock lock = channel.lock();
+        try {
+            Map<String, long[]> records = read();
+            long[] record = records.computeIfAbsent(name, key -> new long[2]);
+            long before0 = record[0];
+            long before1 = record[1];
+            long result = update.apply(record);
+            if (record[0] != before0 || record[1] != before1) {
+                write(records);
+            }
+            return result;
+        } finally {
+            lock.release();
+        }
+    }
+
+    private Map<String, long[]> read() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining() && channel.read(buffer, buffer.position()) >= 0) {
+            // read the whole file
+        }
+        Map<String, long[]> records = new LinkedHashMap<>();
+        for (String line : new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8).split("\n")) {
+            String[] fields = line.split("\t");
+            if (fields.length != 3) {
+                continue;
+            }
+            try {
+                records.put(fields[0], new long[]{Long.parseLong(fields[1]), Long.parseLong(fields[2])});
+            } catch (NumberFormatException e) {
+                log.error("Skipping malformed quota ledger line: " + line);
+            }
+        }
+        return records;
+    }
+
+    private void write(Map<String, long[]> records) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, long[]> entry : records.entrySet()) {
+            builder.append(entry.getKey()).append('\t').append(entry.getValue()[0]).append('\t').append(entry.getValue()[1]).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, buffer.position());
+        }
+        channel.truncate(buffer.limit());
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("Error closing quota ledger: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Token bucket whose state is the provider's record in the ledger. If the ledger cannot be
+     * read or written it falls back to the local bucket, the limit then only holds per process.
+     */
+    private class SharedBucket extends TokenBucket {
+
+        private final String name;
+
+        private final long intervalNanos;
+
+        private final long toleranceNanos;
+
+        SharedBucket(String name, RateLimit rateLimit) {
+            super(rateLimit);
+            this.name = name;
+            this.intervalNanos = rateLimit.getIntervalNanos();
+            this.toleranceNanos = intervalNanos * (rateLimit.getBurst() - 1);
+        }
+
+        @Override
+        public long reserve(long nowNanos, int permits) {
+            long now = nowNanos + wallOffsetNanos;
+            try {
+                return update(name, record -> {
+                    long start = Math.max(Math.max(record[0], record[1]), now - toleranceNanos);
+                    record[0] = start + intervalNanos * permits;
+                    notePause(record[1]);
+                    return Math.max(0, start - now);
+                });
+            } catch (IOException e) {
+                log.error("Error updating quota ledger " + path + ": " + e.getMessage());
+                return super.reserve(nowNanos, permits);
+            }
+        }
+
+        @Override
+        public long tryAcquire(long nowNanos, int permits) {
+            long now = nowNanos + wallOffsetNanos;
+            try {
+                return update(name, record -> {
+                    long start = Math.max(Math.max(record[0], record[1]), now - toleranceNanos);
+                    notePause(record[1]);
+                    if (start > now) {
+                        return start - now;
+                    }
+                    record[0] = start + intervalNanos * permits;
+                    return 0;
+                });
+            } catch (IOException e) {
+                log.error("Error updating quota ledger " + path + ": " + e.getMessage());
+                return super.tryAcquire(nowNanos, permits);
+            }
+        }
+
+        @Override
+        public void pauseUntil(long untilNanos) {
+            super.pauseUntil(untilNanos);
+            long until = untilNanos + wallOffsetNanos;
+            try {
+                update(name, record -> {
+                    record[1] = Math.max(record[1], until);
+                    record[0] = Math.max(record[0], until);
+                    return 0;
+                });
+            } catch (IOException e) {
+                log.error("Error updating quota ledger " + path + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Keep a pause another process recorded locally, so {@link #getPausedUntilNanos()} sees it without a read of the file.
+         */
+        private void notePause(long pausedUntil) {
+            if (pausedUntil - wallOffsetNanos > super.getPausedUntilNanos()) {
+                super.pauseUntil(pausedUntil - wallOffsetNanos);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,409 @@
+package com.free.ip.utils;
+
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+/**
+ * Read-only IP range database loaded from a CSV file with the columns
+ * {@code start,end,country,countryCode,region,regionCode,city,isp,latitude,longitude}.
+ * Range bounds are IP addresses or their decimal value, values may be double-quoted,
+ * empty values are allowed and lines starting with '#' are ignored. Ranges must not overlap.
+ * <p>
+ * Ranges are held in sorted primitive arrays, IPv4 bounds as ints and IPv6 bounds as pairs
+ * of longs, and a lookup is a binary search on the start addresses. The six text columns
+ * are dictionary encoded: each range stores an int per column pointing into one shared
+ * array of distinct strings, since country, region and ISP names repeat across millions of
+ * ranges. Immutable once loaded, so lookups are thread-safe.
+ *
+ * 本地IP段数据库：从CSV文件加载到有序的基本类型数组中，通过二分查找定位IP段，文本字段使用字典编码。
+ */
+@Log4j2
+public class RangeDatabase {
+
+    private static final int TEXT_COLUMNS = 6;
+
+    private static final int NONE = -1;
+
+    private static final BigInteger LOW_MASK = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+
+    private final String[] dictionary;
+
+    private final Set<IpinfoEnum> supportedFields;
+
+    // IPv4 ranges
+    private final int[] ipv4Starts;
+    private final int[] ipv4Ends;
+    private final int[] ipv4Text;
+    private final double[] ipv4Coordinates;
+
+    // IPv6 ranges
+    private final long[] ipv6StartHighs;
+    private final long[] ipv6StartLows;
+    private final long[] ipv6EndHighs;
+    private final long[] ipv6EndLows;
+    private final int[] ipv6Text;
+    private final double[] ipv6Coordinates;
+
+    private RangeDatabase(Builder builder) {
+        this.dictionary = builder.dictionary.toArray(new String[0]);
+        this.supportedFields = builder.supportedFields;
+
+        int[] v4 = builder.ipv4.sortedOrder();
+        this.ipv4Starts = new int[v4.length];
+        this.ipv4Ends = new int[v4.length];
+        this.ipv4Text = new int[v4.length * TEXT_COLUMNS];
+        this.ipv4Coordinates = new double[v4.length * 2];
+        for (int i = 0; i < v4.length; i++) {
+            int row = v4[i];
+            ipv4Starts[i] = (int) builder.ipv4.startLows[row];
+            ipv4Ends[i] = (int) builder.ipv4.endLows[row];
+            builder.ipv4.copyValues(row, i, ipv4Text, ipv4Coordinates);
+        }
+
+        int[] v6 = builder.ipv6.sortedOrder();
+        this.ipv6StartHighs = new long[v6.length];
+        this.ipv6StartLows = new long[v6.length];
+        this.ipv6EndHighs = new long[v6.length];
+        this.ipv6EndLows = new long[v6.length];
+        this.ipv6Text = new int[v6.length * TEXT_COLUMNS];
+        this.ipv6Coordinates = new double[v6.length * 2];
+        for (int i = 0; i < v6.length; i++) {
+            int row = v6[i];
+            ipv6StartHighs[i] = builder.ipv6.startHighs[row];
+            ipv6StartLows[i] = builder.ipv6.startLows[row];
+            ipv6EndHighs[i] = builder.ipv6.endHighs[row];
+            ipv6EndLows[i] = builder.ipv6.endLows[row];
+            builder.ipv6.copyValues(row, i, ipv6Text, ipv6Coordinates);
+        }
+    }
+
+    /**
+     * @param path the CSV file
+     * @return the loaded database
+     * @throws IOException if the file cannot be read
+     */
+    public static RangeDatabase load(Path path) throws IOException {
+        long start = System.currentTimeMillis();
+        Builder builder = new Builder();
+        int lineNumber = 0;
+        try (BufferedReader br = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lineNumber++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.charAt(0) == '#') {
+                    continue;
+                }
+                if (!builder.add(splitCsv(trimmed)) && lineNumber > 1) {
+                    // the first line may be a header
+                    log.error("Skipping malformed range at " + path + ":" + lineNumber);
+                }
+            }
+        }
+        RangeDatabase database = new RangeDatabase(builder);
+        log.info("Loaded " + database.size() + " ranges with " + database.dictionary.length + " distinct values from "
+                + path + " in " + (System.currentTimeMillis() - start) + "ms");
+        return database;
+    }
+
+    /**
+     * @return the fields at least one range has a value for
+     */
+    public Set<IpinfoEnum> getSupportedFields() {
+        return supportedFields;
+    }
+
+    public int size() {
+        return ipv4Starts.length + ipv6StartHighs.length;
+    }
+
+    /**
+     * @param ip an IPv4 or IPv6 address
+     * @return the values of the range containing the IP, or null if no range contains it
+     */
+    public IpInfo lookup(String ip) {
+        String key = ip.trim();
+        if (IpUtil.isIpv4(key)) {
+            int address = IpUtil.ipv4ToInt(key);
+            int index = floorIpv4(address);
+            if (index < 0 || Integer.compareUnsigned(address, ipv4Ends[index]) > 0) {
+                return null;
+            }
+            return toIpInfo(key, index, ipv4Text, ipv4Coordinates);
+        }
+        long[] ipv6 = IpUtil.ipv6ToLongs(key);
+        if (ipv6 == null) {
+            return null;
+        }
+        int index = floorIpv6(ipv6[0], ipv6[1]);
+        if (index < 0 || compare(ipv6[0], ipv6[1], ipv6EndHighs[index], ipv6EndLows[index]) > 0) {
+            return null;
+        }
+        return toIpInfo(key, index, ipv6Text, ipv6Coordinates);
+    }
+
+    /**
+     * @return the index of the last range starting at or before the address, or -1
+     */
+    private int floorIpv4(int address) {
+        int low = 0;
+        int high = ipv4Starts.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (Integer.compareUnsigned(ipv4Starts[mid], address) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    private int floorIpv6(long addressHigh, long addressLow) {
+        int low = 0;
+        int high = ipv6StartHighs.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compare(ipv6StartHighs[mid], ipv6StartLows[mid], addressHigh, addressLow) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    private IpInfo toIpInfo(String ip, int index, int[] text, double[] coordinates) {
+        int base = index * TEXT_COLUMNS;
+        double latitude = coordinates[index * 2];
+        double longitude = coordinates[index * 2 + 1];
+        return new IpInfo(
+                ip,
+                word(text[base]),
+                word(text[base + 1]),
+                word(text[base + 2]),
+                word(text[base + 3]),
+                word(text[base + 4]),
+                word(text[base + 5]),
+                Double.isNaN(latitude) ? null : latitude,
+                Double.isNaN(longitude) ? null : longitude
+        );
+    }
+
+    private String word(int id) {
+        return id == NONE ? null : dictionary[id];
+    }
+
+    private static int compare(long highA, long lowA, long highB, long lowB) {
+        int result = Long.compareUnsigned(highA, highB);
+        return result != 0 ? result : Long.compareUnsigned(lowA, lowB);
+    }
+
+    /**
+     * Split a CSV line, honouring double quotes and doubled quotes inside them.
+     */
+    static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>(10);
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString().trim());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString().trim());
+        return values;
+    }
+
+    /**
+     * Growable columns collected while loading, in file order.
+     */
+    private static class Columns {
+
+        long[] startHighs = new long[1024];
+        long[] startLows = new long[1024];
+        long[] endHighs = new long[1024];
+        long[] endLows = new long[1024];
+        int[] text = new int[1024 * TEXT_COLUMNS];
+        double[] coordinates = new double[1024 * 2];
+        int size;
+        boolean sorted = true;
+
+        void add(long startHigh, long startLow, long endHigh, long endLow, int[] rowText, double latitude, double longitude) {
+            if (size == startHighs.length) {
+                int capacity = size * 2;
+                startHighs = Arrays.copyOf(startHighs, capacity);
+                startLows = Arrays.copyOf(startLows, capacity);
+                endHighs = Arrays.copyOf(endHighs, capacity);
+                endLows = Arrays.copyOf(endLows, capacity);
+                text = Arrays.copyOf(text, capacity * TEXT_COLUMNS);
+                coordinates = Arrays.copyOf(coordinates, capacity * 2);
+            }
+            if (size > 0 && compare(startHighs[size - 1], startLows[size - 1], startHigh, startLow) > 0) {
+                sorted = false;
+            }
+            startHighs[size] = startHigh;
+            startLows[size] = startLow;
+            endHighs[size] = endHigh;
+            endLows[size] = endLow;
+            System.arraycopy(rowText, 0, text, size * TEXT_COLUMNS, TEXT_COLUMNS);
+            coordinates[size * 2] = latitude;
+            coordinates[size * 2 + 1] = longitude;
+            size++;
+        }
+
+        /**
+         * @return row numbers ordered by start address; files are usually sorted already
+         */
+        int[] sortedOrder() {
+            if (sorted) {
+                int[] order = new int[size];
+                for (int i = 0; i < size; i++) {
+                    order[i] = i;
+                }
+                return order;
+            }
+            return IntStream.range(0, size).boxed()
+                    .sorted((a, b) -> compare(startHighs[a], startLows[a], startHighs[b], startLows[b]))
+                    .mapToInt(Integer::intValue)
+                    .toArray();
+        }
+
+        void copyValues(int row, int index, int[] targetText, double[] targetCoordinates) {
+            System.arraycopy(text, row * TEXT_COLUMNS, targetText, index * TEXT_COLUMNS, TEXT_COLUMNS);
+            targetCoordinates[index * 2] = coordinates[row * 2];
+            targetCoordinates[index * 2 + 1] = coordinates[row * 2 + 1];
+        }
+    }
+
+    private static class Builder {
+
+        private static final IpinfoEnum[] TEXT_FIELDS = {
+                IpinfoEnum.COUNTRY, IpinfoEnum.COUNTRY_CODE, IpinfoEnum.REGION,
+                IpinfoEnum.REGION_CODE, IpinfoEnum.CITY, IpinfoEnum.ISP
+        };
+
+        final Columns ipv4 = new Columns();
+
+        final Columns ipv6 = new Columns();
+
+        final List<String> dictionary = new ArrayList<>();
+
+        final Map<String, Integer> dictionaryIds = new HashMap<>();
+
+        final Set<IpinfoEnum> supportedFields = EnumSet.of(IpinfoEnum.IP);
+
+        private final int[] rowText = new int[TEXT_COLUMNS];
+
+        /**
+         * @return false if the line is not a range
+         */
+        boolean add(List<String> values) {
+            if (values.size() < 2) {
+                return false;
+            }
+            long[] start = parseBound(values.get(0));
+            long[] end = parseBound(values.get(1));
+            if (start == null || end == null || (start.length == 1) != (end.length == 1)) {
+                return false;
+            }
+            for (int column = 0; column < TEXT_COLUMNS; column++) {
+                String value = column + 2 < values.size() ? values.get(column + 2) : "";
+                rowText[column] = encode(value);
+                if (rowText[column] != NONE) {
+                    supportedFields.add(TEXT_FIELDS[column]);
+                }
+            }
+            double latitude = parseCoordinate(values, 8, IpinfoEnum.LATITUDE);
+            double longitude = parseCoordinate(values, 9, IpinfoEnum.LONGITUDE);
+            if (start.length == 1) {
+                ipv4.add(0, start[0], 0, end[0], rowText, latitude, longitude);
+            } else {
+                ipv6.add(start[0], start[1], end[0], end[1], rowText, latitude, longitude);
+            }
+            return true;
+        }
+
+        private int encode(String value) {
+            if (value.isEmpty() || "-".equals(value)) {
+                return NONE;
+            }
+            Integer id = dictionaryIds.get(value);
+            if (id == null) {
+                id = dictionary.size();
+                dictionary.add(value);
+                dictionaryIds.put(value, id);
+            }
+            return id;
+        }
+
+        private double parseCoordinate(List<String> values, int column, IpinfoEnum field) {
+            if (column >= values.size() || values.get(column).isEmpty()) {
+                return Double.NaN;
+            }
+            try {
+                double value = Double.parseDouble(values.get(column));
+                supportedFields.add(field);
+                return value;
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+
+        /**
+         * @return a single IPv4 value, the two halves of an IPv6 value, or null
+         */
+        private static long[] parseBound(String value) {
+            if (IpUtil.isIpv4(value)) {
+                return new long[]{IpUtil.ipv4ToInt(value)};
+            }
+            long[] ipv6 = IpUtil.ipv6ToLongs(value);
+            if (ipv6 != null) {
+                return ipv6;
+            }
+            if (value.isEmpty() || !value.chars().allMatch(Character::isDigit)) {
+                return null;
+            }
+            // decimal value, IPv4 if it fits in 32 bits
+            BigInteger number = new BigInteger(value);
+            if (number.bitLength() <= 32) {
+                return new long[]{number.intValue()};
+            }
+            if (number.bitLength() > 128) {
+                return null;
+            }
+            return new long[]{number.shiftRight(64).longValue(), number.and(LOW_MASK).longValue()};
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+package com.free.ip.utils;
+
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.RateLimit;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide registry of one {@link TokenBucket} per provider, keyed by parser name,
+ * so every executor and every run in the same JVM draws from the same budget. With a
+ * {@link QuotaLedger} the budget is shared with the other processes using the same file.
+ */
+@Log4j2
+public class RateLimiters {
+
+    private static final Map<String, RateLimit> OVERRIDES = new ConcurrentHashMap<>();
+
+    private static final Map<String, TokenBucket> BUCKETS = new ConcurrentHashMap<>();
+
+    private static volatile QuotaLedger ledger;
+
+    /**
+     * @param parser
+     * @return the shared limiter of the parser, created from its declared or overridden limit
+     */
+    public static TokenBucket forParser(IpParser parser) {
+        return BUCKETS.computeIfAbsent(parser.getName(), key -> {
+            QuotaLedger current = ledger;
+            return current != null ? current.bucket(key, getRateLimit(parser)) : new TokenBucket(getRateLimit(parser));
+        });
+    }
+
+    /**
+     * Draw every limited provider's requests from the ledger, shared with the other processes using it.
+     *
+     * @param quotaLedger the ledger, or null to go back to limits of this process only
+     */
+    public static void useLedger(QuotaLedger quotaLedger) {
+        log.info(quotaLedger != null ? "Rate limits shared through the quota ledger" : "Rate limits no longer shared");
+        ledger = quotaLedger;
+        BUCKETS.clear();
+    }
+
+    /**
+     * @param parser
+     * @return the overridden limit of the parser if any, otherwise the one it declares
+     */
+    public static RateLimit getRateLimit(IpParser parser) {
+        RateLimit override = OVERRIDES.get(parser.getName());
+        return override != null ? override : parser.getRateLimit();
+    }
+
+    /**
+     * Replace the limit declared by a parser.
+     *
+     * @param parserName the parser's simple class name, e.g. "Ip_ApiParser"
+     * @param rateLimit  the limit to apply
+     */
+    public static void override(String parserName, RateLimit rateLimit) {
+        log.info("Rate limit of " + parserName + " overridden to " + rateLimit);
+        OVERRIDES.put(parserName, rateLimit);
+        BUCKETS.remove(parserName);
+    }
+
+}
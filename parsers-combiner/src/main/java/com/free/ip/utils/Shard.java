@@ -0,0 +1,106 @@
+package com.free.ip.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One of N deterministic partitions of the input by IP hash, so several processes, on one
+ * machine or several, can each look up their own part of the same input file. The hash is
+ * taken over the address rather than its text, so every spelling of an IPv6 address lands in
+ * the same shard, and is the same in every JVM; lines that are not IPs are hashed as text.
+ *
+ * 按IP哈希确定性地将输入划分为N个分片，多个进程各自处理其中一个分片。
+ */
+public class Shard {
+
+    private final int index;
+
+    private final int count;
+
+    /**
+     * @param index the shard, from 0 to count - 1
+     * @param count the number of shards
+     */
+    public Shard(int index, int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Invalid shard " + index + " of " + count);
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    /**
+     * Parse a shard such as "0/4", the first of four.
+     *
+     * @throws IllegalArgumentException if the specification is malformed
+     */
+    public static Shard parse(String spec) {
+        int slash = spec.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("Invalid shard: " + spec + ", expected <index>/<count>, e.g. 0/4");
+        }
+        return new Shard(Integer.parseInt(spec.substring(0, slash).trim()), Integer.parseInt(spec.substring(slash + 1).trim()));
+    }
+
+    /**
+     * @param ip    an IP address
+     * @param count the number of shards
+     * @return the shard the IP belongs to, from 0 to count - 1
+     */
+    public static int of(String ip, int count) {
+        long hash;
+        if (IpUtil.isIpv4(ip)) {
+            hash = IpUtil.ipv4ToInt(ip);
+        } else {
+            long[] ipv6 = IpUtil.ipv6ToLongs(ip);
+            hash = ipv6 != null ? ipv6[0] * 31 + ipv6[1] : ip.hashCode();
+        }
+        return (int) Long.remainderUnsigned(mix(hash), count);
+    }
+
+    /**
+     * MurmurHash3's 64-bit finalizer, so neighbouring addresses are spread over the shards.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * @return true if the IP belongs to this shard
+     */
+    public boolean contains(String ip) {
+        return count == 1 || of(ip, count) == index;
+    }
+
+    /**
+     * @return the IPs of the list that belong to this shard, in their order
+     */
+    public List<String> select(List<String> ipList) {
+        List<String> selected = new ArrayList<>();
+        for (String ip : ipList) {
+            if (contains(ip)) {
+                selected.add(ip);
+            }
+        }
+        return selected;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+
+}
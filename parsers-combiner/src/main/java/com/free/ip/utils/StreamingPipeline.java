@@ -0,0 +1,218 @@
+package com.free.ip.utils;
+
+import com.free.ip.parser.LookupException;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.writer.ResultFormat;
+import com.free.ip.writer.ResultWriter;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams an input file through an {@link AsyncExecutor} into an output file with constant
+ * memory. The reader submits lines lazily and puts each lookup's future on a bounded queue
+ * in input order; when the queue is full the reader blocks, which is the backpressure. A
+ * writer thread takes futures in the same order, writes each result as soon as it is done,
+ * and flushes whenever it catches up with the lookups, so a crash loses at most the
+ * lookups still in flight.
+ * <p>
+ * With a {@link Journal}, written results are recorded in it right after the output has
+ * been flushed, so a resumed run skips exactly the IPs whose results reached the output
+ * (a hard crash between the two flushes repeats at most the last flushed batch).
+ *
+ * 流式处理：读取线程按需读取输入并提交解析，解析的future按输入顺序放入有界队列，队列满时读取线程
+ * 阻塞形成背压；写入线程按顺序取出结果并增量写入输出文件，内存占用与输入大小无关。
+ */
+@Log4j2
+public class StreamingPipeline {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+
+    private static final Lookup END = new Lookup(null, CompletableFuture.completedFuture(null));
+
+    private static class Lookup {
+
+        final String ip;
+
+        final CompletableFuture<IpInfo> future;
+
+        Lookup(String ip, CompletableFuture<IpInfo> future) {
+            this.ip = ip;
+            this.future = future;
+        }
+    }
+
+    /**
+     * @param ipFilePath     the path to the file containing the IP addresses, one per line
+     * @param resultFilePath the path to the output file, one JSON object per line by default
+     * @param executor       the executor performing the lookups
+     * @param queueCapacity  the maximum number of lookups submitted but not yet written
+     * @return true if every line was parsed and written, false if the run was terminated early
+     */
+    public static boolean run(String ipFilePath, String resultFilePath, AsyncExecutor executor, int queueCapacity) {
+        return run(ipFilePath, resultFilePath, executor, queueCapacity, null, false);
+    }
+
+    /**
+     * @param journal the journal to skip completed IPs with and record progress to, or null
+     * @param append  append to the output file, e.g. when resuming, instead of overwriting it
+     * @see #run(String, String, AsyncExecutor, int)
+     */
+    public static boolean run(String ipFilePath, String resultFilePath, AsyncExecutor executor, int queueCapacity,
+                              Journal journal, boolean append) {
+        return run(ipFilePath, resultFilePath, executor, queueCapacity, journal, append, ResultFormat.JSON, Collections.emptyList());
+    }
+
+    /**
+     * @param format the output format
+     * @param fields the fields to write, the IP is always written; every field if empty
+     * @see #run(String, String, AsyncExecutor, int, Journal, boolean)
+     */
+    public static boolean run(String ipFilePath, String resultFilePath, AsyncExecutor executor, int queueCapacity,
+                              Journal journal, boolean append, ResultFormat format, List<IpinfoEnum> fields) {
+        return run(ipFilePath, resultFilePath, executor, queueCapacity, journal, append, format, fields, null);
+    }
+
+    /**
+     * @param shard the shard whose IPs to look up, the others are skipped; every IP if null
+     * @see #run(String, String, AsyncExecutor, int, Journal, boolean, ResultFormat, List)
+     */
+    public static boolean run(String ipFilePath, String resultFilePath, AsyncExecutor executor, int queueCapacity,
+                              Journal journal, boolean append, ResultFormat format, List<IpinfoEnum> fields, Shard shard) {
+        BlockingQueue<Lookup> queue = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicBoolean failed = new AtomicBoolean();
+        AtomicLong written = new AtomicLong();
+        Thread writer = new Thread(() -> drain(queue, resultFilePath, append, format, fields, executor, journal, failed, written),
+                "streaming-writer");
+        writer.start();
+
+        long submitted = 0;
+        long skipped = 0;
+        try (BufferedReader br = Files.newBufferedReader(Paths.get(ipFilePath))) {
+            String line;
+            while (!failed.get() && (line = br.readLine()) != null) {
+                String ip = line.trim();
+                if (ip.isEmpty() || (shard != null && !shard.contains(ip))) {
+                    continue;
+                }
+                if (journal != null && journal.isCompleted(ip)) {
+                    skipped++;
+                    continue;
+                }
+                if (!enqueue(queue, new Lookup(ip, executor.submit(ip)), failed)) {
+                    break;
+                }
+                submitted++;
+            }
+        } catch (IOException e) {
+            log.error("Error reading IP file: " + e.getMessage());
+            failed.set(true);
+        }
+        try {
+            // the writer drains until END unless it stopped on an output error
+            while (writer.isAlive() && !queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+                // wait for space
+            }
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Streamed " + submitted + " IPs, wrote " + written.get() + " results"
+                + (journal != null ? ", skipped " + skipped + " IPs completed by the previous run" : ""));
+        return !failed.get();
+    }
+
+    /**
+     * Put on the queue, giving up if the run fails while waiting for space.
+     */
+    private static boolean enqueue(BlockingQueue<Lookup> queue, Lookup lookup, AtomicBoolean failed) {
+        try {
+            while (!queue.offer(lookup, 100, TimeUnit.MILLISECONDS)) {
+                if (failed.get()) {
+                    lookup.future.cancel(false);
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static void drain(BlockingQueue<Lookup> queue, String resultFilePath, boolean append, ResultFormat format,
+                              List<IpinfoEnum> fields, AsyncExecutor executor, Journal journal, AtomicBoolean failed, AtomicLong written) {
+        Path resultPath = Paths.get(resultFilePath);
+        try {
+            if (append) {
+                format.repair(resultPath);
+            }
+        } catch (IOException e) {
+            log.error("Error repairing result file: " + e.getMessage());
+        }
+        try (ResultWriter bw = format.open(resultPath, fields, append)) {
+            while (true) {
+                Lookup lookup = queue.take();
+                if (lookup == END) {
+                    break;
+                }
+                IpInfo ipInfo;
+                try {
+                    ipInfo = lookup.future.join();
+                } catch (CompletionException | CancellationException e) {
+                    Throwable cause = e.getCause() != null ? e.getCause() : e;
+                    if (journal != null && !(cause instanceof CancellationException)) {
+                        journal.recordFailure(lookup.ip, cause.getMessage());
+                    }
+                    // Skip an invalid input; otherwise terminate like runParsers does, but keep writing whatever still completes
+                    if (LookupException.of(cause).getReason() != LookupException.Reason.INVALID_INPUT
+                            && failed.compareAndSet(false, true)) {
+                        log.error(cause.getMessage() + ", terminating...");
+                        executor.close();
+                    }
+                    continue;
+                }
+                bw.write(ipInfo);
+                written.incrementAndGet();
+                if (journal != null) {
+                    journal.recordSuccess(lookup.ip, ipInfo);
+                }
+                Lookup next = queue.peek();
+                if (next == null || !next.future.isDone()) {
+                    bw.flush();
+                    if (journal != null) {
+                        journal.flush();
+                    }
+                }
+            }
+            bw.flush();
+            if (journal != null) {
+                journal.flush();
+            }
+        } catch (IOException e) {
+            log.error("Error writing result file: " + e.getMessage());
+            failed.set(true);
+            executor.close();
+            queue.clear();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failed.set(true);
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.free.ip.utils;
+
+import com.free.ip.pojo.RateLimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket implemented as a generic cell rate algorithm: the only state
+ * is the theoretical arrival time of the next request, updated with a CAS. A request is
+ * conforming when it arrives no earlier than that time minus the burst tolerance, which
+ * admits exactly {@code burst} back-to-back requests and then one per interval. A request
+ * may cost several permits, e.g. a batch; it is admitted as soon as a single permit is
+ * available and pushes the following requests back by its whole cost, so the average
+ * rate holds even when the cost exceeds the burst. A provider that asked to slow down can be
+ * paused: no request is admitted before the pause ends, and the burst is not refilled by it.
+ *
+ * 无锁令牌桶（GCRA实现）：唯一的状态是下一个请求的理论到达时间，通过CAS更新。
+ */
+public class TokenBucket {
+
+    private final RateLimit rateLimit;
+
+    private final long intervalNanos;
+
+    private final long toleranceNanos;
+
+    private final AtomicLong theoreticalArrivalNanos;
+
+    private final AtomicLong pausedUntilNanos;
+
+    public TokenBucket(RateLimit rateLimit) {
+        this.rateLimit = rateLimit;
+        this.intervalNanos = rateLimit.getIntervalNanos();
+        this.toleranceNanos = intervalNanos * (rateLimit.getBurst() - 1);
+        this.theoreticalArrivalNanos = new AtomicLong(System.nanoTime() - toleranceNanos);
+        this.pausedUntilNanos = new AtomicLong(System.nanoTime());
+    }
+
+    public RateLimit getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * Reserve the next request slot, waiting for it if necessary.
+     *
+     * @return nanoseconds the caller must wait before sending the request, 0 if it may be sent now
+     */
+    public long reserve() {
+        return reserve(System.nanoTime());
+    }
+
+    public long reserve(long nowNanos) {
+        return reserve(nowNanos, 1);
+    }
+
+    /**
+     * @param permits the number of permits the request costs
+     * @see #reserve()
+     */
+    public long reserve(long nowNanos, int permits) {
+        if (intervalNanos == 0) {
+            return Math.max(0, pausedUntilNanos.get() - nowNanos);
+        }
+        while (true) {
+            long tat = theoreticalArrivalNanos.get();
+            long start = Math.max(tat, nowNanos - toleranceNanos);
+            if (theoreticalArrivalNanos.compareAndSet(tat, start + intervalNanos * permits)) {
+                return Math.max(0, start - nowNanos);
+            }
+        }
+    }
+
+    /**
+     * Admit no request before the given time; an earlier pause already in place is kept
+     * if it ends later.
+     */
+    public void pauseUntil(long untilNanos) {
+        pausedUntilNanos.accumulateAndGet(untilNanos, Math::max);
+        // the next request conforms at the end of the pause, and those after it one interval apart
+        theoreticalArrivalNanos.accumulateAndGet(untilNanos, Math::max);
+    }
+
+    /**
+     * @return when the current pause ends, or a time in the past if the limiter is not paused
+     */
+    public long getPausedUntilNanos() {
+        return pausedUntilNanos.get();
+    }
+
+    /**
+     * Take a request slot only if one is available right now.
+     *
+     * @return 0 if the slot was taken, otherwise nanoseconds until one becomes available
+     */
+    public long tryAcquire() {
+        return tryAcquire(System.nanoTime());
+    }
+
+    public long tryAcquire(long nowNanos) {
+        return tryAcquire(nowNanos, 1);
+    }
+
+    /**
+     * @param permits the number of permits the request costs
+     * @see #tryAcquire()
+     */
+    public long tryAcquire(long nowNanos, int permits) {
+        if (intervalNanos == 0) {
+            return Math.max(0, pausedUntilNanos.get() - nowNanos);
+        }
+        while (true) {
+            long tat = theoreticalArrivalNanos.get();
+            long start = Math.max(tat, nowNanos - toleranceNanos);
+            if (start > nowNanos) {
+                return start - nowNanos;
+            }
+            if (theoreticalArrivalNanos.compareAndSet(tat, start + intervalNanos * permits)) {
+                return 0;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.free.ip.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for blocking lookups. This is the Java 8 version, running them on platform
+ * threads; the jar is multi-release and Java 21 loads the version under src/main/java21,
+ * which starts a virtual thread per task instead.
+ *
+ * 阻塞查询使用的线程池。Java 8版本使用平台线程，Java 21加载多版本jar中使用虚拟线程的版本。
+ */
+public class VirtualThreads {
+
+    /**
+     * @return true if {@link #newExecutor(String, int)} starts virtual threads
+     */
+    public static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * @param name            prefix of the thread names
+     * @param platformThreads the size of the pool used when virtual threads are not supported
+     * @return an executor starting a virtual thread per task, or a pool of platform daemon threads
+     */
+    public static ExecutorService newExecutor(String name, int platformThreads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(platformThreads, r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+}
@@ -0,0 +1,220 @@
+package com.free.ip.writer;
+
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary results. The file starts with the magic "IPR1", the number of projected
+ * fields and their {@link IpinfoEnum} ordinals; each record is its length as an int
+ * followed by the projected fields, the parser name and the parse time. A string is a
+ * presence byte, its UTF-8 length as an unsigned short and its bytes, a coordinate a
+ * presence byte and a double, the time a presence byte and a long. The length prefix lets
+ * a torn last record be cut off before appending, see {@link #truncateTorn(Path)}.
+ */
+@Log4j2
+public class BinaryResultWriter extends ChannelWriter {
+
+    private static final byte[] MAGIC = {'I', 'P', 'R', '1'};
+
+    BinaryResultWriter(Path path, List<IpinfoEnum> fields, boolean append) throws IOException {
+        super(path, fields, append);
+        if (hasContent()) {
+            IpinfoEnum[] existing = readHeader(path);
+            if (!Arrays.equals(existing, this.fields)) {
+                close();
+                throw new IOException("Cannot append fields " + Arrays.toString(this.fields)
+                        + " to " + path + " holding " + Arrays.toString(existing));
+            }
+            return;
+        }
+        for (byte b : MAGIC) {
+            putByte(b);
+        }
+        putByte(this.fields.length);
+        for (IpinfoEnum field : this.fields) {
+            putByte(field.ordinal());
+        }
+    }
+
+    @Override
+    public void write(IpInfo ipInfo) throws IOException {
+        int length = stringSize(ipInfo.getParserName()) + 1 + (ipInfo.getParseTimeTs() != null ? 8 : 0);
+        for (IpinfoEnum field : fields) {
+            Object value = ipInfo.get(field);
+            length += value instanceof String ? stringSize((String) value) : 1 + (value != null ? 8 : 0);
+        }
+        ensure(4 + length);
+        buffer.putInt(length);
+        for (IpinfoEnum field : fields) {
+            Object value = ipInfo.get(field);
+            if (field == IpinfoEnum.LATITUDE || field == IpinfoEnum.LONGITUDE) {
+                putByte(value != null ? 1 : 0);
+                if (value != null) {
+                    buffer.putDouble((Double) value);
+                }
+            } else {
+                putString((String) value);
+            }
+        }
+        putString(ipInfo.getParserName());
+        putByte(ipInfo.getParseTimeTs() != null ? 1 : 0);
+        if (ipInfo.getParseTimeTs() != null) {
+            buffer.putLong(ipInfo.getParseTimeTs());
+        }
+    }
+
+    private void putString(String value) throws IOException {
+        putByte(value != null ? 1 : 0);
+        if (value != null) {
+            buffer.putShort((short) utf8Length(value));
+            putUtf8(value);
+        }
+    }
+
+    private static int stringSize(String value) throws IOException {
+        return value == null ? 1 : 3 + utf8Length(value);
+    }
+
+    private static int utf8Length(String value) throws IOException {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                // lone surrogates are written as '?'
+                length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        if (length > 0xffff) {
+            throw new IOException("Value too long for the binary format: " + length + " bytes");
+        }
+        return length;
+    }
+
+    private static IpinfoEnum[] readHeader(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a binary result file");
+        }
+        IpinfoEnum[] fields = new IpinfoEnum[in.readUnsignedByte()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = IpinfoEnum.values()[in.readUnsignedByte()];
+        }
+        return fields;
+    }
+
+    private static IpinfoEnum[] readHeader(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            return readHeader(in);
+        }
+    }
+
+    /**
+     * Read a binary result file back; a torn last record is ignored.
+     *
+     * @param path the file to read
+     * @return the results, with the fields that were not written left null
+     * @throws IOException if the file cannot be read or is not a binary result file
+     */
+    public static List<IpInfo> read(Path path) throws IOException {
+        List<IpInfo> ipInfos = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            IpinfoEnum[] fields = readHeader(in);
+            byte[] record = new byte[256];
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                    if (record.length < length) {
+                        record = new byte[length];
+                    }
+                    in.readFully(record, 0, length);
+                } catch (EOFException e) {
+                    return ipInfos;
+                }
+                ipInfos.add(decode(new DataInputStream(new ByteArrayInputStream(record, 0, length)), fields));
+            }
+        }
+    }
+
+    private static IpInfo decode(DataInputStream in, IpinfoEnum[] fields) throws IOException {
+        IpInfo ipInfo = new IpInfo(null, null, null, null, null, null, null, null, null);
+        for (IpinfoEnum field : fields) {
+            if (field == IpinfoEnum.LATITUDE || field == IpinfoEnum.LONGITUDE) {
+                ipInfo.set(field, in.readByte() != 0 ? in.readDouble() : null);
+            } else {
+                ipInfo.set(field, readString(in));
+            }
+        }
+        ipInfo.setParserName(readString(in));
+        ipInfo.setParseTimeTs(in.readByte() != 0 ? in.readLong() : null);
+        return ipInfo;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        if (in.readByte() == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Cut off a last record left incomplete by a crash, so the file can be appended to.
+     *
+     * @param path the file to repair
+     * @throws IOException if the file cannot be read or truncated
+     */
+    public static void truncateTorn(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long end;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+                IpinfoEnum[] fields = readHeader(in);
+                end = MAGIC.length + 1 + fields.length;
+                while (end + 4 <= size) {
+                    int length = in.readInt();
+                    if (end + 4 + length > size) {
+                        break;
+                    }
+                    long skipped = 0;
+                    while (skipped < length) {
+                        skipped += in.skip(length - skipped);
+                    }
+                    end += 4 + length;
+                }
+            } catch (EOFException e) {
+                // a header torn before any record was written
+                end = 0;
+            }
+            if (end < size) {
+                log.error("Truncating torn last record of " + path);
+                channel.truncate(end);
+            }
+        }
+    }
+
+}
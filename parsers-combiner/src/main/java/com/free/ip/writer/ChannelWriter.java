@@ -0,0 +1,148 @@
+package com.free.ip.writer;
+
+import com.free.ip.pojo.IpinfoEnum;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Base of the writers: encodes straight into a large buffer that is written to a file
+ * channel when full, so no per-record String or reflection is involved.
+ */
+abstract class ChannelWriter implements ResultWriter {
+
+    static final int BUFFER_SIZE = 1 << 20;
+
+    final IpinfoEnum[] fields;
+
+    final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private final FileChannel channel;
+
+    /**
+     * @param fields the fields to write, the IP is always written
+     * @param append append to the file instead of overwriting it
+     */
+    ChannelWriter(Path path, List<IpinfoEnum> fields, boolean append) throws IOException {
+        Set<IpinfoEnum> projected = EnumSet.of(IpinfoEnum.IP);
+        projected.addAll(fields);
+        this.fields = projected.toArray(new IpinfoEnum[0]);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * @return true if the file had content before this writer was opened
+     */
+    boolean hasContent() throws IOException {
+        return channel.size() > 0;
+    }
+
+    /**
+     * Make room for the given number of bytes.
+     */
+    void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain();
+        }
+    }
+
+    void putByte(int b) throws IOException {
+        ensure(1);
+        buffer.put((byte) b);
+    }
+
+    void putAscii(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            putByte(value.charAt(i));
+        }
+    }
+
+    void putDecimal(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            putAscii(Long.toString(value));
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int start = buffer.position();
+        do {
+            buffer.put((byte) ('0' + value % 10));
+            value /= 10;
+        } while (value != 0);
+        // digits were written least significant first
+        for (int i = start, j = buffer.position() - 1; i < j; i++, j--) {
+            byte digit = buffer.get(i);
+            buffer.put(i, buffer.get(j));
+            buffer.put(j, digit);
+        }
+    }
+
+    /**
+     * Write the UTF-8 encoding of one character; lone surrogates become '?'.
+     *
+     * @return the number of chars consumed, 2 for a surrogate pair
+     */
+    int putUtf8(String value, int index) throws IOException {
+        ensure(4);
+        char c = value.charAt(index);
+        if (c < 0x80) {
+            buffer.put((byte) c);
+        } else if (c < 0x800) {
+            buffer.put((byte) (0xc0 | c >> 6));
+            buffer.put((byte) (0x80 | c & 0x3f));
+        } else if (Character.isHighSurrogate(c) && index + 1 < value.length() && Character.isLowSurrogate(value.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            buffer.put((byte) (0xf0 | codePoint >> 18));
+            buffer.put((byte) (0x80 | codePoint >> 12 & 0x3f));
+            buffer.put((byte) (0x80 | codePoint >> 6 & 0x3f));
+            buffer.put((byte) (0x80 | codePoint & 0x3f));
+            return 2;
+        } else if (Character.isSurrogate(c)) {
+            buffer.put((byte) '?');
+        } else {
+            buffer.put((byte) (0xe0 | c >> 12));
+            buffer.put((byte) (0x80 | c >> 6 & 0x3f));
+            buffer.put((byte) (0x80 | c & 0x3f));
+        }
+        return 1;
+    }
+
+    void putUtf8(String value) throws IOException {
+        for (int i = 0; i < value.length(); ) {
+            i += putUtf8(value, i);
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            drain();
+        } finally {
+            channel.close();
+        }
+    }
+
+}
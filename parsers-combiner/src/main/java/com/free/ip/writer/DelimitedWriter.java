@@ -0,0 +1,205 @@
+package com.free.ip.writer;
+
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CSV (RFC 4180 quoting) or TSV (tabs and line breaks in values replaced by spaces) with a
+ * header line naming the projected fields, the parser name and the parse time. Missing
+ * values are empty.
+ */
+@Log4j2
+class DelimitedWriter extends ChannelWriter {
+
+    private final char separator;
+
+    DelimitedWriter(Path path, List<IpinfoEnum> fields, boolean append, char separator) throws IOException {
+        super(path, fields, append);
+        this.separator = separator;
+        List<String> header = new ArrayList<>();
+        for (IpinfoEnum field : this.fields) {
+            header.add(field.getPropertyName());
+        }
+        header.add("parserName");
+        header.add("parseTimeTs");
+        if (hasContent()) {
+            // appending to earlier output, which has its header already
+            List<String> existing;
+            try (BufferedReader br = Files.newBufferedReader(path)) {
+                existing = readRecord(br, separator);
+            }
+            if (!header.equals(existing)) {
+                close();
+                throw new IOException("Cannot append fields " + header + " to " + path + " holding " + existing);
+            }
+            return;
+        }
+        for (int i = 0; i < header.size(); i++) {
+            putAscii(header.get(i));
+            putByte(i < header.size() - 1 ? separator : '\n');
+        }
+    }
+
+    @Override
+    public void write(IpInfo ipInfo) throws IOException {
+        for (IpinfoEnum field : fields) {
+            putValue(ipInfo.get(field));
+            putByte(separator);
+        }
+        putValue(ipInfo.getParserName());
+        putByte(separator);
+        if (ipInfo.getParseTimeTs() != null) {
+            putDecimal(ipInfo.getParseTimeTs());
+        }
+        putByte('\n');
+    }
+
+    private void putValue(Object value) throws IOException {
+        if (value == null || (value instanceof Double && !Double.isFinite((Double) value))) {
+            return;
+        }
+        if (!(value instanceof String)) {
+            putAscii(value.toString());
+            return;
+        }
+        String text = (String) value;
+        if (separator == '\t') {
+            for (int i = 0; i < text.length(); ) {
+                char c = text.charAt(i);
+                if (c == '\t' || c == '\n' || c == '\r') {
+                    putByte(' ');
+                    i++;
+                } else {
+                    i += putUtf8(text, i);
+                }
+            }
+            return;
+        }
+        if (!needsQuotes(text)) {
+            putUtf8(text);
+            return;
+        }
+        putByte('"');
+        for (int i = 0; i < text.length(); ) {
+            if (text.charAt(i) == '"') {
+                putByte('"');
+            }
+            i += putUtf8(text, i);
+        }
+        putByte('"');
+    }
+
+    /**
+     * Read a CSV or TSV result file back by its header; records with a different number of
+     * values, such as a torn last one, are skipped.
+     *
+     * @param path      the file to read
+     * @param separator ',' for CSV or '\t' for TSV
+     * @return the results, with the fields that were not written left null
+     * @throws IOException if the file cannot be read
+     */
+    static List<IpInfo> read(Path path, char separator) throws IOException {
+        List<IpInfo> ipInfos = new ArrayList<>();
+        try (BufferedReader br = Files.newBufferedReader(path)) {
+            List<String> header = readRecord(br, separator);
+            if (header == null) {
+                return ipInfos;
+            }
+            List<String> values;
+            while ((values = readRecord(br, separator)) != null) {
+                if (values.size() != header.size()) {
+                    log.error("Skipping malformed result record in " + path + ": " + values);
+                    continue;
+                }
+                IpInfo ipInfo = new IpInfo(null, null, null, null, null, null, null, null, null);
+                for (int i = 0; i < header.size(); i++) {
+                    String value = values.get(i);
+                    if (value.isEmpty()) {
+                        continue;
+                    }
+                    String name = header.get(i);
+                    if ("parserName".equals(name)) {
+                        ipInfo.setParserName(value);
+                    } else if ("parseTimeTs".equals(name)) {
+                        ipInfo.setParseTimeTs(Long.parseLong(value));
+                    }
+                    for (IpinfoEnum field : IpinfoEnum.values()) {
+                        if (field.getPropertyName().equals(name)) {
+                            ipInfo.set(field, field == IpinfoEnum.LATITUDE || field == IpinfoEnum.LONGITUDE
+                                    ? Double.valueOf(value) : value);
+                        }
+                    }
+                }
+                ipInfos.add(ipInfo);
+            }
+        }
+        return ipInfos;
+    }
+
+    /**
+     * @return the values of the next record, unquoting CSV values that may span lines, or null at the end of the file
+     */
+    private static List<String> readRecord(BufferedReader br, char separator) throws IOException {
+        String line = br.readLine();
+        if (line == null) {
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; ; i++) {
+            if (i == line.length()) {
+                if (!quoted) {
+                    break;
+                }
+                // a quoted value goes on on the next line
+                line = br.readLine();
+                if (line == null) {
+                    break;
+                }
+                value.append('\n');
+                i = -1;
+                continue;
+            }
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    value.append(c);
+                } else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == separator) {
+                values.add(value.toString());
+                value.setLength(0);
+            } else if (c == '"' && separator == ',' && value.length() == 0) {
+                quoted = true;
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    private boolean needsQuotes(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == separator || c == '"' || c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.free.ip.writer;
+
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import lombok.extern.log4j.Log4j2;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One JSON object per line with the projected fields, the parser name and the parse time,
+ * under the same keys as the IpInfo bean. Null and non-finite values are left out.
+ */
+@Log4j2
+class JsonLinesWriter extends ChannelWriter {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    JsonLinesWriter(Path path, List<IpinfoEnum> fields, boolean append) throws IOException {
+        super(path, fields, append);
+    }
+
+    @Override
+    public void write(IpInfo ipInfo) throws IOException {
+        putByte('{');
+        boolean first = true;
+        for (IpinfoEnum field : fields) {
+            first = putMember(field.getPropertyName(), ipInfo.get(field), first);
+        }
+        first = putMember("parserName", ipInfo.getParserName(), first);
+        putMember("parseTimeTs", ipInfo.getParseTimeTs(), first);
+        putByte('}');
+        putByte('\n');
+    }
+
+    /**
+     * Read a JSON lines result file back; malformed lines, such as a torn last one, are skipped.
+     *
+     * @param path the file to read
+     * @return the results, with the fields that were not written left null
+     * @throws IOException if the file cannot be read
+     */
+    static List<IpInfo> read(Path path) throws IOException {
+        List<IpInfo> ipInfos = new ArrayList<>();
+        try (BufferedReader br = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    JSONObject json = new JSONObject(line);
+                    IpInfo ipInfo = new IpInfo(null, null, null, null, null, null, null, null, null);
+                    for (IpinfoEnum field : IpinfoEnum.values()) {
+                        if (json.has(field.getPropertyName())) {
+                            ipInfo.set(field, field == IpinfoEnum.LATITUDE || field == IpinfoEnum.LONGITUDE
+                                    ? json.getDouble(field.getPropertyName()) : json.getString(field.getPropertyName()));
+                        }
+                    }
+                    ipInfo.setParserName(json.optString("parserName", null));
+                    ipInfo.setParseTimeTs(json.has("parseTimeTs") ? json.getLong("parseTimeTs") : null);
+                    ipInfos.add(ipInfo);
+                } catch (JSONException e) {
+                    log.error("Skipping malformed result line in " + path + ": " + line);
+                }
+            }
+        }
+        return ipInfos;
+    }
+
+    /**
+     * @return whether the next member is still the first one
+     */
+    private boolean putMember(String name, Object value, boolean first) throws IOException {
+        if (value == null || (value instanceof Double && !Double.isFinite((Double) value))) {
+            return first;
+        }
+        if (!first) {
+            putByte(',');
+        }
+        putByte('"');
+        putAscii(name);
+        putByte('"');
+        putByte(':');
+        if (value instanceof String) {
+            putString((String) value);
+        } else if (value instanceof Long) {
+            putDecimal((Long) value);
+        } else {
+            putAscii(value.toString());
+        }
+        return false;
+    }
+
+    private void putString(String value) throws IOException {
+        putByte('"');
+        for (int i = 0; i < value.length(); ) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                putByte('\\');
+                putByte(c);
+            } else if (c < 0x20) {
+                putAscii("\\u00");
+                putByte(HEX[c >> 4]);
+                putByte(HEX[c & 0xf]);
+            } else {
+                i += putUtf8(value, i);
+                continue;
+            }
+            i++;
+        }
+        putByte('"');
+    }
+
+}
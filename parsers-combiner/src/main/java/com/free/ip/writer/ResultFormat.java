@@ -0,0 +1,111 @@
+package com.free.ip.writer;
+
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.InoutUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Output formats of the result file.
+ *
+ * 结果文件的输出格式。
+ */
+public enum ResultFormat {
+
+    /**
+     * One JSON object per line, the default
+     */
+    JSON,
+
+    /**
+     * Comma-separated values with a header line
+     */
+    CSV,
+
+    /**
+     * Tab-separated values with a header line
+     */
+    TSV,
+
+    /**
+     * Length-prefixed binary records, see {@link BinaryResultWriter}
+     */
+    BINARY;
+
+    /**
+     * @param name the format name, case-insensitive, e.g. "csv"
+     * @return the format
+     * @throws IllegalArgumentException if there is no such format
+     */
+    public static ResultFormat parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown output format: " + name + ", expected one of " + Arrays.toString(values()));
+        }
+    }
+
+    /**
+     * @param path   the output file
+     * @param fields the fields to write, the IP is always written; every field if empty
+     * @param append append to the file, e.g. when resuming, instead of overwriting it
+     * @return a writer for the file
+     * @throws IOException if the file cannot be opened
+     */
+    public ResultWriter open(Path path, List<IpinfoEnum> fields, boolean append) throws IOException {
+        List<IpinfoEnum> projected = fields.isEmpty() ? Arrays.asList(IpinfoEnum.values()) : fields;
+        switch (this) {
+            case CSV:
+                return new DelimitedWriter(path, projected, append, ',');
+            case TSV:
+                return new DelimitedWriter(path, projected, append, '\t');
+            case BINARY:
+                return new BinaryResultWriter(path, projected, append);
+            default:
+                return new JsonLinesWriter(path, projected, append);
+        }
+    }
+
+    /**
+     * Read a result file written in this format back, e.g. to merge the outputs of several shards.
+     *
+     * @param path the file to read
+     * @return the results, with the fields that were not written left null
+     * @throws IOException if the file cannot be read
+     */
+    public List<IpInfo> read(Path path) throws IOException {
+        switch (this) {
+            case CSV:
+                return DelimitedWriter.read(path, ',');
+            case TSV:
+                return DelimitedWriter.read(path, '\t');
+            case BINARY:
+                return BinaryResultWriter.read(path);
+            default:
+                return JsonLinesWriter.read(path);
+        }
+    }
+
+    /**
+     * Cut off a last record left incomplete by a crash, so the file can be appended to.
+     *
+     * @param path the output file, which may not exist yet
+     * @throws IOException if the file cannot be read or truncated
+     */
+    public void repair(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        if (this == BINARY) {
+            BinaryResultWriter.truncateTorn(path);
+        } else {
+            InoutUtil.truncateTornLine(path);
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.free.ip.writer;
+
+import com.free.ip.pojo.IpInfo;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes lookup results to an output file in one of the {@link ResultFormat}s, keeping only
+ * the fields it was opened with. Not thread-safe.
+ */
+public interface ResultWriter extends Closeable {
+
+    /**
+     * @param ipInfo the result to append
+     * @throws IOException if the output cannot be written
+     */
+    void write(IpInfo ipInfo) throws IOException;
+
+    /**
+     * Hand everything written so far to the file system.
+     *
+     * @throws IOException if the output cannot be written
+     */
+    void flush() throws IOException;
+
+}
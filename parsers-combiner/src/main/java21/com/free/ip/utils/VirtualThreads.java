@@ -0,0 +1,27 @@
+package com.free.ip.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors for blocking lookups, Java 21 version: a virtual thread per task. A blocked
+ * virtual thread unmounts from its carrier, so waiting on a provider or a rate limiter
+ * costs a few hundred bytes of heap rather than a platform thread.
+ *
+ * 阻塞查询使用的线程池，Java 21版本：每个任务一个虚拟线程。
+ */
+public class VirtualThreads {
+
+    public static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * @param name            prefix of the thread names
+     * @param platformThreads ignored, virtual threads are not pooled
+     */
+    public static ExecutorService newExecutor(String name, int platformThreads) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 1).factory());
+    }
+
+}
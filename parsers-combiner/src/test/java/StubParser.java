@@ -0,0 +1,173 @@
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.HttpUtil;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Offline parser answering after a fixed latency, optionally failing every lookup and
+ * optionally accepting batches of IPs in one request.
+ */
+public class StubParser implements IpParser {
+
+    private static final ScheduledExecutorService TIMER = Executors.newScheduledThreadPool(2, r -> {
+        Thread thread = new Thread(r, "stub-parser-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String name;
+
+    private final long latencyMillis;
+
+    private final boolean failing;
+
+    private final int maxBatchSize;
+
+    final AtomicInteger batches = new AtomicInteger();
+
+    final AtomicInteger requests = new AtomicInteger();
+
+    final AtomicInteger inFlight = new AtomicInteger();
+
+    final AtomicInteger maxInFlight = new AtomicInteger();
+
+    final AtomicInteger cancelled = new AtomicInteger();
+
+    public StubParser(String name, long latencyMillis, boolean failing) {
+        this(name, latencyMillis, failing, 1);
+    }
+
+    public StubParser(String name, long latencyMillis, boolean failing, int maxBatchSize) {
+        this.name = name;
+        this.latencyMillis = latencyMillis;
+        this.failing = failing;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    @Override
+    public Set<IpinfoEnum> getSupportedFields() {
+        return new HashSet<>(Arrays.asList(IpinfoEnum.values()));
+    }
+
+    @Override
+    public JSONObject fetchIpData(String ip) {
+        requests.incrementAndGet();
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        try {
+            TimeUnit.MILLISECONDS.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        return failing ? null : fixture(ip);
+    }
+
+    @Override
+    public IpInfo parseIpData(JSONObject json) {
+        return new IpInfo(
+                json.optString("ip"),
+                json.optString("country"),
+                json.optString("country_code"),
+                json.optString("region"),
+                json.optString("region_code"),
+                json.optString("city"),
+                json.optString("isp"),
+                json.optDouble("latitude"),
+                json.optDouble("longitude")
+        );
+    }
+
+    @Override
+    public CompletableFuture<IpInfo> getIpInfoAsync(String ip) {
+        requests.incrementAndGet();
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        CompletableFuture<IpInfo> future = new CompletableFuture<>();
+        future.whenComplete((info, e) -> {
+            if (future.isCancelled()) {
+                cancelled.incrementAndGet();
+            }
+        });
+        TIMER.schedule(() -> {
+            inFlight.decrementAndGet();
+            if (failing) {
+                future.complete(null);
+            } else {
+                IpInfo info = parseIpData(fixture(ip));
+                info.setParserName(name);
+                info.setParseTimeTs(System.currentTimeMillis());
+                future.complete(info);
+            }
+        }, latencyFor(ip), TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    /**
+     * @return how long the lookup of the IP takes, the fixed latency unless overridden
+     */
+    protected long latencyFor(String ip) {
+        return latencyMillis;
+    }
+
+    @Override
+    public CompletableFuture<List<IpInfo>> getIpInfosAsync(List<String> ips) {
+        if (ips.size() == 1) {
+            CompletableFuture<IpInfo> lookup = getIpInfoAsync(ips.get(0));
+            return HttpUtil.forwardCancel(lookup.thenApply(Collections::singletonList), lookup);
+        }
+        assertTrue(ips.size() <= maxBatchSize);
+        batches.incrementAndGet();
+        List<CompletableFuture<IpInfo>> lookups = new ArrayList<>();
+        for (String ip : ips) {
+            lookups.add(getIpInfoAsync(ip));
+        }
+        return CompletableFuture.allOf(lookups.toArray(new CompletableFuture[0]))
+                .thenApply(v -> lookups.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    static JSONObject fixture(String ip) {
+        return new JSONObject()
+                .put("ip", ip)
+                .put("country", "China")
+                .put("country_code", "CN")
+                .put("region", "Guangdong")
+                .put("region_code", "GD")
+                .put("city", "Shenzhen")
+                .put("isp", "Chinanet")
+                .put("latitude", 22.5431)
+                .put("longitude", 114.0579);
+    }
+
+}
@@ -0,0 +1,120 @@
+import com.free.ip.cache.IpInfoCache;
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.utils.AsyncExecutor;
+import com.free.ip.utils.ExecutorUtil;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Log4j2
+public class TestAsyncExecutor {
+
+    private static List<String> ips(int count) {
+        List<String> ipList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ipList.add("10.0." + (i / 256) + "." + (i % 256));
+        }
+        return ipList;
+    }
+
+    @Test
+    public void testManyInFlightPerParser() {
+        StubParser a = new StubParser("a", 100, false);
+        StubParser b = new StubParser("b", 100, false);
+        List<IpParser> parsers = Arrays.asList(a, b);
+
+        long start = System.currentTimeMillis();
+        List<IpInfo> ipInfos = ExecutorUtil.runParsersAsync(ips(200), parsers, 20);
+        long elapsed = System.currentTimeMillis() - start;
+        log.info("200 lookups at 100ms latency took " + elapsed + "ms");
+
+        assertEquals(200, ipInfos.size());
+        assertEquals(20, a.maxInFlight.get());
+        assertEquals(20, b.maxInFlight.get());
+        // 200 lookups over 2 x 20 slots is 5 rounds of 100ms, far below 200 x 100ms / 2 sequentially
+        assertTrue(elapsed < 3000, "took " + elapsed + "ms");
+    }
+
+    @Test
+    public void testBatches() {
+        StubParser batching = new StubParser("batching", 20, false, 100);
+
+        List<IpInfo> ipInfos = ExecutorUtil.runParsersAsync(ips(250), Arrays.asList(batching), 1);
+
+        assertEquals(250, ipInfos.size());
+        assertEquals(250, batching.requests.get());
+        // every IP is queued before the first request, so all but the last batch are full
+        assertTrue(batching.batches.get() <= 3, "batches: " + batching.batches.get());
+    }
+
+    @Test
+    public void testCacheConsultedOutsideLock() throws Exception {
+        CountDownLatch consulting = new CountDownLatch(1);
+        CountDownLatch submitted = new CountDownLatch(1);
+        AtomicBoolean first = new AtomicBoolean(true);
+        AtomicBoolean submittedMeanwhile = new AtomicBoolean();
+        // a slow tier, e.g. a remote cache: the first lookup stays in it until the second is submitted
+        IpInfoCache cache = new IpInfoCache() {
+            @Override
+            public IpInfo get(String ip) {
+                if (first.getAndSet(false)) {
+                    consulting.countDown();
+                    try {
+                        submittedMeanwhile.set(submitted.await(5, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public void put(String ip, IpInfo ipInfo) {
+            }
+        };
+
+        try (AsyncExecutor executor = new AsyncExecutor(Collections.<IpParser>singletonList(new StubParser("cached", 1, false)), 2, cache)) {
+            CompletableFuture<CompletableFuture<IpInfo>> slow = CompletableFuture.supplyAsync(() -> executor.submit("10.0.9.1"));
+            assertTrue(consulting.await(5, TimeUnit.SECONDS));
+            CompletableFuture<IpInfo> fast = executor.submit("10.0.9.2");
+            submitted.countDown();
+
+            assertEquals("10.0.9.2", fast.get(5, TimeUnit.SECONDS).getIp());
+            assertEquals("10.0.9.1", slow.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS).getIp());
+            assertTrue(submittedMeanwhile.get());
+        }
+    }
+
+    @Test
+    public void testFailingParserIsDiscarded() {
+        StubParser good = new StubParser("good", 10, false);
+        StubParser bad = new StubParser("bad", 10, true);
+
+        List<IpInfo> ipInfos = ExecutorUtil.runParsersAsync(ips(50), Arrays.asList(good, bad), 1);
+
+        assertEquals(50, ipInfos.size());
+        assertTrue(ipInfos.stream().allMatch(info -> "good".equals(info.getParserName())));
+        assertEquals(ExecutorUtil.EACH_PARSER_ATTEMPTS, bad.requests.get());
+    }
+
+    @Test
+    public void testAllParsersFailing() {
+        StubParser bad = new StubParser("bad", 10, true);
+
+        List<IpInfo> ipInfos = ExecutorUtil.runParsersAsync(ips(10), Arrays.asList(bad), 4);
+
+        assertTrue(ipInfos.isEmpty());
+    }
+
+}
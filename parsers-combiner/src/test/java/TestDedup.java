@@ -0,0 +1,63 @@
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.utils.InoutUtil;
+import com.free.ip.utils.IpSet;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestDedup {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testIpSet() {
+        IpSet set = new IpSet();
+        assertTrue(set.add("10.0.0.1"));
+        assertFalse(set.add(" 10.0.0.1 "));
+        assertTrue(set.add("10.0.0.2"));
+        assertTrue(set.add("255.255.255.255"));
+        assertTrue(set.add("0.0.0.0"));
+        assertTrue(set.add("2001:db8::1"));
+        assertFalse(set.add("2001:0db8:0000::0001"));
+        assertTrue(set.add("not-an-ip"));
+        assertFalse(set.add("not-an-ip"));
+        assertEquals(6, set.size());
+        assertTrue(set.contains("255.255.255.255"));
+        assertFalse(set.contains("10.0.0.3"));
+        assertTrue(set.contains("2001:db8:0::1"));
+    }
+
+    @Test
+    public void testReadUniqueAndFanOut() throws Exception {
+        Path input = tempDir.resolve("ips.txt");
+        Path output = tempDir.resolve("ipinfos.txt");
+        Files.write(input, Arrays.asList("1.1.1.1", "", "2.2.2.2", "1.1.1.1", "  ", "2001:db8::1", "2.2.2.2", "2001:DB8::0:1", "3.3.3.3"));
+
+        List<String> ipList = InoutUtil.readUniqueIpFile(input.toString());
+        assertEquals(Arrays.asList("1.1.1.1", "2.2.2.2", "2001:db8::1", "3.3.3.3"), ipList);
+
+        // 3.3.3.3 failed to parse and has no result
+        List<IpInfo> ipInfos = Arrays.asList(
+                new IpInfo("2001:db8::1", "Japan", null, null, null, null, null, null, null),
+                new IpInfo("1.1.1.1", "Australia", null, null, null, null, null, null, null),
+                new IpInfo("2.2.2.2", "France", null, null, null, null, null, null, null)
+        );
+        assertTrue(InoutUtil.writeResultFile(output.toString(), input.toString(), ipInfos));
+
+        List<String> lines = Files.readAllLines(output);
+        assertEquals(6, lines.size());
+        String[] countries = {"Australia", "France", "Australia", "Japan", "France", "Japan"};
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(countries[i], new JSONObject(lines.get(i)).getString("country"));
+        }
+    }
+
+}
@@ -1,11 +1,22 @@
 import com.free.ip.parser.IpParser;
 import com.free.ip.parser.ParserFactory;
+import com.free.ip.parser.ParserRegistry;
+import com.free.ip.pojo.IpInfo;
 import com.free.ip.pojo.IpinfoEnum;
 import lombok.extern.log4j.Log4j2;
+import org.json.JSONObject;
 import org.junit.jupiter.api.Test;
+import org.reflections.Reflections;
 
+import java.lang.reflect.Modifier;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 @Log4j2
 public class TestFactory {
@@ -30,4 +41,49 @@ public class TestFactory {
         log.info("conditionalParsers1 size : " + conditionalParsers1.size());
     }
 
+    @Test
+    public void testServiceFileListsEveryParser() {
+        Set<String> implementations = new Reflections("com.free.ip.parser.impl").getSubTypesOf(IpParser.class).stream()
+                .filter(c -> !Modifier.isAbstract(c.getModifiers()))
+                .map(Class::getName)
+                .collect(Collectors.toCollection(TreeSet::new));
+        assertFalse(implementations.isEmpty());
+        assertTrue(ParserRegistry.getParserNames().containsAll(implementations), ParserRegistry.getParserNames().toString());
+    }
+
+    @Test
+    public void testSharedInstances() {
+        List<IpParser> first = ParserFactory.getAllParsers();
+        List<IpParser> second = ParserFactory.getAllParsers();
+        assertEquals(first.size(), second.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertSame(first.get(i), second.get(i));
+        }
+
+        IpParser external = new IpParser() {
+            @Override
+            public Set<IpinfoEnum> getSupportedFields() {
+                return Collections.singleton(IpinfoEnum.IP);
+            }
+
+            @Override
+            public JSONObject fetchIpData(String ip) {
+                return new JSONObject().put("ip", ip);
+            }
+
+            @Override
+            public IpInfo parseIpData(JSONObject json) {
+                return new IpInfo(json.getString("ip"), null, null, null, null, null, null, null, null);
+            }
+        };
+        ParserRegistry.register(external);
+        try {
+            assertTrue(ParserFactory.getConditionalParsers(Collections.singletonList(IpinfoEnum.IP)).contains(external));
+            assertEquals(0, ParserRegistry.loadJars(Collections.emptyList()));
+        } finally {
+            assertTrue(ParserRegistry.unregister(external));
+        }
+        assertFalse(ParserRegistry.getParsers().contains(external));
+    }
+
 }
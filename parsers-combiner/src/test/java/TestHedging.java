@@ -0,0 +1,124 @@
+import com.free.ip.parser.IpParser;
+import com.free.ip.parser.LookupException;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.utils.AsyncExecutor;
+import com.free.ip.utils.ExecutorUtil;
+import com.free.ip.utils.ParserHealth;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestHedging {
+
+    private static List<String> ips(int count) {
+        List<String> ipList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ipList.add("10.5." + (i / 256) + "." + (i % 256));
+        }
+        return ipList;
+    }
+
+    /**
+     * Answers in 5ms, but once it has some history one IP in 25 stalls for 3 seconds, like a
+     * provider hitting its read timeout. Parsers with different offsets never stall on the
+     * same IP, so a hedge always answers quickly.
+     */
+    private static StubParser stalling(String name, int offset, AtomicInteger stalls) {
+        return new StubParser(name, 5, false) {
+            @Override
+            protected long latencyFor(String ip) {
+                if (requests.get() > 50 && Math.floorMod(ip.hashCode(), 25) == offset) {
+                    stalls.incrementAndGet();
+                    return 3000;
+                }
+                return 5;
+            }
+        };
+    }
+
+    @AfterEach
+    public void disableHedging() {
+        AsyncExecutor.configureHedging(0, AsyncExecutor.DEFAULT_HEDGE_BUDGET);
+    }
+
+    @Test
+    public void testHedgingCutsTail() {
+        AsyncExecutor.configureHedging(0.9, 0.2);
+        AtomicInteger stalls = new AtomicInteger();
+        StubParser a = stalling("a", 0, stalls);
+        StubParser b = stalling("b", 1, stalls);
+
+        List<IpInfo> ipInfos = ExecutorUtil.runParsersAsync(ips(300), Arrays.<IpParser>asList(a, b), 4);
+
+        assertEquals(300, ipInfos.size());
+        // every stalled request was hedged, lost to its hedge and was cancelled
+        int hedges = a.requests.get() + b.requests.get() - 300;
+        int cancelled = a.cancelled.get() + b.cancelled.get();
+        assertTrue(stalls.get() > 0);
+        assertTrue(cancelled >= stalls.get(), "stalls: " + stalls + ", cancelled: " + cancelled);
+        assertTrue(hedges >= cancelled, "hedges: " + hedges + ", cancelled: " + cancelled);
+    }
+
+    @Test
+    public void testCancelledProbeRearmsCircuit() {
+        AsyncExecutor.configureHedging(0.9, 0.5);
+        ParserHealth.configure(10, 10);
+        try {
+            AtomicInteger calls = new AtomicInteger();
+            int firstFailure = 41;
+            int probe = firstFailure + ExecutorUtil.EACH_PARSER_ATTEMPTS;
+            // builds a latency history, trips its circuit, stalls on the probe so it loses to a hedge, then recovers
+            StubParser flaky = new StubParser("flaky", 5, false) {
+                @Override
+                public CompletableFuture<IpInfo> getIpInfoAsync(String ip) {
+                    int call = calls.incrementAndGet();
+                    if (call >= firstFailure && call < probe) {
+                        requests.incrementAndGet();
+                        CompletableFuture<IpInfo> future = new CompletableFuture<>();
+                        future.completeExceptionally(LookupException.providerError("HTTP 500"));
+                        return future;
+                    }
+                    return super.getIpInfoAsync(ip);
+                }
+
+                @Override
+                protected long latencyFor(String ip) {
+                    return calls.get() == probe ? 3000 : 5;
+                }
+            };
+            StubParser steady = new StubParser("steady", 5, false);
+
+            List<IpInfo> ipInfos = ExecutorUtil.runParsersAsync(ips(300), Arrays.<IpParser>asList(flaky, steady), 1);
+
+            assertEquals(300, ipInfos.size());
+            assertTrue(flaky.cancelled.get() > 0);
+            // probed again after the cancelled probe, and back in rotation
+            long answered = ipInfos.stream().filter(info -> flaky.getName().equals(info.getParserName())).count();
+            assertTrue(answered >= firstFailure, "answered by flaky: " + answered);
+        } finally {
+            ParserHealth.configure(ParserHealth.DEFAULT_OPEN_MILLIS, ParserHealth.DEFAULT_MAX_OPEN_MILLIS);
+        }
+    }
+
+    @Test
+    public void testHedgeBudget() {
+        AsyncExecutor.configureHedging(0.5, 0.05);
+        StubParser a = new StubParser("a", 20, false);
+        StubParser b = new StubParser("b", 20, false);
+
+        List<IpInfo> ipInfos = ExecutorUtil.runParsersAsync(ips(400), Arrays.<IpParser>asList(a, b), 4);
+
+        assertEquals(400, ipInfos.size());
+        // half the lookups are slower than the median, but only 5% extra requests may be sent
+        int requests = a.requests.get() + b.requests.get();
+        assertTrue(requests <= 400 * 1.05 + 1, "requests: " + requests);
+    }
+
+}
@@ -0,0 +1,226 @@
+import com.free.ip.parser.AbstractIpParser;
+import com.free.ip.parser.IpParser;
+import com.free.ip.parser.impl.IpSbParser;
+import com.free.ip.parser.impl.Ip_ApiParser;
+import com.free.ip.parser.impl.RealipParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.Endpoints;
+import com.free.ip.utils.HttpUtil;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.log4j.Log4j2;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Log4j2
+public class TestHttpUtil {
+
+    private HttpServer server;
+
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger gzipRequests = new AtomicInteger();
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/geoip/", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            String ip = exchange.getRequestURI().getPath().substring("/geoip/".length());
+            byte[] body = new JSONObject().put("ip", ip).put("country", "China").toString().getBytes(StandardCharsets.UTF_8);
+            String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                gzipRequests.incrementAndGet();
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+                    gzip.write(body);
+                }
+                body = bytes.toByteArray();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/batch", exchange -> {
+            JSONArray ips = new JSONArray(new JSONTokener(exchange.getRequestBody()));
+            JSONArray results = new JSONArray();
+            for (int i = 0; i < ips.length(); i++) {
+                // the second IP is one the provider cannot answer
+                results.put(i == 1 ? new JSONObject().put("status", "fail")
+                        : new JSONObject().put("status", "success").put("ip", ips.getString(i)).put("country", "China"));
+            }
+            byte[] body = results.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testConnectionReuse() throws Exception {
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort() + "/geoip/";
+        int requests = 50;
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            JSONObject json = HttpUtil.getJson(baseUrl + "10.0.0." + i);
+            assertNotNull(json);
+            assertEquals("10.0.0." + i, json.getString("ip"));
+        }
+        long elapsedMicros = (System.nanoTime() - start) / 1000;
+        log.info(requests + " requests over " + clientPorts.size() + " connection(s) in " + elapsedMicros + "us");
+
+        // sequential requests must all ride on the same pooled keep-alive connection
+        assertEquals(1, clientPorts.size());
+        assertEquals(requests, gzipRequests.get());
+    }
+
+    @Test
+    public void testBatchEndpoint() {
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        AbstractIpParser parser = new AbstractIpParser() {
+            @Override
+            public Set<IpinfoEnum> getSupportedFields() {
+                return Collections.singleton(IpinfoEnum.COUNTRY);
+            }
+
+            @Override
+            protected String buildUrl(String ip) {
+                return baseUrl + "/geoip/" + ip;
+            }
+
+            @Override
+            protected String buildBatchUrl() {
+                return baseUrl + "/batch";
+            }
+
+            @Override
+            public IpInfo parseIpData(JSONObject json) {
+                if (!"success".equals(json.optString("status"))) {
+                    return null;
+                }
+                return new IpInfo(json.optString("ip"), json.optString("country"), null, null, null, null, null, null, null);
+            }
+        };
+        List<String> ips = Arrays.asList("1.1.1.1", "2.2.2.2", "3.3.3.3");
+        List<IpInfo> ipInfos = parser.getIpInfosAsync(ips).join();
+        assertEquals(3, ipInfos.size());
+        assertEquals("1.1.1.1", ipInfos.get(0).getIp());
+        assertNull(ipInfos.get(1));
+        assertEquals("3.3.3.3", ipInfos.get(2).getIp());
+
+        List<IpInfo> blocking = parser.getIpInfos(ips);
+        assertEquals(3, blocking.size());
+        assertNull(blocking.get(1));
+        assertEquals("China", blocking.get(2).getCountry());
+    }
+
+    @Test
+    public void testProjectedExtraction() {
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        AbstractIpParser parser = new AbstractIpParser() {
+            @Override
+            public Set<IpinfoEnum> getSupportedFields() {
+                return EnumSet.of(IpinfoEnum.IP, IpinfoEnum.COUNTRY, IpinfoEnum.CITY);
+            }
+
+            @Override
+            protected String buildUrl(String ip) {
+                return baseUrl + "/geoip/" + ip;
+            }
+
+            @Override
+            protected String buildBatchUrl() {
+                return baseUrl + "/batch";
+            }
+
+            @Override
+            protected Map<IpinfoEnum, String> getJsonPaths() {
+                Map<IpinfoEnum, String> paths = new EnumMap<>(IpinfoEnum.class);
+                paths.put(IpinfoEnum.IP, "ip");
+                paths.put(IpinfoEnum.COUNTRY, "country");
+                paths.put(IpinfoEnum.CITY, "city");
+                return paths;
+            }
+
+            @Override
+            public IpInfo parseIpData(JSONObject json) {
+                throw new AssertionError("the projection must be used");
+            }
+        };
+        parser.setRequestedFields(Arrays.asList(IpinfoEnum.COUNTRY, IpinfoEnum.CITY));
+
+        // gzip-encoded single lookups, blocking and async
+        IpInfo ipInfo = parser.getIpInfo("10.0.0.1");
+        assertEquals("10.0.0.1", ipInfo.getIp());
+        assertEquals("China", ipInfo.getCountry());
+        assertEquals("", ipInfo.getCity());
+        assertNull(ipInfo.getIsp());
+        assertEquals("China", parser.getIpInfoAsync("10.0.0.2").join().getCountry());
+
+        List<IpInfo> ipInfos = parser.getIpInfosAsync(Arrays.asList("1.1.1.1", "2.2.2.2", "3.3.3.3")).join();
+        assertEquals("3.3.3.3", ipInfos.get(2).getIp());
+        assertEquals("China", ipInfos.get(0).getCountry());
+    }
+
+    @Test
+    public void testEndpointOverride() {
+        String baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+        IpSbParser parser = new IpSbParser();
+        assertEquals("http://localhost:8080/sb/geoip/1.1.1.1", resolveWith(parser, "http://localhost:8080/sb/", IpSbParser.API_URL + "1.1.1.1"));
+        assertEquals("http://localhost:8080/json/1.1.1.1?lang=en", resolveWith(new Ip_ApiParser(), "http://localhost:8080", "http://ip-api.com/json/1.1.1.1?lang=en"));
+        assertEquals("http://localhost:8080/?ip=1.1.1.1", resolveWith(new RealipParser(), "http://localhost:8080", "https://realip.cc?ip=1.1.1.1"));
+
+        // the real provider is never contacted
+        Endpoints.override("IpSbParser", baseUrl);
+        try {
+            assertEquals("China", parser.getIpInfo("10.0.0.3").getCountry());
+            assertEquals("10.0.0.4", parser.getIpInfoAsync("10.0.0.4").join().getIp());
+            assertEquals(IpSbParser.API_URL + "1.1.1.1", Endpoints.resolve(new RealipParser(), IpSbParser.API_URL + "1.1.1.1"));
+        } finally {
+            Endpoints.override("IpSbParser", null);
+        }
+        assertEquals(IpSbParser.API_URL + "1.1.1.1", Endpoints.resolve(parser, IpSbParser.API_URL + "1.1.1.1"));
+    }
+
+    private static String resolveWith(IpParser parser, String baseUrl, String url) {
+        String name = parser.getClass().getSimpleName();
+        Endpoints.override(name, baseUrl);
+        try {
+            return Endpoints.resolve(parser, url);
+        } finally {
+            Endpoints.override(name, null);
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+import com.free.ip.cache.PersistentIpCache;
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.ExecutorUtil;
+import com.free.ip.utils.IpUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestIpCache {
+
+    @TempDir
+    Path tempDir;
+
+    private static IpInfo info(String ip, long parseTimeTs) {
+        IpInfo ipInfo = new IpInfo(ip, "China", "CN", "Guangdong", null, "Shenzhen", "Chinanet", 22.5431, null);
+        ipInfo.setParserName("IpSbParser");
+        ipInfo.setParseTimeTs(parseTimeTs);
+        return ipInfo;
+    }
+
+    @Test
+    public void testIpConversions() {
+        assertEquals(0x7F000001, IpUtil.ipv4ToInt("127.0.0.1"));
+        assertEquals("255.255.255.255", IpUtil.intToIpv4(IpUtil.ipv4ToInt("255.255.255.255")));
+        assertFalse(IpUtil.isIpv4("256.1.1.1"));
+        assertFalse(IpUtil.isIpv4("1.2.3"));
+        assertFalse(IpUtil.isIpv4("1.2.3.4.5"));
+        assertFalse(IpUtil.isIpv4(""));
+
+        assertArrayEquals(new long[]{0x20010db800000000L, 1L}, IpUtil.ipv6ToLongs("2001:db8::1"));
+        assertArrayEquals(new long[]{0, 0xFFFF7F000001L}, IpUtil.ipv6ToLongs("::ffff:127.0.0.1"));
+        assertArrayEquals(new long[]{0, 0}, IpUtil.ipv6ToLongs("::"));
+        assertArrayEquals(IpUtil.ipv6ToLongs("2001:0DB8:0:0:0:0:0:1"), IpUtil.ipv6ToLongs("2001:db8::1"));
+        assertNull(IpUtil.ipv6ToLongs("2001:db8::1::2"));
+        assertNull(IpUtil.ipv6ToLongs("1:2:3:4:5:6:7"));
+        assertNull(IpUtil.ipv6ToLongs("12345::"));
+        assertNull(IpUtil.ipv6ToLongs("127.0.0.1"));
+        assertEquals("2001:db8::1", IpUtil.longsToIpv6(0x20010db800000000L, 1L));
+        assertEquals("::", IpUtil.longsToIpv6(0, 0));
+        assertEquals("1:0:2::", IpUtil.longsToIpv6(0x0001000000020000L, 0));
+    }
+
+    @Test
+    public void testPersistAndReload() throws Exception {
+        Path file = tempDir.resolve("ip.cache");
+        long now = System.currentTimeMillis();
+        try (PersistentIpCache cache = new PersistentIpCache(file, TimeUnit.DAYS.toMillis(1))) {
+            cache.put("113.116.246.117", info("113.116.246.117", now));
+            cache.put("2001:db8::1", info("2001:db8::1", now));
+            cache.put("10.0.0.1", info("10.0.0.1", now - TimeUnit.DAYS.toMillis(2)));
+            assertEquals("Shenzhen", cache.get("113.116.246.117").getCity());
+            assertNull(cache.get("10.0.0.1"));
+        }
+        try (PersistentIpCache cache = new PersistentIpCache(file, TimeUnit.DAYS.toMillis(1))) {
+            IpInfo ipv4 = cache.get("113.116.246.117");
+            assertEquals(info("113.116.246.117", now), ipv4);
+            assertNull(ipv4.getRegionCode());
+            assertNull(ipv4.getLongitude());
+            // the same address in another textual form hits the same entry
+            assertEquals("2001:db8::1", cache.get("2001:0db8:0:0::0001").getIp());
+            assertNull(cache.get("10.0.0.1"));
+            assertNull(cache.get("8.8.8.8"));
+        }
+    }
+
+    @Test
+    public void testProjectedRecordMissesOtherFields() throws Exception {
+        Path file = tempDir.resolve("ip.cache");
+        // a run asking for the city only gets results without the other fields
+        IpInfo projected = new IpInfo("1.1.1.1", null, null, null, null, "Shenzhen", null, null, null);
+        try (PersistentIpCache cache = new PersistentIpCache(file, 0, Arrays.asList(IpinfoEnum.IP, IpinfoEnum.CITY))) {
+            cache.put("1.1.1.1", projected);
+            assertEquals(projected, cache.get("1.1.1.1"));
+        }
+        try (PersistentIpCache cache = new PersistentIpCache(file, 0, Arrays.asList(IpinfoEnum.CITY, IpinfoEnum.COUNTRY))) {
+            assertNull(cache.get("1.1.1.1"));
+        }
+        try (PersistentIpCache cache = new PersistentIpCache(file, 0, Collections.singletonList(IpinfoEnum.CITY))) {
+            assertEquals("Shenzhen", cache.get("1.1.1.1").getCity());
+        }
+    }
+
+    @Test
+    public void testTornRecordIsTruncated() throws Exception {
+        Path file = tempDir.resolve("ip.cache");
+        long now = System.currentTimeMillis();
+        try (PersistentIpCache cache = new PersistentIpCache(file, 0)) {
+            cache.put("1.1.1.1", info("1.1.1.1", now));
+            cache.put("2.2.2.2", info("2.2.2.2", now));
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        try (PersistentIpCache cache = new PersistentIpCache(file, 0)) {
+            assertNotNull(cache.get("1.1.1.1"));
+            assertNull(cache.get("2.2.2.2"));
+            cache.put("2.2.2.2", info("2.2.2.2", now));
+        }
+        try (PersistentIpCache cache = new PersistentIpCache(file, 0)) {
+            assertNotNull(cache.get("2.2.2.2"));
+        }
+    }
+
+    @Test
+    public void testOpenCompactsDeadRecords() throws Exception {
+        Path file = tempDir.resolve("ip.cache");
+        long now = System.currentTimeMillis();
+        long liveSize;
+        try (PersistentIpCache cache = new PersistentIpCache(file, TimeUnit.DAYS.toMillis(1))) {
+            cache.put("1.1.1.1", info("1.1.1.1", now));
+            cache.put("2001:db8::1", info("2001:db8::1", now));
+            liveSize = Files.size(file);
+            // superseded and expired records make up half of the file
+            cache.put("3.3.3.3", info("3.3.3.3", now - TimeUnit.DAYS.toMillis(2)));
+            IpInfo moved = info("1.1.1.1", now);
+            moved.setCity("Dongguan");
+            cache.put("1.1.1.1", moved);
+        }
+        try (PersistentIpCache cache = new PersistentIpCache(file, TimeUnit.DAYS.toMillis(1))) {
+            assertEquals(liveSize, Files.size(file));
+            assertEquals("Dongguan", cache.get("1.1.1.1").getCity());
+            assertEquals("2001:db8::1", cache.get("2001:db8::1").getIp());
+            assertNull(cache.get("3.3.3.3"));
+            // appends go after the compacted records
+            cache.put("4.4.4.4", info("4.4.4.4", now));
+        }
+        try (PersistentIpCache cache = new PersistentIpCache(file, TimeUnit.DAYS.toMillis(1))) {
+            assertEquals("Dongguan", cache.get("1.1.1.1").getCity());
+            assertEquals("Shenzhen", cache.get("4.4.4.4").getCity());
+        }
+        assertFalse(Files.exists(tempDir.resolve("ip.cache.compact")));
+    }
+
+    @Test
+    public void testFileInUseIsRefused() throws Exception {
+        Path file = tempDir.resolve("ip.cache");
+        try (PersistentIpCache cache = new PersistentIpCache(file, 0)) {
+            cache.put("1.1.1.1", info("1.1.1.1", System.currentTimeMillis()));
+            assertThrows(IOException.class, () -> new PersistentIpCache(file, 0));
+            assertNotNull(cache.get("1.1.1.1"));
+        }
+        try (PersistentIpCache cache = new PersistentIpCache(file, 0)) {
+            assertNotNull(cache.get("1.1.1.1"));
+        }
+    }
+
+    @Test
+    public void testWarmRunSkipsParsers() throws Exception {
+        Path file = tempDir.resolve("ip.cache");
+        List<String> ipList = Arrays.asList("1.1.1.1", "2.2.2.2", "2001:db8::1");
+
+        StubParser cold = new StubParser("cold", 1, false);
+        try (PersistentIpCache cache = new PersistentIpCache(file, 0)) {
+            assertEquals(3, ExecutorUtil.runParsersAsync(ipList, Collections.<IpParser>singletonList(cold), 4, cache).size());
+        }
+        assertEquals(3, cold.requests.get());
+
+        StubParser warm = new StubParser("warm", 1, false);
+        try (PersistentIpCache cache = new PersistentIpCache(file, 0)) {
+            List<IpInfo> ipInfos = ExecutorUtil.runParsers(ipList, Collections.<IpParser>singletonList(warm), 0, cache);
+            assertEquals(3, ipInfos.size());
+            assertTrue(ipInfos.stream().allMatch(info -> "cold".equals(info.getParserName())));
+        }
+        assertEquals(0, warm.requests.get());
+    }
+
+}
@@ -0,0 +1,56 @@
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.IpInfoStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestIpInfoStore {
+
+    private static IpInfo result(int i) {
+        IpInfo ipInfo = new IpInfo("10.1." + (i / 256) + "." + (i % 256), "China", "CN", "Guangdong", null,
+                i % 2 == 0 ? "Shenzhen" : "Guangzhou", "Chinanet", 22.5 + i, 114.0 - i);
+        ipInfo.setParserName("IpSbParser");
+        ipInfo.setParseTimeTs(1700000000000L + i);
+        return ipInfo;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        IpInfoStore store = new IpInfoStore();
+        List<IpInfo> expected = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            expected.add(result(i));
+        }
+        // values the columns must tell apart: no IPv4, not canonical, NaN versus null, no timestamp
+        IpInfo ipv6 = new IpInfo("2001:db8::1", "", null, null, null, null, null, Double.NaN, null);
+        IpInfo leadingZero = new IpInfo("010.0.0.1", null, null, null, null, null, null, null, Double.NaN);
+        expected.add(ipv6);
+        expected.add(leadingZero);
+        expected.forEach(store::add);
+
+        assertEquals(expected.size(), store.size());
+        assertEquals(expected, store);
+        assertEquals("2001:db8::1", store.getIp(5000));
+        assertNull(store.get(5000).getLongitude());
+        assertTrue(store.get(5000).getLatitude().isNaN());
+        assertNull(store.get(5001).getLatitude());
+        assertEquals(22.5, store.getLatitude(0));
+        // repeated strings are stored once per column
+        assertEquals(2, store.distinctValues(IpinfoEnum.CITY));
+        assertEquals(2, store.distinctValues(IpinfoEnum.COUNTRY));
+    }
+
+    @Test
+    public void testViewIsCopy() {
+        IpInfoStore store = new IpInfoStore();
+        store.add(result(0));
+        store.get(0).setCity("Beijing");
+        assertEquals("Shenzhen", store.get(0).getCity());
+        assertThrows(IndexOutOfBoundsException.class, () -> store.get(1));
+    }
+
+}
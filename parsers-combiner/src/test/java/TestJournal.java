@@ -0,0 +1,88 @@
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.utils.ExecutorUtil;
+import com.free.ip.utils.Journal;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestJournal {
+
+    @TempDir
+    Path tempDir;
+
+    private static List<String> ips(int from, int to) {
+        List<String> ipList = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            ipList.add("10.3." + (i / 256) + "." + (i % 256));
+        }
+        return ipList;
+    }
+
+    @Test
+    public void testResumeBatch() throws Exception {
+        Path journalPath = tempDir.resolve("journal.txt");
+        StubParser first = new StubParser("first", 1, false);
+        try (Journal journal = new Journal(journalPath, false, true, true)) {
+            List<IpInfo> ipInfos = ExecutorUtil.runParsersAsync(ips(0, 100), Collections.<IpParser>singletonList(first), 8, null, journal);
+            assertEquals(100, ipInfos.size());
+        }
+        // a crash may leave a torn record behind
+        Files.write(journalPath, "S\t10.3.9.9\t{\"ip\":".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        StubParser second = new StubParser("second", 1, false);
+        List<IpInfo> ipInfos;
+        try (Journal journal = new Journal(journalPath, true, true, true)) {
+            ipInfos = ExecutorUtil.runParsersAsync(ips(0, 150), Collections.<IpParser>singletonList(second), 8, null, journal);
+        }
+        assertEquals(50, second.requests.get());
+        assertEquals(150, ipInfos.size());
+        Set<String> seen = new HashSet<>();
+        for (IpInfo ipInfo : ipInfos) {
+            assertTrue(seen.add(ipInfo.getIp()));
+            assertEquals("Shenzhen", ipInfo.getCity());
+        }
+        assertEquals(new HashSet<>(ips(0, 150)), seen);
+    }
+
+    @Test
+    public void testResumeStreaming() throws Exception {
+        Path input = tempDir.resolve("ips.txt");
+        Path output = tempDir.resolve("ipinfos.txt");
+        Path journalPath = tempDir.resolve("journal.txt");
+        Files.write(input, ips(0, 100));
+        try (Journal journal = new Journal(journalPath, false, false, false)) {
+            assertTrue(ExecutorUtil.runParsersStreaming(input.toString(), output.toString(),
+                    Collections.<IpParser>singletonList(new StubParser("first", 1, false)), 8, 16, null, journal, false));
+        }
+        // the input grew and the previous output ends with a torn line
+        Files.write(input, ips(0, 160));
+        Files.write(output, "{\"ip\":\"10.3".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        StubParser second = new StubParser("second", 1, false);
+        try (Journal journal = new Journal(journalPath, true, false, false)) {
+            assertTrue(ExecutorUtil.runParsersStreaming(input.toString(), output.toString(),
+                    Collections.<IpParser>singletonList(second), 8, 16, null, journal, true));
+        }
+        assertEquals(60, second.requests.get());
+        List<String> lines = Files.readAllLines(output);
+        List<String> expected = ips(0, 160);
+        assertEquals(expected.size(), lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals(expected.get(i), new JSONObject(lines.get(i)).getString("ip"));
+        }
+    }
+
+}
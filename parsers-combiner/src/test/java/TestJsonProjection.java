@@ -0,0 +1,68 @@
+import com.free.ip.utils.JsonProjection;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestJsonProjection {
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testExtract() throws IOException {
+        String json = "{\"ip\":\"1.2.3.4\", \"skipped\": {\"city\": \"nope\", \"list\": [1, {\"a\": \"]}\"}, \"\\\"\"]},"
+                + " \"location\" : {\"city\": \"S\\u00e3o Paulo \\ud83c\\udf0e\", \"latitude\": -23.5, \"zip\": null},"
+                + " \"isp\": \"A\\\\B\\/C\\n\", \"asn\": [\"not\", \"an\", \"object\"], \"missing\": null, \"flag\": true,"
+                + " \"name\": \"深圳\"}";
+        JsonProjection projection = new JsonProjection("ip", "location.city", "location.latitude", "location.zip",
+                "isp", "asn.org", "absent", "flag", "name");
+
+        String[] values = projection.extract(stream(json));
+
+        // the same values org.json reads from the tree
+        JSONObject tree = new JSONObject(json);
+        assertEquals(tree.getString("ip"), values[0]);
+        assertEquals(tree.getJSONObject("location").getString("city"), values[1]);
+        assertEquals(-23.5, Double.parseDouble(values[2]));
+        assertNull(values[3]);
+        assertEquals(tree.getString("isp"), values[4]);
+        assertNull(values[5]);
+        assertNull(values[6]);
+        assertEquals("true", values[7]);
+        assertEquals("深圳", values[8]);
+    }
+
+    @Test
+    public void testExtractEach() throws IOException {
+        JsonProjection projection = new JsonProjection("status", "query");
+
+        List<String[]> elements = projection.extractEach(stream(
+                "[{\"status\":\"success\",\"query\":\"1.1.1.1\"}, 42, {\"status\":\"fail\"}, {}]"));
+
+        assertEquals(4, elements.size());
+        assertArrayEquals(new String[]{"success", "1.1.1.1"}, elements.get(0));
+        assertNull(elements.get(1));
+        assertArrayEquals(new String[]{"fail", null}, elements.get(2));
+        assertArrayEquals(new String[]{null, null}, elements.get(3));
+        assertTrue(projection.extractEach(stream(" [ ] ")).isEmpty());
+    }
+
+    @Test
+    public void testMalformed() {
+        JsonProjection projection = new JsonProjection("ip");
+        assertThrows(IOException.class, () -> projection.extract(stream("[\"1.2.3.4\"]")));
+        assertThrows(IOException.class, () -> projection.extract(stream("{\"ip\": \"1.2.3.4\"")));
+        assertThrows(IOException.class, () -> projection.extract(stream("{\"ip\" \"1.2.3.4\"}")));
+        // the reader of the thread is usable again after a failure
+        assertDoesNotThrow(() -> projection.extract(stream("{\"ip\": \"1.2.3.4\"}")));
+    }
+
+}
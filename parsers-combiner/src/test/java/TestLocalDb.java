@@ -0,0 +1,90 @@
+import com.free.ip.cache.ParserCache;
+import com.free.ip.parser.IpParser;
+import com.free.ip.parser.ParserFactory;
+import com.free.ip.parser.impl.LocalDbParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.RangeDatabase;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestLocalDb {
+
+    @TempDir
+    Path tempDir;
+
+    private Path writeDatabase() throws Exception {
+        Path db = tempDir.resolve("ranges.csv");
+        Files.write(db, Arrays.asList(
+                "start,end,country,countryCode,region,regionCode,city,isp,latitude,longitude",
+                "# unsorted on purpose",
+                "\"16777472\",\"16778239\",\"China\",\"CN\",\"Fujian\",\"FJ\",\"Fuzhou\",\"\",\"26.0614\",\"119.3061\"",
+                "1.0.0.0,1.0.0.255,Australia,AU,Queensland,QLD,Brisbane,\"Cloudflare, Inc.\",-27.4679,153.0281",
+                "200.0.0.0,255.255.255.255,Nowhere,NW,,,,,,",
+                "2001:db8::,2001:db8::ffff:ffff,Japan,JP,Tokyo,13,Tokyo,Example IPv6,35.6895,139.6917"
+        ));
+        return db;
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        RangeDatabase database = RangeDatabase.load(writeDatabase());
+        assertEquals(4, database.size());
+
+        IpInfo brisbane = database.lookup("1.0.0.0");
+        assertEquals("Brisbane", brisbane.getCity());
+        assertEquals("Cloudflare, Inc.", brisbane.getIsp());
+        assertEquals(-27.4679, brisbane.getLatitude(), 1e-9);
+        assertEquals("Brisbane", database.lookup("1.0.0.255").getCity());
+
+        IpInfo fuzhou = database.lookup("1.0.2.17");
+        assertEquals("1.0.2.17", fuzhou.getIp());
+        assertEquals("CN", fuzhou.getCountryCode());
+        assertNull(fuzhou.getIsp());
+
+        // unsigned comparison above 128.0.0.0
+        assertEquals("Nowhere", database.lookup("255.255.255.255").getCountry());
+        assertNull(database.lookup("255.255.255.255").getCity());
+        assertNull(database.lookup("199.255.255.255"));
+        assertNull(database.lookup("0.255.255.255"));
+        assertNull(database.lookup("1.0.4.0"));
+
+        assertEquals("Japan", database.lookup("2001:db8::1:2").getCountry());
+        assertNull(database.lookup("2001:db8::1:0:0"));
+        assertNull(database.lookup("not-an-ip"));
+        assertTrue(database.getSupportedFields().containsAll(Arrays.asList(IpinfoEnum.values())));
+    }
+
+    @Test
+    public void testFactoryAndCacheTier() throws Exception {
+        assertFalse(new LocalDbParser().isAvailable());
+        System.setProperty(LocalDbParser.DB_PATH_PROPERTY, writeDatabase().toString());
+        try {
+            List<IpParser> parsers = ParserFactory.getConditionalParsers(Arrays.asList(IpinfoEnum.IP, IpinfoEnum.CITY));
+            IpParser local = parsers.stream().filter(p -> p instanceof LocalDbParser).findFirst().orElse(null);
+            assertNotNull(local);
+
+            ParserCache tier = new ParserCache(local);
+            IpInfo ipInfo = tier.get("2001:db8::42");
+            assertEquals("Tokyo", ipInfo.getCity());
+            assertEquals("LocalDbParser", ipInfo.getParserName());
+            assertNull(tier.get("8.8.8.8"));
+
+            // a range without the requested ISP is left to the remote parsers
+            ParserCache ispTier = new ParserCache(local, Arrays.asList(IpinfoEnum.IP, IpinfoEnum.CITY, IpinfoEnum.ISP));
+            assertEquals("Cloudflare, Inc.", ispTier.get("1.0.0.1").getIsp());
+            assertNull(ispTier.get("1.0.2.17"));
+            assertEquals("Fuzhou", tier.get("1.0.2.17").getCity());
+        } finally {
+            System.clearProperty(LocalDbParser.DB_PATH_PROPERTY);
+        }
+    }
+
+}
@@ -0,0 +1,346 @@
+import com.free.ip.parser.IpParser;
+import com.free.ip.parser.LookupException;
+import com.free.ip.parser.impl.IpSbParser;
+import com.free.ip.parser.impl.Ip_ApiParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.pojo.RateLimit;
+import com.free.ip.utils.Backoff;
+import com.free.ip.utils.Endpoints;
+import com.free.ip.utils.ExecutorUtil;
+import com.free.ip.utils.HttpUtil;
+import com.free.ip.utils.Journal;
+import com.free.ip.utils.ParserHealth;
+import com.free.ip.utils.RateLimiters;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestLookupFailures {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * Stub whose provider answers some IPs with a failure instead of a result.
+     */
+    private static class FailingStub extends StubParser {
+
+        private final Function<String, LookupException> failureFor;
+
+        FailingStub(String name, Function<String, LookupException> failureFor) {
+            super(name, 5, false);
+            this.failureFor = failureFor;
+        }
+
+        @Override
+        public IpInfo getIpInfo(String ip) {
+            LookupException failure = failureFor.apply(ip);
+            if (failure != null) {
+                requests.incrementAndGet();
+                throw failure;
+            }
+            return super.getIpInfo(ip);
+        }
+
+        @Override
+        public CompletableFuture<IpInfo> getIpInfoAsync(String ip) {
+            LookupException failure = failureFor.apply(ip);
+            if (failure == null) {
+                return super.getIpInfoAsync(ip);
+            }
+            requests.incrementAndGet();
+            CompletableFuture<IpInfo> future = new CompletableFuture<>();
+            future.completeExceptionally(failure);
+            return future;
+        }
+    }
+
+    private static List<String> ips(int count) {
+        List<String> ipList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ipList.add("10.5." + (i / 256) + "." + (i % 256));
+        }
+        return ipList;
+    }
+
+    @Test
+    public void testStatusClassification() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        AtomicInteger requests = new AtomicInteger();
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            String ip = exchange.getRequestURI().getPath().substring(1);
+            int code = ip.endsWith(".1") ? 429 : ip.endsWith(".2") ? 404 : 500;
+            if (code == 429) {
+                exchange.getResponseHeaders().set("Retry-After", "7");
+            }
+            byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(code, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        try {
+            LookupException rateLimited = assertThrows(LookupException.class, () -> HttpUtil.getJson(base + "10.5.9.1"));
+            assertEquals(LookupException.Reason.RATE_LIMITED, rateLimited.getReason());
+            assertEquals(7000, rateLimited.getRetryAfterMillis());
+            assertEquals(LookupException.Reason.INVALID_INPUT,
+                    assertThrows(LookupException.class, () -> HttpUtil.getJson(base + "10.5.9.2")).getReason());
+            assertEquals(LookupException.Reason.PROVIDER_ERROR,
+                    assertThrows(LookupException.class, () -> HttpUtil.getJson(base + "10.5.9.3")).getReason());
+
+            // the async variants fail the same way
+            LookupException async = LookupException.of(assertThrows(Exception.class,
+                    () -> HttpUtil.getJsonAsync(base + "10.5.9.1").join()));
+            assertEquals(LookupException.Reason.RATE_LIMITED, async.getReason());
+            assertEquals(4, requests.get());
+        } finally {
+            server.stop(0);
+        }
+        // nothing listens there any more
+        assertEquals(LookupException.Reason.TRANSPORT_ERROR,
+                LookupException.of(assertThrows(Exception.class, () -> HttpUtil.getJson(base + "10.5.9.4"))).getReason());
+    }
+
+    @Test
+    public void testMalformedIpIsNotSent() {
+        // rejected before any request to the real provider
+        IpSbParser parser = new IpSbParser();
+        assertEquals(LookupException.Reason.INVALID_INPUT,
+                assertThrows(LookupException.class, () -> parser.getIpInfo("not-an-ip")).getReason());
+        assertEquals(LookupException.Reason.INVALID_INPUT,
+                LookupException.of(assertThrows(Exception.class, () -> parser.getIpInfoAsync("10.5.300.1").join())).getReason());
+    }
+
+    @Test
+    public void testRefusalInBodyIsInvalidInput() throws Exception {
+        // ip-api answers a private or reserved IP with a 200 and a status of "fail"
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/json/", exchange -> {
+            String ip = exchange.getRequestURI().getPath().substring("/json/".length());
+            JSONObject json = ip.startsWith("10.")
+                    ? new JSONObject().put("status", "fail").put("message", "private range").put("query", ip)
+                    : new JSONObject().put("status", "success").put("country", "China").put("city", "Shenzhen").put("query", ip);
+            byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        String name = Ip_ApiParser.class.getSimpleName();
+        Endpoints.override(name, "http://127.0.0.1:" + server.getAddress().getPort());
+        RateLimiters.override(name, RateLimit.UNLIMITED);
+        try {
+            Ip_ApiParser projected = new Ip_ApiParser();
+            projected.setRequestedFields(Arrays.asList(IpinfoEnum.IP, IpinfoEnum.CITY));
+            for (Ip_ApiParser parser : new Ip_ApiParser[]{new Ip_ApiParser(), projected}) {
+                LookupException refused = assertThrows(LookupException.class, () -> parser.getIpInfo("10.0.0.1"));
+                assertEquals(LookupException.Reason.INVALID_INPUT, refused.getReason());
+                assertEquals("private range", refused.getMessage());
+
+                // the run goes on past the private IP, which is asked about once
+                List<IpInfo> ipInfos = ExecutorUtil.runParsers(Arrays.asList("1.1.1.1", "10.0.0.1", "1.1.1.2"),
+                        Collections.<IpParser>singletonList(parser), 0);
+                assertEquals(Arrays.asList("1.1.1.1", "1.1.1.2"), ipInfos.stream().map(IpInfo::getIp).collect(Collectors.toList()));
+                assertEquals("Shenzhen", ipInfos.get(0).getCity());
+            }
+        } finally {
+            Endpoints.override(name, null);
+            RateLimiters.override(name, new Ip_ApiParser().getRateLimit());
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testRateLimitPausesOnlyThatProvider() {
+        for (boolean async : new boolean[]{false, true}) {
+            String mode = async ? "async" : "sync";
+            FailingStub throttled = new FailingStub("throttled-" + mode, ip -> LookupException.rateLimited("HTTP 429", 60_000));
+            FailingStub steady = new FailingStub("steady-" + mode, ip -> null);
+            List<IpParser> parsers = Arrays.asList(throttled, steady);
+
+            List<IpInfo> ipInfos = async ? ExecutorUtil.runParsersAsync(ips(20), parsers, 1) : ExecutorUtil.runParsers(ips(20), parsers, 0);
+
+            assertEquals(20, ipInfos.size(), mode);
+            assertTrue(ipInfos.stream().allMatch(info -> steady.getName().equals(info.getParserName())), mode);
+            // paused after its first answer rather than tried until its circuit opens
+            assertEquals(1, throttled.requests.get(), mode);
+            assertTrue(RateLimiters.forParser(throttled).getPausedUntilNanos() > System.nanoTime() + TimeUnit.SECONDS.toNanos(30), mode);
+        }
+    }
+
+    @Test
+    public void testInvalidInputIsNotRetried() {
+        for (boolean async : new boolean[]{false, true}) {
+            String mode = async ? "async" : "sync";
+            FailingStub parser = new FailingStub("refusing-" + mode,
+                    ip -> ip.endsWith(".3") ? LookupException.invalidInput("HTTP 404") : null);
+            List<String> ipList = new ArrayList<>(ips(10));
+            ipList.add("not-an-ip");
+
+            List<IpInfo> ipInfos = async ? ExecutorUtil.runParsersAsync(ipList, Arrays.<IpParser>asList(parser), 1)
+                    : ExecutorUtil.runParsers(ipList, Arrays.<IpParser>asList(parser), 0);
+
+            // the run goes on past both, and the refused IP is asked about once
+            assertEquals(9, ipInfos.size(), mode);
+            assertEquals(10, parser.requests.get(), mode);
+        }
+    }
+
+    @Test
+    public void testOneByOneBatchFailsPerIp() {
+        FailingStub refusing = new FailingStub("one-by-one", ip -> ip.endsWith(".3") ? LookupException.providerError("HTTP 500") : null);
+
+        List<IpInfo> ipInfos = refusing.getIpInfos(ips(5));
+
+        // the IPs around the failed one are still answered
+        assertEquals(5, ipInfos.size());
+        assertNull(ipInfos.get(3));
+        assertEquals(4, ipInfos.stream().filter(info -> info != null).count());
+
+        // a rate limit stops the request, the provider would refuse the rest too
+        FailingStub throttled = new FailingStub("one-by-one-throttled", ip -> ip.endsWith(".3") ? LookupException.rateLimited("HTTP 429", 0) : null);
+        LookupException e = assertThrows(LookupException.class, () -> throttled.getIpInfos(ips(5)));
+        assertEquals(LookupException.Reason.RATE_LIMITED, e.getReason());
+        assertEquals(4, throttled.requests.get());
+    }
+
+    @Test
+    public void testExhaustedIpDoesNotStopRun() throws Exception {
+        // the provider keeps turning one IP away without pausing
+        FailingStub parser = new FailingStub("exhausting", ip -> ip.endsWith(".3") ? LookupException.rateLimited("HTTP 429", 0) : null);
+        Path journalPath = tempDir.resolve("journal.tsv");
+        try (Journal journal = new Journal(journalPath, false, false, true)) {
+            List<IpInfo> ipInfos = ExecutorUtil.runParsers(ips(10), Collections.<IpParser>singletonList(parser), 0, null, journal);
+
+            // the IPs behind it are still looked up
+            assertEquals(9, ipInfos.size());
+            assertEquals(ExecutorUtil.EACH_IP_RATE_LIMITS + 9, parser.requests.get());
+        }
+        List<String> records = Files.readAllLines(journalPath);
+        assertEquals(10, records.size());
+        assertTrue(records.contains("F\t10.5.0.3\tparse failed too many times"), records.toString());
+    }
+
+    @Test
+    public void testInconclusiveProbeRearmsCircuit() {
+        ParserHealth.configure(10, 10);
+        try {
+            for (LookupException.Reason reason : new LookupException.Reason[]{LookupException.Reason.RATE_LIMITED, LookupException.Reason.INVALID_INPUT}) {
+                for (boolean async : new boolean[]{false, true}) {
+                    String mode = reason + "-" + (async ? "async" : "sync");
+                    AtomicInteger calls = new AtomicInteger();
+                    // trips its circuit, answers the probe with the reason, then recovers
+                    FailingStub flaky = new FailingStub("probed-" + mode, ip -> {
+                        int call = calls.incrementAndGet();
+                        if (call <= ExecutorUtil.EACH_PARSER_ATTEMPTS) {
+                            return LookupException.providerError("HTTP 500");
+                        }
+                        if (call == ExecutorUtil.EACH_PARSER_ATTEMPTS + 1) {
+                            return reason == LookupException.Reason.RATE_LIMITED
+                                    ? LookupException.rateLimited("HTTP 429", 0) : LookupException.invalidInput("HTTP 404");
+                        }
+                        return null;
+                    });
+                    StubParser steady = new StubParser("unprobed-" + mode, 20, false);
+                    List<IpParser> parsers = Arrays.asList(flaky, steady);
+
+                    List<IpInfo> ipInfos = async ? ExecutorUtil.runParsersAsync(ips(100), parsers, 1) : ExecutorUtil.runParsers(ips(100), parsers, 0);
+
+                    // the IP refused by the probe, if any, is the only one missing
+                    assertTrue(ipInfos.size() >= 99, mode + ": " + ipInfos.size());
+                    // probed again after the inconclusive answer, and back in rotation
+                    assertTrue(ipInfos.stream().anyMatch(info -> flaky.getName().equals(info.getParserName())), mode);
+                }
+            }
+        } finally {
+            ParserHealth.configure(ParserHealth.DEFAULT_OPEN_MILLIS, ParserHealth.DEFAULT_MAX_OPEN_MILLIS);
+        }
+    }
+
+    @Test
+    public void testAllOpenWaitsForProbe() {
+        ParserHealth.configure(50, 50);
+        try {
+            for (boolean async : new boolean[]{false, true}) {
+                String mode = async ? "async" : "sync";
+                AtomicInteger calls = new AtomicInteger();
+                // the only parser trips its circuit, then recovers by the time its probe is due
+                FailingStub flaky = new FailingStub("recovering-" + mode,
+                        ip -> calls.incrementAndGet() <= ExecutorUtil.EACH_PARSER_ATTEMPTS ? LookupException.providerError("HTTP 500") : null);
+                List<IpParser> parsers = Collections.<IpParser>singletonList(flaky);
+
+                List<IpInfo> ipInfos = async ? ExecutorUtil.runParsersAsync(ips(20), parsers, 1) : ExecutorUtil.runParsers(ips(20), parsers, 0);
+
+                // the run outlived the moment every circuit was open
+                assertEquals(20, ipInfos.size(), mode);
+            }
+        } finally {
+            ParserHealth.configure(ParserHealth.DEFAULT_OPEN_MILLIS, ParserHealth.DEFAULT_MAX_OPEN_MILLIS);
+        }
+    }
+
+    @Test
+    public void testAllOpenGivesUpAfterBudget() {
+        ParserHealth.configure(50, 50);
+        ParserHealth.configureGiveUp(300);
+        // retries are not held back by their own backoff, only by the open circuit
+        Backoff.configure(1, 1);
+        try {
+            for (boolean async : new boolean[]{false, true}) {
+                String mode = async ? "async" : "sync";
+                FailingStub down = new FailingStub("down-" + mode, ip -> LookupException.providerError("HTTP 500"));
+                List<IpParser> parsers = Collections.<IpParser>singletonList(down);
+
+                List<IpInfo> ipInfos = async ? ExecutorUtil.runParsersAsync(ips(20), parsers, 1) : ExecutorUtil.runParsers(ips(20), parsers, 0);
+
+                assertTrue(ipInfos.isEmpty(), mode);
+                // probed while the budget lasted, not abandoned as soon as the circuit opened
+                assertTrue(down.requests.get() > ExecutorUtil.EACH_PARSER_ATTEMPTS + 1, mode + ": " + down.requests);
+            }
+        } finally {
+            ParserHealth.configure(ParserHealth.DEFAULT_OPEN_MILLIS, ParserHealth.DEFAULT_MAX_OPEN_MILLIS);
+            ParserHealth.configureGiveUp(ParserHealth.DEFAULT_GIVE_UP_MILLIS);
+            Backoff.configure(Backoff.DEFAULT_BASE_MILLIS, Backoff.DEFAULT_MAX_MILLIS);
+        }
+    }
+
+    @Test
+    public void testBackoffGrowsWithJitter() {
+        long base = TimeUnit.MILLISECONDS.toNanos(Backoff.DEFAULT_BASE_MILLIS);
+        long max = TimeUnit.MILLISECONDS.toNanos(Backoff.DEFAULT_MAX_MILLIS);
+        for (int failures = 1; failures <= 12; failures++) {
+            long ceiling = Math.min(max, base << (failures - 1));
+            for (int i = 0; i < 100; i++) {
+                long delay = Backoff.retryDelayNanos(failures);
+                assertTrue(delay >= ceiling / 2 && delay <= ceiling, failures + ": " + delay);
+            }
+        }
+        assertEquals(TimeUnit.SECONDS.toNanos(1), Backoff.pauseNanos(LookupException.rateLimited("HTTP 429", -1)));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(Backoff.MAX_RATE_LIMITED_MILLIS),
+                Backoff.pauseNanos(LookupException.rateLimited("HTTP 429", TimeUnit.DAYS.toMillis(1))));
+    }
+
+}
@@ -0,0 +1,127 @@
+import com.free.ip.cache.MemoryIpCache;
+import com.free.ip.cache.TieredIpCache;
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.service.LookupServer;
+import com.free.ip.service.LookupService;
+import com.free.ip.utils.HttpUtil;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestLookupService {
+
+    private static List<String> ips(int count) {
+        List<String> ipList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ipList.add("10.9." + (i / 256) + "." + (i % 256));
+        }
+        return ipList;
+    }
+
+    @Test
+    public void testConcurrentLookupsShareBatches() throws Exception {
+        StubParser parser = new StubParser("service-batch", 20, false, 10);
+        try (LookupService service = new LookupService(Collections.<IpParser>singletonList(parser), 2, null, 5000)) {
+            // callers arriving one by one within the linger time
+            List<CompletableFuture<IpInfo>> lookups = new ArrayList<>();
+            for (String ip : ips(30)) {
+                lookups.add(service.lookup(ip));
+            }
+            for (int i = 0; i < lookups.size(); i++) {
+                assertEquals(ips(30).get(i), lookups.get(i).get(5, TimeUnit.SECONDS).getIp());
+            }
+        }
+        assertEquals(3, parser.batches.get());
+        assertEquals(30, parser.requests.get());
+    }
+
+    @Test
+    public void testCacheHitsAnswerAtOnce() throws Exception {
+        StubParser parser = new StubParser("service-cache", 200, false);
+        MemoryIpCache cache = new MemoryIpCache(100, 0);
+        try (LookupService service = new LookupService(Collections.<IpParser>singletonList(parser), 2, cache, 2000)) {
+            service.lookup("10.9.1.1").get(5, TimeUnit.SECONDS);
+            long start = System.nanoTime();
+            IpInfo cached = service.lookup("10.9.1.1").get(5, TimeUnit.SECONDS);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertEquals("10.9.1.1", cached.getIp());
+            assertTrue(elapsedMillis < 50, "took " + elapsedMillis + "ms");
+        }
+        assertEquals(1, parser.requests.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testMemoryCacheEvictsLeastRecentlyUsed() {
+        MemoryIpCache cache = new MemoryIpCache(2, 0);
+        IpInfo ipInfo = new IpInfo("10.9.2.1", "China", "CN", "Guangdong", "GD", "Shenzhen", "Chinanet", 22.5431, 114.0579);
+        cache.put("10.9.2.1", ipInfo);
+        cache.put("10.9.2.2", ipInfo);
+        cache.get("10.9.2.1");
+        cache.put("10.9.2.3", ipInfo);
+        assertNotNull(cache.get("10.9.2.1"));
+        assertNull(cache.get("10.9.2.2"));
+        assertNotNull(cache.get("10.9.2.3"));
+    }
+
+    @Test
+    public void testTieredCacheFillsEarlierTiers() {
+        MemoryIpCache front = new MemoryIpCache(100, 0);
+        MemoryIpCache back = new MemoryIpCache(100, 0);
+        TieredIpCache cache = new TieredIpCache(front, back);
+        back.put("10.9.4.1", new IpInfo("10.9.4.1", "China", "CN", "Guangdong", "GD", "Shenzhen", "Chinanet", 22.5431, 114.0579));
+
+        IpInfo hit = cache.get("10.9.4.1");
+        assertEquals("Shenzhen", hit.getCity());
+        assertEquals(1, front.size());
+
+        // callers get their own copy of a cached result
+        hit.setCity("Guangzhou");
+        assertEquals("Shenzhen", front.get("10.9.4.1").getCity());
+        assertEquals("Shenzhen", cache.get("10.9.4.1").getCity());
+    }
+
+    @Test
+    public void testHttpLookups() throws Exception {
+        StubParser good = new StubParser("service-http", 5, false);
+        List<IpinfoEnum> fields = Arrays.asList(IpinfoEnum.IP, IpinfoEnum.COUNTRY_CODE, IpinfoEnum.CITY);
+        LookupService service = new LookupService(Collections.<IpParser>singletonList(good), 4, new MemoryIpCache(100, 0), 1000);
+        try (LookupServer server = new LookupServer(service, fields, 0, 8)) {
+            String base = "http://127.0.0.1:" + server.getPort() + "/lookup";
+
+            JSONObject single = HttpUtil.getJson(base + "?ip=10.9.3.1");
+            assertEquals("10.9.3.1", single.getString("ip"));
+            assertEquals("CN", single.getString("countryCode"));
+            assertEquals("service-http", single.getString("parserName"));
+            assertFalse(single.has("region"));
+
+            Request post = new Request.Builder().url(base)
+                    .post(RequestBody.create(MediaType.parse("text/plain"), "10.9.3.1\n10.9.3.2\n\n10.9.3.3\n")).build();
+            String lines;
+            try (Response response = HttpUtil.getClient().newCall(post).execute()) {
+                lines = response.body().string();
+            }
+            String[] answers = lines.split("\n");
+            assertEquals(3, answers.length);
+            for (int i = 0; i < answers.length; i++) {
+                assertEquals("10.9.3." + (i + 1), new JSONObject(answers[i]).getString("ip"));
+            }
+        }
+        assertEquals(3, good.requests.get());
+    }
+
+}
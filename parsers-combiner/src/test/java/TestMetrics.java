@@ -0,0 +1,100 @@
+import com.free.ip.metrics.LatencyHistogram;
+import com.free.ip.metrics.Metrics;
+import com.free.ip.metrics.ParserMetrics;
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.utils.ExecutorUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestMetrics {
+
+    private static List<String> ips(int count) {
+        List<String> ipList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ipList.add("10.7." + (i / 256) + "." + (i % 256));
+        }
+        return ipList;
+    }
+
+    @BeforeEach
+    public void reset() {
+        Metrics.reset();
+    }
+
+    @Test
+    public void testHistogramPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 1000; millis++) {
+            histogram.recordNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMaxMicros());
+        // within the 1/32 resolution of the buckets
+        assertEquals(500_000, histogram.percentileMicros(0.5), 500_000 / 32.0);
+        assertEquals(990_000, histogram.percentileMicros(0.99), 990_000 / 32.0);
+        assertEquals(1_000_000, histogram.percentileMicros(1.0));
+        assertEquals(0, new LatencyHistogram().percentileMicros(0.99));
+    }
+
+    @Test
+    public void testAsyncCounters() {
+        StubParser good = new StubParser("metrics-good", 2, false);
+        StubParser bad = new StubParser("metrics-bad", 2, true);
+        List<IpInfo> ipInfos = ExecutorUtil.runParsersAsync(ips(100), Arrays.<IpParser>asList(good, bad), 4);
+        assertEquals(100, ipInfos.size());
+
+        ParserMetrics goodMetrics = Metrics.forParser(good);
+        ParserMetrics badMetrics = Metrics.forParser(bad);
+        assertEquals(good.requests.get(), goodMetrics.getRequests());
+        assertEquals(100, goodMetrics.getSuccesses());
+        assertEquals(bad.requests.get(), badMetrics.getFailures());
+        assertEquals(0, goodMetrics.getInFlight() + badMetrics.getInFlight());
+        assertEquals(goodMetrics.getRequests(), goodMetrics.getLatency().getCount());
+        assertEquals(goodMetrics.getRequests(), goodMetrics.getQueueWait().getCount());
+        assertTrue(goodMetrics.getLatencyP50Millis() >= 1, goodMetrics.toString());
+        assertEquals(100, Metrics.lookups().getCompleted());
+        assertTrue(Metrics.lookups().getIpsPerSecond() > 0);
+    }
+
+    @Test
+    public void testSyncCounters() {
+        StubParser good = new StubParser("metrics-sync", 1, false);
+        ExecutorUtil.runParsers(ips(20), Collections.<IpParser>singletonList(good), 0);
+
+        ParserMetrics metrics = Metrics.forParser(good);
+        assertEquals(20, metrics.getRequests());
+        assertEquals(20, metrics.getSuccesses());
+        assertEquals(0, metrics.getInFlight());
+        assertEquals(20, Metrics.lookups().getCompleted());
+    }
+
+    @Test
+    public void testPrometheusFormat() {
+        ParserMetrics metrics = Metrics.forParser(new StubParser("metrics-\"quoted\"", 0, false));
+        metrics.requestStarted(TimeUnit.MILLISECONDS.toNanos(3));
+        metrics.requestCompleted(false, TimeUnit.MILLISECONDS.toNanos(40));
+        metrics.requestTimedOut();
+        Metrics.lookups().lookupFailed();
+
+        String text = Metrics.toPrometheus();
+        assertTrue(text.contains("# TYPE freeip_parser_requests_total counter\n"), text);
+        assertTrue(text.contains("freeip_parser_failures_total{parser=\"metrics-\\\"quoted\\\"\"} 1\n"), text);
+        assertTrue(text.contains("freeip_parser_timeouts_total{parser=\"metrics-\\\"quoted\\\"\"} 1\n"), text);
+        assertTrue(text.contains("freeip_parser_latency_seconds{parser=\"metrics-\\\"quoted\\\"\",quantile=\"0.99\"} 0.04"), text);
+        assertTrue(text.contains("freeip_parser_latency_seconds_count{parser=\"metrics-\\\"quoted\\\"\"} 1\n"), text);
+        assertTrue(text.contains("freeip_lookups_total{result=\"failed\"} 1\n"), text);
+        for (String line : text.split("\n")) {
+            assertTrue(line.startsWith("#") || line.matches("[a-z_]+(\\{.*\\})? [0-9.E-]+"), line);
+        }
+    }
+
+}
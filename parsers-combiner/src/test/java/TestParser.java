@@ -1,4 +1,5 @@
 import com.free.ip.parser.IpParser;
+import com.free.ip.parser.LookupException;
 import com.free.ip.pojo.IpInfo;
 import lombok.extern.log4j.Log4j2;
 import org.junit.jupiter.api.Test;
@@ -8,6 +9,7 @@ import org.reflections.util.ClasspathHelper;
 import org.reflections.util.ConfigurationBuilder;
 import org.reflections.util.FilterBuilder;
 
+import java.lang.reflect.Modifier;
 import java.util.Set;
 
 @Log4j2
@@ -15,9 +17,13 @@ public class TestParser {
 
     @Test
     public void testSingleParser() {
-        log.info(new com.free.ip.parser.impl.Ip_ApiParser().getIpInfo("67.189.89.89"));
-        log.info(new com.free.ip.parser.impl.Ip_ApiParser().getIpInfo("113.116.246.117"));
-        log.info(new com.free.ip.parser.impl.Ip_ApiParser().getIpInfo("122.13.25.57"));
+        for (String ip : new String[]{"67.189.89.89", "113.116.246.117", "122.13.25.57"}) {
+            try {
+                log.info(new com.free.ip.parser.impl.Ip_ApiParser().getIpInfo(ip));
+            } catch (LookupException e) {
+                log.error(e);
+            }
+        }
     }
 
     @Test
@@ -37,6 +43,9 @@ public class TestParser {
         // Test all parsers
         int successCount = 0;
         for (Class<? extends IpParser> implClass : implementations) {
+            if (Modifier.isAbstract(implClass.getModifiers())) {
+                continue;
+            }
             log.info("Testing parser: " + implClass.getName());
             try {
                 IpParser parser = implClass.getDeclaredConstructor().newInstance();
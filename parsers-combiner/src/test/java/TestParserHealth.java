@@ -0,0 +1,108 @@
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.utils.ExecutorUtil;
+import com.free.ip.utils.ParserHealth;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestParserHealth {
+
+    @AfterEach
+    public void resetBreaker() {
+        ParserHealth.configure(ParserHealth.DEFAULT_OPEN_MILLIS, ParserHealth.DEFAULT_MAX_OPEN_MILLIS);
+    }
+
+    @Test
+    public void testCircuitBreaker() {
+        ParserHealth.configure(100, 1000);
+        ParserHealth health = new ParserHealth(new StubParser("flaky", 1, false));
+        long now = System.nanoTime();
+        long open = TimeUnit.MILLISECONDS.toNanos(100);
+
+        for (int i = 1; i < ExecutorUtil.EACH_PARSER_ATTEMPTS; i++) {
+            assertFalse(health.onFailure(1_000_000, now));
+        }
+        assertTrue(health.onFailure(1_000_000, now));
+        assertEquals(ParserHealth.State.OPEN, health.getState());
+        assertFalse(health.tryAcquire(now + open - 1));
+
+        // the probe fails and the circuit stays open twice as long
+        assertTrue(health.tryAcquire(now + open));
+        assertEquals(ParserHealth.State.HALF_OPEN, health.getState());
+        assertFalse(health.tryAcquire(now + open));
+        assertTrue(health.onFailure(1_000_000, now + open));
+        assertFalse(health.isAvailable(now + open + 2 * open - 1));
+
+        // the next probe succeeds and closes it
+        assertTrue(health.tryAcquire(now + 3 * open));
+        health.onSuccess(1_000_000);
+        assertEquals(ParserHealth.State.CLOSED, health.getState());
+        assertTrue(health.isAvailable(now + 3 * open));
+    }
+
+    @Test
+    public void testWeights() {
+        ParserHealth fast = new ParserHealth(new StubParser("fast", 1, false));
+        ParserHealth slow = new ParserHealth(new StubParser("slow", 1, false));
+        ParserHealth flaky = new ParserHealth(new StubParser("flaky", 1, false));
+        for (int i = 0; i < 20; i++) {
+            fast.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+            slow.onSuccess(TimeUnit.MILLISECONDS.toNanos(200));
+            if (i % 2 == 0) {
+                flaky.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+            } else {
+                flaky.onFailure(TimeUnit.MILLISECONDS.toNanos(10), System.nanoTime());
+            }
+        }
+        assertTrue(fast.weight() > flaky.weight());
+        assertTrue(flaky.weight() > slow.weight());
+
+        List<ParserHealth> candidates = Arrays.asList(fast, slow);
+        int fastPicks = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (ParserHealth.pickWeighted(candidates, ParserHealth::weight) == fast) {
+                fastPicks++;
+            }
+        }
+        // 20 times the weight, about 95% of the picks
+        assertTrue(fastPicks > 9000, "fast picks: " + fastPicks);
+    }
+
+    @Test
+    public void testRecoveredParserGetsWorkAgain() {
+        ParserHealth.configure(50, 200);
+        AtomicInteger served = new AtomicInteger();
+        // fails its first requests, as during a short outage, then recovers
+        StubParser flaky = new StubParser("flaky", 1, false) {
+            @Override
+            public CompletableFuture<IpInfo> getIpInfoAsync(String ip) {
+                if (requests.get() < ExecutorUtil.EACH_PARSER_ATTEMPTS) {
+                    requests.incrementAndGet();
+                    return CompletableFuture.completedFuture(null);
+                }
+                served.incrementAndGet();
+                return super.getIpInfoAsync(ip);
+            }
+        };
+        StubParser steady = new StubParser("steady", 10, false);
+        List<String> ipList = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            ipList.add("10.4." + (i / 256) + "." + (i % 256));
+        }
+
+        List<IpInfo> ipInfos = ExecutorUtil.runParsersAsync(ipList, Arrays.<IpParser>asList(flaky, steady), 1);
+
+        assertEquals(300, ipInfos.size());
+        assertTrue(served.get() > 0, "the flaky parser was never brought back");
+    }
+
+}
@@ -0,0 +1,79 @@
+import com.free.ip.cache.PrefixIpCache;
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.ExecutorUtil;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestPrefixCache {
+
+    private static IpInfo info(String ip) {
+        IpInfo ipInfo = new IpInfo(ip, "China", "CN", "Guangdong", "GD", "Shenzhen", "Chinanet", 22.5431, 114.0579);
+        ipInfo.setParserName("IpSbParser");
+        return ipInfo;
+    }
+
+    @Test
+    public void testPerFieldPrefixLengths() {
+        List<IpinfoEnum> countryOnly = Arrays.asList(IpinfoEnum.IP, IpinfoEnum.COUNTRY);
+        PrefixIpCache cache = new PrefixIpCache(countryOnly);
+        cache.put("113.116.246.117", info("113.116.246.117"));
+
+        // same /24: every field is shared
+        IpInfo sibling = cache.get("113.116.246.1");
+        assertEquals("113.116.246.1", sibling.getIp());
+        assertEquals("Shenzhen", sibling.getCity());
+        assertEquals("IpSbParser", sibling.getParserName());
+
+        // same /16 only: the country is shared, the city is not
+        IpInfo cousin = cache.get("113.116.1.1");
+        assertEquals("China", cousin.getCountry());
+        assertNull(cousin.getCity());
+
+        assertNull(cache.get("113.117.1.1"));
+        assertNull(cache.get("2001:db8::1"));
+
+        // asking for the city needs a /24 neighbour
+        PrefixIpCache cityCache = new PrefixIpCache(Arrays.asList(IpinfoEnum.COUNTRY, IpinfoEnum.CITY));
+        cityCache.put("113.116.246.117", info("113.116.246.117"));
+        assertNotNull(cityCache.get("113.116.246.200"));
+        assertNull(cityCache.get("113.116.1.1"));
+    }
+
+    @Test
+    public void testIpv6AndLongestMatch() {
+        PrefixIpCache cache = new PrefixIpCache(Collections.singletonList(IpinfoEnum.CITY));
+        IpInfo beijing = info("2001:db8:1::1");
+        beijing.setCity("Beijing");
+        cache.put("2001:db8:1::1", beijing);
+        cache.put("2001:db8:2::1", info("2001:db8:2::1"));
+
+        assertEquals("Beijing", cache.get("2001:db8:1:ffff::9").getCity());
+        assertEquals("Shenzhen", cache.get("2001:db8:2::abcd").getCity());
+        assertNull(cache.get("2001:db8:3::1"));
+    }
+
+    @Test
+    public void testSiblingsShareOneLookup() {
+        List<String> ipList = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            ipList.add("10.0." + (i % 4) + "." + i);
+        }
+        StubParser parser = new StubParser("stub", 5, false);
+        PrefixIpCache cache = new PrefixIpCache(Arrays.asList(IpinfoEnum.IP, IpinfoEnum.CITY));
+
+        List<IpInfo> ipInfos = ExecutorUtil.runParsersAsync(ipList, Collections.<IpParser>singletonList(parser), 1, cache);
+
+        assertEquals(100, ipInfos.size());
+        // one lookup per /24
+        assertEquals(4, parser.requests.get());
+    }
+
+}
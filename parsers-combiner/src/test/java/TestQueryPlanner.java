@@ -0,0 +1,114 @@
+import com.free.ip.parser.CompositeParser;
+import com.free.ip.parser.IpParser;
+import com.free.ip.parser.QueryPlanner;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.pojo.RateLimit;
+import com.free.ip.utils.ExecutorUtil;
+import com.free.ip.utils.RateLimiters;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestQueryPlanner {
+
+    private static StubParser partial(String name, long latencyMillis, boolean failing, IpinfoEnum... fields) {
+        Set<IpinfoEnum> supported = EnumSet.of(IpinfoEnum.IP, fields);
+        return new StubParser(name, latencyMillis, failing) {
+            @Override
+            public Set<IpinfoEnum> getSupportedFields() {
+                return supported;
+            }
+        };
+    }
+
+    @Test
+    public void testPlan() {
+        StubParser geo = partial("geo", 10, false, IpinfoEnum.COUNTRY, IpinfoEnum.LATITUDE);
+        StubParser isp = partial("isp", 10, false, IpinfoEnum.ISP);
+        StubParser full = new StubParser("full", 10, false);
+        StubParser country = partial("country", 10, false, IpinfoEnum.COUNTRY);
+        List<IpinfoEnum> fields = Arrays.asList(IpinfoEnum.COUNTRY, IpinfoEnum.ISP, IpinfoEnum.LATITUDE);
+
+        List<IpParser> planned = QueryPlanner.plan(fields, Arrays.<IpParser>asList(geo, country, isp, full));
+
+        // 'country' would need both others and they are taken by the cheaper pair
+        assertEquals(2, planned.size());
+        assertSame(full, planned.get(0));
+        CompositeParser composite = (CompositeParser) planned.get(1);
+        assertEquals(Arrays.asList(geo, isp), composite.getParts());
+        assertTrue(composite.getSupportedFields().containsAll(fields));
+    }
+
+    @Test
+    public void testPlanHonoursRateLimitOverrides() {
+        StubParser throttled = partial("planner-throttled", 10, false, IpinfoEnum.COUNTRY);
+        StubParser country = partial("planner-country", 10, false, IpinfoEnum.COUNTRY);
+        StubParser isp = partial("planner-isp", 10, false, IpinfoEnum.ISP);
+        // declared unlimited like the others, but limited from the command line
+        RateLimiters.override(throttled.getName(), RateLimit.perSecond(1, 1));
+
+        List<IpParser> planned = QueryPlanner.plan(Arrays.asList(IpinfoEnum.COUNTRY, IpinfoEnum.ISP),
+                Arrays.<IpParser>asList(throttled, country, isp));
+
+        assertEquals(Arrays.asList(country, isp), ((CompositeParser) planned.get(0)).getParts());
+    }
+
+    @Test
+    public void testMergedLookup() {
+        StubParser geo = partial("geo", 100, false, IpinfoEnum.COUNTRY, IpinfoEnum.LATITUDE);
+        AtomicInteger geoInFlight = new AtomicInteger(-1);
+        StubParser isp = new StubParser("isp", 100, false) {
+            @Override
+            public Set<IpinfoEnum> getSupportedFields() {
+                return EnumSet.of(IpinfoEnum.IP, IpinfoEnum.ISP);
+            }
+
+            @Override
+            protected long latencyFor(String ip) {
+                geoInFlight.set(geo.inFlight.get());
+                return super.latencyFor(ip);
+            }
+        };
+        CompositeParser composite = new CompositeParser(Arrays.<IpParser>asList(geo, isp),
+                Arrays.asList(IpinfoEnum.IP, IpinfoEnum.COUNTRY, IpinfoEnum.ISP, IpinfoEnum.LATITUDE));
+
+        IpInfo ipInfo = composite.getIpInfo("1.2.3.4");
+
+        // both parts are queried at once: the second is sent while the first is still in flight
+        assertEquals(1, geoInFlight.get());
+        assertEquals("1.2.3.4", ipInfo.getIp());
+        assertEquals("China", ipInfo.getCountry());
+        assertEquals("Chinanet", ipInfo.getIsp());
+        assertEquals(22.5431, ipInfo.getLatitude());
+        // fields nobody asked for are left out
+        assertNull(ipInfo.getCity());
+        assertEquals(composite.getName(), ipInfo.getParserName());
+    }
+
+    @Test
+    public void testPartFailureFailsLookup() {
+        StubParser geo = partial("geo", 10, false, IpinfoEnum.COUNTRY);
+        StubParser isp = partial("isp", 10, true, IpinfoEnum.ISP);
+        StubParser full = new StubParser("full", 10, false);
+        List<IpParser> planned = QueryPlanner.plan(Arrays.asList(IpinfoEnum.COUNTRY, IpinfoEnum.ISP),
+                Arrays.<IpParser>asList(geo, isp, full));
+        assertNull(planned.get(1).getIpInfo("1.2.3.4"));
+
+        List<String> ipList = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            ipList.add("10.6.0." + i);
+        }
+        // the composite's circuit opens and the full parser does all the work
+        List<IpInfo> ipInfos = ExecutorUtil.runParsersAsync(ipList, planned, 2);
+        assertEquals(20, ipInfos.size());
+    }
+
+}
@@ -0,0 +1,95 @@
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.RateLimit;
+import com.free.ip.utils.ExecutorUtil;
+import com.free.ip.utils.RateLimiters;
+import com.free.ip.utils.TokenBucket;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestRateLimit {
+
+    @Test
+    public void testParse() {
+        assertEquals(45.0 / 60, RateLimit.parse("45/m").getPermitsPerSecond(), 1e-9);
+        assertEquals(1, RateLimit.parse("45/m").getBurst());
+        assertEquals(10.0, RateLimit.parse("10/s:20").getPermitsPerSecond(), 1e-9);
+        assertEquals(20, RateLimit.parse("10/s:20").getBurst());
+        assertTrue(RateLimit.parse("unlimited").isUnlimited());
+        assertThrows(IllegalArgumentException.class, () -> RateLimit.parse("10"));
+        assertThrows(IllegalArgumentException.class, () -> RateLimit.parse("10/d"));
+        assertThrows(IllegalArgumentException.class, () -> RateLimit.parse("0/s"));
+        assertThrows(IllegalArgumentException.class, () -> RateLimit.parse("-5/m"));
+        assertThrows(IllegalArgumentException.class, () -> RateLimit.parse("NaN/s"));
+        assertThrows(IllegalArgumentException.class, () -> RateLimit.parse("Infinity/h"));
+        assertThrows(IllegalArgumentException.class, () -> RateLimit.parse("10/s:0"));
+    }
+
+    @Test
+    public void testBurstThenSteadyRate() {
+        TokenBucket bucket = new TokenBucket(RateLimit.perSecond(10, 3));
+        long now = System.nanoTime();
+        long interval = TimeUnit.MILLISECONDS.toNanos(100);
+
+        // the burst is granted immediately
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.tryAcquire(now));
+        }
+        // then exactly one request per interval
+        assertEquals(interval, bucket.tryAcquire(now));
+        assertEquals(interval, bucket.reserve(now));
+        assertEquals(2 * interval, bucket.reserve(now));
+        assertEquals(0, bucket.tryAcquire(now + 3 * interval));
+        assertTrue(bucket.tryAcquire(now + 3 * interval) > 0);
+
+        // an idle period refills the burst
+        long later = now + TimeUnit.SECONDS.toNanos(10);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, bucket.tryAcquire(later));
+        }
+    }
+
+    @Test
+    public void testRequestCost() {
+        TokenBucket bucket = new TokenBucket(RateLimit.perSecond(10, 1));
+        long now = System.nanoTime();
+        long interval = TimeUnit.MILLISECONDS.toNanos(100);
+
+        // a batch costing more than the burst is admitted once a permit is available
+        assertEquals(0, bucket.tryAcquire(now, 3));
+        // and pushes the next request back by its whole cost
+        assertEquals(3 * interval, bucket.tryAcquire(now, 1));
+        assertEquals(0, bucket.tryAcquire(now + 3 * interval, 1));
+    }
+
+    @Test
+    public void testAsyncExecutorHonoursParserLimit() {
+        StubParser limited = new StubParser("limited", 1, false) {
+            @Override
+            public RateLimit getRateLimit() {
+                return RateLimit.perSecond(20, 5);
+            }
+        };
+        List<String> ipList = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            ipList.add("10.1.0." + i);
+        }
+
+        long start = System.currentTimeMillis();
+        List<IpInfo> ipInfos = ExecutorUtil.runParsersAsync(ipList, Collections.<IpParser>singletonList(limited), 50);
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(25, ipInfos.size());
+        assertEquals(20.0, RateLimiters.getRateLimit(limited).getPermitsPerSecond(), 1e-9);
+        // 5 requests in the burst, the other 20 spaced 50ms apart
+        assertTrue(elapsed >= 950, "took " + elapsed + "ms");
+        assertTrue(elapsed < 2000, "took " + elapsed + "ms");
+    }
+
+}
@@ -0,0 +1,123 @@
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.utils.InoutUtil;
+import com.free.ip.writer.BinaryResultWriter;
+import com.free.ip.writer.ResultFormat;
+import com.free.ip.writer.ResultWriter;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestResultWriter {
+
+    @TempDir
+    Path tempDir;
+
+    private static List<IpInfo> results() {
+        List<IpInfo> results = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            IpInfo ipInfo = new IpInfo("10.0." + (i / 256) + "." + (i % 256), "China", "CN", "Guangdong", null,
+                    "Shen\"zhen, 深圳\t🌏\n", "Chinanet", 22.5 + i / 1000.0, Double.NaN);
+            ipInfo.setParserName("IpSbParser");
+            ipInfo.setParseTimeTs(1700000000000L + i);
+            results.add(ipInfo);
+        }
+        return results;
+    }
+
+    @Test
+    public void testJsonLines() throws IOException {
+        Path path = tempDir.resolve("result.json");
+        List<IpInfo> results = results();
+        assertTrue(InoutUtil.writeResultFile(path.toString(), results));
+
+        // every field by default, as the reflective output had it, leaving out the NaN it could not write
+        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        assertEquals(results.size(), lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            IpInfo ipInfo = results.get(i);
+            ipInfo.setLongitude(null);
+            assertTrue(new JSONObject(ipInfo).similar(new JSONObject(lines.get(i))), lines.get(i));
+        }
+
+        // projected to the requested fields
+        assertTrue(InoutUtil.writeResultFile(path.toString(), results, ResultFormat.JSON,
+                Arrays.asList(IpinfoEnum.COUNTRY_CODE, IpinfoEnum.CITY)));
+        JSONObject first = new JSONObject(Files.readAllLines(path, StandardCharsets.UTF_8).get(0));
+        assertEquals(new HashSet<>(Arrays.asList("ip", "countryCode", "city", "parserName", "parseTimeTs")), first.keySet());
+        assertEquals(results.get(0).getCity(), first.getString("city"));
+    }
+
+    @Test
+    public void testDelimited() throws IOException {
+        Path path = tempDir.resolve("result.csv");
+        IpInfo ipInfo = results().get(0);
+        List<IpinfoEnum> fields = Arrays.asList(IpinfoEnum.REGION_CODE, IpinfoEnum.CITY, IpinfoEnum.LATITUDE);
+        assertTrue(InoutUtil.writeResultFile(path.toString(), Collections.singletonList(ipInfo), ResultFormat.CSV, fields));
+        String csv = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        assertEquals("ip,regionCode,city,latitude,parserName,parseTimeTs\n"
+                + "10.0.0.0,,\"Shen\"\"zhen, 深圳\t🌏\n\",22.5,IpSbParser,1700000000000\n", csv);
+
+        // appending keeps the one header
+        try (ResultWriter writer = ResultFormat.CSV.open(path, fields, true)) {
+            writer.write(ipInfo);
+        }
+        assertEquals(1, csv.split("ip,regionCode").length - 1);
+        assertTrue(new String(Files.readAllBytes(path), StandardCharsets.UTF_8).endsWith("22.5,IpSbParser,1700000000000\n"));
+
+        // output of other fields is not appended to
+        long size = Files.size(path);
+        assertThrows(IOException.class, () -> ResultFormat.CSV.open(path, Collections.singletonList(IpinfoEnum.CITY), true));
+        assertThrows(IOException.class, () -> ResultFormat.TSV.open(path, fields, true));
+        assertEquals(size, Files.size(path));
+
+        Path tsvPath = tempDir.resolve("result.tsv");
+        assertTrue(InoutUtil.writeResultFile(tsvPath.toString(), Collections.singletonList(ipInfo), ResultFormat.TSV, fields));
+        List<String> lines = Files.readAllLines(tsvPath, StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList("ip\tregionCode\tcity\tlatitude\tparserName\tparseTimeTs",
+                "10.0.0.0\t\tShen\"zhen, 深圳 🌏 \t22.5\tIpSbParser\t1700000000000"), lines);
+    }
+
+    @Test
+    public void testBinary() throws IOException {
+        Path path = tempDir.resolve("result.bin");
+        List<IpInfo> results = results();
+        List<IpinfoEnum> fields = Arrays.asList(IpinfoEnum.values());
+        assertTrue(InoutUtil.writeResultFile(path.toString(), results, ResultFormat.BINARY, fields));
+        assertEquals(results, BinaryResultWriter.read(path));
+
+        // a crash in the middle of the last record, then resuming
+        long size = Files.size(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 5);
+        }
+        ResultFormat.BINARY.repair(path);
+        assertEquals(results.subList(0, results.size() - 1), BinaryResultWriter.read(path));
+        try (ResultWriter writer = ResultFormat.BINARY.open(path, fields, true)) {
+            writer.write(results.get(results.size() - 1));
+        }
+        assertEquals(results, BinaryResultWriter.read(path));
+
+        // fields that were not written read back as null
+        assertTrue(InoutUtil.writeResultFile(path.toString(), results, ResultFormat.BINARY, Collections.singletonList(IpinfoEnum.CITY)));
+        IpInfo projected = BinaryResultWriter.read(path).get(0);
+        assertEquals(results.get(0).getCity(), projected.getCity());
+        assertNull(projected.getCountry());
+        assertNull(projected.getLatitude());
+    }
+
+}
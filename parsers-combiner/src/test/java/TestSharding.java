@@ -0,0 +1,155 @@
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.pojo.IpinfoEnum;
+import com.free.ip.pojo.RateLimit;
+import com.free.ip.utils.ExecutorUtil;
+import com.free.ip.utils.InoutUtil;
+import com.free.ip.utils.QuotaLedger;
+import com.free.ip.utils.Shard;
+import com.free.ip.utils.TokenBucket;
+import com.free.ip.writer.ResultFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSharding {
+
+    private static final int GRANTS_PER_WORKER = 20;
+
+    private static final RateLimit LEDGER_RATE = RateLimit.perSecond(20, 1);
+
+    @TempDir
+    Path tempDir;
+
+    private static List<String> ips(int count) {
+        List<String> ipList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ipList.add("10.7." + (i / 256) + "." + (i % 256));
+        }
+        return ipList;
+    }
+
+    @Test
+    public void testShardsPartitionInput() {
+        List<String> ipList = ips(2000);
+        int[] sizes = new int[4];
+        for (String ip : ipList) {
+            int owners = 0;
+            for (int index = 0; index < 4; index++) {
+                if (new Shard(index, 4).contains(ip)) {
+                    owners++;
+                    sizes[index]++;
+                }
+            }
+            assertEquals(1, owners, ip);
+        }
+        for (int size : sizes) {
+            assertTrue(size > 400, Arrays.toString(sizes));
+        }
+        // the address decides, not its spelling
+        assertEquals(Shard.of("2001:db8::1", 7), Shard.of("2001:0db8:0:0:0:0:0:0001", 7));
+        assertEquals("2/3", Shard.parse("2/3").toString());
+        assertThrows(IllegalArgumentException.class, () -> Shard.parse("3/3"));
+    }
+
+    @Test
+    public void testMergeRestoresInputOrder() throws Exception {
+        List<String> ipList = new ArrayList<>(ips(50));
+        // repeated lines are answered by the shard of their first occurrence
+        ipList.add("10.7.0.3");
+        ipList.add("10.7.0.3");
+        Path input = tempDir.resolve("ips.txt");
+        Files.write(input, ipList);
+        List<IpinfoEnum> fields = Arrays.asList(IpinfoEnum.IP, IpinfoEnum.CITY, IpinfoEnum.LATITUDE);
+
+        for (ResultFormat format : new ResultFormat[]{ResultFormat.JSON, ResultFormat.CSV}) {
+            List<String> shardOutputs = new ArrayList<>();
+            for (int index = 0; index < 3; index++) {
+                List<String> shardIps = new Shard(index, 3).select(InoutUtil.readUniqueIpFile(input.toString()));
+                List<IpInfo> ipInfos = ExecutorUtil.runParsersAsync(shardIps,
+                        Collections.<IpParser>singletonList(new StubParser("shard-" + index, 1, false)), 4);
+                String shardOutput = tempDir.resolve("out-" + index + "." + format).toString();
+                assertTrue(InoutUtil.writeResultFile(shardOutput, ipInfos, format, fields));
+                shardOutputs.add(shardOutput);
+            }
+
+            String merged = tempDir.resolve("merged." + format).toString();
+            assertTrue(InoutUtil.mergeResultFiles(merged, input.toString(), shardOutputs, format, fields));
+
+            List<IpInfo> results = format.read(Paths.get(merged));
+            assertEquals(ipList.size(), results.size(), format.toString());
+            for (int i = 0; i < ipList.size(); i++) {
+                assertEquals(ipList.get(i), results.get(i).getIp(), format.toString());
+                assertEquals("Shenzhen", results.get(i).getCity());
+                assertEquals(22.5431, results.get(i).getLatitude());
+                assertNull(results.get(i).getCountry());
+            }
+        }
+    }
+
+    @Test
+    public void testLedgerSharesQuotaAcrossProcesses() throws Exception {
+        Path ledger = tempDir.resolve("quota.ledger");
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> workers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            workers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), TestSharding.class.getName(), ledger.toString())
+                    .redirectErrorStream(true)
+                    .start());
+        }
+
+        List<Long> grants = new ArrayList<>();
+        for (Process worker : workers) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(worker.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("GRANT ")) {
+                        grants.add(Long.parseLong(line.substring("GRANT ".length())));
+                    }
+                }
+            }
+            assertTrue(worker.waitFor(60, TimeUnit.SECONDS));
+            assertEquals(0, worker.exitValue());
+        }
+
+        // both workers drew from one budget: no two requests closer than the interval, whichever worker sent them
+        assertEquals(2 * GRANTS_PER_WORKER, grants.size());
+        Collections.sort(grants);
+        long minimumGap = LEDGER_RATE.getIntervalNanos() - TimeUnit.MILLISECONDS.toNanos(1);
+        for (int i = 1; i < grants.size(); i++) {
+            assertTrue(grants.get(i) - grants.get(i - 1) >= minimumGap, "gap " + i + ": " + (grants.get(i) - grants.get(i - 1)));
+        }
+    }
+
+    /**
+     * Worker of {@link #testLedgerSharesQuotaAcrossProcesses()}: takes requests from the ledger
+     * given as the argument and prints when each one was granted, in wall-clock nanoseconds.
+     */
+    public static void main(String[] args) throws Exception {
+        long wallOffsetNanos = QuotaLedger.wallClockOffsetNanos();
+        try (QuotaLedger ledger = new QuotaLedger(new File(args[0]).toPath())) {
+            TokenBucket bucket = ledger.bucket("ledger-test", LEDGER_RATE);
+            for (int i = 0; i < GRANTS_PER_WORKER; i++) {
+                long now = System.nanoTime();
+                long waitNanos = bucket.reserve(now, 1);
+                System.out.println("GRANT " + (now + waitNanos + wallOffsetNanos));
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+
+}
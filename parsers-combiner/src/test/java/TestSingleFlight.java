@@ -0,0 +1,113 @@
+import com.free.ip.metrics.Metrics;
+import com.free.ip.parser.IpParser;
+import com.free.ip.parser.LookupException;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.service.LookupService;
+import com.free.ip.utils.ExecutorUtil;
+import com.free.ip.utils.Journal;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestSingleFlight {
+
+    @TempDir
+    Path tempDir;
+
+    /**
+     * @return each of the distinct IPs repeated, the copies following one another
+     */
+    private static List<String> repeatedIps(int distinct, int copies) {
+        List<String> ipList = new ArrayList<>();
+        for (int i = 0; i < distinct; i++) {
+            for (int copy = 0; copy < copies; copy++) {
+                ipList.add("10.6.0." + i);
+            }
+        }
+        return ipList;
+    }
+
+    @BeforeEach
+    public void reset() {
+        Metrics.reset();
+    }
+
+    @Test
+    public void testBlockingLookupsShareRequests() {
+        StubParser parser = new StubParser("single-flight-blocking", 100, false);
+
+        // more threads than distinct IPs, so the copies are picked up while their leaders are in flight
+        List<IpInfo> ipInfos = ExecutorUtil.runParsersVirtual(repeatedIps(4, 5), Collections.<IpParser>singletonList(parser), 8);
+
+        assertEquals(20, ipInfos.size());
+        assertEquals(4, parser.requests.get());
+        assertEquals(16, Metrics.lookups().getCoalesced());
+        assertEquals(20, Metrics.lookups().getCompleted());
+    }
+
+    @Test
+    public void testBlockingFollowersRecordFailures() throws Exception {
+        // the provider takes its time to refuse every IP
+        StubParser parser = new StubParser("single-flight-refusing", 100, false) {
+            @Override
+            public IpInfo getIpInfo(String ip) {
+                requests.incrementAndGet();
+                try {
+                    TimeUnit.MILLISECONDS.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw LookupException.invalidInput("HTTP 404");
+            }
+        };
+        Path journalPath = tempDir.resolve("journal.tsv");
+
+        try (Journal journal = new Journal(journalPath, false, false, true)) {
+            List<IpInfo> ipInfos = ExecutorUtil.runParsersVirtual(repeatedIps(2, 3), Collections.<IpParser>singletonList(parser), 8, null, journal);
+            assertTrue(ipInfos.isEmpty());
+        }
+
+        assertEquals(2, parser.requests.get());
+        assertEquals(4, Metrics.lookups().getCoalesced());
+        // one failure record per input line, followers included
+        List<String> records = Files.readAllLines(journalPath);
+        assertEquals(6, records.size());
+        assertTrue(records.stream().allMatch(record -> record.startsWith("F\t") && record.endsWith("\tinvalid input")), records.toString());
+    }
+
+    @Test
+    public void testAsyncLookupsShareRequests() {
+        StubParser parser = new StubParser("single-flight-async", 100, false);
+
+        List<IpInfo> ipInfos = ExecutorUtil.runParsersAsync(repeatedIps(10, 3), Collections.<IpParser>singletonList(parser), 2);
+
+        assertEquals(30, ipInfos.size());
+        assertEquals(10, parser.requests.get());
+        assertEquals(20, Metrics.lookups().getCoalesced());
+        assertEquals(30, Metrics.lookups().getCompleted());
+    }
+
+    @Test
+    public void testServiceLookupsShareRequests() {
+        StubParser parser = new StubParser("single-flight-service", 100, false, 10);
+        try (LookupService service = new LookupService(Collections.<IpParser>singletonList(parser), 1, null, 5000)) {
+            List<String> ips = repeatedIps(5, 4);
+            List<CompletableFuture<IpInfo>> lookups = service.lookupAll(ips);
+            for (int i = 0; i < ips.size(); i++) {
+                assertEquals(ips.get(i), lookups.get(i).join().getIp());
+            }
+        }
+        assertEquals(5, parser.requests.get());
+    }
+
+}
@@ -0,0 +1,66 @@
+import com.free.ip.parser.IpParser;
+import com.free.ip.utils.ExecutorUtil;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TestStreaming {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testStreamInInputOrder() throws Exception {
+        Path input = tempDir.resolve("ips.txt");
+        Path output = tempDir.resolve("ipinfos.txt");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            lines.add("10.1." + (i / 256) + "." + (i % 256));
+            if (i % 1000 == 0) {
+                lines.add("");
+            }
+        }
+        Files.write(input, lines);
+
+        StubParser a = new StubParser("a", 5, false);
+        StubParser b = new StubParser("b", 5, false);
+        List<IpParser> parsers = Arrays.asList(a, b);
+        assertTrue(ExecutorUtil.runParsersStreaming(input.toString(), output.toString(), parsers, 32, 64, null));
+
+        List<String> results = Files.readAllLines(output);
+        lines.removeAll(Collections.singleton(""));
+        assertEquals(lines.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(lines.get(i), new JSONObject(results.get(i)).getString("ip"));
+        }
+        // the queue bounds how far lookups run ahead of the output
+        assertTrue(a.maxInFlight.get() + b.maxInFlight.get() <= 64);
+    }
+
+    @Test
+    public void testStreamTerminatesOnFailure() throws Exception {
+        Path input = tempDir.resolve("ips.txt");
+        Path output = tempDir.resolve("ipinfos.txt");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            lines.add("10.2." + (i / 256) + "." + (i % 256));
+        }
+        Files.write(input, lines);
+
+        StubParser failing = new StubParser("failing", 1, true);
+        assertFalse(ExecutorUtil.runParsersStreaming(input.toString(), output.toString(), Collections.singletonList(failing), 4, 16, null));
+        assertTrue(Files.exists(output));
+        // the reader stopped instead of submitting the whole file
+        assertTrue(failing.requests.get() < 1000);
+    }
+
+}
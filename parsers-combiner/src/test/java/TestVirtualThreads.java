@@ -0,0 +1,135 @@
+import com.free.ip.parser.IpParser;
+import com.free.ip.pojo.IpInfo;
+import com.free.ip.utils.ExecutorUtil;
+import com.free.ip.utils.VirtualThreads;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+@Log4j2
+public class TestVirtualThreads {
+
+    @TempDir
+    Path tempDir;
+
+    private static List<String> ips(int count) {
+        List<String> ipList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ipList.add("10.8." + (i / 256) + "." + (i % 256));
+        }
+        return ipList;
+    }
+
+    @Test
+    public void testRequestsInFlightPerParser() {
+        log.info("Virtual threads supported: " + VirtualThreads.isSupported());
+        StubParser a = new StubParser("virtual-a", 20, false);
+        StubParser b = new StubParser("virtual-b", 20, false);
+
+        List<IpInfo> ipInfos = ExecutorUtil.runParsersVirtual(ips(400), Arrays.<IpParser>asList(a, b), 10);
+
+        assertEquals(400, ipInfos.size());
+        assertEquals(400, ipInfos.stream().map(IpInfo::getIp).distinct().count());
+        // each parser serves several lookups at once, but never more than its slots
+        assertTrue(Math.max(a.maxInFlight.get(), b.maxInFlight.get()) > 1, a.maxInFlight + " / " + b.maxInFlight);
+        assertTrue(a.maxInFlight.get() <= 10, "a: " + a.maxInFlight);
+        assertTrue(b.maxInFlight.get() <= 10, "b: " + b.maxInFlight);
+        assertEquals(400, a.requests.get() + b.requests.get());
+    }
+
+    @Test
+    public void testFailingParserIsRetriedElsewhere() {
+        StubParser good = new StubParser("virtual-good", 2, false);
+        StubParser bad = new StubParser("virtual-bad", 2, true);
+
+        List<IpInfo> ipInfos = ExecutorUtil.runParsersVirtual(ips(100), Arrays.<IpParser>asList(good, bad), 4);
+
+        assertEquals(100, ipInfos.size());
+        assertEquals(Arrays.asList("virtual-good"),
+                ipInfos.stream().map(IpInfo::getParserName).distinct().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testMultiReleaseJarStartsVirtualThreads() throws Exception {
+        String version = System.getProperty("java.specification.version");
+        assumeTrue(!version.startsWith("1.") && Integer.parseInt(version) >= 21, "needs Java 21, running " + version);
+        // class directories are not multi-release, only a jar of them is
+        Path classes = Paths.get(VirtualThreads.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        assertTrue(Files.isDirectory(classes.resolve("META-INF/versions/21")), "built without the java21 profile");
+        Path jar = tempDir.resolve("parsers-combiner.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(new Attributes.Name("Multi-Release"), "true");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest);
+             Stream<Path> files = Files.walk(classes)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                String name = classes.relativize(file).toString().replace(File.separatorChar, '/');
+                if (!name.equals("META-INF/MANIFEST.MF")) {
+                    out.putNextEntry(new JarEntry(name));
+                    Files.copy(file, out);
+                    out.closeEntry();
+                }
+            }
+        }
+
+        List<String> classPath = new ArrayList<>();
+        classPath.add(jar.toString());
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            if (!Paths.get(entry).toAbsolutePath().equals(classes.toAbsolutePath())) {
+                classPath.add(entry);
+            }
+        }
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        Process child = new ProcessBuilder(java, "-cp", String.join(File.pathSeparator, classPath), TestVirtualThreads.class.getName())
+                .redirectErrorStream(true)
+                .start();
+        List<String> output = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.add(line);
+            }
+        }
+        assertTrue(child.waitFor(60, TimeUnit.SECONDS));
+        assertEquals(0, child.exitValue(), String.join("\n", output));
+        assertTrue(output.contains("SUPPORTED true"), String.join("\n", output));
+        assertTrue(output.contains("VIRTUAL true"), String.join("\n", output));
+    }
+
+    /**
+     * Child of {@link #testMultiReleaseJarStartsVirtualThreads()}: prints whether the executor it
+     * loaded from the jar starts virtual threads.
+     */
+    public static void main(String[] args) throws Exception {
+        System.out.println("SUPPORTED " + VirtualThreads.isSupported());
+        ExecutorService executor = VirtualThreads.newExecutor("child", 1);
+        // Thread.isVirtual() is not in the Java 8 API the tests are compiled against
+        Object virtual = executor.submit(() -> Thread.class.getMethod("isVirtual").invoke(Thread.currentThread())).get();
+        System.out.println("VIRTUAL " + virtual);
+        executor.shutdown();
+    }
+
+}